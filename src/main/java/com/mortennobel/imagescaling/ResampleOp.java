@@ -8,7 +8,10 @@ package com.mortennobel.imagescaling;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Based on work from Java Image Util ( http://schmidt.devlib.org/jiu/ )
@@ -23,6 +26,7 @@ public class ResampleOp extends AdvancedResizeOp
 	private final int MAX_CHANNEL_VALUE= 255;
 
 	private int nrChannels;
+	private int srcChannels;
 	private int srcWidth;
 	private int srcHeight;
 	private int dstWidth;
@@ -67,6 +71,10 @@ public class ResampleOp extends AdvancedResizeOp
 
 	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
 
+	private ForkJoinPool pool;
+
+	private boolean grayscale;
+
 	private AtomicInteger multipleInvocationLock = new AtomicInteger();
 
 	private ResampleFilter filter = ResampleFilters.getLanczos3Filter();
@@ -96,6 +104,46 @@ public class ResampleOp extends AdvancedResizeOp
 		this.numberOfThreads = numberOfThreads;
 	}
 
+	public boolean isGrayscale() {
+		return grayscale;
+	}
+
+	/**
+	 * Sets whether to convert RGB images to gray as their rows are read,
+	 * resulting in a {@link BufferedImage#TYPE_BYTE_GRAY} image, which is
+	 * cheaper than scaling all three channels and converting the result.
+	 * Images with alpha are not converted.
+	 *
+	 * @param grayscale Whether to convert RGB images to gray.
+	 */
+	public void setGrayscale(boolean grayscale) {
+		this.grayscale = grayscale;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets a shared pool in which to run the parts of each pass of the filter,
+	 * instead of starting {@link #getNumberOfThreads()}-1 new threads for each
+	 * pass. The calling thread works on the parts that the pool hasn't gotten
+	 * around to, so a saturated pool doesn't delay the filter.
+	 *
+	 * @param pool Pool to use, or null to start new threads.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Part of a pass of the filter, which processes every
+	 * <code>delta</code>th row or column starting with <code>start</code>.
+	 */
+	private interface Stripe {
+		void run(int start, int delta);
+	}
+
 	public BufferedImage doFilter(BufferedImage srcImg, BufferedImage dest, int dstWidth, int dstHeight) {
 		this.dstWidth = dstWidth;
 		this.dstHeight = dstHeight;
@@ -114,50 +162,46 @@ public class ResampleOp extends AdvancedResizeOp
 
 		this.nrChannels= ImageUtils.nrChannels(srcImg);
 		assert nrChannels > 0;
+		this.srcChannels = nrChannels;
+		if (grayscale && nrChannels == 3) {
+			this.nrChannels = 1;
+		}
 		this.srcWidth = srcImg.getWidth();
         this.srcHeight = srcImg.getHeight();
 
-        byte[][] workPixels = new byte[srcHeight][dstWidth*nrChannels];
+        // Work rows may be longer than needed, and their contents are
+        // undefined; every sample that is read is written first. (If the
+        // filter fails, the scratch buffers are simply not returned to the
+        // pool.)
+        final ResampleScratch scratch = ResampleScratch.acquire();
+        byte[][] workPixels = scratch.getWorkPixels(srcHeight, dstWidth*nrChannels);
 
         this.processedItems = 0;
 		this.totalItems = srcHeight + dstWidth;
 
 		// Pre-calculate  sub-sampling
-		horizontalSubsamplingData = createSubSampling(filter, srcWidth, dstWidth);
-		verticalSubsamplingData = createSubSampling(filter,srcHeight, dstHeight);
+		horizontalSubsamplingData = SubSamplingCache.get(filter, srcWidth, dstWidth);
+		verticalSubsamplingData = SubSamplingCache.get(filter, srcHeight, dstHeight);
 
 
         final BufferedImage scrImgCopy = srcImg;
         final byte[][] workPixelsCopy = workPixels;
-        Thread[] threads = new Thread[numberOfThreads-1];
-        for (int i=1;i<numberOfThreads;i++){
-            final int finalI = i;
-            threads[i-1] = new Thread(new Runnable(){
-                public void run(){
-                    horizontallyFromSrcToWork(scrImgCopy, workPixelsCopy,finalI,numberOfThreads);
-                }
-            });
-            threads[i-1].start();
-        }
-        horizontallyFromSrcToWork(scrImgCopy, workPixelsCopy,0,numberOfThreads);
-        waitForAllThreads(threads);
+        runStripes(new Stripe() {
+            public void run(int start, int delta) {
+                horizontallyFromSrcToWork(scrImgCopy, workPixelsCopy, start, delta);
+            }
+        });
 
-        byte[] outPixels = new byte[dstWidth*dstHeight*nrChannels];
+        byte[] outPixels = scratch.getOutPixels(dstWidth*dstHeight*nrChannels);
         // --------------------------------------------------
 		// Apply filter to sample vertically from Work to Dst
 		// --------------------------------------------------
         final byte[] outPixelsCopy = outPixels;
-        for (int i=1;i<numberOfThreads;i++){
-            final int finalI = i;
-            threads[i-1] = new Thread(new Runnable(){
-                public void run(){
-					verticalFromWorkToDst(workPixelsCopy, outPixelsCopy, finalI,numberOfThreads);
-                }
-            });
-            threads[i-1].start();
-        }
-        verticalFromWorkToDst(workPixelsCopy, outPixelsCopy, 0,numberOfThreads);
-        waitForAllThreads(threads);
+        runStripes(new Stripe() {
+            public void run(int start, int delta) {
+                verticalFromWorkToDst(workPixelsCopy, outPixelsCopy, start, delta);
+            }
+        });
 
         //noinspection UnusedAssignment
         workPixels = null; // free memory
@@ -175,11 +219,73 @@ public class ResampleOp extends AdvancedResizeOp
 
         ImageUtils.setBGRPixels(outPixels, out, 0, 0, dstWidth, dstHeight);
 
+        ResampleScratch.release(scratch);
+
 		assert multipleInvocationLock.decrementAndGet()==0:"Multiple concurrent invocations detected";
 
 		return out;
     }
 
+    /**
+     * Runs all {@link #getNumberOfThreads()} stripes of a pass, in the pool
+     * if there is one, or in new threads otherwise, and waits for them to
+     * complete.
+     */
+    private void runStripes(final Stripe stripe) {
+        final int numStripes = Math.max(1, numberOfThreads);
+        if (numStripes == 1) {
+            stripe.run(0, 1);
+            return;
+        }
+        if (pool == null) {
+            Thread[] threads = new Thread[numStripes-1];
+            for (int i=1;i<numStripes;i++){
+                final int finalI = i;
+                threads[i-1] = new Thread(new Runnable(){
+                    public void run(){
+                        stripe.run(finalI, numStripes);
+                    }
+                });
+                threads[i-1].start();
+            }
+            stripe.run(0, numStripes);
+            waitForAllThreads(threads);
+            return;
+        }
+        // Stripes are claimed by whichever thread gets to them first,
+        // including the calling thread.
+        final AtomicInteger nextStripe = new AtomicInteger();
+        final CountDownLatch doneLatch = new CountDownLatch(numStripes);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        final Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = nextStripe.getAndIncrement()) < numStripes) {
+                    try {
+                        stripe.run(i, numStripes);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }
+        };
+        for (int i=1;i<numStripes;i++){
+            pool.execute(worker);
+        }
+        worker.run();
+        try {
+            doneLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
     private void waitForAllThreads(Thread[] threads) {
         try {
             for (Thread t:threads){
@@ -300,7 +406,7 @@ public class ResampleOp extends AdvancedResizeOp
 
     private void verticalFromWorkToDst(byte[][] workPixels, byte[] outPixels, int start, int delta) {
 		if (nrChannels==1){
-			verticalFromWorkToDstGray(workPixels, outPixels, start,numberOfThreads);
+			verticalFromWorkToDstGray(workPixels, outPixels, start, delta);
 			return;
 		}
 		boolean useChannel3 = nrChannels>3;
@@ -387,8 +493,9 @@ public class ResampleOp extends AdvancedResizeOp
 			horizontallyFromSrcToWorkGray(srcImg, workPixels, start, delta);
 			return;
 		}
-		final int[] tempPixels = new int[srcWidth];   // Used if we work on int based bitmaps, later used to keep channel values
-		final byte[] srcPixels = new byte[srcWidth*nrChannels]; // create reusable row to minimize memory overhead
+		final ResampleScratch.Rows rows = ResampleScratch.getRows(srcWidth, nrChannels);
+		final int[] tempPixels = rows.tempPixels;   // Used if we work on int based bitmaps, later used to keep channel values
+		final byte[] srcPixels = rows.srcPixels; // reusable row to minimize memory overhead
 		final boolean useChannel3 = nrChannels>3;
 
 
@@ -439,12 +546,16 @@ public class ResampleOp extends AdvancedResizeOp
      * @param workPixels
      */
     private void horizontallyFromSrcToWorkGray(BufferedImage srcImg, byte[][] workPixels, int start, int delta) {
-		final int[] tempPixels = new int[srcWidth];   // Used if we work on int based bitmaps, later used to keep channel values
-		final byte[] srcPixels = new byte[srcWidth]; // create reusable row to minimize memory overhead
+		final ResampleScratch.Rows rows = ResampleScratch.getRows(srcWidth, srcChannels);
+		final int[] tempPixels = rows.tempPixels;   // Used if we work on int based bitmaps, later used to keep channel values
+		final byte[] srcPixels = (srcChannels == 1) ? rows.srcPixels : rows.getGrayPixels(); // reusable row to minimize memory overhead
 
 		for (int k = start; k < srcHeight; k=k+delta)
         {
-			ImageUtils.getPixelsBGR(srcImg, k, srcWidth, srcPixels, tempPixels);
+			ImageUtils.getPixelsBGR(srcImg, k, srcWidth, rows.srcPixels, tempPixels);
+			if (srcChannels == 3) {
+				rgbToGray(rows.srcPixels, srcPixels);
+			}
 
 			for (int i = dstWidth-1;i>=0 ; i--)
 			{
@@ -470,6 +581,18 @@ public class ResampleOp extends AdvancedResizeOp
 		}
     }
 
+	/**
+	 * Converts a row of RGB samples to gray samples, using the same weights
+	 * as Java 2D does when drawing onto a {@link BufferedImage#TYPE_BYTE_GRAY}
+	 * image.
+	 */
+	private static void rgbToGray(byte[] rgb, byte[] gray) {
+		for (int i = 0, j = 0; i < gray.length; i++, j += 3) {
+			gray[i] = (byte) ((77 * (rgb[j]&0xff) + 150 * (rgb[j+1]&0xff) +
+					29 * (rgb[j+2]&0xff) + 128) >> 8);
+		}
+	}
+
 	private byte toByte(float f){
 		if (f<0){
 			return 0;
@@ -485,6 +608,9 @@ public class ResampleOp extends AdvancedResizeOp
     }
 
 	protected int getResultBufferedImageType(BufferedImage srcImg) {
+		if (nrChannels != srcChannels) {
+			return BufferedImage.TYPE_BYTE_GRAY;
+		}
 		return nrChannels == 3 ? BufferedImage.TYPE_3BYTE_BGR :
 							(nrChannels == 4 ? BufferedImage.TYPE_4BYTE_ABGR :
 								(srcImg.getSampleModel().getDataType() == DataBuffer.TYPE_USHORT ?
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013, Morten Nobel-Joergensen
+ *
+ * License: The BSD 3-Clause License
+ * http://opensource.org/licenses/BSD-3-Clause
+ */
+package com.mortennobel.imagescaling;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Reusable intermediate buffers of a {@link ResampleOp}, so that repeatedly
+ * scaling images of similar sizes doesn't allocate megabytes of garbage each
+ * time.
+ *
+ * The work and output buffers of a filter are {@link #acquire() acquired}
+ * from a small shared pool and {@link #release released} back to it when the
+ * filter is done. Buffers larger than {@link #MAX_POOLED_BYTES} are not kept,
+ * so that an occasional very large image doesn't pin its buffers in memory.
+ * The row buffers of each thread working on a pass of a filter are kept
+ * separately for each thread.
+ */
+final class ResampleScratch {
+
+	/**
+	 * Row buffers used by the current thread in
+	 * {@link ResampleOp#horizontallyFromSrcToWork}.
+	 */
+	static final class Rows {
+		final byte[] srcPixels;
+		final int[] tempPixels;
+		private byte[] grayPixels;
+
+		private Rows(int width, int nrChannels) {
+			srcPixels = new byte[width * nrChannels];
+			tempPixels = new int[width];
+		}
+
+		/**
+		 * @return Row of gray samples converted from {@link #srcPixels}.
+		 */
+		byte[] getGrayPixels() {
+			if (grayPixels == null) {
+				grayPixels = new byte[tempPixels.length];
+			}
+			return grayPixels;
+		}
+	}
+
+	static final long MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+	private static final int MAX_POOL_SIZE =
+			Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Row buffers wider than this are not kept.
+	 */
+	private static final int MAX_KEPT_ROW_WIDTH = 8192;
+
+	private static final Deque<ResampleScratch> pool = new ArrayDeque<ResampleScratch>();
+
+	private static final ThreadLocal<Rows> threadRows = new ThreadLocal<Rows>();
+
+	private byte[][] workPixels = new byte[0][];
+	private byte[] outPixels = new byte[0];
+
+	/**
+	 * @return Buffers from the pool, or new ones if the pool is empty.
+	 */
+	static ResampleScratch acquire() {
+		synchronized (pool) {
+			ResampleScratch scratch = pool.pollFirst();
+			if (scratch != null) {
+				return scratch;
+			}
+		}
+		return new ResampleScratch();
+	}
+
+	/**
+	 * Returns the given buffers to the pool, unless they are too large or the
+	 * pool is full.
+	 */
+	static void release(ResampleScratch scratch) {
+		if (scratch.getByteSize() > MAX_POOLED_BYTES) {
+			return;
+		}
+		synchronized (pool) {
+			if (pool.size() < MAX_POOL_SIZE) {
+				pool.addFirst(scratch);
+			}
+		}
+	}
+
+	/**
+	 * @return Row buffers of exactly the given width for the current thread.
+	 */
+	static Rows getRows(int width, int nrChannels) {
+		Rows rows = threadRows.get();
+		if (rows == null || rows.tempPixels.length != width ||
+				rows.srcPixels.length != width * nrChannels) {
+			rows = new Rows(width, nrChannels);
+			if (width <= MAX_KEPT_ROW_WIDTH) {
+				threadRows.set(rows);
+			} else {
+				threadRows.remove();
+			}
+		}
+		return rows;
+	}
+
+	static int getPoolSize() {
+		synchronized (pool) {
+			return pool.size();
+		}
+	}
+
+	long getByteSize() {
+		long size = outPixels.length;
+		for (byte[] row : workPixels) {
+			if (row != null) {
+				size += row.length;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return Output buffer of exactly the given length. Its contents are
+	 *         undefined.
+	 */
+	byte[] getOutPixels(int length) {
+		if (outPixels.length != length) {
+			outPixels = new byte[length];
+		}
+		return outPixels;
+	}
+
+	/**
+	 * @return Work buffer with at least the given number of rows, each at
+	 *         least the given length. Its contents are undefined.
+	 */
+	byte[][] getWorkPixels(int numRows, int rowLength) {
+		if (workPixels.length < numRows) {
+			workPixels = Arrays.copyOf(workPixels, numRows);
+		}
+		for (int i = 0; i < numRows; i++) {
+			if (workPixels[i] == null || workPixels[i].length < rowLength) {
+				workPixels[i] = new byte[rowLength];
+			}
+		}
+		return workPixels;
+	}
+
+}
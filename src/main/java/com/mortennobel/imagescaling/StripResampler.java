@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013, Morten Nobel-Joergensen
+ *
+ * License: The BSD 3-Clause License
+ * http://opensource.org/licenses/BSD-3-Clause
+ */
+package com.mortennobel.imagescaling;
+
+/**
+ * Resamples an image that is supplied, and consumed, one row at a time, so
+ * that neither the source nor the destination image ever has to be held in
+ * memory in its entirety. The result is the same as that of a
+ * {@link ResampleOp} with the same filter and no unsharp mask.
+ *
+ * Source rows are {@link #pushRow pushed} in order from top to bottom, and
+ * each one is resampled horizontally right away. Only the horizontally
+ * resampled rows that are still needed by destination rows that have not
+ * been {@link #nextRow taken} yet are kept, which is a few rows more than
+ * the height of the filter.
+ *
+ * Rows are byte-packed as by {@link ImageUtils#getPixelsBGR}.
+ */
+public class StripResampler {
+
+	private static final int MAX_CHANNEL_VALUE = 255;
+
+	private final int srcHeight;
+	private final int dstWidth;
+	private final int dstHeight;
+	private final int nrChannels;
+	private final ResampleOp.SubSamplingData horizontalSubsamplingData;
+	private final ResampleOp.SubSamplingData verticalSubsamplingData;
+
+	/**
+	 * Highest source row needed by each destination row.
+	 */
+	private final int[] lastSrcRows;
+
+	/**
+	 * Lowest source row needed by each destination row or any row below it.
+	 */
+	private final int[] firstSrcRows;
+
+	/**
+	 * Horizontally resampled source rows, indexed by source row modulo the
+	 * length.
+	 */
+	private final byte[][] workRows;
+
+	private int numPushedRows;
+	private int numTakenRows;
+
+	/**
+	 * @param nrChannels 1, 3 or 4.
+	 */
+	public StripResampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+			int nrChannels, ResampleFilter filter) {
+		if (dstWidth < 3 || dstHeight < 3) {
+			throw new IllegalArgumentException("Target size was " + dstWidth + "x" +
+					dstHeight + " but must be at least 3x3.");
+		}
+		this.srcHeight = srcHeight;
+		this.dstWidth = dstWidth;
+		this.dstHeight = dstHeight;
+		this.nrChannels = nrChannels;
+		this.horizontalSubsamplingData = SubSamplingCache.get(filter, srcWidth, dstWidth);
+		this.verticalSubsamplingData = SubSamplingCache.get(filter, srcHeight, dstHeight);
+
+		lastSrcRows = new int[dstHeight];
+		firstSrcRows = new int[dstHeight];
+		int first = srcHeight - 1;
+		int numWorkRows = 1;
+		for (int y = dstHeight - 1; y >= 0; y--) {
+			int last = 0;
+			int index = y * verticalSubsamplingData.getNumContributors();
+			for (int j = verticalSubsamplingData.getArrN()[y] - 1; j >= 0; j--) {
+				final int n = verticalSubsamplingData.getArrPixel()[index++];
+				if (n >= 0 && n < srcHeight) {
+					first = Math.min(first, n);
+					last = Math.max(last, n);
+				}
+			}
+			lastSrcRows[y] = last;
+			firstSrcRows[y] = first;
+			numWorkRows = Math.max(numWorkRows, last - first + 1);
+		}
+		workRows = new byte[numWorkRows][dstWidth * nrChannels];
+	}
+
+	public int getNumChannels() {
+		return nrChannels;
+	}
+
+	/**
+	 * @return Number of horizontally resampled rows that are kept.
+	 */
+	public int getNumWorkRows() {
+		return workRows.length;
+	}
+
+	/**
+	 * @return Whether enough source rows have been pushed to take the next
+	 *         destination row.
+	 */
+	public boolean hasNextRow() {
+		return numTakenRows < dstHeight &&
+				lastSrcRows[numTakenRows] < numPushedRows;
+	}
+
+	/**
+	 * @return Whether all destination rows have been taken.
+	 */
+	public boolean isDone() {
+		return numTakenRows == dstHeight;
+	}
+
+	/**
+	 * Resamples the next destination row.
+	 *
+	 * @param dstRow Array of at least destination width &times; channels
+	 *               length to write the row to.
+	 * @throws IllegalStateException If {@link #hasNextRow()} is false.
+	 */
+	public void nextRow(byte[] dstRow) {
+		if (!hasNextRow()) {
+			throw new IllegalStateException("Source row " +
+					lastSrcRows[Math.min(numTakenRows, dstHeight - 1)] +
+					" has not been pushed");
+		}
+		final int y = numTakenRows;
+		final int index0 = y * verticalSubsamplingData.getNumContributors();
+		final int max = verticalSubsamplingData.getArrN()[y];
+		final int[] arrPixel = verticalSubsamplingData.getArrPixel();
+		final float[] arrWeight = verticalSubsamplingData.getArrWeight();
+
+		for (int x = 0; x < dstWidth * nrChannels; x++) {
+			float sample = 0.0f;
+			int index = index0;
+			for (int j = max - 1; j >= 0; j--) {
+				final int n = arrPixel[index];
+				if (n >= 0 && n < srcHeight) {
+					sample += (workRows[n % workRows.length][x] & 0xff) * arrWeight[index];
+				}
+				index++;
+			}
+			dstRow[x] = toByte(sample);
+		}
+		numTakenRows++;
+	}
+
+	/**
+	 * Resamples the next source row horizontally.
+	 *
+	 * @param srcRow Array of at least source width &times; channels length.
+	 * @throws IllegalStateException If all source rows have already been
+	 *         pushed, or if destination rows that need the oldest kept row
+	 *         have not been taken yet.
+	 */
+	public void pushRow(byte[] srcRow) {
+		if (numPushedRows == srcHeight) {
+			throw new IllegalStateException("All " + srcHeight +
+					" source rows have already been pushed");
+		}
+		if (numTakenRows < dstHeight &&
+				numPushedRows - firstSrcRows[numTakenRows] >= workRows.length) {
+			throw new IllegalStateException("Destination row " + numTakenRows +
+					" must be taken before pushing source row " + numPushedRows);
+		}
+		final byte[] workRow = workRows[numPushedRows % workRows.length];
+		final int[] arrN = horizontalSubsamplingData.getArrN();
+		final int[] arrPixel = horizontalSubsamplingData.getArrPixel();
+		final float[] arrWeight = horizontalSubsamplingData.getArrWeight();
+
+		for (int i = dstWidth - 1; i >= 0; i--) {
+			final int max = arrN[i];
+			for (int c = 0; c < nrChannels; c++) {
+				float sample = 0.0f;
+				int index = i * horizontalSubsamplingData.getNumContributors();
+				for (int j = max - 1; j >= 0; j--) {
+					sample += (srcRow[arrPixel[index] * nrChannels + c] & 0xff) * arrWeight[index];
+					index++;
+				}
+				workRow[i * nrChannels + c] = toByte(sample);
+			}
+		}
+		numPushedRows++;
+	}
+
+	private static byte toByte(float f) {
+		if (f < 0) {
+			return 0;
+		}
+		if (f > MAX_CHANNEL_VALUE) {
+			return (byte) MAX_CHANNEL_VALUE;
+		}
+		return (byte) (f + 0.5f); // add 0.5 same as Math.round
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013, Morten Nobel-Joergensen
+ *
+ * License: The BSD 3-Clause License
+ * http://opensource.org/licenses/BSD-3-Clause
+ */
+package com.mortennobel.imagescaling;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of the contributor tables computed by
+ * {@link ResampleOp#createSubSampling}, which depend only on the filter and
+ * the source and destination sizes. Tiled clients request the same few sizes
+ * over and over, so most tables can be reused rather than recomputed.
+ *
+ * The total size of the cached tables is limited to
+ * {@link #MAX_CACHED_CONTRIBUTIONS} contributions.
+ */
+final class SubSamplingCache {
+
+	/**
+	 * Each contribution consists of an int and a float, so this amounts to
+	 * 16 MB.
+	 */
+	static final int MAX_CACHED_CONTRIBUTIONS = 2 * 1024 * 1024;
+
+	private static final class Key {
+		private final ResampleFilter filter;
+		private final int srcSize;
+		private final int dstSize;
+
+		Key(ResampleFilter filter, int srcSize, int dstSize) {
+			this.filter = filter;
+			this.srcSize = srcSize;
+			this.dstSize = dstSize;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return filter == other.filter && srcSize == other.srcSize &&
+					dstSize == other.dstSize;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(filter) + srcSize) + dstSize;
+		}
+	}
+
+	private static final Map<Key, ResampleOp.SubSamplingData> tables =
+			new LinkedHashMap<Key, ResampleOp.SubSamplingData>(16, 0.75f, true);
+
+	private static long numCachedContributions;
+	private static long numHits;
+	private static long numMisses;
+
+	/**
+	 * @return Contributor table for the given arguments, either from the
+	 *         cache or newly computed.
+	 */
+	static ResampleOp.SubSamplingData get(ResampleFilter filter, int srcSize, int dstSize) {
+		final Key key = new Key(filter, srcSize, dstSize);
+		synchronized (tables) {
+			ResampleOp.SubSamplingData data = tables.get(key);
+			if (data != null) {
+				numHits++;
+				return data;
+			}
+			numMisses++;
+		}
+		// Computed outside of the lock, so a table may occasionally be
+		// computed twice; that is harmless.
+		final ResampleOp.SubSamplingData data =
+				ResampleOp.createSubSampling(filter, srcSize, dstSize);
+		final int size = size(data);
+		if (size <= MAX_CACHED_CONTRIBUTIONS) {
+			synchronized (tables) {
+				ResampleOp.SubSamplingData previous = tables.put(key, data);
+				if (previous != null) {
+					numCachedContributions -= size(previous);
+				}
+				numCachedContributions += size;
+				Iterator<ResampleOp.SubSamplingData> it = tables.values().iterator();
+				while (numCachedContributions > MAX_CACHED_CONTRIBUTIONS && it.hasNext()) {
+					numCachedContributions -= size(it.next());
+					it.remove();
+				}
+			}
+		}
+		return data;
+	}
+
+	static void clear() {
+		synchronized (tables) {
+			tables.clear();
+			numCachedContributions = 0;
+			numHits = 0;
+			numMisses = 0;
+		}
+	}
+
+	static long getNumCachedContributions() {
+		synchronized (tables) {
+			return numCachedContributions;
+		}
+	}
+
+	static long getNumHits() {
+		synchronized (tables) {
+			return numHits;
+		}
+	}
+
+	static long getNumMisses() {
+		synchronized (tables) {
+			return numMisses;
+		}
+	}
+
+	private static int size(ResampleOp.SubSamplingData data) {
+		return data.getArrPixel().length;
+	}
+
+	private SubSamplingCache() {
+	}
+
+}
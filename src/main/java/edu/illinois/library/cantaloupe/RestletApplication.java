@@ -9,8 +9,13 @@ import edu.illinois.library.cantaloupe.resource.AbstractResource;
 import edu.illinois.library.cantaloupe.resource.LandingResource;
 import edu.illinois.library.cantaloupe.resource.admin.AdminResource;
 import edu.illinois.library.cantaloupe.resource.admin.ConfigurationResource;
+import edu.illinois.library.cantaloupe.resource.api.CacheMetricsResource;
 import edu.illinois.library.cantaloupe.resource.api.CacheResource;
+import edu.illinois.library.cantaloupe.resource.api.CacheWarmingResource;
+import edu.illinois.library.cantaloupe.resource.api.CacheWarmingTaskResource;
 import edu.illinois.library.cantaloupe.resource.api.DMICResource;
+import edu.illinois.library.cantaloupe.resource.api.MemoryBudgetResource;
+import edu.illinois.library.cantaloupe.resource.api.SourceCacheResource;
 import org.restlet.Application;
 import org.restlet.Request;
 import org.restlet.Response;
@@ -113,11 +118,15 @@ public class RestletApplication extends Application {
     public static final String ADMIN_PATH = "/admin";
     public static final String ADMIN_CONFIG_PATH = "/admin/configuration";
     public static final String CACHE_PATH = "/cache";
+    public static final String CACHE_METRICS_PATH = "/cache-metrics";
+    public static final String CACHE_WARMING_PATH = "/cache-warming";
     public static final String CONFIGURATION_PATH = "/configuration";
     public static final String DELEGATE_METHOD_INVOCATION_CACHE_PATH = "/dmic";
     public static final String IIIF_PATH = "/iiif";
     public static final String IIIF_1_PATH = "/iiif/1";
     public static final String IIIF_2_PATH = "/iiif/2";
+    public static final String MEMORY_BUDGET_PATH = "/memory-budget";
+    public static final String SOURCE_CACHE_PATH = "/source-cache";
     public static final String STATIC_ROOT_PATH = "/static";
 
     public RestletApplication() {
@@ -128,6 +137,11 @@ public class RestletApplication extends Application {
         corsService.setAllowedOrigins(new HashSet<>(Collections.singletonList("*")));
         corsService.setAllowedCredentials(true);
         this.getServices().add(corsService);
+        // Byte ranges of images are served by the image resources, which can
+        // seek within files. Restlet's range service would otherwise produce
+        // the full entity and discard everything outside the range, and would
+        // ignore If-Range.
+        this.getRangeService().setEnabled(false);
     }
 
     private ChallengeAuthenticator createAdminAuthenticator()
@@ -293,9 +307,29 @@ public class RestletApplication extends Application {
             apiAuth.setNext(CacheResource.class);
             router.attach(CACHE_PATH + "/{identifier}", apiAuth);
 
+            apiAuth = createApiAuthenticator();
+            apiAuth.setNext(CacheMetricsResource.class);
+            router.attach(CACHE_METRICS_PATH, apiAuth);
+
+            apiAuth = createApiAuthenticator();
+            apiAuth.setNext(CacheWarmingResource.class);
+            router.attach(CACHE_WARMING_PATH, apiAuth);
+
+            apiAuth = createApiAuthenticator();
+            apiAuth.setNext(CacheWarmingTaskResource.class);
+            router.attach(CACHE_WARMING_PATH + "/{id}", apiAuth);
+
             apiAuth = createApiAuthenticator();
             apiAuth.setNext(DMICResource.class);
             router.attach(DELEGATE_METHOD_INVOCATION_CACHE_PATH, apiAuth);
+
+            apiAuth = createApiAuthenticator();
+            apiAuth.setNext(MemoryBudgetResource.class);
+            router.attach(MEMORY_BUDGET_PATH, apiAuth);
+
+            apiAuth = createApiAuthenticator();
+            apiAuth.setNext(SourceCacheResource.class);
+            router.attach(SOURCE_CACHE_PATH, apiAuth);
         } catch (ConfigurationException e) {
             getLogger().log(Level.INFO, e.getMessage());
         }
@@ -0,0 +1,41 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Output stream to a cache that commits what has been written to it when
+ * it is closed, and that can alternatively be aborted, in which case nothing
+ * is committed and any resources it holds are released.</p>
+ *
+ * <p>Once an instance has been closed or aborted, further calls to either
+ * method have no effect.</p>
+ *
+ * @since 3.4
+ */
+public abstract class AbortableOutputStream extends OutputStream {
+
+    /**
+     * Aborts the given stream if it is an instance of this class, and closes
+     * it otherwise. For use when writing to a cache has failed; since a
+     * stream that can't be aborted will commit an incomplete image when it
+     * is closed, callers should still purge the image afterwards.
+     *
+     * @param outputStream Stream to abort or close.
+     */
+    public static void abortOrClose(OutputStream outputStream)
+            throws IOException {
+        if (outputStream instanceof AbortableOutputStream) {
+            ((AbortableOutputStream) outputStream).abort();
+        } else {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Discards everything that has been written, without committing any of
+     * it to the cache.
+     */
+    public abstract void abort() throws IOException;
+
+}
@@ -27,11 +27,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>Cache using an Amazon S3 bucket.</p>
  *
- * <p>To improve client-responsiveness, uploads are asynchronous.</p>
+ * <p>To improve client-responsiveness, uploads are asynchronous. Images are
+ * streamed to S3 in parts as they are being written; see
+ * {@link AmazonS3OutputStream}.</p>
  *
  * <p>Keys are named according to the following template:</p>
  *
@@ -48,140 +56,6 @@ import java.util.Date;
  */
 class AmazonS3Cache implements DerivativeCache {
 
-    /**
-     * <p>Wraps a {@link ByteArrayOutputStream} for upload to Amazon S3.</p>
-     *
-     * <p>N.B. S3 does not allow uploads without a Content-Length header, which
-     * is impossible to provide when streaming an unknown amount of data. From
-     * the documentation of {@link PutObjectRequest}:</p>
-     *
-     * <blockquote>"When uploading directly from an input stream, content
-     * length must be specified before data can be uploaded to Amazon S3. If
-     * not provided, the library will have to buffer the contents of the input
-     * stream in order to calculate it. Amazon S3 explicitly requires that the
-     * content length be sent in the request headers before any of the data is
-     * sent."</blockquote>
-     *
-     * <p>Since it is therefore not possible to write an OutputStream of
-     * unknown length to the S3 client as the {@link Cache} interface requires,
-     * this class buffers written data in a byte array before uploading it to
-     * S3 upon closure. (The upload is submitted to a
-     * {@link QueuedRunnableRunner} in order to allow {@link #close()} to
-     * return immediately.)</p>
-     */
-    private class AmazonS3OutputStream extends OutputStream {
-
-        private final Logger logger = LoggerFactory.
-                getLogger(AmazonS3OutputStream.class);
-
-        private final ByteArrayOutputStream bufferStream =
-                new ByteArrayOutputStream();
-        private final String bucketName;
-        private final ObjectMetadata metadata;
-        private final String objectKey;
-        private final AmazonS3 s3;
-
-        /**
-         * @param s3         S3 client.
-         * @param bucketName S3 bucket name.
-         * @param objectKey  S3 object key.
-         * @param metadata   S3 object metadata.
-         */
-        AmazonS3OutputStream(final AmazonS3 s3,
-                             final String bucketName,
-                             final String objectKey,
-                             final ObjectMetadata metadata) {
-            this.bucketName = bucketName;
-            this.s3 = s3;
-            this.objectKey = objectKey;
-            this.metadata = metadata;
-        }
-
-        @Override
-        public void close() {
-            // At this point, the client has received all image data, but its
-            // progress indicator is still spinning while it waits for the
-            // connection to close. Uploading in a separate thread using
-            // AmazonS3Uploader will allow this to happen immediately.
-            try {
-                uploader.submit(new AmazonS3Upload(
-                        s3, bufferStream, bucketName, objectKey, metadata));
-            } catch (IllegalStateException e) {
-                logger.warn("The upload queue is full.");
-            }
-        }
-
-        @Override
-        public void flush() throws IOException {
-            bufferStream.flush();
-        }
-
-        @Override
-        public void write(int b) {
-            bufferStream.write(b);
-        }
-
-        @Override
-        public void write(byte[] b) throws IOException {
-            bufferStream.write(b);
-        }
-
-        @Override
-        public void write(byte[] b, int off, int len) {
-            bufferStream.write(b, off, len);
-        }
-
-    }
-
-    private class AmazonS3Upload implements Runnable {
-
-        private Logger logger = LoggerFactory.getLogger(AmazonS3Upload.class);
-
-        private String bucketName;
-        private ByteArrayOutputStream byteStream;
-        private ObjectMetadata metadata;
-        private String objectKey;
-        private AmazonS3 s3;
-
-        /**
-         * @param s3         S3 client.
-         * @param byteStream Data to upload.
-         * @param bucketName S3 bucket name.
-         * @param objectKey  S3 object key.
-         * @param metadata   S3 object metadata.
-         */
-        AmazonS3Upload(AmazonS3 s3,
-                       ByteArrayOutputStream byteStream,
-                       String bucketName,
-                       String objectKey,
-                       ObjectMetadata metadata) {
-            this.bucketName = bucketName;
-            this.byteStream = byteStream;
-            this.s3 = s3;
-            this.metadata = metadata;
-            this.objectKey = objectKey;
-        }
-
-        @Override
-        public void run() {
-            byte[] bytes = byteStream.toByteArray();
-            metadata.setContentLength(bytes.length);
-
-            ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-            PutObjectRequest request = new PutObjectRequest(
-                    bucketName, objectKey, is, metadata);
-            final Stopwatch watch = new Stopwatch();
-
-            logger.info("Uploading {} bytes to {} in bucket {}",
-                    bytes.length, request.getKey(), request.getBucketName());
-            s3.putObject(request);
-            logger.info("Wrote {} bytes to {} in bucket {} in {} msec",
-                    bytes.length, request.getKey(), request.getBucketName(),
-                    watch.timeElapsed());
-        }
-
-    }
-
     private static final Logger logger = LoggerFactory.
             getLogger(AmazonS3Cache.class);
 
@@ -190,11 +64,18 @@ class AmazonS3Cache implements DerivativeCache {
      * but low enough to bump up against when choking. */
     private static final int UPLOAD_QUEUE_LIMIT = 100;
 
+    /** Number of parts per upload thread that may be awaiting upload at any
+     * one time. */
+    private static final int MAX_PENDING_PARTS_PER_THREAD = 2;
+
     /** Lazy-initialized by {@link #getClientInstance} */
     private static AmazonS3 client;
 
-    private final QueuedRunnableRunner uploader =
-            new QueuedRunnableRunner(UPLOAD_QUEUE_LIMIT);
+    private final ThreadPoolExecutor uploadExecutor;
+
+    /** Bounds the number of buffered multipart upload parts awaiting
+     * upload. */
+    private final Semaphore uploadPermits;
 
     static synchronized AmazonS3 getClientInstance() {
         if (client == null) {
@@ -208,6 +89,28 @@ class AmazonS3Cache implements DerivativeCache {
         return client;
     }
 
+    /**
+     * Creates the upload executor, whose thread count is set by
+     * {@link Key#AMAZONS3CACHE_MAX_CONCURRENT_UPLOADS}. Its threads are
+     * started on demand.
+     */
+    AmazonS3Cache() {
+        final int numThreads = Math.max(1, Configuration.getInstance().
+                getInt(Key.AMAZONS3CACHE_MAX_CONCURRENT_UPLOADS, 4));
+        final AtomicInteger threadCount = new AtomicInteger();
+        uploadExecutor = new ThreadPoolExecutor(numThreads, numThreads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(UPLOAD_QUEUE_LIMIT),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "s3-upload-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        uploadPermits = new Semaphore(
+                numThreads * MAX_PENDING_PARTS_PER_THREAD);
+    }
+
     String getBucketName() {
         return Configuration.getInstance().
                 getString(Key.AMAZONS3CACHE_BUCKET_NAME);
@@ -236,11 +139,6 @@ class AmazonS3Cache implements DerivativeCache {
         }
     }
 
-    @Override
-    public void initialize() {
-        uploader.start();
-    }
-
     @Override
     public InputStream newDerivativeImageInputStream(OperationList opList)
             throws CacheException {
@@ -270,7 +168,8 @@ class AmazonS3Cache implements DerivativeCache {
         final ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentType(
                 opList.getOutputFormat().getPreferredMediaType().toString());
-        return new AmazonS3OutputStream(s3, bucketName, objectKey, metadata);
+        return new AmazonS3OutputStream(s3, bucketName, objectKey, metadata,
+                uploadExecutor, uploadPermits);
     }
 
     /**
@@ -389,18 +288,31 @@ class AmazonS3Cache implements DerivativeCache {
             metadata.setContentEncoding("UTF-8");
             metadata.setContentLength(os.size());
 
-            uploader.submit(new AmazonS3Upload(
-                    s3, os, bucketName, objectKey, metadata));
-        } catch (IllegalStateException e) {
+            final PutObjectRequest request = new PutObjectRequest(bucketName,
+                    objectKey, new ByteArrayInputStream(os.toByteArray()),
+                    metadata);
+            uploadExecutor.submit(() -> {
+                try {
+                    s3.putObject(request);
+                } catch (RuntimeException e) {
+                    logger.warn("put(): failed to upload {}: {}",
+                            objectKey, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
             logger.warn("put(): the upload queue is full.");
         } catch (IOException e) {
             throw new CacheException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Shuts down the upload executor, allowing already-submitted uploads to
+     * finish.
+     */
     @Override
     public void shutdown() {
-        uploader.interrupt();
+        uploadExecutor.shutdown();
     }
 
 }
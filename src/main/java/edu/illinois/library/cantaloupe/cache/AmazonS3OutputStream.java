@@ -0,0 +1,339 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import edu.illinois.library.cantaloupe.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Uploads written data to Amazon S3 while it is being written.</p>
+ *
+ * <p>S3 requires the length of an object to be known before it is uploaded,
+ * which it isn't when streaming. So, written data is buffered in parts of up
+ * to {@link #PART_SIZE}. An object that fits in a single part&mdash;which
+ * most derivative images do&mdash;is uploaded with a single PUT upon
+ * closure. Otherwise, a multipart upload is initiated when the first part
+ * fills up, and each part is uploaded while the next one is being written.
+ * Either way, the uploads run in a shared executor, and {@link #close()}
+ * returns without waiting for them.</p>
+ *
+ * <p>Every part of a multipart upload that has been handed off to the
+ * executor holds one of a fixed number of permits, shared by all instances,
+ * until it has been uploaded. This bounds the amount of memory tied up in
+ * pending parts. When no permit is available, writing blocks, for up to
+ * {@link #PERMIT_TIMEOUT_SECONDS}, after which the upload is abandoned and
+ * the rest of the data is discarded. Single PUTs don't need a permit, so
+ * that small images are never held up behind large ones; they are bounded
+ * by the capacity of the executor's queue instead.</p>
+ *
+ * <p>{@link #abort() Aborting} an instance skips the single PUT, or aborts
+ * the multipart upload, so that nothing that has been written ends up in
+ * the bucket.</p>
+ *
+ * @since 3.4
+ */
+class AmazonS3OutputStream extends AbortableOutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(AmazonS3OutputStream.class);
+
+    /**
+     * Size of all parts of a multipart upload except the last. S3 requires at
+     * least 5 MB.
+     */
+    static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    static final long PERMIT_TIMEOUT_SECONDS = 30;
+
+    private final String bucketName;
+    private final ExecutorService executor;
+    private final ObjectMetadata metadata;
+    private final String objectKey;
+    private final Semaphore permits;
+    private final AmazonS3 s3;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int bufferPos = 0;
+    private boolean isAbandoned = false;
+    private boolean isClosed = false;
+    private final List<Future<PartETag>> partFutures = new ArrayList<>();
+    private String uploadId;
+
+    /**
+     * @param s3         S3 client.
+     * @param bucketName S3 bucket name.
+     * @param objectKey  S3 object key.
+     * @param metadata   S3 object metadata.
+     * @param executor   Executor in which to upload.
+     * @param permits    Permits for multipart upload parts awaiting
+     *                   upload.
+     */
+    AmazonS3OutputStream(AmazonS3 s3,
+                         String bucketName,
+                         String objectKey,
+                         ObjectMetadata metadata,
+                         ExecutorService executor,
+                         Semaphore permits) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.metadata = metadata;
+        this.executor = executor;
+        this.permits = permits;
+    }
+
+    /**
+     * Discards the buffer and any further data, and aborts the multipart
+     * upload, if one has been initiated, once its already-submitted parts
+     * have finished uploading.
+     */
+    private void abandon() {
+        isAbandoned = true;
+        buffer = null;
+        bufferPos = 0;
+        if (uploadId != null) {
+            submitMultipartCompletion(true);
+        }
+    }
+
+    /**
+     * @return Whether a permit was acquired. If not, the upload will have
+     *         been {@link #abandon() abandoned}.
+     */
+    private boolean acquirePermit() throws IOException {
+        try {
+            if (permits.tryAcquire(PERMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        LOGGER.warn("Timed out waiting for pending uploads; abandoning the " +
+                "upload of {}", objectKey);
+        abandon();
+        return false;
+    }
+
+    private void ensureCapacity(int numBytes) {
+        final int required = bufferPos + numBytes;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer,
+                    Math.min(PART_SIZE, Math.max(required, buffer.length * 2)));
+        }
+    }
+
+    /**
+     * Hands off the buffer as the next part of a multipart upload,
+     * initiating the upload first if necessary.
+     */
+    private void sendPart() throws IOException {
+        if (!acquirePermit()) {
+            return;
+        }
+        try {
+            if (uploadId == null) {
+                uploadId = s3.initiateMultipartUpload(
+                        new InitiateMultipartUploadRequest(
+                                bucketName, objectKey, metadata)).getUploadId();
+                LOGGER.debug("Initiated multipart upload of {} to bucket {}",
+                        objectKey, bucketName);
+            }
+            final UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(objectKey)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partFutures.size() + 1)
+                    .withInputStream(new ByteArrayInputStream(buffer, 0, bufferPos))
+                    .withPartSize(bufferPos);
+            partFutures.add(executor.submit(() -> {
+                try {
+                    return s3.uploadPart(request).getPartETag();
+                } finally {
+                    permits.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            // The part was never submitted, so its permit is still ours.
+            permits.release();
+            LOGGER.warn("Failed to upload part {} of {}: {}",
+                    partFutures.size() + 1, objectKey, e.getMessage());
+            abandon();
+            return;
+        }
+        buffer = new byte[PART_SIZE];
+        bufferPos = 0;
+    }
+
+    /**
+     * Uploads the buffer as a whole object.
+     */
+    private void sendWhole() {
+        metadata.setContentLength(bufferPos);
+        final PutObjectRequest request = new PutObjectRequest(bucketName,
+                objectKey, new ByteArrayInputStream(buffer, 0, bufferPos),
+                metadata);
+        final int length = bufferPos;
+        try {
+            executor.submit(() -> {
+                try {
+                    final Stopwatch watch = new Stopwatch();
+                    s3.putObject(request);
+                    LOGGER.info("Wrote {} bytes to {} in bucket {} in {} msec",
+                            length, objectKey, bucketName,
+                            watch.timeElapsed());
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to upload {}: {}",
+                            objectKey, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("The upload queue is full; not uploading {}",
+                    objectKey);
+        }
+    }
+
+    /**
+     * Submits a task that waits for all of the submitted parts to be
+     * uploaded and then either completes the multipart upload, or aborts it
+     * if any of them failed or if <code>abort</code> is <code>true</code>.
+     */
+    private void submitMultipartCompletion(boolean abort) {
+        final String uploadId = this.uploadId;
+        final List<Future<PartETag>> futures = new ArrayList<>(partFutures);
+        final Runnable completion = () -> {
+            final Stopwatch watch = new Stopwatch();
+            boolean isSuccessful = !abort;
+            final List<PartETag> etags = new ArrayList<>(futures.size());
+            for (Future<PartETag> future : futures) {
+                try {
+                    etags.add(future.get());
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to upload a part of {}: {}",
+                            objectKey, e.getMessage());
+                    isSuccessful = false;
+                }
+            }
+            try {
+                if (isSuccessful) {
+                    s3.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                            bucketName, objectKey, uploadId, etags));
+                    LOGGER.info("Wrote {} parts to {} in bucket {} in {} msec",
+                            etags.size(), objectKey, bucketName,
+                            watch.timeElapsed());
+                } else {
+                    s3.abortMultipartUpload(new AbortMultipartUploadRequest(
+                            bucketName, objectKey, uploadId));
+                    LOGGER.debug("Aborted multipart upload of {}", objectKey);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to finish multipart upload of {}: {}",
+                        objectKey, e.getMessage());
+            }
+        };
+        // Parts are queued ahead of this, so they will all have been taken
+        // out of the queue by the time it runs, and it won't wait on
+        // anything that needs its thread.
+        try {
+            executor.submit(completion);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("The upload queue is full; aborting the upload of {}",
+                    objectKey);
+            try {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(
+                        bucketName, objectKey, uploadId));
+            } catch (RuntimeException e2) {
+                LOGGER.warn("Failed to abort multipart upload of {}: {}",
+                        objectKey, e2.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (!isAbandoned) {
+            LOGGER.debug("Aborting the upload of {}", objectKey);
+            abandon();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            if (isAbandoned) {
+                return;
+            }
+            if (uploadId == null) {
+                sendWhole();
+            } else {
+                if (bufferPos > 0) {
+                    sendPart();
+                }
+                if (!isAbandoned) {
+                    submitMultipartCompletion(false);
+                }
+            }
+        } finally {
+            buffer = null;
+            super.close();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (isAbandoned) {
+            return;
+        }
+        ensureCapacity(1);
+        buffer[bufferPos++] = (byte) b;
+        if (bufferPos == PART_SIZE) {
+            sendPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0 && !isAbandoned) {
+            final int n = Math.min(len, PART_SIZE - bufferPos);
+            ensureCapacity(n);
+            System.arraycopy(b, off, buffer, bufferPos, n);
+            bufferPos += n;
+            off += n;
+            len -= n;
+            if (bufferPos == PART_SIZE) {
+                sendPart();
+            }
+        }
+    }
+
+}
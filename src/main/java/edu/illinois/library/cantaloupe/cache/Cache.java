@@ -4,6 +4,8 @@ import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.operation.OperationList;
 
+import java.util.function.LongConsumer;
+
 /**
  * <p>Interface to be implemented by all caches. A cache stores and retrieves
  * unique images corresponding to {@link OperationList} objects, as well as
@@ -69,6 +71,19 @@ public interface Cache {
      */
     void purgeExpired() throws CacheException;
 
+    /**
+     * <p>Sets a listener to be notified of the number of items evicted,
+     * whenever the instance evicts items in order to stay within its size
+     * limit.</p>
+     *
+     * <p>The default implementation does nothing, which is appropriate for
+     * implementations that don't evict anything themselves.</p>
+     *
+     * @param listener Listener to notify.
+     * @since 3.4
+     */
+    default void setEvictionListener(LongConsumer listener) {}
+
     /**
      * <p>Shuts down the instance, freeing any resource handles, stopping any
      * worker threads, etc.</p>
@@ -38,7 +38,8 @@ public final class CacheFactory {
                 new FilesystemCache(),
                 new HeapCache(),
                 new JdbcCache(),
-                new RedisCache()));
+                new RedisCache(),
+                new TieredCache()));
     }
 
     /**
@@ -49,11 +50,29 @@ public final class CacheFactory {
                 Collections.singletonList(new FilesystemCache()));
     }
 
+    /**
+     * @param cache Cache, which may be a metered decorator.
+     * @return Fully qualified class name of the given cache, or of the cache
+     *         it decorates.
+     */
+    private static String getImplementationName(Cache cache) {
+        if (cache instanceof MeteredDerivativeCache) {
+            cache = ((MeteredDerivativeCache) cache).getWrappedCache();
+        } else if (cache instanceof MeteredSourceCache) {
+            cache = ((MeteredSourceCache) cache).getWrappedCache();
+        }
+        return cache.getClass().getName();
+    }
+
     /**
      * <p>Provides access to the shared {@link DerivativeCache} instance.</p>
      *
      * <p>This method respects live changes in application configuration.</p>
      *
+     * <p>If {@link Key#CACHE_METRICS_ENABLED} is enabled when the instance
+     * is created, it will be a decorator that records {@link
+     * CacheMetrics}.</p>
+     *
      * @return The shared DerivativeCache instance, or <code>null</code> if a
      *         derivative cache is not available.
      */
@@ -72,16 +91,22 @@ public final class CacheFactory {
                                 unqualifiedName;
                 cache = derivativeCache;
                 if (cache == null ||
-                        !cache.getClass().getName().equals(qualifiedName)) {
+                        !getImplementationName(cache).equals(qualifiedName)) {
                     synchronized (CacheFactory.class) {
                         if (cache == null ||
-                                !cache.getClass().getName().equals(qualifiedName)) {
+                                !getImplementationName(cache).equals(qualifiedName)) {
                             LOGGER.debug("getDerivativeCache(): " +
                                     "implementation changed; creating a new " +
                                     "instance");
                             try {
                                 Class<?> implClass = Class.forName(qualifiedName);
                                 cache = (DerivativeCache) implClass.newInstance();
+                                if (isMeteringEnabled()) {
+                                    CacheMetrics.getDerivativeCacheMetrics().
+                                            reset(implClass.getSimpleName());
+                                    cache = new MeteredDerivativeCache(cache,
+                                            CacheMetrics.getDerivativeCacheMetrics());
+                                }
                                 setDerivativeCache(cache);
                             } catch (ClassNotFoundException e) {
                                 cache = null;
@@ -103,6 +128,10 @@ public final class CacheFactory {
      *
      * <p>This method respects live changes in application configuration.</p>
      *
+     * <p>If {@link Key#CACHE_METRICS_ENABLED} is enabled when the instance
+     * is created, it will be a decorator that records {@link
+     * CacheMetrics}.</p>
+     *
      * @return The shared SourceCache instance, or <code>null</code> if a
      *         source cache is not available.
      */
@@ -120,15 +149,21 @@ public final class CacheFactory {
                                 unqualifiedName;
                 cache = sourceCache;
                 if (cache == null ||
-                        !cache.getClass().getName().equals(qualifiedName)) {
+                        !getImplementationName(cache).equals(qualifiedName)) {
                     synchronized (CacheFactory.class) {
                         if (cache == null ||
-                                !cache.getClass().getName().equals(qualifiedName)) {
+                                !getImplementationName(cache).equals(qualifiedName)) {
                             LOGGER.debug("getSourceCache(): implementation " +
                                     "changed; creating a new instance");
                             try {
                                 Class<?> implClass = Class.forName(qualifiedName);
                                 cache = (SourceCache) implClass.newInstance();
+                                if (isMeteringEnabled()) {
+                                    CacheMetrics.getSourceCacheMetrics().
+                                            reset(implClass.getSimpleName());
+                                    cache = new MeteredSourceCache(cache,
+                                            CacheMetrics.getSourceCacheMetrics());
+                                }
                                 setSourceCache(cache);
                             } catch (ClassNotFoundException e) {
                                 cache = null;
@@ -145,6 +180,15 @@ public final class CacheFactory {
         return cache;
     }
 
+    /**
+     * @return Whether newly created cache instances should be decorated to
+     *         record {@link CacheMetrics}.
+     */
+    private static boolean isMeteringEnabled() {
+        return Configuration.getInstance().
+                getBoolean(Key.CACHE_METRICS_ENABLED, false);
+    }
+
     /**
      * Shuts down any existing derivative cache and removes its shutdown hook,
      * then sets the current derivative cache to the given instance and adds
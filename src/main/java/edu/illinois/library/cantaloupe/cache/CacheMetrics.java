@@ -0,0 +1,461 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Hit, miss, throughput, and latency statistics of the derivative cache or
+ * the source cache, recorded by {@link MeteredDerivativeCache} and
+ * {@link MeteredSourceCache} when {@link
+ * edu.illinois.library.cantaloupe.config.Key#CACHE_METRICS_ENABLED} is
+ * enabled.</p>
+ *
+ * <p>Read latency is the time taken to look up an item, including opening a
+ * stream to read it from. Write latency is the time spent inside the cache
+ * while writing an item, i.e. opening, writing to, and closing its stream,
+ * but not time spent waiting for the data being written to be produced.</p>
+ *
+ * <p>The two instances are registered with the platform MBean server under
+ * <code>edu.illinois.library.cantaloupe:type=CacheMetrics</code>.</p>
+ *
+ * @since 3.4
+ */
+public final class CacheMetrics implements CacheMetricsMBean {
+
+    /**
+     * Counts the bytes read from a cached item.
+     */
+    private class MeteredInputStream extends FilterInputStream {
+
+        MeteredInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                bytesRead.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            bytesRead.add(skipped);
+            return skipped;
+        }
+
+    }
+
+    /**
+     * Counts the bytes written to a cached item and times the calls into the
+     * wrapped stream. Aborting it aborts the wrapped stream, if that is
+     * abortable, and counts as a write failure.
+     */
+    private class MeteredOutputStream extends AbortableOutputStream {
+
+        private final AtomicBoolean isClosed = new AtomicBoolean(false);
+        private final OutputStream out;
+        private long elapsedNanos;
+
+        /**
+         * @param outputStream Stream to wrap.
+         * @param openNanos    Time it took to open the stream.
+         */
+        MeteredOutputStream(OutputStream outputStream, long openNanos) {
+            this.out = outputStream;
+            this.elapsedNanos = openNanos;
+            inFlightWrites.incrementAndGet();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            if (!isClosed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                abortOrClose(out);
+            } finally {
+                recordWriteFailure();
+                inFlightWrites.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!isClosed.compareAndSet(false, true)) {
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                out.close();
+                elapsedNanos += System.nanoTime() - start;
+                recordWrite(elapsedNanos);
+            } catch (IOException | RuntimeException e) {
+                recordWriteFailure();
+                throw e;
+            } finally {
+                inFlightWrites.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final long start = System.nanoTime();
+            out.flush();
+            elapsedNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b);
+            elapsedNanos += System.nanoTime() - start;
+            bytesWritten.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b, off, len);
+            elapsedNanos += System.nanoTime() - start;
+            bytesWritten.add(len);
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(CacheMetrics.class);
+
+    private static final CacheMetrics derivativeCacheMetrics =
+            new CacheMetrics("DerivativeCache");
+    private static final CacheMetrics sourceCacheMetrics =
+            new CacheMetrics("SourceCache");
+
+    static {
+        register(derivativeCacheMetrics);
+        register(sourceCacheMetrics);
+    }
+
+    private final String name;
+    private volatile String implementation;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final AtomicInteger inFlightWrites = new AtomicInteger();
+    private final LongAdder infoHits = new LongAdder();
+    private final LongAdder infoMisses = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder purges = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * @return Metrics of the derivative cache.
+     */
+    public static CacheMetrics getDerivativeCacheMetrics() {
+        return derivativeCacheMetrics;
+    }
+
+    /**
+     * @return Metrics of the source cache.
+     */
+    public static CacheMetrics getSourceCacheMetrics() {
+        return sourceCacheMetrics;
+    }
+
+    private static void register(CacheMetrics metrics) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(
+                    "edu.illinois.library.cantaloupe:type=CacheMetrics,name=" +
+                            metrics.name);
+            // The application may have been redeployed in the same JVM.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException | RuntimeException e) {
+            LOGGER.warn("register(): failed to register {} with JMX: {}",
+                    metrics.name, e.getMessage());
+        }
+    }
+
+    /**
+     * @param name Name of the cache role, used in the JMX object name.
+     */
+    CacheMetrics(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Ratio of image hits to image lookups, or 0 if there have been
+     *         no lookups.
+     */
+    @Override
+    public double getHitRatio() {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return (lookups > 0) ? hits / (double) lookups : 0;
+    }
+
+    /**
+     * @return Simple class name of the metered cache, or <code>null</code>
+     *         if nothing has been metered yet.
+     */
+    @Override
+    public String getImplementation() {
+        return implementation;
+    }
+
+    @Override
+    public long getInfoHits() {
+        return infoHits.sum();
+    }
+
+    @Override
+    public long getInfoMisses() {
+        return infoMisses.sum();
+    }
+
+    @Override
+    public int getInFlightWrites() {
+        return inFlightWrites.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getPurges() {
+        return purges.sum();
+    }
+
+    @Override
+    public double getReadLatencyMax() {
+        return readLatency.getMax();
+    }
+
+    @Override
+    public double getReadLatencyMean() {
+        return readLatency.getMean();
+    }
+
+    @Override
+    public double getReadLatency95thPercentile() {
+        return readLatency.getPercentile(95);
+    }
+
+    @Override
+    public double getReadLatency99thPercentile() {
+        return readLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+
+    @Override
+    public double getWriteLatencyMax() {
+        return writeLatency.getMax();
+    }
+
+    @Override
+    public double getWriteLatencyMean() {
+        return writeLatency.getMean();
+    }
+
+    @Override
+    public double getWriteLatency95thPercentile() {
+        return writeLatency.getPercentile(95);
+    }
+
+    @Override
+    public double getWriteLatency99thPercentile() {
+        return writeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * @param inputStream Stream from which a cached item is being read.
+     * @return Stream that counts the bytes read from the given stream. A
+     *         {@link FileInputStream} is returned as-is, with the length of
+     *         its file counted as read up front, so that readers can still
+     *         get at its channel.
+     */
+    InputStream newInputStream(InputStream inputStream) {
+        if (inputStream instanceof FileInputStream) {
+            try {
+                bytesRead.add(
+                        ((FileInputStream) inputStream).getChannel().size());
+            } catch (IOException e) {
+                LOGGER.debug("newInputStream(): {}", e.getMessage());
+            }
+            return inputStream;
+        }
+        return new MeteredInputStream(inputStream);
+    }
+
+    /**
+     * @param outputStream Stream to which an item is being written.
+     * @param openNanos    Time it took to open the given stream.
+     * @return Stream that meters the given stream, and records a write when
+     *         it is closed.
+     */
+    OutputStream newOutputStream(OutputStream outputStream, long openNanos) {
+        return new MeteredOutputStream(outputStream, openNanos);
+    }
+
+    void recordBytesRead(long numBytes) {
+        bytesRead.add(numBytes);
+    }
+
+    void recordEvictions(long numItems) {
+        evictions.add(numItems);
+    }
+
+    void recordHit(long nanos) {
+        hits.increment();
+        readLatency.record(nanos);
+    }
+
+    void recordInfoHit(long nanos) {
+        infoHits.increment();
+        readLatency.record(nanos);
+    }
+
+    void recordInfoMiss(long nanos) {
+        infoMisses.increment();
+        readLatency.record(nanos);
+    }
+
+    void recordMiss(long nanos) {
+        misses.increment();
+        readLatency.record(nanos);
+    }
+
+    void recordPurge() {
+        purges.increment();
+    }
+
+    void recordWrite(long nanos) {
+        writes.increment();
+        writeLatency.record(nanos);
+    }
+
+    void recordWriteFailure() {
+        writeFailures.increment();
+    }
+
+    /**
+     * Resets all statistics except in-flight writes.
+     */
+    @Override
+    public void reset() {
+        bytesRead.reset();
+        bytesWritten.reset();
+        evictions.reset();
+        hits.reset();
+        infoHits.reset();
+        infoMisses.reset();
+        misses.reset();
+        purges.reset();
+        readLatency.reset();
+        writeFailures.reset();
+        writeLatency.reset();
+        writes.reset();
+    }
+
+    /**
+     * Resets all statistics, and sets the name of the metered implementation,
+     * when the application switches to a different one.
+     *
+     * @param implementation Simple class name of the metered cache.
+     */
+    void reset(String implementation) {
+        reset();
+        this.implementation = implementation;
+    }
+
+    /**
+     * @return Map representation of the instance, suitable for serializing
+     *         to JSON.
+     */
+    public Map<String,Object> toMap() {
+        final Map<String,Object> map = new LinkedHashMap<>();
+        map.put("implementation", getImplementation());
+        map.put("hits", getHits());
+        map.put("misses", getMisses());
+        map.put("hit_ratio", getHitRatio());
+        map.put("info_hits", getInfoHits());
+        map.put("info_misses", getInfoMisses());
+        map.put("bytes_read", getBytesRead());
+        map.put("bytes_written", getBytesWritten());
+        map.put("writes", getWrites());
+        map.put("write_failures", getWriteFailures());
+        map.put("in_flight_writes", getInFlightWrites());
+        map.put("purges", getPurges());
+        map.put("evictions", getEvictions());
+        map.put("read_latency", readLatency.toMap());
+        map.put("write_latency", writeLatency.toMap());
+        return map;
+    }
+
+}
@@ -0,0 +1,55 @@
+package edu.illinois.library.cantaloupe.cache;
+
+/**
+ * JMX management interface of {@link CacheMetrics}. Latencies are in
+ * milliseconds.
+ *
+ * @since 3.4
+ */
+public interface CacheMetricsMBean {
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getEvictions();
+
+    long getHits();
+
+    double getHitRatio();
+
+    String getImplementation();
+
+    long getInfoHits();
+
+    long getInfoMisses();
+
+    int getInFlightWrites();
+
+    long getMisses();
+
+    long getPurges();
+
+    double getReadLatencyMax();
+
+    double getReadLatencyMean();
+
+    double getReadLatency95thPercentile();
+
+    double getReadLatency99thPercentile();
+
+    double getWriteLatencyMax();
+
+    double getWriteLatencyMean();
+
+    double getWriteLatency95thPercentile();
+
+    double getWriteLatency99thPercentile();
+
+    long getWriteFailures();
+
+    long getWrites();
+
+    void reset();
+
+}
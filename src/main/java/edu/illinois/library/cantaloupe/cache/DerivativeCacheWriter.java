@@ -0,0 +1,346 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Writes derivative images to a {@link DerivativeCache} in the background,
+ * so that a slow cache doesn't slow down the response that is producing the
+ * image.</p>
+ *
+ * <p>Images are captured into a {@link Capture} as they are being rendered.
+ * Captures are buffered in memory up to {@link #SPOOL_THRESHOLD} bytes, and
+ * spooled to a temporary file beyond that. When a capture is
+ * {@link Capture#commit() committed}, it is queued for writing to the cache
+ * by a pool of {@link Key#DERIVATIVE_CACHE_ASYNC_WRITES_THREADS} threads.</p>
+ *
+ * <p>The total size of all captures that are being buffered or are waiting to
+ * be written is limited by
+ * {@link Key#DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE}. Captures that
+ * would exceed it are dropped, which means that the images they contain won't
+ * be cached, rather than holding up the responses that are producing them.
+ * Captures that are still pending when the application stops are lost.</p>
+ *
+ * @since 3.4
+ */
+public final class DerivativeCacheWriter {
+
+    /**
+     * Derivative image being captured for writing to the cache. All of its
+     * methods are intended to be invoked by the same thread.
+     */
+    public static final class Capture extends OutputStream {
+
+        private final DerivativeCacheWriter writer;
+        private final DerivativeCache cache;
+        private final OperationList opList;
+        private final long maxPendingSize;
+        private DeferredFileOutputStream buffer;
+        private long numReservedBytes = 0;
+        private boolean isClosed = false;
+        private boolean isCommitted = false;
+
+        private Capture(DerivativeCacheWriter writer,
+                        DerivativeCache cache,
+                        OperationList opList,
+                        long maxPendingSize) {
+            this.writer = writer;
+            this.cache = cache;
+            this.opList = opList;
+            this.maxPendingSize = maxPendingSize;
+            this.buffer = new DeferredFileOutputStream(SPOOL_THRESHOLD,
+                    SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX, null);
+        }
+
+        /**
+         * Closes the capture without committing it, unless it has already
+         * been {@link #commit() committed}, discarding its contents.
+         */
+        @Override
+        public void close() {
+            if (!isClosed) {
+                isClosed = true;
+                if (!isCommitted) {
+                    discard();
+                }
+            }
+        }
+
+        /**
+         * Closes the capture and queues its contents for writing to the
+         * cache, unless it has been dropped.
+         */
+        public void commit() {
+            if (isClosed) {
+                return;
+            }
+            isCommitted = true;
+            isClosed = true;
+            if (isDropped()) {
+                return;
+            }
+            try {
+                buffer.close();
+                writer.submit(this);
+            } catch (IOException | RejectedExecutionException e) {
+                LOGGER.warn("commit(): failed to queue {}: {}",
+                        opList, e.getMessage());
+                discard();
+            }
+        }
+
+        /**
+         * Releases the capture's buffer and reserved bytes.
+         */
+        private void discard() {
+            if (buffer != null) {
+                try {
+                    buffer.close();
+                } catch (IOException e) {
+                    LOGGER.warn("discard(): {}", e.getMessage());
+                }
+                final File file = buffer.getFile();
+                if (file != null && file.exists() && !file.delete()) {
+                    LOGGER.warn("discard(): failed to delete {}", file);
+                }
+                buffer = null;
+            }
+            writer.release(numReservedBytes);
+            numReservedBytes = 0;
+        }
+
+        /**
+         * Stops capturing, because the writer is overloaded or the buffer
+         * could not be written.
+         */
+        private void drop(String reason) {
+            LOGGER.debug("drop(): not caching {}: {}", opList, reason);
+            writer.numDropped.incrementAndGet();
+            discard();
+        }
+
+        /**
+         * @return Whether the capture was dropped, in which case its
+         *         contents won't be cached.
+         */
+        public boolean isDropped() {
+            return buffer == null;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (isClosed || isDropped()) {
+                return;
+            }
+            if (!writer.reserve(len, maxPendingSize)) {
+                drop("too many pending writes");
+                return;
+            }
+            numReservedBytes += len;
+            try {
+                buffer.write(b, off, len);
+            } catch (IOException e) {
+                drop(e.getMessage());
+            }
+        }
+
+        /**
+         * Copies the capture to the cache and releases it. Invoked in a
+         * writer thread.
+         */
+        private void writeToCache() {
+            OutputStream os = null;
+            try {
+                os = cache.newDerivativeImageOutputStream(opList);
+                buffer.writeTo(os);
+                os.close();
+                writer.numWritten.incrementAndGet();
+            } catch (Exception e) {
+                LOGGER.warn("writeToCache(): failed to write {}: {}",
+                        opList, e.getMessage());
+                try {
+                    if (os != null) {
+                        AbortableOutputStream.abortOrClose(os);
+                    }
+                    cache.purge(opList);
+                } catch (CacheException | IOException e2) {
+                    LOGGER.error("writeToCache(): failed to purge {}: {}",
+                            opList, e2.getMessage());
+                }
+            } finally {
+                discard();
+            }
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(DerivativeCacheWriter.class);
+
+    private static final long DEFAULT_MAX_PENDING_SIZE = 1024 * 1024 * 64;
+
+    private static final int DEFAULT_NUM_THREADS = 2;
+
+    private static final String SPOOL_FILE_PREFIX = "cantaloupe-";
+
+    private static final String SPOOL_FILE_SUFFIX = ".capture";
+
+    /**
+     * Captures larger than this are spooled to a temporary file.
+     */
+    static final int SPOOL_THRESHOLD = 1024 * 1024;
+
+    private static volatile DerivativeCacheWriter instance;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong numDropped = new AtomicLong();
+    private final AtomicLong numPendingBytes = new AtomicLong();
+    private final AtomicLong numWritten = new AtomicLong();
+
+    /**
+     * @return Shared instance, whose thread count is fixed by the value of
+     *         {@link Key#DERIVATIVE_CACHE_ASYNC_WRITES_THREADS} at the time
+     *         of its creation.
+     */
+    public static DerivativeCacheWriter getInstance() {
+        DerivativeCacheWriter writer = instance;
+        if (writer == null) {
+            synchronized (DerivativeCacheWriter.class) {
+                writer = instance;
+                if (writer == null) {
+                    writer = new DerivativeCacheWriter(Math.max(1,
+                            Configuration.getInstance().getInt(
+                                    Key.DERIVATIVE_CACHE_ASYNC_WRITES_THREADS,
+                                    DEFAULT_NUM_THREADS)));
+                    instance = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * @return Whether {@link Key#DERIVATIVE_CACHE_ASYNC_WRITES_ENABLED} is
+     *         set.
+     */
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBoolean(
+                Key.DERIVATIVE_CACHE_ASYNC_WRITES_ENABLED, false);
+    }
+
+    /**
+     * @param numThreads Number of writer threads.
+     */
+    DerivativeCacheWriter(int numThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "derivative-cache-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Maximum total size of captures that are being buffered or are
+     *         waiting to be written.
+     */
+    private static long getMaxPendingSize() {
+        return Configuration.getInstance().getLong(
+                Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE,
+                DEFAULT_MAX_PENDING_SIZE);
+    }
+
+    /**
+     * @return Number of captures that have been dropped.
+     */
+    long getNumDropped() {
+        return numDropped.get();
+    }
+
+    /**
+     * @return Total size of all captures that are being buffered or are
+     *         waiting to be written.
+     */
+    long getNumPendingBytes() {
+        return numPendingBytes.get();
+    }
+
+    /**
+     * @return Number of captures that have been written to their cache.
+     */
+    long getNumWritten() {
+        return numWritten.get();
+    }
+
+    /**
+     * <p>Returns a new capture of the derivative image corresponding to the
+     * given operation list. The image should be written to it as it is being
+     * rendered. If the render succeeds, the capture must be
+     * {@link Capture#commit() committed}; otherwise it must be
+     * {@link Capture#close() closed}.</p>
+     *
+     * <p>If the writer is already overloaded, the returned capture will have
+     * been {@link Capture#isDropped() dropped}, and will ignore anything
+     * written to it.</p>
+     *
+     * @param cache  Cache to write the image to.
+     * @param opList Operation list describing the image.
+     * @return New capture.
+     */
+    public Capture newCapture(DerivativeCache cache, OperationList opList) {
+        final long maxPendingSize = getMaxPendingSize();
+        final Capture capture =
+                new Capture(this, cache, opList, maxPendingSize);
+        if (numPendingBytes.get() >= maxPendingSize) {
+            capture.drop("too many pending writes");
+        }
+        return capture;
+    }
+
+    private void release(long numBytes) {
+        numPendingBytes.addAndGet(-numBytes);
+    }
+
+    /**
+     * @param numBytes Number of bytes to reserve.
+     * @param max      Maximum total number of pending bytes.
+     * @return Whether the given number of bytes could be reserved without
+     *         exceeding the given maximum.
+     */
+    private boolean reserve(long numBytes, long max) {
+        while (true) {
+            final long current = numPendingBytes.get();
+            if (current + numBytes > max) {
+                return false;
+            }
+            if (numPendingBytes.compareAndSet(current, current + numBytes)) {
+                return true;
+            }
+        }
+    }
+
+    private void submit(Capture capture) {
+        executor.submit(capture::writeToCache);
+    }
+
+}
@@ -1,5 +1,6 @@
 package edu.illinois.library.cantaloupe.cache;
 
+import edu.illinois.library.cantaloupe.ThreadPool;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Identifier;
@@ -22,28 +23,28 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
 /**
  * <p>Cache using a filesystem, storing source images, derivative images,
@@ -98,97 +99,60 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *     <li>Cache files are created with a .tmp extension and moved into place
  *     when closed for writing.</li>
  * </ol>
+ *
+ * <p>The size and last-accessed time of every file are tracked in a
+ * {@link FilesystemCacheIndex}, which is stored in an <code>index</code>
+ * subdirectory. This enables expired files to be found, and the cache to be
+ * kept under {@link Key#FILESYSTEMCACHE_MAX_SIZE}, without crawling the
+ * tree. The index is loaded in the background when the cache is first used,
+ * so that no request has to wait for it. It is shared by all instances using
+ * the same directory, and closed when the last of them is shut down.</p>
+ *
+ * <p>The source image folder can additionally be kept under
+ * {@link Key#FILESYSTEMCACHE_SOURCE_MAX_SIZE}. Excess source images are
+ * evicted asynchronously after new ones are added, according to
+ * {@link Key#FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY}: either in
+ * least-recently-used order, or (with <code>TinyLFU</code>) preferring the
+ * least frequently used of the least recently used images, as estimated by
+ * a {@link FrequencySketch} of all source image lookups.</p>
+ *
+ * <p>Concurrency is managed per-item rather than per-instance. Infos and
+ * derivative images are guarded by {@link LockStripes striped locks} keyed by
+ * identifier and operation list respectively, and images being written are
+ * tracked in a concurrent map of latches that readers of the same image (and
+ * only the same image) can wait on. Only the global {@link #purge()} and
+ * {@link #purgeExpired()} operations exclude everything else.</p>
+ *
+ * <p>Source images being written can also be read at the same time via
+ * {@link #newSourceImageInputStream(Identifier)}, which tracks their temp
+ * files as they grow.</p>
  */
 class FilesystemCache implements SourceCache, DerivativeCache {
 
-    /**
-     * Used by {@link Files#walkFileTree} to delete all temporary (*.tmp) and
-     * zero-byte files within a directory tree.
-     */
-    private static class CacheCleaner extends SimpleFileVisitor<Path> {
-
-        private static final Logger logger = LoggerFactory.
-                getLogger(CacheCleaner.class);
-
-        private final PathMatcher matcher;
-        private long minCleanableAge;
-        private int numDeleted = 0;
-
-        CacheCleaner(long minCleanableAge) {
-            this.minCleanableAge = minCleanableAge;
-            matcher = FileSystems.getDefault().
-                    getPathMatcher("glob:*" + TEMP_EXTENSION);
-        }
-
-        private void delete(File file) {
-            try {
-                FileUtils.forceDelete(file);
-                numDeleted++;
-            } catch (IOException e) {
-                logger.warn(e.getMessage(), e);
-            }
-        }
-
-        private void done() {
-            logger.info("Cleaned {} files.", numDeleted);
-        }
-
-        private void test(Path path) {
-            // Since the instance visits only files, this will always be a file.
-            final File file = path.toFile();
-
-            // Try to avoid matching temp files that may still be open for
-            // writing by assuming that files last modified long enough ago
-            // are closed.
-            if (System.currentTimeMillis() - file.lastModified() > minCleanableAge) {
-                // Delete temp files.
-                if (matcher.matches(path.getFileName())) {
-                    delete(file);
-                } else {
-                    // Delete zero-byte files.
-                    try {
-                        if (Files.size(path) == 0) {
-                            delete(file);
-                        }
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                }
-            }
-        }
-
-        @Override
-        public FileVisitResult visitFile(Path file,
-                                         BasicFileAttributes attrs) {
-            test(file);
-            return java.nio.file.FileVisitResult.CONTINUE;
-        }
-
-        @Override
-        public FileVisitResult visitFileFailed(Path file, IOException e) {
-            logger.warn("visitFileFailed(): {}", e.getMessage());
-            return java.nio.file.FileVisitResult.CONTINUE;
-        }
-    }
-
     /**
      * <p>Returned by {@link #newDerivativeImageOutputStream(OperationList)}}
      * when an image can be cached. Points to a temp file that will be moved
-     * into place when closed.</p>
+     * into place when closed, or deleted when aborted.</p>
      *
      * <p>{@link T} may be either an {@link Identifier} corresponding to a
      * source image, or an {@link OperationList} corresponding to a derivative
      * image.</p>
      */
     private static class ConcurrentFileOutputStream<T>
-            extends FileOutputStream {
+            extends AbortableOutputStream {
 
         private static final Logger CFOS_LOGGER = LoggerFactory.
                 getLogger(ConcurrentFileOutputStream.class);
 
+        private Runnable completionListener;
         private File destinationFile;
-        private Set<T> imagesBeingWritten;
+        private FileOutputStream fileOutputStream;
+        private GrowingFile growingFile;
+        private Map<T, GrowingFile> growingFiles;
+        private Map<T, CountDownLatch> imagesBeingWritten;
+        private FilesystemCacheIndex index;
         private boolean isClosed = false;
+        private CountDownLatch latch;
         private T toRemove;
         private File tempFile;
 
@@ -196,21 +160,79 @@ class FilesystemCache implements SourceCache, DerivativeCache {
          * @param tempFile Pathname of the temp file to write to.
          * @param destinationFile Pathname to move tempFile to when it is done
          *                        being written.
-         * @param imagesBeingWritten Set of identifiers for all images
-         *                           currently being written.
-         * @param toRemove Object to remove from the set when done.
+         * @param imagesBeingWritten Map of identifiers for all images
+         *                           currently being written to latches that
+         *                           will be released when they are done.
+         * @param toRemove Key to remove from the map when done.
+         * @param latch Latch, already present in the map under
+         *              <code>toRemove</code>, to count down when done.
+         * @param index Index in which to record the destination file.
          */
         ConcurrentFileOutputStream(File tempFile,
                                    File destinationFile,
-                                   Set<T> imagesBeingWritten,
-                                   T toRemove)
+                                   Map<T, CountDownLatch> imagesBeingWritten,
+                                   T toRemove,
+                                   CountDownLatch latch,
+                                   FilesystemCacheIndex index)
                 throws FileNotFoundException {
-            super(tempFile);
-            imagesBeingWritten.add(toRemove);
+            this.fileOutputStream = new FileOutputStream(tempFile);
+            this.index = index;
             this.tempFile = tempFile;
             this.destinationFile = destinationFile;
             this.imagesBeingWritten = imagesBeingWritten;
             this.toRemove = toRemove;
+            this.latch = latch;
+        }
+
+        /**
+         * @param listener Callback to invoke after the file has been moved
+         *                 into place and indexed.
+         */
+        void setCompletionListener(Runnable listener) {
+            this.completionListener = listener;
+        }
+
+        /**
+         * Enables the file to be read in other threads while it is being
+         * written.
+         *
+         * @param growingFile Instance to report progress to.
+         * @param growingFiles Map in which <code>growingFile</code> is
+         *                     present under <code>toRemove</code>, from
+         *                     which it will be removed when done.
+         */
+        void setGrowingFile(GrowingFile growingFile,
+                            Map<T, GrowingFile> growingFiles) {
+            this.growingFile = growingFile;
+            this.growingFiles = growingFiles;
+        }
+
+        /**
+         * Abandons the file, failing any readers of it, and deletes it
+         * instead of moving it into place.
+         */
+        @Override
+        public void abort() {
+            if (!isClosed) {
+                isClosed = true;
+                try {
+                    CFOS_LOGGER.debug("abort(): abandoning {}", tempFile);
+                    if (growingFile != null) {
+                        growingFile.abandon();
+                    }
+                    try {
+                        fileOutputStream.close();
+                    } catch (IOException e) {
+                        CFOS_LOGGER.warn("abort(): {}", e.getMessage());
+                    }
+                    Files.deleteIfExists(tempFile.toPath());
+                    index.tempFileRemoved(tempFile);
+                } catch (IOException e) {
+                    CFOS_LOGGER.warn("abort(): {}", e.getMessage(), e);
+                } finally {
+                    release();
+                }
+            }
         }
 
         /**
@@ -225,31 +247,79 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                 isClosed = true;
                 try {
                     try {
-                        // Close super in order to release its handle on
-                        // tempFile.
+                        // Release the handle on tempFile.
                         CFOS_LOGGER.debug("close(): closing stream for {}", toRemove);
-                        super.close();
+                        fileOutputStream.close();
                     } catch (IOException e) {
                         CFOS_LOGGER.warn("close(): {}", e.getMessage());
                     }
 
-                    if (tempFile.length() > 0) {
+                    final long length = tempFile.length();
+                    if (length > 0) {
                         CFOS_LOGGER.debug("close(): moving {} to {}",
                                 tempFile, destinationFile.getName());
                         FileUtils.moveFile(tempFile, destinationFile);
+                        index.tempFileRemoved(tempFile);
+                        index.added(destinationFile, length);
+                        if (growingFile != null) {
+                            growingFile.complete();
+                        }
+                        if (completionListener != null) {
+                            completionListener.run();
+                        }
                     } else {
                         CFOS_LOGGER.debug("close(): deleting zero-byte file: {}",
                                 tempFile);
                         FileUtils.forceDelete(tempFile);
+                        index.tempFileRemoved(tempFile);
                     }
                 } catch (IOException e) {
                     CFOS_LOGGER.warn("close(): {}", e.getMessage(), e);
                 } finally {
-                    imagesBeingWritten.remove(toRemove);
+                    release();
                 }
             }
         }
 
+        @Override
+        public void flush() throws IOException {
+            fileOutputStream.flush();
+        }
+
+        /**
+         * Releases the claim on the image, so that it can be written again.
+         */
+        private void release() {
+            if (growingFile != null) {
+                // No-op if already completed.
+                growingFile.abandon();
+                growingFiles.remove(toRemove, growingFile);
+            }
+            imagesBeingWritten.remove(toRemove, latch);
+            latch.countDown();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            fileOutputStream.write(b);
+            if (growingFile != null) {
+                growingFile.advance(1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileOutputStream.write(b, off, len);
+            if (growingFile != null) {
+                growingFile.advance(len);
+            }
+        }
+
     }
 
     /**
@@ -258,7 +328,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
      * yet been closed. Enables that thread to keep writing without
      * interference and without requiring clients to check for null.
      */
-    private static class NullOutputStream extends OutputStream {
+    static class NullOutputStream extends OutputStream {
 
         @Override
         public void close() throws IOException {
@@ -272,6 +342,24 @@ class FilesystemCache implements SourceCache, DerivativeCache {
 
     }
 
+    /**
+     * {@link FilesystemCacheIndex} shared by all the instances using the same
+     * root directory, which is closed when the last of them is shut down.
+     */
+    private static class SharedIndex {
+
+        final FilesystemCacheIndex index;
+
+        /** Number of instances using the index. Guarded by
+         * {@link #INDEXES}. */
+        int numUsers = 0;
+
+        SharedIndex(FilesystemCacheIndex index) {
+            this.index = index;
+        }
+
+    }
+
     private static final Logger LOGGER = LoggerFactory.
             getLogger(FilesystemCache.class);
 
@@ -282,42 +370,88 @@ class FilesystemCache implements SourceCache, DerivativeCache {
     private static final String SOURCE_IMAGE_FOLDER = "source";
     private static final String DERIVATIVE_IMAGE_FOLDER = "image";
     private static final String INFO_FOLDER = "info";
+    private static final String INDEX_FOLDER = "index";
 
     private static final String INFO_EXTENSION = ".json";
     private static final String TEMP_EXTENSION = ".tmp";
 
-    /** Set of {@link Identifier}s or {@link OperationList}s) for which image
-     * files are currently being written from any thread. */
-    private final Set<Object> imagesBeingWritten =
-            new ConcurrentSkipListSet<>();
+    /** Indexes shared by all instances, keyed by root cache directory, as the
+     * source and derivative caches may be different instances using the same
+     * directory. Guarded by itself. */
+    private static final Map<Path, SharedIndex> INDEXES = new HashMap<>();
+
+    /** Number of distinct source images for which the
+     * {@link FrequencySketch} is sized. */
+    private static final int SOURCE_FREQUENCY_SKETCH_SIZE = 32768;
+
+    /** Evicts source images in the background, shared by all instances. */
+    private static final ExecutorService SOURCE_EVICTION_EXECUTOR =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "filesystemcache-source-eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Number of locks in each {@link LockStripes} instance. */
+    private static final int NUM_LOCK_STRIPES = 256;
+
+    /** Map of {@link Identifier}s or {@link OperationList}s for which image
+     * files are currently being written from any thread, to latches that are
+     * counted down when they are done. */
+    private final ConcurrentMap<Object, CountDownLatch> imagesBeingWritten =
+            new ConcurrentHashMap<>();
+
+    /** Map of {@link Identifier}s of source images currently being written
+     * from any thread, to instances through which they can be read while
+     * they are being written. */
+    private final ConcurrentMap<Object, GrowingFile> sourceImagesBeingWritten =
+            new ConcurrentHashMap<>();
 
-    /** Set of Operations for which image files are currently being purged by
-     * purge(OperationList) from any thread. */
-    private final Set<OperationList> imagesBeingPurged =
-            new ConcurrentSkipListSet<>();
+    /** Indexes used by this instance, keyed by root cache directory, each of
+     * which counts as one user of the corresponding entry in
+     * {@link #INDEXES}. Written while holding the lock on the latter. */
+    private final ConcurrentMap<Path, FilesystemCacheIndex> indexes =
+            new ConcurrentHashMap<>();
 
-    /** Set of identifiers for which info files are currently being purged by
-     * purge(Identifier) from any thread. */
-    private final Set<Identifier> infosBeingPurged =
-            new ConcurrentSkipListSet<>();
+    /** Set by {@link #shutdown()} while holding the lock on
+     * {@link #INDEXES}. */
+    private volatile boolean isShutDown = false;
+
+    private volatile LongConsumer evictionListener = n -> {};
 
     private long minCleanableAge = 1000 * 60 * 10;
 
+    /** Source images accessed more recently than this many milliseconds ago,
+     * which may still be being read, are not evicted. */
+    private long minEvictableSourceAge = 1000 * 60;
+
+    /** Estimates how often each source image is looked up, keyed by
+     * {@link FilesystemCacheIndex#key(File) index key}. */
+    private final FrequencySketch sourceFrequencies =
+            new FrequencySketch(SOURCE_FREQUENCY_SKETCH_SIZE);
+
+    /** Whether a run of {@link #evictExcessSourceImages()} has been scheduled
+     * but not started. */
+    private final AtomicBoolean sourceEvictionScheduled =
+            new AtomicBoolean(false);
+
     /** Toggled by purge() and purgeExpired(). */
     private final AtomicBoolean globalPurgeInProgress =
             new AtomicBoolean(false);
 
-    /** Several different lock objects for context-dependent synchronization.
-     * Reduces contention for the instance. */
-    private final Object imagePurgeLock = new Object();
-    private final Object infoPurgeLock = new Object();
-    private final Object sourceImageWriteLock = new Object();
+    /** Held for reading by per-item purges and for writing by global purges,
+     * so that the latter wait for the former to finish without per-item
+     * purges having to wait for each other. */
+    private final ReadWriteLock globalPurgeLock = new ReentrantReadWriteLock();
+
+    /** Per-operation-list locks for derivative image purges. */
+    private final LockStripes imageLocks = new LockStripes(NUM_LOCK_STRIPES);
+
+    /** Per-identifier locks allowing for simultaneous reads of, and writes to,
+     * different infos, with bounded memory usage. */
+    private final LockStripes infoLocks = new LockStripes(NUM_LOCK_STRIPES);
 
-    /** Rather than using a global lock, per-identifier locks allow for
-     * simultaneous writes to different infos. Map entries are added on demand
-     * and never removed. */
-    private final Map<Identifier,ReadWriteLock> infoLocks =
-            new ConcurrentHashMap<>();
 
     /**
      * @param uniqueString String from which to derive the path.
@@ -348,28 +482,41 @@ class FilesystemCache implements SourceCache, DerivativeCache {
         return path.toString();
     }
 
-    private static long getLastAccessTime(File file) {
-        try {
-            return ((FileTime) Files.getAttribute(file.toPath(), "lastAccessTime")).
-                    toMillis();
-        } catch (IOException e) {
-            LOGGER.error(e.getMessage(), e);
-            return file.lastModified();
-        }
+    /**
+     * @return Maximum size of the cache in bytes, or 0 if there is no
+     *         maximum.
+     */
+    private static long getMaxByteSize() {
+        return Math.max(0, Configuration.getInstance().
+                getLong(Key.FILESYSTEMCACHE_MAX_SIZE, 0));
+    }
+
+    /**
+     * @return Maximum size of the source image folder in bytes, or 0 if
+     *         there is no maximum.
+     */
+    private static long getSourceMaxByteSize() {
+        return Math.max(0, Configuration.getInstance().
+                getLong(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 0));
     }
 
     /**
-     * @param file File to check.
-     * @return Whether the given file is expired based on
-     *         {@link Key#CACHE_SERVER_TTL} and its last-accessed time. If
-     *         {@link Key#CACHE_SERVER_TTL} is 0, <code>false</code> will be
-     *         returned.
+     * @return Whether {@link Key#FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY} is
+     *         set to <code>TinyLFU</code> (the default) rather than
+     *         <code>LRU</code>.
      */
-    private static boolean isExpired(File file) {
-        final long ttlMsec = 1000 * Configuration.getInstance().
+    private static boolean isSourceTinyLfuEnabled() {
+        return !"LRU".equalsIgnoreCase(Configuration.getInstance().
+                getString(Key.FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY,
+                        "TinyLFU"));
+    }
+
+    /**
+     * @return {@link Key#CACHE_SERVER_TTL} in milliseconds.
+     */
+    private static long getTtlMsec() {
+        return 1000 * Configuration.getInstance().
                 getLong(Key.CACHE_SERVER_TTL, 0);
-        final long age = System.currentTimeMillis() - getLastAccessTime(file);
-        return ttlMsec > 0 && file.isFile() && age > ttlMsec;
     }
 
     /**
@@ -413,12 +560,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
     }
 
     private ReadWriteLock acquireInfoLock(final Identifier identifier) {
-        ReadWriteLock lock = infoLocks.get(identifier);
-        if (lock == null) {
-            infoLocks.putIfAbsent(identifier, new ReentrantReadWriteLock());
-            lock = infoLocks.get(identifier);
-        }
-        return lock;
+        return infoLocks.get(identifier);
     }
 
     /**
@@ -427,21 +569,103 @@ class FilesystemCache implements SourceCache, DerivativeCache {
     @Override
     public void cleanUp() throws CacheException {
         try {
-            final String[] pathnamesToClean = {
-                    rootSourceImagePathname(),
-                    rootDerivativeImagePathname(),
-                    rootInfoPathname() };
-            for (String pathname : pathnamesToClean) {
-                LOGGER.info("cleanUp(): cleaning directory: {}", pathname);
-                CacheCleaner cleaner = new CacheCleaner(minCleanableAge);
-                Files.walkFileTree(Paths.get(pathname), cleaner);
-                cleaner.done();
+            LOGGER.info("cleanUp(): cleaning...");
+            final List<File> files =
+                    getLoadedIndex().removeCleanable(minCleanableAge);
+            LOGGER.info("cleanUp(): cleaned {} files.", deleteFiles(files));
+        } catch (IOException e) {
+            throw new CacheException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param files Files to delete.
+     * @return Number of files deleted.
+     */
+    private static int deleteFiles(Collection<File> files) {
+        int count = 0;
+        for (File file : files) {
+            try {
+                Files.deleteIfExists(file.toPath());
+                count++;
+            } catch (IOException e) {
+                LOGGER.warn("deleteFiles(): unable to delete {}: {}",
+                        file, e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the given file if it is expired, i.e. if it was last accessed
+     * longer ago than {@link Key#CACHE_SERVER_TTL}, and otherwise updates its
+     * last-accessed time.
+     *
+     * @param file Existing file.
+     * @return Whether the file was expired.
+     */
+    private boolean deleteIfExpired(File file) throws CacheException {
+        try {
+            final FilesystemCacheIndex index = getIndex();
+            final long lastAccessed = index.touch(file);
+            final long ttlMsec = getTtlMsec();
+            if (ttlMsec > 0 &&
+                    System.currentTimeMillis() - lastAccessed > ttlMsec) {
+                LOGGER.info("deleteIfExpired(): deleting stale file: {}",
+                        file.getAbsolutePath());
+                index.removed(file);
+                if (!file.delete()) {
+                    LOGGER.warn("deleteIfExpired(): unable to delete {}",
+                            file.getAbsolutePath());
+                }
+                return true;
             }
+            return false;
         } catch (IOException e) {
             throw new CacheException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Deletes least-recently-used files until the cache is no larger than
+     * {@link Key#FILESYSTEMCACHE_MAX_SIZE}, if set.
+     */
+    private void evictExcess() throws IOException, CacheException {
+        final long maxSize = getMaxByteSize();
+        if (maxSize > 0) {
+            final List<File> files = getIndex().removeExcess(maxSize);
+            if (!files.isEmpty()) {
+                LOGGER.info("evictExcess(): evicted {} files",
+                        deleteFiles(files));
+                evictionListener.accept(files.size());
+            }
+        }
+    }
+
+    /**
+     * Deletes source images until the source image folder is no larger than
+     * {@link Key#FILESYSTEMCACHE_SOURCE_MAX_SIZE}, if set, according to
+     * {@link Key#FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY}.
+     */
+    void evictExcessSourceImages() throws CacheException {
+        final long maxSize = getSourceMaxByteSize();
+        if (maxSize > 0) {
+            try {
+                final List<File> files = getIndex().removeExcess(maxSize,
+                        SOURCE_IMAGE_FOLDER, minEvictableSourceAge,
+                        isSourceTinyLfuEnabled() ?
+                                sourceFrequencies::frequency : null);
+                if (!files.isEmpty()) {
+                    LOGGER.info("evictExcessSourceImages(): evicted {} files",
+                            deleteFiles(files));
+                    evictionListener.accept(files.size());
+                }
+            } catch (IOException e) {
+                throw new CacheException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * Returns a File corresponding to the given operation list.
      *
@@ -500,20 +724,11 @@ class FilesystemCache implements SourceCache, DerivativeCache {
 
         try {
             final File cacheFile = infoFile(identifier);
-            if (cacheFile != null && cacheFile.exists()) {
-                if (!isExpired(cacheFile)) {
-                    LOGGER.info("getImageInfo(): hit: {}",
-                            cacheFile.getAbsolutePath());
-                    return Info.fromJSON(cacheFile);
-                } else {
-                    LOGGER.info("getImageInfo(): deleting stale file: {}",
-                            cacheFile.getAbsolutePath());
-                    // TODO: contention here (probably rare though)
-                    if (!cacheFile.delete()) {
-                        LOGGER.warn("getImageInfo(): unable to delete {}",
-                                cacheFile.getAbsolutePath());
-                    }
-                }
+            if (cacheFile != null && cacheFile.isFile() &&
+                    !deleteIfExpired(cacheFile)) {
+                LOGGER.info("getImageInfo(): hit: {}",
+                        cacheFile.getAbsolutePath());
+                return Info.fromJSON(cacheFile);
             }
         } catch (FileNotFoundException e) {
             LOGGER.info(e.getMessage(), e);
@@ -527,32 +742,98 @@ class FilesystemCache implements SourceCache, DerivativeCache {
 
     @Override
     public File getSourceImageFile(Identifier identifier) throws CacheException {
-        synchronized (sourceImageWriteLock) {
-            while (imagesBeingWritten.contains(identifier)) {
-                try {
-                    sourceImageWriteLock.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
+        // If the image is being written in another thread, wait for it to
+        // finish. Images with other identifiers don't affect this.
+        final CountDownLatch latch = imagesBeingWritten.get(identifier);
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
         File file = null;
         final File cacheFile = sourceImageFile(identifier);
-        if (cacheFile != null && cacheFile.exists()) {
-            if (!isExpired(cacheFile)) {
-                LOGGER.info("getSourceImageFile(): hit: {} ({})",
-                        identifier, cacheFile.getAbsolutePath());
-                file = cacheFile;
-            } else {
-                LOGGER.info("getSourceImageFile(): deleting stale file: {}",
-                        cacheFile.getAbsolutePath());
-                if (!cacheFile.delete()) {
-                    LOGGER.warn("getSourceImageFile(): unable to delete {}",
-                            cacheFile.getAbsolutePath());
+        recordSourceImageAccess(cacheFile);
+        if (cacheFile != null && cacheFile.isFile() &&
+                !deleteIfExpired(cacheFile)) {
+            LOGGER.info("getSourceImageFile(): hit: {} ({})",
+                    identifier, cacheFile.getAbsolutePath());
+            file = cacheFile;
+        }
+        return file;
+    }
+
+    /**
+     * @return Index of all files in the cache. On first access, it is loaded
+     *         (or built) in the background, and is incomplete until that is
+     *         done.
+     * @see #getLoadedIndex()
+     */
+    FilesystemCacheIndex getIndex() throws CacheException {
+        final Path rootPath = Paths.get(rootPathname()).toAbsolutePath();
+        FilesystemCacheIndex index = indexes.get(rootPath);
+        if (index != null) {
+            return index;
+        }
+        boolean isNew = false;
+        synchronized (INDEXES) {
+            index = indexes.get(rootPath);
+            if (index == null) {
+                SharedIndex shared = INDEXES.get(rootPath);
+                if (isShutDown) {
+                    // This instance would never release it, so it gets
+                    // either the one still in use by others, or a throwaway
+                    // that is neither loaded nor persisted.
+                    return (shared != null) ? shared.index :
+                            new FilesystemCacheIndex(rootPath, INDEX_FOLDER,
+                                    SOURCE_IMAGE_FOLDER,
+                                    DERIVATIVE_IMAGE_FOLDER, INFO_FOLDER);
+                }
+                if (shared == null) {
+                    shared = new SharedIndex(new FilesystemCacheIndex(rootPath,
+                            INDEX_FOLDER, SOURCE_IMAGE_FOLDER,
+                            DERIVATIVE_IMAGE_FOLDER, INFO_FOLDER));
+                    INDEXES.put(rootPath, shared);
+                    isNew = true;
                 }
+                shared.numUsers++;
+                index = shared.index;
+                indexes.put(rootPath, index);
             }
         }
-        return file;
+        if (isNew) {
+            final FilesystemCacheIndex newIndex = index;
+            final Runnable loader = () -> {
+                try {
+                    newIndex.load();
+                } catch (IOException e) {
+                    LOGGER.error("getIndex(): failed to load the index: {}",
+                            e.getMessage(), e);
+                }
+            };
+            try {
+                ThreadPool.getInstance().submit(loader);
+            } catch (RejectedExecutionException e) {
+                loader.run();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Like {@link #getIndex()}, but waits for the index to be loaded. For
+     * operations that need all of it, which are not on the request path.
+     */
+    FilesystemCacheIndex getLoadedIndex() throws CacheException {
+        final FilesystemCacheIndex index = getIndex();
+        try {
+            index.awaitLoad();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException(e.getMessage(), e);
+        }
+        return index;
     }
 
     /**
@@ -586,22 +867,14 @@ class FilesystemCache implements SourceCache, DerivativeCache {
             throws CacheException {
         InputStream inputStream = null;
         final File cacheFile = derivativeImageFile(ops);
-        if (cacheFile != null && cacheFile.exists()) {
-            if (!isExpired(cacheFile)) {
-                try {
-                    LOGGER.info("newDerivativeImageInputStream(): hit: {} ({})",
-                            ops, cacheFile.getAbsolutePath());
-                    inputStream = new FileInputStream(cacheFile);
-                } catch (FileNotFoundException e) {
-                    LOGGER.error(e.getMessage(), e);
-                }
-            } else {
-                LOGGER.info("newDerivativeImageInputStream(): deleting stale file: {}",
-                        cacheFile.getAbsolutePath());
-                if (!cacheFile.delete()) {
-                    LOGGER.warn("newDerivativeImageInputStream(): unable to delete {}",
-                            cacheFile.getAbsolutePath());
-                }
+        if (cacheFile != null && cacheFile.isFile() &&
+                !deleteIfExpired(cacheFile)) {
+            try {
+                LOGGER.info("newDerivativeImageInputStream(): hit: {} ({})",
+                        ops, cacheFile.getAbsolutePath());
+                inputStream = new FileInputStream(cacheFile);
+            } catch (FileNotFoundException e) {
+                LOGGER.error(e.getMessage(), e);
             }
         }
         return inputStream;
@@ -635,16 +908,62 @@ class FilesystemCache implements SourceCache, DerivativeCache {
      * @throws CacheException If anything goes wrong.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public OutputStream newSourceImageOutputStream(Identifier identifier)
             throws CacheException {
         try {
-            return newOutputStream(identifier, sourceImageTempFile(identifier),
+            final File tempFile = sourceImageTempFile(identifier);
+            final OutputStream os = newOutputStream(identifier, tempFile,
                     sourceImageFile(identifier));
+            if (os instanceof ConcurrentFileOutputStream) {
+                final ConcurrentFileOutputStream<Object> cfos =
+                        (ConcurrentFileOutputStream<Object>) os;
+                final GrowingFile growingFile = new GrowingFile(tempFile);
+                sourceImagesBeingWritten.put(identifier, growingFile);
+                cfos.setGrowingFile(growingFile, sourceImagesBeingWritten);
+                cfos.setCompletionListener(this::scheduleSourceImageEviction);
+            }
+            return os;
         } catch (IOException e) {
             throw new CacheException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Unlike {@link #getSourceImageFile(Identifier)}, this method does not
+     * wait for an image that is being written in another thread. Instead, the
+     * returned stream reads the image as it is being written, blocking at the
+     * end of the data written so far until more is available.
+     */
+    @Override
+    public InputStream newSourceImageInputStream(Identifier identifier)
+            throws CacheException {
+        final GrowingFile growingFile =
+                sourceImagesBeingWritten.get(identifier);
+        if (growingFile != null) {
+            try {
+                recordSourceImageAccess(sourceImageFile(identifier));
+                LOGGER.info("newSourceImageInputStream(): partial hit: {} " +
+                        "({} bytes written so far)",
+                        identifier, growingFile.length());
+                return growingFile.newInputStream();
+            } catch (FileNotFoundException e) {
+                // It was moved into place in the meantime.
+                LOGGER.debug("newSourceImageInputStream(): {} was completed",
+                        identifier);
+            }
+        }
+        final File file = getSourceImageFile(identifier);
+        if (file != null) {
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+                throw new CacheException(e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
     /**
      * @param imageIdentifier {@link Identifier} or {@link OperationList}
      * @param tempFile Temporary file to write to.
@@ -655,11 +974,15 @@ class FilesystemCache implements SourceCache, DerivativeCache {
      */
     private OutputStream newOutputStream(Object imageIdentifier,
                                          File tempFile,
-                                         File destFile) throws IOException {
-        // If the image is being written in another thread, it may (or may not)
-        // be present in the imagesBeingWritten set. If so, return a null
-        // output stream to avoid interfering.
-        if (imagesBeingWritten.contains(imageIdentifier)) {
+                                         File destFile)
+            throws IOException, CacheException {
+        // If the image is being written in another thread, it will be
+        // present in the imagesBeingWritten map. If so, return a null output
+        // stream to avoid interfering. Otherwise, claim it. The entry will be
+        // removed when the non-null output stream returned by this method is
+        // closed.
+        final CountDownLatch latch = new CountDownLatch(1);
+        if (imagesBeingWritten.putIfAbsent(imageIdentifier, latch) != null) {
             LOGGER.info("newOutputStream(): miss, but cache file for {} is " +
                     "being written in another thread, so not caching",
                     imageIdentifier);
@@ -669,17 +992,17 @@ class FilesystemCache implements SourceCache, DerivativeCache {
         LOGGER.info("newOutputStream(): miss; caching {}", imageIdentifier);
 
         try {
+            final FilesystemCacheIndex index = getIndex();
+            evictExcess();
+
             // Create the containing directory. This may throw a
             // FileAlreadyExistsException for concurrent invocations with the
             // same argument.
             Files.createDirectories(tempFile.getParentFile().toPath());
 
-            // identifier will be removed from this set when the non-null output
-            // stream returned by this method is closed.
-            imagesBeingWritten.add(imageIdentifier);
-
-            return new ConcurrentFileOutputStream<>(
-                    tempFile, destFile, imagesBeingWritten, imageIdentifier);
+            index.tempFileAdded(tempFile);
+            return new ConcurrentFileOutputStream<>(tempFile, destFile,
+                    imagesBeingWritten, imageIdentifier, latch, index);
         } catch (FileAlreadyExistsException e) {
             // The image either already exists in its complete form, or is
             // being written by another thread/process. Either way, there is no
@@ -688,7 +1011,13 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                             "{} already exists; returning a {}",
                     tempFile.getParentFile(),
                     NullOutputStream.class.getSimpleName());
+            imagesBeingWritten.remove(imageIdentifier, latch);
+            latch.countDown();
             return new NullOutputStream();
+        } catch (IOException | CacheException e) {
+            imagesBeingWritten.remove(imageIdentifier, latch);
+            latch.countDown();
+            throw e;
         }
     }
 
@@ -706,15 +1035,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                     "Aborting.");
             return;
         }
-        synchronized (imagePurgeLock) {
-            while (!imagesBeingPurged.isEmpty()) {
-                try {
-                    imagePurgeLock.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        }
+        globalPurgeLock.writeLock().lock();
         try {
             globalPurgeInProgress.set(true);
 
@@ -732,11 +1053,12 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                     LOGGER.warn(e.getMessage());
                 }
             }
+            getIndex().cleared();
+        } catch (IOException e) {
+            throw new CacheException(e.getMessage(), e);
         } finally {
             globalPurgeInProgress.set(false);
-            synchronized (imagePurgeLock) {
-                imagePurgeLock.notifyAll();
-            }
+            globalPurgeLock.writeLock().unlock();
         }
     }
 
@@ -756,22 +1078,16 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                     "progress. Aborting.");
             return;
         }
-        synchronized (imagePurgeLock) {
-            while (imagesBeingPurged.contains(opList)) {
-                try {
-                    imagePurgeLock.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        }
+        final ReadWriteLock lock = imageLocks.get(opList);
+        globalPurgeLock.readLock().lock();
+        lock.writeLock().lock();
         try {
-            imagesBeingPurged.add(opList);
             LOGGER.info("purge(OperationList): purging {}...", opList);
 
             File file = derivativeImageFile(opList);
             if (file != null && file.exists()) {
                 try {
+                    getIndex().removed(file);
                     FileUtils.forceDelete(file);
                 } catch (IOException e) {
                     LOGGER.warn("purge(OperationList(): unable to delete {}",
@@ -779,16 +1095,14 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                 }
             }
         } finally {
-            imagesBeingPurged.remove(opList);
-            synchronized (imagePurgeLock) {
-                imagePurgeLock.notifyAll();
-            }
+            lock.writeLock().unlock();
+            globalPurgeLock.readLock().unlock();
         }
     }
 
     /**
-     * <p>Crawls the image directory, deleting all expired files within it
-     * (temporary or not), and then does the same in the info directory.</p>
+     * <p>Deletes all expired derivative images and infos, consulting the
+     * {@link FilesystemCacheIndex index} rather than crawling the tree.</p>
      *
      * <p>Will do nothing and return immediately if a global purge is in
      * progress in another thread.</p>
@@ -800,58 +1114,29 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                     "Aborting.");
             return;
         }
-        synchronized (imagePurgeLock) {
-            while (!imagesBeingPurged.isEmpty()) {
-                try {
-                    imagePurgeLock.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
+        final long ttlMsec = getTtlMsec();
+        if (ttlMsec <= 0) {
+            LOGGER.info("purgeExpired(): TTL is 0; nothing to purge");
+            return;
         }
+        globalPurgeLock.writeLock().lock();
         LOGGER.info("purgeExpired(): purging...");
 
         try {
             globalPurgeInProgress.set(true);
-            final String imagePathname = rootDerivativeImagePathname();
-            final String infoPathname = rootInfoPathname();
-
-            long imageCount = 0;
-            final File imageDir = new File(imagePathname);
-            Iterator<File> it = FileUtils.iterateFiles(imageDir, null, true);
-            while (it.hasNext()) {
-                final File file = it.next();
-                if (isExpired(file)) {
-                    try {
-                        FileUtils.forceDelete(file);
-                        imageCount++;
-                    } catch (IOException e) {
-                        LOGGER.warn(e.getMessage());
-                    }
-                }
-            }
-
-            long infoCount = 0;
-            final File infoDir = new File(infoPathname);
-            it = FileUtils.iterateFiles(infoDir, null, true);
-            while (it.hasNext()) {
-                final File file = it.next();
-                if (isExpired(file)) {
-                    try {
-                        FileUtils.forceDelete(file);
-                        infoCount++;
-                    } catch (IOException e) {
-                        LOGGER.warn(e.getMessage());
-                    }
-                }
-            }
+            final FilesystemCacheIndex index = getLoadedIndex();
+            final List<File> imageFiles = index.removeExpired(ttlMsec,
+                    DERIVATIVE_IMAGE_FOLDER);
+            final List<File> infoFiles = index.removeExpired(ttlMsec,
+                    INFO_FOLDER);
             LOGGER.info("purgeExpired(): purged {} expired image(s) and {} " +
-                    "expired infos(s)", imageCount, infoCount);
+                    "expired infos(s)",
+                    deleteFiles(imageFiles), deleteFiles(infoFiles));
+        } catch (IOException e) {
+            throw new CacheException(e.getMessage(), e);
         } finally {
             globalPurgeInProgress.set(false);
-            synchronized (imagePurgeLock) {
-                imagePurgeLock.notifyAll();
-            }
+            globalPurgeLock.writeLock().unlock();
         }
     }
 
@@ -868,23 +1153,18 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                     "progress. Aborting.");
             return;
         }
-        synchronized (infoPurgeLock) {
-            while (infosBeingPurged.contains(identifier)) {
-                try {
-                    infoPurgeLock.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        }
+        final ReadWriteLock lock = acquireInfoLock(identifier);
+        globalPurgeLock.readLock().lock();
+        lock.writeLock().lock();
         try {
-            infosBeingPurged.add(identifier);
             LOGGER.info("purge(Identifier): purging {}...", identifier);
 
             // Delete the source image
+            final FilesystemCacheIndex index = getIndex();
             final File sourceFile = sourceImageFile(identifier);
             try {
                 LOGGER.info("purge(Identifier): deleting {}", sourceFile);
+                index.removed(sourceFile);
                 FileUtils.forceDelete(sourceFile);
             } catch (FileNotFoundException e) {
                 // This is not really a problem, and probably more likely to
@@ -898,6 +1178,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
             for (File imageFile : derivativeImageFiles(identifier)) {
                 try {
                     LOGGER.info("purge(Identifier): deleting {}", imageFile);
+                    index.removed(imageFile);
                     FileUtils.forceDelete(imageFile);
                 } catch (IOException e) {
                     LOGGER.warn(e.getMessage());
@@ -907,6 +1188,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
             final File infoFile = infoFile(identifier);
             try {
                 LOGGER.info("purge(Identifier): deleting {}", infoFile);
+                index.removed(infoFile);
                 FileUtils.forceDelete(infoFile);
             } catch (FileNotFoundException e) {
                 // This is not a problem, and as likely to happen as not.
@@ -915,7 +1197,8 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                 LOGGER.warn(e.getMessage());
             }
         } finally {
-            infosBeingPurged.remove(identifier);
+            lock.writeLock().unlock();
+            globalPurgeLock.readLock().unlock();
         }
     }
 
@@ -924,6 +1207,7 @@ class FilesystemCache implements SourceCache, DerivativeCache {
             throws CacheException {
         final ReadWriteLock lock = acquireInfoLock(identifier);
 
+        final FilesystemCacheIndex index = getIndex();
         final File destFile = infoFile(identifier);
         final File tempFile = infoTempFile(identifier);
 
@@ -943,24 +1227,112 @@ class FilesystemCache implements SourceCache, DerivativeCache {
                         e.getMessage());
             }
 
+            index.tempFileAdded(tempFile);
             FileUtils.writeStringToFile(tempFile, imageInfo.toJSON());
 
             LOGGER.debug("put(): moving {} to {}",
                     tempFile, destFile.getName());
             Files.move(tempFile.toPath(), destFile.toPath());
+            index.tempFileRemoved(tempFile);
+            index.added(destFile, destFile.length());
+            evictExcess();
         } catch (FileAlreadyExistsException e) {
             // When this method runs concurrently with an equal Identifier
             // argument, all of the other invocations of Files.move() will
             // throw this, which is fine.
             LOGGER.debug("put(): failed to move file: {}", e.getMessage());
+            tempFile.delete();
+            removeTempFileFromIndex(index, tempFile);
         } catch (IOException e) {
             tempFile.delete();
+            removeTempFileFromIndex(index, tempFile);
             throw new CacheException(e.getMessage(), e);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    private static void removeTempFileFromIndex(FilesystemCacheIndex index,
+                                                File tempFile) {
+        try {
+            index.tempFileRemoved(tempFile);
+        } catch (IOException e) {
+            LOGGER.warn("removeTempFileFromIndex(): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Records a lookup of a source image, whether or not it is present, in
+     * {@link #sourceFrequencies}.
+     */
+    private void recordSourceImageAccess(File imageFile) throws CacheException {
+        sourceFrequencies.increment(getIndex().key(imageFile));
+    }
+
+    /**
+     * Evicts excess source images in the background, unless an eviction is
+     * already pending.
+     */
+    private void scheduleSourceImageEviction() {
+        if (getSourceMaxByteSize() > 0 &&
+                sourceEvictionScheduled.compareAndSet(false, true)) {
+            SOURCE_EVICTION_EXECUTOR.submit(() -> {
+                sourceEvictionScheduled.set(false);
+                try {
+                    evictExcessSourceImages();
+                } catch (CacheException e) {
+                    LOGGER.error("scheduleSourceImageEviction(): {}",
+                            e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * @param maxEntries Maximum number of source images to include.
+     * @return The maximum and current size of the source image folder, its
+     *         admission policy, and the size, hits, last-accessed time, and
+     *         estimated frequency of each of the most recently accessed
+     *         source images.
+     */
+    @Override
+    public Map<String, Object> getSourceImageStatistics(int maxEntries)
+            throws CacheException {
+        final FilesystemCacheIndex index = getIndex();
+        final List<Map<String, Object>> entries;
+        try {
+            entries = index.getEntryStats(SOURCE_IMAGE_FOLDER, maxEntries);
+        } catch (IOException e) {
+            throw new CacheException(e.getMessage(), e);
+        }
+        for (Map<String, Object> entry : entries) {
+            entry.put("frequency",
+                    sourceFrequencies.frequency((String) entry.get("path")));
+        }
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("max_size", getSourceMaxByteSize());
+        stats.put("size", index.getByteSize(SOURCE_IMAGE_FOLDER));
+        stats.put("admission_policy",
+                isSourceTinyLfuEnabled() ? "TinyLFU" : "LRU");
+        stats.put("entries", entries);
+        return stats;
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        evictionListener = listener;
+    }
+
+    /**
+     * Sets the age threshold for evicting source images. Source images
+     * accessed less than this many milliseconds ago will not be evicted.
+     *
+     * @param age Age in milliseconds.
+     */
+    void setMinEvictableSourceAge(long age) {
+        minEvictableSourceAge = age;
+    }
+
     /**
      * Sets the age threshold for cleaning files. Cleanable files last
      * modified less than this many milliseconds ago will not be subject to
@@ -972,6 +1344,27 @@ class FilesystemCache implements SourceCache, DerivativeCache {
         minCleanableAge = age;
     }
 
+    /**
+     * Stops using the index, closing it if no other instance is using the
+     * same directory.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (INDEXES) {
+            for (Map.Entry<Path, FilesystemCacheIndex> entry :
+                    indexes.entrySet()) {
+                final SharedIndex shared = INDEXES.get(entry.getKey());
+                if (shared != null && shared.index == entry.getValue() &&
+                        --shared.numUsers == 0) {
+                    INDEXES.remove(entry.getKey());
+                    shared.index.close();
+                }
+            }
+            indexes.clear();
+            isShutDown = true;
+        }
+    }
+
     /**
      * Returns a File corresponding to the given identifier.
      *
@@ -0,0 +1,1121 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>Index of the files in a {@link FilesystemCache}, recording the size and
+ * last-accessed time of each one, as well as any temp files that are being
+ * (or were, before a crash, being) written.</p>
+ *
+ * <p>Entries are kept in memory in access order, which makes it possible to
+ * find expired and least-recently-used files without crawling the cache
+ * directory tree or relying on filesystem last-access times (which are not
+ * available on <code>noatime</code> mounts, among others). Changes are
+ * appended to a log file, which is replayed at startup and periodically
+ * compacted, in the background, into a snapshot of the current state. When
+ * there is no log, as
+ * when upgrading from a version without one, it is built from a one-time crawl
+ * of the tree.</p>
+ *
+ * <p>Loading or crawling happens without holding the instance's lock, so the
+ * index can be used while it is in progress, although it will be incomplete
+ * until {@link #load()} returns. Changes made in the meantime take precedence
+ * over what is loaded.</p>
+ *
+ * <p>{@link #touch Accesses} to indexed files, which happen on every cache
+ * hit, don't take the lock either. They are recorded in a buffer that is
+ * drained in batches, either in the background once enough of them have
+ * accumulated, or before any operation that depends on the access order.</p>
+ *
+ * <p>The index is advisory: files that exist on disk without being indexed
+ * (for example because they were written by another process) are
+ * {@link #touch adopted} when they are accessed.</p>
+ *
+ * <p>The total size of the files in each indexed folder is also tracked, so
+ * that folders can be bounded separately, as well as the number of times
+ * each file has been accessed since the index was loaded.</p>
+ *
+ * @since 3.4
+ */
+class FilesystemCacheIndex {
+
+    /**
+     * Access recorded by {@link #touch(File)} that has yet to be applied to
+     * {@link #entries}.
+     */
+    private static class Access {
+        final String key;
+        final Entry entry;
+        final long time;
+
+        Access(String key, Entry entry, long time) {
+            this.key = key;
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+
+    private static class Entry {
+        final long size;
+        int hits;
+        volatile long lastAccessed;
+        long lastLoggedAccess;
+
+        Entry(long size, long lastAccessed) {
+            this.size = size;
+            this.lastAccessed = lastAccessed;
+            this.lastLoggedAccess = lastAccessed;
+        }
+    }
+
+    /**
+     * Log record captured by {@link #compact()}.
+     */
+    private static class Record {
+        final byte type;
+        final String key;
+        final long size;
+        final long time;
+
+        Record(byte type, String key, long size, long time) {
+            this.type = type;
+            this.key = key;
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(FilesystemCacheIndex.class);
+
+    static final String LOG_FILENAME = "index.log";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /** Buffered accesses are drained in the background when there are at
+     * least this many. */
+    private static final int ACCESS_BUFFER_DRAIN_THRESHOLD = 256;
+
+    /** Accesses within this many milliseconds of the last logged access to
+     * the same file are not logged, as they don't matter for expiration
+     * purposes. */
+    private static final long ACCESS_LOG_INTERVAL = 1000;
+
+    /** The log is compacted when it contains more than this many records and
+     * more than twice as many as there are entries. */
+    private static final int MIN_COMPACTABLE_RECORDS = 10000;
+
+    private static final byte ADDED = 1;
+    private static final byte ACCESSED = 2;
+    private static final byte REMOVED = 3;
+    private static final byte TEMP_ADDED = 4;
+    private static final byte TEMP_REMOVED = 5;
+
+    /** Number of least-recently-accessed entries from which
+     * {@link #removeExcess(long, String, long, ToIntFunction)} chooses the
+     * least frequently accessed one to remove. */
+    static final int EVICTION_SAMPLE_SIZE = 16;
+
+    private final Path rootDir;
+    private final Path indexDir;
+    private final String[] indexedFolders;
+
+    /** Map of root-relative pathnames to entries in least-to-most recently
+     * accessed order. Guarded by {@link #lock}. */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Same contents as {@link #entries}, for lookups by
+     * {@link #touch(File)} without the lock. Written while holding
+     * {@link #lock}. */
+    private final Map<String, Entry> lookup = new ConcurrentHashMap<>();
+
+    /** Accesses that have yet to be applied to {@link #entries}. */
+    private final Queue<Access> accessBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger accessBufferSize = new AtomicInteger();
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+
+    /** Map of root-relative temp file pathnames to their creation times.
+     * Guarded by {@link #lock}. */
+    private final Map<String, Long> tempFiles = new HashMap<>();
+
+    /** Sum of the sizes of all entries. Guarded by {@link #lock}. */
+    private long byteSize = 0;
+
+    /** Sums of the sizes of the entries in each top-level folder, keyed by
+     * folder name. Guarded by {@link #lock}. */
+    private final Map<String, Long> folderByteSizes = new HashMap<>();
+
+    /** Guarded by {@link #lock}. */
+    private DataOutputStream log;
+
+    /** Number of records in the log. Guarded by {@link #lock}. */
+    private int numRecords = 0;
+
+    /** Number of times {@link #writeSnapshot()} has been called, by which
+     * {@link #compact()} can tell whether the log has been replaced while it
+     * was running. Guarded by {@link #lock}. */
+    private int numSnapshots = 0;
+
+    /** Whether a run of {@link #compact()} has been scheduled or is in
+     * progress. */
+    private final AtomicBoolean isCompactionScheduled = new AtomicBoolean();
+
+    /** Records logged since {@link #compact()} captured the state, which it
+     * appends to the compacted log, or <code>null</code> if it is not
+     * running. Guarded by {@link #lock}. */
+    private ByteArrayOutputStream recordsSinceCapture;
+
+    /** Number of records in {@link #recordsSinceCapture}. Guarded by
+     * {@link #lock}. */
+    private int numRecordsSinceCapture = 0;
+
+    /** Keys of the entries and temp files that have been removed since
+     * {@link #load()} started, which must not be restored by it, or
+     * <code>null</code> once loading has completed. Guarded by
+     * {@link #lock}. */
+    private Set<String> keysRemovedWhileLoading = new HashSet<>();
+
+    /** Whether {@link #cleared()} has been called since {@link #load()}
+     * started. Guarded by {@link #lock}. */
+    private boolean isClearedWhileLoading = false;
+
+    /** Set while holding {@link #lock}, except to stop an instance that is
+     * being {@link #load() loaded} into this one. */
+    private volatile boolean isClosed = false;
+
+    /** Instance being loaded by {@link #load()}, if it is in progress.
+     * Guarded by {@link #lock}. */
+    private FilesystemCacheIndex loading;
+
+    private final CountDownLatch loadLatch = new CountDownLatch(1);
+
+    private final Object lock = new Object();
+
+    /**
+     * @param rootDir        Root cache directory.
+     * @param indexFolder    Name of the folder within the root directory in
+     *                       which to store the index.
+     * @param indexedFolders Names of the folders within the root directory
+     *                       to crawl when bootstrapping the index.
+     */
+    FilesystemCacheIndex(Path rootDir, String indexFolder,
+                         String... indexedFolders) {
+        this(rootDir.toAbsolutePath(),
+                rootDir.toAbsolutePath().resolve(indexFolder),
+                indexedFolders);
+    }
+
+    private FilesystemCacheIndex(Path rootDir, Path indexDir,
+                                 String[] indexedFolders) {
+        this.rootDir = rootDir;
+        this.indexDir = indexDir;
+        this.indexedFolders = indexedFolders;
+    }
+
+    /**
+     * Records a complete file, replacing any existing entry for the same
+     * pathname.
+     */
+    void added(File file, long size) throws IOException {
+        final String key = key(file);
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            // Apply earlier accesses first, so that they don't end up after
+            // this in access order.
+            drainAccesses();
+            put(key, new Entry(size, now));
+            append(ADDED, key, size, now);
+        }
+    }
+
+    /**
+     * Blocks until {@link #load()} has returned.
+     */
+    void awaitLoad() throws InterruptedException {
+        loadLatch.await();
+    }
+
+    /**
+     * Forgets all entries, to be called after everything in the cache has
+     * been deleted.
+     */
+    void cleared() throws IOException {
+        synchronized (lock) {
+            accessBuffer.clear();
+            accessBufferSize.set(0);
+            entries.clear();
+            lookup.clear();
+            tempFiles.clear();
+            byteSize = 0;
+            folderByteSizes.clear();
+            if (keysRemovedWhileLoading != null) {
+                // load() will write the snapshot.
+                isClearedWhileLoading = true;
+            } else {
+                writeSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Applies any buffered accesses and closes the log. If the instance is
+     * being loaded, loading is stopped, and this method waits for it to
+     * return. The instance may not be used anymore afterwards.
+     */
+    void close() {
+        final FilesystemCacheIndex loading;
+        synchronized (lock) {
+            try {
+                drainAccesses();
+            } catch (IOException e) {
+                LOGGER.warn("close(): {}", e.getMessage());
+            }
+            closeLog();
+            isClosed = true;
+            loading = this.loading;
+        }
+        if (loading != null) {
+            loading.isClosed = true;
+            try {
+                loadLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return Sum of the sizes of all indexed files.
+     */
+    long getByteSize() {
+        synchronized (lock) {
+            return byteSize;
+        }
+    }
+
+    /**
+     * @param folder Name of a folder within the root directory.
+     * @return Sum of the sizes of all indexed files in the given folder.
+     */
+    long getByteSize(String folder) {
+        synchronized (lock) {
+            return folderByteSizes.getOrDefault(folder, 0L);
+        }
+    }
+
+    /**
+     * @param folder   Name of a folder within the root directory.
+     * @param maxCount Maximum number of entries to return.
+     * @return Root-relative pathnames, sizes, hits, and last-accessed times
+     *         of the indexed files in the given folder, in most-to-least
+     *         recently accessed order. The access order is that of the time
+     *         of the call, but hits and last-accessed times may be a little
+     *         more recent.
+     */
+    List<Map<String, Object>> getEntryStats(String folder, int maxCount)
+            throws IOException {
+        // Only the entries are copied while holding the lock, so that
+        // filtering and formatting them doesn't hold up everything else.
+        final Object[] snapshot;
+        synchronized (lock) {
+            drainAccesses();
+            snapshot = entries.entrySet().toArray();
+        }
+        final List<Map<String, Object>> stats = new ArrayList<>();
+        for (int i = snapshot.length - 1;
+             i >= 0 && stats.size() < maxCount; i--) {
+            @SuppressWarnings("unchecked")
+            final Map.Entry<String, Entry> entry =
+                    (Map.Entry<String, Entry>) snapshot[i];
+            if (!isInFolder(entry.getKey(), folder)) {
+                continue;
+            }
+            final Entry value = entry.getValue();
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("path", entry.getKey());
+            map.put("size", value.size);
+            map.put("hits", value.hits);
+            map.put("last_accessed", value.lastAccessed);
+            stats.add(map);
+        }
+        return stats;
+    }
+
+    /**
+     * @return Number of indexed files, not including temp files.
+     */
+    int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Loads the index from the log, or crawls the cache tree to build it if
+     * there is no log, and then writes out a fresh snapshot. The loading
+     * happens in a separate instance, which is merged into this one when it
+     * is complete, so this one remains usable in the meantime.
+     */
+    void load() throws IOException {
+        final FilesystemCacheIndex loaded =
+                new FilesystemCacheIndex(rootDir, indexDir, indexedFolders);
+        try {
+            synchronized (lock) {
+                if (isClosed) {
+                    return;
+                }
+                loading = loaded;
+            }
+            Files.createDirectories(indexDir);
+            final File logFile = logFile();
+            synchronized (loaded.lock) {
+                if (logFile.exists()) {
+                    loaded.replay(logFile);
+                } else {
+                    loaded.crawl();
+                }
+            }
+            synchronized (lock) {
+                if (isClosed) {
+                    return;
+                }
+                drainAccesses();
+                merge(loaded);
+                keysRemovedWhileLoading = null;
+                writeSnapshot();
+                LOGGER.info("load(): {} files ({} bytes) and {} temp files " +
+                        "indexed", entries.size(), byteSize, tempFiles.size());
+            }
+        } finally {
+            synchronized (lock) {
+                // If loading failed, the instance continues without a log.
+                keysRemovedWhileLoading = null;
+                loading = null;
+            }
+            loadLatch.countDown();
+        }
+    }
+
+    /**
+     * Records the removal of a file.
+     */
+    void removed(File file) throws IOException {
+        final String key = key(file);
+        synchronized (lock) {
+            if (remove(key) != null) {
+                append(REMOVED, key, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * <p>Removes orphaned temp files, and zero-byte files, that were created
+     * or last accessed more than the given number of milliseconds ago, from
+     * the index.</p>
+     *
+     * @param minAge Minimum age in milliseconds.
+     * @return Removed files, which the caller must delete.
+     */
+    List<File> removeCleanable(long minAge) throws IOException {
+        final long threshold = System.currentTimeMillis() - minAge;
+        final List<File> files = new ArrayList<>();
+        synchronized (lock) {
+            final Iterator<Map.Entry<String, Long>> tempIt =
+                    tempFiles.entrySet().iterator();
+            while (tempIt.hasNext()) {
+                final Map.Entry<String, Long> temp = tempIt.next();
+                if (temp.getValue() < threshold) {
+                    tempIt.remove();
+                    forget(temp.getKey());
+                    append(TEMP_REMOVED, temp.getKey(), 0, 0);
+                    files.add(file(temp.getKey()));
+                }
+            }
+            final Iterator<Map.Entry<String, Entry>> it =
+                    entries.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Entry> entry = it.next();
+                if (entry.getValue().size == 0 &&
+                        entry.getValue().lastAccessed < threshold) {
+                    it.remove();
+                    forget(entry.getKey());
+                    append(REMOVED, entry.getKey(), 0, 0);
+                    files.add(file(entry.getKey()));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Removes entries in least-recently-accessed order until the total size
+     * of all entries is no greater than the given size.
+     *
+     * @param maxByteSize Maximum total size.
+     * @return Removed files, which the caller must delete.
+     */
+    List<File> removeExcess(long maxByteSize) throws IOException {
+        final List<File> files = new ArrayList<>();
+        synchronized (lock) {
+            drainAccesses();
+            final Iterator<Map.Entry<String, Entry>> it =
+                    entries.entrySet().iterator();
+            while (byteSize > maxByteSize && it.hasNext()) {
+                final Map.Entry<String, Entry> entry = it.next();
+                it.remove();
+                forget(entry.getKey());
+                subtractSize(entry.getKey(), entry.getValue().size);
+                append(REMOVED, entry.getKey(), 0, 0);
+                files.add(file(entry.getKey()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * <p>Removes entries in the given folder until the total size of the
+     * entries in it is no greater than the given size. Entries that were
+     * accessed within the last <code>minAgeMsec</code> milliseconds, which
+     * may still be being read, are not removed.</p>
+     *
+     * <p>If <code>frequency</code> is <code>null</code>, entries are removed
+     * in least-recently-accessed order. Otherwise, each removed entry is the
+     * one with the lowest frequency among the {@link #EVICTION_SAMPLE_SIZE}
+     * least recently accessed ones, so that an entry that is accessed often,
+     * but not especially recently, survives a burst of entries that are only
+     * accessed once.</p>
+     *
+     * @param maxByteSize Maximum total size of the entries in the folder.
+     * @param folder      Name of a folder within the root directory.
+     * @param minAgeMsec  Minimum time since an entry was last accessed for it
+     *                    to be removable.
+     * @param frequency   Function returning an access frequency estimate of
+     *                    an entry given its root-relative pathname. May be
+     *                    <code>null</code>.
+     * @return Removed files, which the caller must delete.
+     */
+    List<File> removeExcess(long maxByteSize,
+                            String folder,
+                            long minAgeMsec,
+                            ToIntFunction<String> frequency)
+            throws IOException {
+        final long threshold = System.currentTimeMillis() - minAgeMsec;
+        final int sampleSize = (frequency != null) ? EVICTION_SAMPLE_SIZE : 1;
+        final List<File> files = new ArrayList<>();
+        synchronized (lock) {
+            drainAccesses();
+            // Walk the entries once, keeping a window of the sampleSize least
+            // recently accessed candidates that have not been chosen yet, and
+            // choosing a victim from it whenever it is full (and once more
+            // for each victim still needed at the end). The victims can't be
+            // removed until the walk is over.
+            final List<String> victims = new ArrayList<>();
+            final LinkedList<Map.Entry<String, Entry>> window =
+                    new LinkedList<>();
+            long folderSize = folderByteSizes.getOrDefault(folder, 0L);
+            final Iterator<Map.Entry<String, Entry>> it =
+                    entries.entrySet().iterator();
+            boolean isWalking = true;
+            while (folderSize > maxByteSize) {
+                if (isWalking && window.size() < sampleSize) {
+                    if (!it.hasNext()) {
+                        isWalking = false;
+                        continue;
+                    }
+                    final Map.Entry<String, Entry> entry = it.next();
+                    if (entry.getValue().lastAccessed > threshold) {
+                        // Everything after it is even more recent.
+                        isWalking = false;
+                    } else if (isInFolder(entry.getKey(), folder)) {
+                        window.add(entry);
+                    }
+                    continue;
+                }
+                if (window.isEmpty()) {
+                    break;
+                }
+                Map.Entry<String, Entry> victim = null;
+                int victimFrequency = Integer.MAX_VALUE;
+                for (Map.Entry<String, Entry> entry : window) {
+                    final int f = (frequency != null) ?
+                            frequency.applyAsInt(entry.getKey()) : 0;
+                    if (f < victimFrequency) {
+                        victim = entry;
+                        victimFrequency = f;
+                    }
+                }
+                window.remove(victim);
+                victims.add(victim.getKey());
+                folderSize -= victim.getValue().size;
+            }
+            for (String victim : victims) {
+                remove(victim);
+                append(REMOVED, victim, 0, 0);
+                files.add(file(victim));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Removes entries in the given folders that were last accessed more than
+     * the given number of milliseconds ago. As entries are stored in access
+     * order, this stops at the first unexpired entry rather than checking
+     * every one.
+     *
+     * @param ttlMsec Time-to-live in milliseconds.
+     * @param folders Names of the folders within the root directory from
+     *                which to remove expired entries.
+     * @return Removed files, which the caller must delete.
+     */
+    List<File> removeExpired(long ttlMsec, String... folders)
+            throws IOException {
+        final long threshold = System.currentTimeMillis() - ttlMsec;
+        final List<File> files = new ArrayList<>();
+        synchronized (lock) {
+            drainAccesses();
+            final Iterator<Map.Entry<String, Entry>> it =
+                    entries.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Entry> entry = it.next();
+                if (entry.getValue().lastAccessed >= threshold) {
+                    break;
+                }
+                if (isInFolder(entry.getKey(), folders)) {
+                    it.remove();
+                    forget(entry.getKey());
+                    subtractSize(entry.getKey(), entry.getValue().size);
+                    append(REMOVED, entry.getKey(), 0, 0);
+                    files.add(file(entry.getKey()));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Records the creation of a temp file.
+     */
+    void tempFileAdded(File file) throws IOException {
+        final String key = key(file);
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            tempFiles.put(key, now);
+            append(TEMP_ADDED, key, 0, now);
+        }
+    }
+
+    /**
+     * Records the removal (or renaming) of a temp file.
+     */
+    void tempFileRemoved(File file) throws IOException {
+        final String key = key(file);
+        synchronized (lock) {
+            forget(key);
+            if (tempFiles.remove(key) != null) {
+                append(TEMP_REMOVED, key, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * <p>Updates the last-accessed time of the given file to the current
+     * time. If the file is not indexed, it is added to the index using its
+     * last-modified time as its last-accessed time.</p>
+     *
+     * <p>Unless the file has to be added, this does not take the lock; the
+     * access is buffered and applied to the access order later.</p>
+     *
+     * @param file Existing file.
+     * @return The file's last-accessed time before it was updated.
+     */
+    long touch(File file) throws IOException {
+        final String key = key(file);
+        final long now = System.currentTimeMillis();
+        final Entry entry = lookup.get(key);
+        if (entry == null) {
+            return adopt(key, file, now);
+        }
+        final long lastAccessed = entry.lastAccessed;
+        entry.lastAccessed = now;
+        accessBuffer.add(new Access(key, entry, now));
+        if (accessBufferSize.incrementAndGet() >=
+                ACCESS_BUFFER_DRAIN_THRESHOLD &&
+                isDrainScheduled.compareAndSet(false, true)) {
+            scheduleDrain();
+        }
+        return lastAccessed;
+    }
+
+    /**
+     * Indexes an unindexed file that has been accessed.
+     *
+     * @see #touch(File)
+     */
+    private long adopt(String key, File file, long now) throws IOException {
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(file.length(), file.lastModified());
+                put(key, entry);
+                append(ADDED, key, entry.size, entry.lastAccessed);
+            }
+            final long lastAccessed = entry.lastAccessed;
+            entry.lastAccessed = now;
+            entry.hits++;
+            if (now - entry.lastLoggedAccess > ACCESS_LOG_INTERVAL) {
+                entry.lastLoggedAccess = now;
+                append(ACCESSED, key, 0, now);
+            }
+            return lastAccessed;
+        }
+    }
+
+    private void scheduleDrain() {
+        final Runnable task = () -> {
+            try {
+                synchronized (lock) {
+                    if (!isClosed) {
+                        drainAccesses();
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("scheduleDrain(): {}", e.getMessage());
+            } finally {
+                isDrainScheduled.set(false);
+            }
+        };
+        try {
+            ThreadPool.getInstance().submit(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Replaces the log with one containing only the minimum number of records
+     * needed to reconstruct the current state, like {@link #writeSnapshot()},
+     * but holding the lock only to capture the state and to swap in the new
+     * log, so that the index remains usable while it is being written. Records
+     * logged in the meantime are appended to it.
+     */
+    void compact() throws IOException {
+        final List<Record> records = new ArrayList<>();
+        final int snapshot;
+        synchronized (lock) {
+            if (log == null || recordsSinceCapture != null) {
+                return;
+            }
+            drainAccesses();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                records.add(new Record(ADDED, entry.getKey(),
+                        entry.getValue().size, entry.getValue().lastAccessed));
+            }
+            for (Map.Entry<String, Long> temp : tempFiles.entrySet()) {
+                records.add(new Record(TEMP_ADDED, temp.getKey(), 0,
+                        temp.getValue()));
+            }
+            recordsSinceCapture = new ByteArrayOutputStream();
+            numRecordsSinceCapture = 0;
+            snapshot = numSnapshots;
+        }
+
+        final File logFile = logFile();
+        final File tempFile = new File(logFile.getAbsolutePath() +
+                ".compact" + TEMP_EXTENSION);
+        boolean isReplaced = false;
+        try {
+            try (DataOutputStream os = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                for (Record record : records) {
+                    writeRecord(os, record.type, record.key, record.size,
+                            record.time);
+                }
+                synchronized (lock) {
+                    // If the log has been closed, or replaced by a snapshot,
+                    // in the meantime, what was captured is out of date.
+                    if (log == null || numSnapshots != snapshot) {
+                        return;
+                    }
+                    recordsSinceCapture.writeTo(os);
+                    os.close();
+                    closeLog();
+                    Files.move(tempFile.toPath(), logFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    isReplaced = true;
+                    numRecords = records.size() + numRecordsSinceCapture;
+                    log = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(logFile, true)));
+                    LOGGER.debug("compact(): compacted the log into {} records",
+                            numRecords);
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                recordsSinceCapture = null;
+            }
+            if (!isReplaced) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (!isCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final Runnable task = () -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.warn("scheduleCompaction(): {}", e.getMessage());
+            } finally {
+                isCompactionScheduled.set(false);
+            }
+        };
+        try {
+            ThreadPool.getInstance().submit(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    // All methods below must be called while holding lock.
+    ////////////////////////////////////////////////////////////////////////
+
+    private void append(byte type, String key, long size, long time)
+            throws IOException {
+        write(type, key, size, time);
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOGGER.warn("closeLog(): {}", e.getMessage());
+            }
+            log = null;
+        }
+    }
+
+    /**
+     * Applies all buffered accesses to the access order, and logs them,
+     * flushing the log only once.
+     */
+    private void drainAccesses() throws IOException {
+        boolean isWritten = false;
+        Access access;
+        while ((access = accessBuffer.poll()) != null) {
+            accessBufferSize.decrementAndGet();
+            // This moves the entry to the end of the access order. If the
+            // entry has been removed or replaced, the access is moot.
+            if (entries.get(access.key) != access.entry) {
+                continue;
+            }
+            access.entry.hits++;
+            if (access.time - access.entry.lastLoggedAccess >
+                    ACCESS_LOG_INTERVAL) {
+                access.entry.lastLoggedAccess = access.time;
+                write(ACCESSED, access.key, 0, access.time);
+                isWritten = true;
+            }
+        }
+        if (isWritten && log != null) {
+            log.flush();
+        }
+    }
+
+    /**
+     * Builds the index from the files in the cache tree.
+     */
+    private void crawl() throws IOException {
+        LOGGER.info("crawl(): no index found; building one from {}", rootDir);
+        final List<Map.Entry<String, Entry>> found = new ArrayList<>();
+        for (String folder : indexedFolders) {
+            final Path dir = rootDir.resolve(folder);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path,
+                                                 BasicFileAttributes attrs) {
+                    if (isClosed) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    final String key = key(path.toFile());
+                    final long time = attrs.lastModifiedTime().toMillis();
+                    if (key.endsWith(TEMP_EXTENSION)) {
+                        tempFiles.put(key, time);
+                    } else {
+                        found.add(new AbstractMap.SimpleImmutableEntry<>(
+                                key, new Entry(attrs.size(), time)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path,
+                                                       IOException e) {
+                    LOGGER.warn("crawl(): {}", e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        // Insert them in access order.
+        found.sort((a, b) -> Long.compare(a.getValue().lastAccessed,
+                b.getValue().lastAccessed));
+        for (Map.Entry<String, Entry> entry : found) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private File file(String key) {
+        return rootDir.resolve(key).toFile();
+    }
+
+    /**
+     * Records that the given entry or temp file key has been removed.
+     * {@link #entries} and {@link #tempFiles} are the caller's
+     * responsibility.
+     */
+    private void forget(String key) {
+        lookup.remove(key);
+        if (keysRemovedWhileLoading != null) {
+            keysRemovedWhileLoading.add(key);
+        }
+    }
+
+    private static boolean isInFolder(String key, String... folders) {
+        for (String folder : folders) {
+            if (key.startsWith(folder + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Root-relative pathname of the given file.
+     */
+    String key(File file) {
+        return rootDir.relativize(file.toPath().toAbsolutePath()).toString();
+    }
+
+    private File logFile() {
+        return indexDir.resolve(LOG_FILENAME).toFile();
+    }
+
+    /**
+     * Merges the contents of an instance that has been {@link #load()
+     * loaded} into this one, leaving out whatever has been removed from this
+     * one in the meantime. Entries in this one are more recent, so they take
+     * precedence and end up last in access order.
+     */
+    private void merge(FilesystemCacheIndex loaded) {
+        if (isClearedWhileLoading) {
+            return;
+        }
+        final List<Map.Entry<String, Entry>> current =
+                new ArrayList<>(entries.entrySet());
+        entries.clear();
+        lookup.clear();
+        byteSize = 0;
+        folderByteSizes.clear();
+        for (Map.Entry<String, Entry> entry : loaded.entries.entrySet()) {
+            if (!keysRemovedWhileLoading.contains(entry.getKey())) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Entry> entry : current) {
+            put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Long> temp : loaded.tempFiles.entrySet()) {
+            if (!keysRemovedWhileLoading.contains(temp.getKey())) {
+                tempFiles.putIfAbsent(temp.getKey(), temp.getValue());
+            }
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        lookup.put(key, entry);
+        final Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            subtractSize(key, previous.size);
+        }
+        byteSize += entry.size;
+        folderByteSizes.merge(folderOf(key), entry.size, Long::sum);
+    }
+
+    private Entry remove(String key) {
+        forget(key);
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            subtractSize(key, entry.size);
+        }
+        return entry;
+    }
+
+    private void subtractSize(String key, long size) {
+        byteSize -= size;
+        folderByteSizes.merge(folderOf(key), -size, Long::sum);
+    }
+
+    /**
+     * @return Name of the top-level folder containing the given key.
+     */
+    private static String folderOf(String key) {
+        final int i = key.indexOf(File.separator);
+        return (i > 0) ? key.substring(0, i) : "";
+    }
+
+    /**
+     * Replays the given log. A truncated final record, which may be the
+     * result of a crash, is ignored.
+     */
+    private void replay(File logFile) throws IOException {
+        int count = 0;
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (!isClosed) {
+                final byte type = is.readByte();
+                final String key = is.readUTF();
+                final long size = is.readLong();
+                final long time = is.readLong();
+                switch (type) {
+                    case ADDED:
+                        put(key, new Entry(size, time));
+                        break;
+                    case ACCESSED:
+                        final Entry entry = entries.get(key);
+                        if (entry != null) {
+                            entry.lastAccessed = time;
+                            entry.lastLoggedAccess = time;
+                        }
+                        break;
+                    case REMOVED:
+                        remove(key);
+                        break;
+                    case TEMP_ADDED:
+                        tempFiles.put(key, time);
+                        break;
+                    case TEMP_REMOVED:
+                        tempFiles.remove(key);
+                        break;
+                    default:
+                        throw new IOException("Unrecognized record type: " +
+                                type + " in " + logFile);
+                }
+                count++;
+            }
+        } catch (EOFException e) {
+            LOGGER.debug("replay(): read {} records from {}", count, logFile);
+        }
+    }
+
+    /**
+     * Writes a record to the log without flushing it, scheduling compaction
+     * of the log if it has gotten too big.
+     */
+    private void write(byte type, String key, long size, long time)
+            throws IOException {
+        if (log == null) {
+            return;
+        }
+        writeRecord(log, type, key, size, time);
+        numRecords++;
+        if (recordsSinceCapture != null) {
+            writeRecord(new DataOutputStream(recordsSinceCapture),
+                    type, key, size, time);
+            numRecordsSinceCapture++;
+        }
+
+        if (numRecords > MIN_COMPACTABLE_RECORDS &&
+                numRecords > 2 * (entries.size() + tempFiles.size())) {
+            LOGGER.debug("write(): scheduling compaction of {} records",
+                    numRecords);
+            scheduleCompaction();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream os, byte type,
+                                    String key, long size, long time)
+            throws IOException {
+        os.writeByte(type);
+        os.writeUTF(key);
+        os.writeLong(size);
+        os.writeLong(time);
+    }
+
+    /**
+     * Replaces the log with one containing only the minimum number of records
+     * needed to reconstruct the current state.
+     */
+    private void writeSnapshot() throws IOException {
+        closeLog();
+        final File logFile = logFile();
+        final File tempFile = new File(logFile.getAbsolutePath() +
+                TEMP_EXTENSION);
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeRecord(os, ADDED, entry.getKey(),
+                        entry.getValue().size, entry.getValue().lastAccessed);
+            }
+            for (Map.Entry<String, Long> temp : tempFiles.entrySet()) {
+                writeRecord(os, TEMP_ADDED, temp.getKey(), 0, temp.getValue());
+            }
+        }
+        Files.move(tempFile.toPath(), logFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        numSnapshots++;
+        numRecords = entries.size() + tempFiles.size();
+        log = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(logFile, true)));
+    }
+
+}
@@ -0,0 +1,105 @@
+package edu.illinois.library.cantaloupe.cache;
+
+/**
+ * <p>Approximate, aging record of how often keys have been accessed, as used
+ * by the TinyLFU admission policy. This is a count-min sketch of four rows
+ * of 4-bit counters, so memory usage is fixed regardless of the number of
+ * distinct keys. Estimates may be too high (when keys collide in every row)
+ * but never too low.</p>
+ *
+ * <p>Once the number of recorded accesses reaches ten times the width of the
+ * sketch, all counters are halved, so that keys that were popular long ago
+ * don't stay popular forever.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @since 3.4
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+
+    /** Odd multipliers used to derive a different hash for each row. */
+    private static final int[] SEEDS = {
+            0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int resetThreshold;
+    private int numAdditions = 0;
+
+    /**
+     * @param expectedNumKeys Expected number of distinct keys, which
+     *                        determines the width of the sketch.
+     */
+    FrequencySketch(int expectedNumKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedNumKeys) - 1) << 1;
+        width = Math.min(width, 1 << 24);
+        counters = new byte[DEPTH][width];
+        mask = width - 1;
+        resetThreshold = 10 * width;
+    }
+
+    /**
+     * @return Estimated number of times the given key has been
+     *         {@link #increment(String) incremented} (since it was last
+     *         halved), between 0 and 15.
+     */
+    synchronized int frequency(String key) {
+        final int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters[row][index(hash, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Records an access to the given key.
+     */
+    synchronized void increment(String key) {
+        final int hash = spread(key.hashCode());
+        // Conservative update: only increment the counters that are at the
+        // current minimum, which reduces overestimation.
+        final int frequency = frequency(key);
+        if (frequency >= MAX_COUNT) {
+            return;
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            final int i = index(hash, row);
+            if (counters[row][i] == frequency) {
+                counters[row][i]++;
+            }
+        }
+        if (++numAdditions >= resetThreshold) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all counters.
+     */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        numAdditions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xED5AD4BB;
+        hash ^= hash >>> 11;
+        return hash;
+    }
+
+}
@@ -0,0 +1,187 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>File that is being written in one thread and may be read in others at
+ * the same time. The writer reports its progress via {@link #advance(long)},
+ * and {@link #complete()} or {@link #abandon()} when it is done. Readers
+ * obtain streams via {@link #newInputStream()}, which block at the end of the
+ * data that has been written so far until more becomes available.</p>
+ *
+ * <p>Streams keep reading the same file even if it is renamed after they have
+ * been opened, which is the case on POSIX platforms.</p>
+ *
+ * @since 3.4
+ */
+final class GrowingFile {
+
+    private enum State {
+        WRITING, COMPLETE, ABANDONED
+    }
+
+    private class GrowingFileInputStream extends InputStream {
+
+        private final InputStream fileInputStream;
+        private long position = 0;
+
+        GrowingFileInputStream() throws FileNotFoundException {
+            fileInputStream = new FileInputStream(file);
+        }
+
+        /**
+         * Blocks until there is data to read, or no more is coming.
+         *
+         * @return Number of bytes that can be read without blocking, or
+         *         {@literal -1} at the end of the file.
+         */
+        private long awaitData() throws IOException {
+            synchronized (monitor) {
+                final long deadline =
+                        System.currentTimeMillis() + STALL_TIMEOUT_MSEC;
+                while (true) {
+                    if (length > position) {
+                        return length - position;
+                    }
+                    switch (state) {
+                        case COMPLETE:
+                            return -1;
+                        case ABANDONED:
+                            throw new IOException("Writing of " + file +
+                                    " was abandoned");
+                    }
+                    final long remainingMsec =
+                            deadline - System.currentTimeMillis();
+                    if (remainingMsec <= 0) {
+                        throw new IOException("Timed out waiting for " + file);
+                    }
+                    try {
+                        monitor.wait(remainingMsec);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(0, length - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileInputStream.close();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (awaitData() < 0) {
+                return -1;
+            }
+            int b = fileInputStream.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final long available = awaitData();
+            if (available < 0) {
+                return -1;
+            }
+            final int n = fileInputStream.read(b, off,
+                    (int) Math.min(len, available));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+    }
+
+    /**
+     * Time for which a reader will wait without the file growing before
+     * giving up.
+     */
+    static final long STALL_TIMEOUT_MSEC = 60000;
+
+    private final File file;
+    private volatile long length = 0;
+    private final Object monitor = new Object();
+    private volatile State state = State.WRITING;
+
+    /**
+     * @param file File being written.
+     */
+    GrowingFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Signals to readers that no more data will be written, and that they
+     * should fail. Does nothing if {@link #complete()} has already been
+     * called.
+     */
+    void abandon() {
+        synchronized (monitor) {
+            if (state == State.WRITING) {
+                state = State.ABANDONED;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Signals to readers that the given number of bytes have been appended to
+     * the file.
+     */
+    void advance(long numBytes) {
+        synchronized (monitor) {
+            length += numBytes;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Signals to readers that the file has been written completely.
+     */
+    void complete() {
+        synchronized (monitor) {
+            if (state == State.WRITING) {
+                state = State.COMPLETE;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return New stream that reads the file from the beginning.
+     * @throws FileNotFoundException if the file no longer exists (for
+     *         example, because it has been moved into place after being
+     *         written).
+     */
+    InputStream newInputStream() throws FileNotFoundException {
+        return new GrowingFileInputStream();
+    }
+
+}
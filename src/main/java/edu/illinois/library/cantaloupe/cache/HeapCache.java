@@ -1,5 +1,10 @@
 package edu.illinois.library.cantaloupe.cache;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.protobuf.ByteString;
 import edu.illinois.library.cantaloupe.ThreadPool;
 import edu.illinois.library.cantaloupe.config.Configuration;
@@ -7,52 +12,57 @@ import edu.illinois.library.cantaloupe.config.ConfigurationException;
 import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 
 import static edu.illinois.library.cantaloupe.config.Key.*;
 
 /**
- * <p>Heap-based LRU cache.</p>
+ * <p>Heap-based cache backed by a byte-weighted
+ * <a href="https://github.com/ben-manes/caffeine">Caffeine</a> cache.</p>
  *
- * <p>This implementation is size-limited rather than time-limited. When the
- * target size
+ * <p>This implementation is size-limited rather than time-limited. The byte
+ * size of the contents is tracked as items are added and removed, and when
+ * the target size
  * ({@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_TARGET_SIZE})
- * has been exceeded, the minimum number of least-recently-accessed items are
- * purged that will reduce it back down to this size. (The configured target
- * size may be safely changed while the application is running.)</p>
+ * is exceeded, items are evicted right away, according to their recency and
+ * frequency of access, until it no longer is. Access order is recorded
+ * without locking. (The configured target size may be safely changed while
+ * the application is running; it is re-read periodically by a worker.)</p>
+ *
+ * <p>When {@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_OFF_HEAP}
+ * is enabled, derivative images are stored outside of the Java heap by an
+ * {@link OffHeapStore}, and only their keys and locations are kept on the
+ * heap. This keeps a large cache from inflating the old generation and
+ * lengthening garbage collection pauses. (Infos are always stored on the
+ * heap.)</p>
  *
  * <p>Because this cache is not time-limited,
  * {@link edu.illinois.library.cantaloupe.config.Key#CACHE_SERVER_TTL} does not
  * apply.</p>
  *
- * <p>The cache supports startup/shutdown persistence, using
+ * <p>The cache supports persistence, using
  * {@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_PERSIST}. When
- * enabled, its contents will be serialized to a file on application shutdown,
- * and read back in at startup. The file is coded using
+ * enabled, changes to its contents are appended to segment files in the
+ * background as they happen, and the segments are read back in, also in the
+ * background, at startup. (See {@link HeapCachePersistentStore}.) Records are
+ * coded using
  * <a href="https://developers.google.com/protocol-buffers/">Google Protocol
  * Buffers</a>.</p>
  *
@@ -68,17 +78,140 @@ class HeapCache implements DerivativeCache {
      *
      * <p>Storing infos as strings makes access less efficient but map size
      * computation more efficient.</p>
+     *
+     * <p>Off-heap items are reference-counted, so that their memory can be
+     * reused only after they have been removed from the cache and all of
+     * their readers have finished reading them.</p>
      */
     static class Item {
 
         private byte[] data;
+        private OffHeapStore store;
+        private OffHeapStore.Region region;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        private volatile long lastAccessedTime;
+        private volatile boolean isLoaded = false;
 
+        /**
+         * On-heap constructor.
+         */
         Item(byte[] data) {
             this.data = data;
+            touch();
         }
 
+        /**
+         * Off-heap constructor.
+         */
+        Item(OffHeapStore store, OffHeapStore.Region region) {
+            this.store = store;
+            this.region = region;
+            touch();
+        }
+
+        /**
+         * @return Item data, which, for off-heap items, is a copy. May be
+         *         <code>null</code> if the item has already been released.
+         */
         byte[] getData() {
-            return data;
+            if (data != null) {
+                return data;
+            }
+            try (InputStream is = newInputStream()) {
+                return (is != null) ? IOUtils.toByteArray(is) : null;
+            } catch (IOException e) { // this will never happen
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        long getLastAccessedTime() {
+            return lastAccessedTime;
+        }
+
+        void setLastAccessedTime(long time) {
+            this.lastAccessedTime = time;
+        }
+
+        void setLoaded(boolean isLoaded) {
+            this.isLoaded = isLoaded;
+        }
+
+        /**
+         * @return Number of bytes occupied by the item.
+         */
+        int getWeight() {
+            if (data != null) {
+                return data.length;
+            }
+            return region.getNumBlocks() * store.getBlockSize();
+        }
+
+        /**
+         * @return Whether the item was loaded from the persistent store.
+         */
+        boolean isLoaded() {
+            return isLoaded;
+        }
+
+        boolean isOffHeap() {
+            return region != null;
+        }
+
+        /**
+         * @return New stream from which to read the data, or
+         *         <code>null</code> if the item has already been released.
+         */
+        InputStream newInputStream() {
+            if (data != null) {
+                return new ByteArrayInputStream(data);
+            } else if (!retain()) {
+                return null;
+            }
+            return new FilterInputStream(store.newInputStream(region)) {
+                private boolean isClosed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if (!isClosed) {
+                        isClosed = true;
+                        release();
+                    }
+                    super.close();
+                }
+            };
+        }
+
+        /**
+         * Decrements the reference count, freeing the item's off-heap memory
+         * when it reaches zero.
+         */
+        void release() {
+            if (refCount.decrementAndGet() == 0 && region != null) {
+                store.free(region);
+            }
+        }
+
+        /**
+         * Increments the reference count, unless it has already reached zero.
+         *
+         * @return Whether the reference count was incremented.
+         */
+        private boolean retain() {
+            while (true) {
+                final int count = refCount.get();
+                if (count < 1) {
+                    return false;
+                } else if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Updates the last-accessed time.
+         */
+        void touch() {
+            lastAccessedTime = System.currentTimeMillis();
         }
 
     }
@@ -87,11 +220,10 @@ class HeapCache implements DerivativeCache {
      * Item key. There are different constructors depending on what the
      * instance is intended to point to.
      */
-    static class Key implements Comparable<Key> {
+    static class Key {
 
         private String imageId;
         private String opList;
-        private long lastAccessedTime;
 
         /**
          * Info constructor.
@@ -100,7 +232,6 @@ class HeapCache implements DerivativeCache {
          */
         Key(String imageId) {
             this.imageId = imageId;
-            touch();
         }
 
         /**
@@ -116,11 +247,6 @@ class HeapCache implements DerivativeCache {
             this.opList = opList;
         }
 
-        @Override
-        public int compareTo(Key o) {
-            return equals(o) ? 0 : 1;
-        }
-
         @Override
         public boolean equals(Object obj) {
             if (obj == this) {
@@ -132,15 +258,11 @@ class HeapCache implements DerivativeCache {
             return super.equals(obj);
         }
 
-        private String getIdentifier() {
+        String getIdentifier() {
             return imageId;
         }
 
-        private long getLastAccessedTime() {
-            return lastAccessedTime;
-        }
-
-        private String getOperationList() {
+        String getOperationList() {
             return opList;
         }
 
@@ -149,49 +271,73 @@ class HeapCache implements DerivativeCache {
             return toString().hashCode();
         }
 
-        synchronized void setLastAccessedTime(long time) {
-            this.lastAccessedTime = time;
-        }
-
         @Override
         public String toString() {
             return (getOperationList() != null) ?
                     getOperationList() : getIdentifier();
         }
 
-        /**
-         * Updates the last-accessed time.
-         */
-        synchronized void touch() {
-            lastAccessedTime = System.currentTimeMillis();
-        }
-
     }
 
     /**
      * Buffers written data and adds it to the cache upon closure.
      */
-    private class HeapCacheOutputStream extends OutputStream {
+    private class HeapCacheOutputStream extends AbortableOutputStream {
 
         private OperationList opList;
-        private ByteArrayOutputStream wrappedStream =
-                new ByteArrayOutputStream();
+        private OutputStream wrappedStream;
+        private boolean isClosed = false;
 
         HeapCacheOutputStream(OperationList opList) {
             this.opList = opList;
+            wrappedStream = (offHeapStore != null) ?
+                    offHeapStore.newOutputStream() :
+                    new ByteArrayOutputStream();
         }
 
+        @Override
+        public void abort() {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            logger.debug("Aborting stream for {}", opList);
+            if (wrappedStream instanceof OffHeapStore.RegionOutputStream) {
+                ((OffHeapStore.RegionOutputStream) wrappedStream).abort();
+            }
+            wrappedStream = new ByteArrayOutputStream();
+        }
+
+        /**
+         * N.B.: This implementation can cope with being called multiple times,
+         * which is important. See inline doc in
+         * {@link edu.illinois.library.cantaloupe.resource.ImageRepresentation#write}
+         * for more info.
+         */
         @Override
         public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
             logger.debug("Closing stream for {}", opList);
-            Key key = itemKey(opList);
-            Item item = new Item(wrappedStream.toByteArray());
-            cache.put(key, item);
             try {
                 super.close();
             } finally {
                 wrappedStream.close();
             }
+            Key key = itemKey(opList);
+            Item item;
+            if (wrappedStream instanceof OffHeapStore.RegionOutputStream) {
+                item = new Item(offHeapStore,
+                        ((OffHeapStore.RegionOutputStream) wrappedStream).getRegion());
+            } else {
+                item = new Item(((ByteArrayOutputStream) wrappedStream).toByteArray());
+            }
+            cache.put(key, item);
+            if (persistentStore != null) {
+                persistentStore.added(key);
+            }
         }
 
         @Override
@@ -212,7 +358,7 @@ class HeapCache implements DerivativeCache {
     }
 
     /**
-     * Periodically purges excess contents from the cache.
+     * Periodically applies changes in the target size to the cache.
      */
     private class Worker implements Runnable {
 
@@ -226,8 +372,12 @@ class HeapCache implements DerivativeCache {
                 if (workerShouldWork.get()) {
                     try {
                         purgeExcess();
-                        logger.debug("Cache size: {} items ({} bytes)",
-                                size(), getByteSize());
+                        logger.debug("Cache size: {} items ({} bytes); {}",
+                                size(), getByteSize(), getStats());
+                        if (offHeapStore != null) {
+                            logger.debug("Off-heap memory: {} bytes allocated",
+                                    offHeapStore.getAllocatedByteSize());
+                        }
                         Thread.sleep(INTERVAL_SECONDS * 1000);
                     } catch (ConfigurationException e) {
                         logger.error("run(): {}", e.getMessage());
@@ -246,74 +396,71 @@ class HeapCache implements DerivativeCache {
     private static final Logger logger = LoggerFactory.
             getLogger(HeapCache.class);
 
-    private final ConcurrentMap<Key, Item> cache = new ConcurrentHashMap<>();
+    /**
+     * Largest maximum weight accepted by Caffeine, used when the target size
+     * is not (yet) validly configured.
+     */
+    private static final long MAX_WEIGHT = Long.MAX_VALUE - Integer.MAX_VALUE;
+
+    private volatile LongConsumer evictionListener = n -> {};
     private final AtomicBoolean isDirty = new AtomicBoolean(false);
     private final AtomicBoolean workerShouldWork = new AtomicBoolean(true);
+    private final Cache<Key, Item> cache;
 
     /**
-     * <p>Dumps the cache contents to the file specified by
+     * Null unless {@link
+     * edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_OFF_HEAP} is
+     * enabled.
+     */
+    private final OffHeapStore offHeapStore;
+
+    /**
+     * Initialized by {@link #getPersistentStore()}.
+     */
+    private volatile HeapCachePersistentStore persistentStore;
+
+    HeapCache() {
+        offHeapStore = Configuration.getInstance().
+                getBoolean(HEAPCACHE_OFF_HEAP, false) ?
+                new OffHeapStore() : null;
+
+        long maxWeight;
+        try {
+            maxWeight = getTargetByteSize();
+        } catch (ConfigurationException e) {
+            // The worker will log this.
+            maxWeight = MAX_WEIGHT;
+        }
+        cache = Caffeine.newBuilder().
+                maximumWeight(maxWeight).
+                weigher((Key key, Item item) -> item.getWeight()).
+                removalListener((Key key, Item item, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        isDirty.lazySet(true);
+                        evictionListener.accept(1);
+                    }
+                    item.release();
+                }).
+                recordStats().
+                build();
+    }
+
+    /**
+     * <p>Rewrites the cache contents into a fresh set of segments in the
+     * directory specified by
      * {@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_PATHNAME},
-     * first deleting the file that already exists at that path, if any.</p>
+     * deleting any older segments.</p>
      *
      * <p>{@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_PERSIST}
      * is <strong>not</strong> respected.</p>
+     *
+     * @see HeapCachePersistentStore#compact()
      */
-    synchronized void dumpToPersistentStore() throws IOException {
-        final Configuration config = Configuration.getInstance();
-        final String pathname = config.getString(HEAPCACHE_PATHNAME);
-        if (pathname != null && pathname.length() > 0) {
-            final Path path = Paths.get(pathname);
-            // Delete any existing file that is in the way.
-            Files.deleteIfExists(path);
-            // Create any necessary directories up to the parent.
-            Files.createDirectories(path.getParent());
-            // Write out the contents.
-            logger.info("dumpToPersistentStore(): dumping to {}...", path);
-
-            final long size = size();
-            final long byteSize = getByteSize();
-
-            final HeapCacheProtos.Cache.Builder cacheBuilder =
-                    HeapCacheProtos.Cache.newBuilder();
-
-            // Iterate over the cache keys and add cache values one-by-one to
-            // the protobuf cache, removing them from the cache along the way
-            // to save memory.
-            final Iterator<Key> it = cache.keySet().iterator();
-            while (it.hasNext()) {
-                final Key key = it.next();
-                final Item item = cache.get(key);
-                if (key.getOperationList() != null) { // it's an image
-                    final HeapCacheProtos.Image image =
-                            HeapCacheProtos.Image.newBuilder().
-                                    setLastAccessed(key.getLastAccessedTime()).
-                                    setIdentifier(key.getIdentifier()).
-                                    setOperationList(key.getOperationList()).
-                                    setData(ByteString.copyFrom(item.getData())).
-                                    build();
-                    cacheBuilder.addImage(image);
-                } else { // it's an info
-                    final HeapCacheProtos.Info info =
-                            HeapCacheProtos.Info.newBuilder().
-                                    setLastAccessed(key.getLastAccessedTime()).
-                                    setIdentifier(key.getIdentifier()).
-                                    setJson(new String(item.getData())).
-                                    build();
-                    cacheBuilder.addInfo(info);
-                }
-                it.remove();
-            }
-
-            try (FileOutputStream fos = new FileOutputStream(path.toFile())) {
-                cacheBuilder.build().writeTo(fos);
-            }
-
-            logger.info("dumpToPersistentStore(): dumped {} items ({} bytes)",
-                    size, byteSize);
-        } else {
-            throw new IOException("dumpToPersistentStore(): " +
-                    HEAPCACHE_PATHNAME + " is not set");
-        }
+    void dumpToPersistentStore() throws IOException {
+        final HeapCachePersistentStore store = getPersistentStore();
+        logger.info("dumpToPersistentStore(): dumping {} items ({} bytes)",
+                size(), getByteSize());
+        store.compact();
     }
 
     /**
@@ -326,9 +473,9 @@ class HeapCache implements DerivativeCache {
      * @return Item corresponding to the given key. May be <code>null</code>.
      */
     private Item get(Key key) {
-        Item item = cache.get(key);
+        Item item = cache.getIfPresent(key);
         if (item != null) {
-            touch(item);
+            item.touch();
         }
         return item;
     }
@@ -337,7 +484,30 @@ class HeapCache implements DerivativeCache {
      * @return Current size of the contents in bytes.
      */
     long getByteSize() {
-        return cache.values().stream().mapToLong(t -> t.getData().length).sum();
+        cache.cleanUp();
+        return getEviction().weightedSize().orElse(0);
+    }
+
+    /**
+     * @return Snapshot of the cache contents, ordered from least- to
+     *         most-recently-accessed.
+     */
+    Map<Key, Item> getContentsByAccessOrder() {
+        return getEviction().coldest(Integer.MAX_VALUE);
+    }
+
+    private Policy.Eviction<Key, Item> getEviction() {
+        return cache.policy().eviction().get();
+    }
+
+    /**
+     * For testing.
+     *
+     * @return Off-heap store, or <code>null</code> if off-heap storage is
+     *         not enabled.
+     */
+    OffHeapStore getOffHeapStore() {
+        return offHeapStore;
     }
 
     @Override
@@ -355,16 +525,14 @@ class HeapCache implements DerivativeCache {
         return info;
     }
 
-    private List<Key> getKeysSortedByLastAccessedTime() {
-        List<Key> sortedKeys = new ArrayList<>(cache.keySet());
-        sortedKeys.sort((Key k1, Key k2) -> {
-            if (k1.getLastAccessedTime() == k2.getLastAccessedTime()) {
-                return 0;
-            }
-            return (k1.getLastAccessedTime() < k2.getLastAccessedTime()) ?
-                    -1 : 1;
-        });
-        return sortedKeys;
+    /**
+     * @return Hit, miss, and eviction statistics. Lookups performed in the
+     *         course of writing (e.g. by
+     *         {@link #newDerivativeImageOutputStream(OperationList)}) are not
+     *         counted.
+     */
+    CacheStats getStats() {
+        return cache.stats();
     }
 
     /**
@@ -406,7 +574,11 @@ class HeapCache implements DerivativeCache {
     public void initialize() {
         final Configuration config = Configuration.getInstance();
         if (config.getBoolean(HEAPCACHE_PERSIST, false)) {
-            loadFromPersistentStore();
+            try {
+                getPersistentStore().start();
+            } catch (IOException e) {
+                logger.error("initialize(): {}", e.getMessage());
+            }
         }
 
         // Start a worker thread to manage the size.
@@ -417,6 +589,25 @@ class HeapCache implements DerivativeCache {
         }
     }
 
+    /**
+     * @return Persistent store whose location is specified by
+     *         {@link edu.illinois.library.cantaloupe.config.Key#HEAPCACHE_PATHNAME}.
+     * @throws IOException If the location is not set or is not accessible.
+     */
+    synchronized HeapCachePersistentStore getPersistentStore()
+            throws IOException {
+        if (persistentStore == null) {
+            final Configuration config = Configuration.getInstance();
+            final String pathname = config.getString(HEAPCACHE_PATHNAME);
+            if (pathname == null || pathname.isEmpty()) {
+                throw new IOException(HEAPCACHE_PATHNAME + " is not set");
+            }
+            persistentStore =
+                    new HeapCachePersistentStore(this, Paths.get(pathname));
+        }
+        return persistentStore;
+    }
+
     boolean isDirty() {
         return isDirty.get();
     }
@@ -439,45 +630,16 @@ class HeapCache implements DerivativeCache {
         return new Key(opList.getIdentifier().toString(), opList.toString());
     }
 
-    synchronized void loadFromPersistentStore() {
-        final Configuration config = Configuration.getInstance();
-        final String pathname = config.getString(HEAPCACHE_PATHNAME);
-        final Path path = Paths.get(pathname);
-
-        if (Files.exists(path)) {
-            logger.info("loadFromPersistentStore(): reading {}...", path);
-
-            try (FileInputStream fis = new FileInputStream(path.toFile())) {
-                final HeapCacheProtos.Cache protoCache =
-                        HeapCacheProtos.Cache.parseFrom(fis);
-
-                // Read in the images.
-                for (HeapCacheProtos.Image image : protoCache.getImageList()) {
-                    final Key key = new Key(image.getIdentifier(),
-                            image.getOperationList());
-                    key.setLastAccessedTime(image.getLastAccessed());
-                    final Item item = new Item(image.getData().toByteArray());
-                    cache.put(key, item);
-                }
-
-                // Read in the infos.
-                for (HeapCacheProtos.Info info : protoCache.getInfoList()) {
-                    final Key key = new Key(info.getIdentifier());
-                    key.setLastAccessedTime(info.getLastAccessed());
-                    final Item item = new Item(info.getJsonBytes().toByteArray());
-                    cache.put(key, item);
-                }
-
-                logger.info("loadFromPersistentStore(): loaded {} items ({} bytes)",
-                        size(), getByteSize());
-            } catch (FileNotFoundException e) {
-                logger.error("loadFromPersistentStore(): file not found: {}",
-                        e.getMessage());
-            } catch (IOException e) {
-                logger.error("loadFromPersistentStore(): {}", e.getMessage());
-            }
-        } else {
-            logger.info("loadFromPersistentStore(): does not exist: {}", path);
+    /**
+     * Synchronously loads all persisted segments into the cache.
+     *
+     * @see HeapCachePersistentStore#load()
+     */
+    void loadFromPersistentStore() {
+        try {
+            getPersistentStore().load();
+        } catch (IOException e) {
+            logger.error("loadFromPersistentStore(): {}", e.getMessage());
         }
     }
 
@@ -485,19 +647,37 @@ class HeapCache implements DerivativeCache {
     public InputStream newDerivativeImageInputStream(OperationList opList) {
         Item item = get(itemKey(opList));
         if (item != null) {
-            return new ByteArrayInputStream(item.getData());
+            // This will be null if the item has been evicted since it was
+            // retrieved, which is effectively a miss.
+            return item.newInputStream();
         }
         return null;
     }
 
+    /**
+     * @param data Image data.
+     * @return New item, stored either on or off the heap depending on the
+     *         configuration.
+     */
+    Item newImageItem(ByteString data) throws IOException {
+        if (offHeapStore != null) {
+            final OffHeapStore.RegionOutputStream os =
+                    offHeapStore.newOutputStream();
+            data.writeTo(os);
+            os.close();
+            return new Item(offHeapStore, os.getRegion());
+        }
+        return new Item(data.toByteArray());
+    }
+
     @Override
     public OutputStream newDerivativeImageOutputStream(OperationList opList)
             throws CacheException {
         final Key key = itemKey(opList);
-        final Item item = cache.get(key);
+        final Item item = cache.asMap().get(key);
         if (item != null) {
             logger.info("newDerivativeImageOutputStream(): hit for {}", opList);
-            touch(item);
+            item.touch();
             return new NullOutputStream();
         } else {
             logger.info("newDerivativeImageOutputStream(): miss; caching {}",
@@ -507,56 +687,62 @@ class HeapCache implements DerivativeCache {
         }
     }
 
+    /**
+     * @param key Key to access.
+     * @return Item corresponding to the given key, without counting the
+     *         access in the statistics. May be <code>null</code>.
+     */
+    Item peek(Key key) {
+        return cache.asMap().get(key);
+    }
+
     @Override
     public void purge() throws CacheException {
-        logger.info("purge(): purging {} items", cache.size());
-        cache.clear();
+        logger.info("purge(): purging {} items", size());
+        // The store must hear about purges before they happen, so that it
+        // doesn't restore anything that was purged while it was loading.
+        if (persistentStore != null) {
+            persistentStore.purged();
+        }
+        cache.invalidateAll();
     }
 
     @Override
     public void purge(Identifier identifier) {
         logger.info("purge(Identifier): purging {}...", identifier);
-        final String imageId = itemKey(identifier).getIdentifier();
-        cache.keySet().removeIf(k -> k.getIdentifier().equals(imageId));
+        final Key infoKey = itemKey(identifier);
+        final String imageId = infoKey.getIdentifier();
+        if (persistentStore != null) {
+            persistentStore.identifierPurged(infoKey);
+        }
+        cache.asMap().keySet().removeIf(k -> k.getIdentifier().equals(imageId));
     }
 
     @Override
     public void purge(OperationList opList) {
         logger.info("purge(OperationList): purging {}...", opList.toString());
-        cache.remove(itemKey(opList));
+        final Key key = itemKey(opList);
+        if (persistentStore != null) {
+            persistentStore.imagePurged(key);
+        }
+        cache.invalidate(key);
     }
 
     /**
-     * Purges as much content as needed to reduce the current size below the
-     * target size, starting with the least-recently-used first.
+     * Applies the current target size to the cache, which will evict as much
+     * content as needed to reduce its size below it. (Eviction otherwise
+     * happens continuously, so this is only necessary when the target size
+     * has changed.)
      */
     void purgeExcess() throws ConfigurationException {
-        synchronized (Worker.class) {
-            final long size = getByteSize();
-            final long targetSize = getTargetByteSize();
-            long excess = size - targetSize;
-            excess = (excess < 0) ? 0 : excess;
-            logger.debug("purgeExcess(): cache size: {}; target: {}; excess: {}",
-                    size, targetSize, excess);
-            if (excess > 0) {
-                long purgedItems = 0;
-                long purgedSize = 0;
-                for (Key key : getKeysSortedByLastAccessedTime()) {
-                    Item item = cache.get(key);
-                    if (item != null) {
-                        cache.remove(key);
-                        purgedItems++;
-                        purgedSize += item.getData().length;
-                    }
-                    if (purgedSize >= excess) {
-                        break;
-                    }
-                }
-                isDirty.lazySet(true);
-                logger.info("purgeExcess(): purged {} items ({} bytes)",
-                        purgedItems, purgedSize);
-            }
+        final long targetSize = getTargetByteSize();
+        final Policy.Eviction<Key, Item> eviction = getEviction();
+        if (eviction.getMaximum() != targetSize) {
+            logger.info("purgeExcess(): changing target size from {} to {}",
+                    eviction.getMaximum(), targetSize);
+            eviction.setMaximum(targetSize);
         }
+        cache.cleanUp();
     }
 
     /**
@@ -577,46 +763,78 @@ class HeapCache implements DerivativeCache {
             // Rather than storing the info instance itself, we store its JSON
             // serialization, mainly in order to be able to easily get its size.
             Item item = new Item(imageInfo.toJSON().getBytes("UTF-8"));
-            cache.putIfAbsent(key, item);
+            if (cache.asMap().putIfAbsent(key, item) == null &&
+                    persistentStore != null) {
+                persistentStore.added(key);
+            }
         } catch (IOException e) {
             throw new CacheException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Adds an item loaded from the persistent store, unless an item that was
+     * not loaded from it is already present, or it has been purged since
+     * loading started. The latter is checked atomically with the insertion,
+     * so that a concurrent purge either prevents it or removes the item
+     * afterwards.
+     */
+    void restore(Key key, Item item) {
+        item.setLoaded(true);
+        final Item result = cache.asMap().compute(key, (k, existing) -> {
+            if ((existing != null && !existing.isLoaded()) ||
+                    (persistentStore != null &&
+                            persistentStore.isPurgedWhileLoading(k))) {
+                return existing;
+            }
+            return item;
+        });
+        if (result != item) {
+            // The existing item won, so the restored one, which nothing else
+            // references, would otherwise never be freed.
+            item.release();
+        }
+    }
+
+    /**
+     * Removes an item that was loaded from the persistent store.
+     */
+    void restorePurge(Key key) {
+        cache.asMap().computeIfPresent(key, (k, existing) ->
+                existing.isLoaded() ? null : existing);
+    }
+
+    /**
+     * Removes all items relating to the given identifier that were loaded
+     * from the persistent store.
+     */
+    void restorePurge(String identifier) {
+        cache.asMap().entrySet().removeIf(e ->
+                e.getKey().getIdentifier().equals(identifier) &&
+                        e.getValue().isLoaded());
+    }
+
     /**
      * @return Number of cached items.
      */
     long size() {
-        return cache.size();
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public void setEvictionListener(LongConsumer listener) {
+        evictionListener = listener;
     }
 
     @Override
     public void shutdown() {
         workerShouldWork.set(false);
 
-        // Dump the cache contents to disk, if the cache is dirty, and if
-        // PERSIST_CONFIG_KEY is set to true.
-        final Configuration config = Configuration.getInstance();
-        if (isDirty() && config.getBoolean(HEAPCACHE_PERSIST, false)) {
-            try {
-                dumpToPersistentStore();
-            } catch (IOException e) {
-                logger.error(e.getMessage());
-            }
+        // Changes have been persisted all along, so all that's left to do is
+        // to write out any that are still queued up.
+        if (persistentStore != null) {
+            persistentStore.stop();
         }
     }
 
-    /**
-     * Updates the last-accessed time of the key corresponding to the given
-     * item.
-     *
-     * @param item Item whose key should be touched.
-     */
-    private void touch(Item item) {
-        cache.entrySet().stream().
-                filter(entry -> Objects.equals(entry.getValue(), item)).
-                map(Map.Entry::getKey).
-                collect(Collectors.toSet()).forEach(Key::touch);
-    }
-
 }
@@ -0,0 +1,717 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import edu.illinois.library.cantaloupe.ThreadPool;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Persists the contents of a {@link HeapCache} to a directory of
+ * append-only segment files, so that they can be restored after a
+ * restart.</p>
+ *
+ * <p>Once {@link #start() started}, changes to the cache are queued up and
+ * appended to the current segment by a background thread shortly after they
+ * happen, so that little is lost in a crash and there is nothing left to do
+ * at shutdown but flush the queue. Each segment is a sequence of records,
+ * each consisting of a one-byte type followed by a length-delimited
+ * {@link HeapCacheProtos.Image} or {@link HeapCacheProtos.Info} message.
+ * Purges are recorded as "tombstone" records. When a segment reaches
+ * {@link #SEGMENT_SIZE}, a new one is started, and when the segments as a
+ * whole grow to more than {@link #COMPACTION_FACTOR} times the size of the
+ * cache, its live contents are rewritten to new segments and the old ones are
+ * deleted.</p>
+ *
+ * <p>Existing segments are loaded in the background at startup, one record at
+ * a time, so the cache is available (albeit partially cold) right away and
+ * loading never holds more than one serialized item in memory. Items written
+ * to the cache while loading is in progress take precedence over those being
+ * loaded, and items purged from it while loading is in progress are not
+ * restored by records that haven't been loaded yet. Segments are not deleted
+ * while they are being loaded; a purge of the whole cache during loading
+ * deletes them once loading has finished.</p>
+ *
+ * @since 3.4
+ */
+class HeapCachePersistentStore {
+
+    /**
+     * Pending change to append to the current segment.
+     */
+    private static class Command {
+
+        private final byte type;
+        private final HeapCache.Key key;
+        private final CountDownLatch latch;
+
+        Command(byte type, HeapCache.Key key, CountDownLatch latch) {
+            this.type = type;
+            this.key = key;
+            this.latch = latch;
+        }
+
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    final Command command = queue.take();
+                    if (command.type == STOP) {
+                        synchronized (HeapCachePersistentStore.this) {
+                            closeSegment();
+                        }
+                        command.latch.countDown();
+                        return;
+                    }
+                    synchronized (HeapCachePersistentStore.this) {
+                        execute(command);
+                        if (queue.isEmpty()) {
+                            flush();
+                            maybeCompact();
+                        }
+                    }
+                    if (command.latch != null) {
+                        command.latch.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    LOGGER.error("Writer.run(): {}", e.getMessage(), e);
+                }
+            }
+        }
+
+    }
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(HeapCachePersistentStore.class);
+
+    /**
+     * Segments will be compacted when their total size exceeds this many
+     * times the cache size.
+     */
+    static final int COMPACTION_FACTOR = 2;
+
+    /**
+     * Segments will be rolled over when they exceed this size.
+     */
+    static final long SEGMENT_SIZE = 1024 * 1024 * 64;
+
+    private static final Pattern SEGMENT_FILENAME_PATTERN =
+            Pattern.compile("^(\\d{10})\\.seg$");
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    // Record types
+    private static final byte IMAGE             = 1;
+    private static final byte INFO              = 2;
+    private static final byte PURGED_IMAGE      = 3;
+    private static final byte PURGED_IDENTIFIER = 4;
+    // Command-only types
+    private static final byte PURGED_ALL        = 10;
+    private static final byte FLUSH             = 11;
+    private static final byte STOP              = 12;
+
+    private final HeapCache cache;
+    private final Path directory;
+    private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+
+    /** Segment sizes keyed by sequence number. Guarded by this. */
+    private final SortedMap<Long, Long> segments = new TreeMap<>();
+
+    /** Guarded by this. */
+    private CountingOutputStream currentSegment;
+
+    /** Guarded by this. */
+    private long currentSequence = 0;
+
+    /**
+     * Segments before this sequence number are to be deleted once loading
+     * has finished. Guarded by this.
+     */
+    private long deferredDeletionSequence = 0;
+
+    /** Keys of images purged while loading. */
+    private final Set<HeapCache.Key> imagesPurgedWhileLoading =
+            ConcurrentHashMap.newKeySet();
+
+    /** Identifiers purged while loading. */
+    private final Set<String> identifiersPurgedWhileLoading =
+            ConcurrentHashMap.newKeySet();
+
+    /** Whether the whole cache has been purged while loading. */
+    private volatile boolean isAllPurgedWhileLoading = false;
+
+    private volatile boolean isLoading = false;
+    private volatile boolean isStarted = false;
+
+    /**
+     * @param cache     Cache to persist.
+     * @param directory Directory in which to store segments. Will be created
+     *                  if it does not exist.
+     */
+    HeapCachePersistentStore(HeapCache cache, Path directory)
+            throws IOException {
+        this.cache = cache;
+        this.directory = directory;
+        if (Files.isRegularFile(directory)) {
+            migrateLegacyFile();
+        }
+        Files.createDirectories(directory);
+        for (Path path : listSegments()) {
+            segments.put(sequenceOf(path), Files.size(path));
+        }
+        if (!segments.isEmpty()) {
+            currentSequence = segments.lastKey();
+        }
+    }
+
+    /**
+     * @param key Key of an item that has been added to the cache.
+     */
+    void added(HeapCache.Key key) {
+        enqueue(new Command((key.getOperationList() != null) ? IMAGE : INFO,
+                key, null));
+    }
+
+    /**
+     * Must be called while holding the instance's monitor.
+     */
+    private void closeSegment() throws IOException {
+        if (currentSegment != null) {
+            currentSegment.close();
+            segments.put(currentSequence, currentSegment.getByteCount());
+            currentSegment = null;
+        }
+    }
+
+    /**
+     * Rewrites the live contents of the cache into new segments and deletes
+     * all older segments.
+     */
+    synchronized void compact() throws IOException {
+        LOGGER.info("compact(): compacting segments in {}", directory);
+        closeSegment();
+        final long firstSequence = currentSequence + 1;
+        for (Map.Entry<HeapCache.Key, HeapCache.Item> entry :
+                cache.getContentsByAccessOrder().entrySet()) {
+            final HeapCache.Key key = entry.getKey();
+            write((key.getOperationList() != null) ? IMAGE : INFO,
+                    key, entry.getValue());
+        }
+        closeSegment();
+        deleteSegmentsBefore(firstSequence);
+    }
+
+    /**
+     * Deletes all segments, or, if they are being loaded, arranges for them
+     * to be deleted once loading has finished. Must be called while holding
+     * the instance's monitor.
+     */
+    private void deleteAllSegments() throws IOException {
+        closeSegment();
+        if (isLoading) {
+            // Subsequent changes will go to new segments, which must be
+            // kept.
+            deferredDeletionSequence = currentSequence + 1;
+        } else {
+            deleteSegmentsBefore(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Must be called while holding the instance's monitor.
+     */
+    private void deleteSegmentsBefore(long sequence) throws IOException {
+        final SortedMap<Long, Long> oldSegments = segments.headMap(sequence);
+        for (Long oldSequence : oldSegments.keySet()) {
+            Files.deleteIfExists(segmentPath(oldSequence));
+        }
+        oldSegments.clear();
+    }
+
+    private void enqueue(Command command) {
+        if (isStarted) {
+            queue.add(command);
+        }
+    }
+
+    /**
+     * Must be called while holding the instance's monitor.
+     */
+    private void execute(Command command) throws IOException {
+        switch (command.type) {
+            case IMAGE:
+            case INFO:
+                final HeapCache.Item item = cache.peek(command.key);
+                if (item != null) {
+                    write(command.type, command.key, item);
+                }
+                break;
+            case PURGED_IMAGE:
+            case PURGED_IDENTIFIER:
+                write(command.type, command.key, null);
+                break;
+            case PURGED_ALL:
+                deleteAllSegments();
+                break;
+        }
+    }
+
+    /**
+     * Must be called while holding the instance's monitor.
+     */
+    private void flush() throws IOException {
+        if (currentSegment != null) {
+            currentSegment.flush();
+        }
+    }
+
+    /**
+     * Blocks until all queued changes have been written.
+     */
+    void flushQueue() throws InterruptedException {
+        if (isStarted) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            queue.add(new Command(FLUSH, null, latch));
+            latch.await();
+        }
+    }
+
+    /**
+     * @return Total size of all segments.
+     */
+    synchronized long getByteSize() {
+        long size = segments.values().stream().mapToLong(Long::longValue).sum();
+        if (currentSegment != null) {
+            size += currentSegment.getByteCount();
+        }
+        return size;
+    }
+
+    /**
+     * Must be called before the image is removed from the cache, so that a
+     * concurrent {@link #load()} can't restore it afterwards.
+     *
+     * @param key Key of an image that is being purged from the cache.
+     */
+    void imagePurged(HeapCache.Key key) {
+        if (isLoading) {
+            imagesPurgedWhileLoading.add(key);
+        }
+        enqueue(new Command(PURGED_IMAGE, key, null));
+    }
+
+    /**
+     * Must be called before the identifier's items are removed from the
+     * cache, so that a concurrent {@link #load()} can't restore them
+     * afterwards.
+     *
+     * @param key Key of an info whose identifier is being purged from the
+     *            cache.
+     */
+    void identifierPurged(HeapCache.Key key) {
+        if (isLoading) {
+            identifiersPurgedWhileLoading.add(key.getIdentifier());
+        }
+        enqueue(new Command(PURGED_IDENTIFIER, key, null));
+    }
+
+    /**
+     * @param key Key of an item being loaded.
+     * @return Whether the item has been purged since loading started, in
+     *         which case it must not be restored.
+     */
+    boolean isPurgedWhileLoading(HeapCache.Key key) {
+        return isAllPurgedWhileLoading ||
+                identifiersPurgedWhileLoading.contains(key.getIdentifier()) ||
+                imagesPurgedWhileLoading.contains(key);
+    }
+
+    boolean isLoading() {
+        return isLoading;
+    }
+
+    private Iterable<Path> listSegments() throws IOException {
+        final SortedMap<Long, Path> paths = new TreeMap<>();
+        try (DirectoryStream<Path> stream =
+                     Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (sequenceOf(path) >= 0) {
+                    paths.put(sequenceOf(path), path);
+                }
+            }
+        }
+        return paths.values();
+    }
+
+    /**
+     * Loads all segments that existed when the instance was created (or last
+     * compacted) into the cache, in order. If the whole cache is purged in
+     * the meantime, loading stops.
+     */
+    void load() throws IOException {
+        final Long[] sequences;
+        synchronized (this) {
+            isLoading = true;
+            sequences = segments.keySet().toArray(new Long[0]);
+        }
+        try {
+            long numRecords = 0;
+            for (long sequence : sequences) {
+                if (isAllPurgedWhileLoading) {
+                    break;
+                }
+                numRecords += loadSegment(segmentPath(sequence));
+            }
+            LOGGER.info("load(): loaded {} records from {} segments ({} " +
+                    "items, {} bytes in cache)", numRecords, sequences.length,
+                    cache.size(), cache.getByteSize());
+        } finally {
+            finishLoading();
+        }
+    }
+
+    /**
+     * Stops tracking purges, and deletes any segments whose deletion was
+     * deferred until loading had finished.
+     */
+    private synchronized void finishLoading() throws IOException {
+        isLoading = false;
+        isAllPurgedWhileLoading = false;
+        imagesPurgedWhileLoading.clear();
+        identifiersPurgedWhileLoading.clear();
+        if (deferredDeletionSequence > 0) {
+            deleteSegmentsBefore(deferredDeletionSequence);
+            deferredDeletionSequence = 0;
+        }
+    }
+
+    /**
+     * @return Number of records loaded.
+     */
+    private long loadSegment(Path path) throws IOException {
+        LOGGER.debug("loadSegment(): reading {}", path);
+        long numRecords = 0;
+        try (InputStream is = new BufferedInputStream(
+                Files.newInputStream(path))) {
+            int type;
+            while ((type = is.read()) != -1 && !isAllPurgedWhileLoading) {
+                switch (type) {
+                    case IMAGE: {
+                        final HeapCacheProtos.Image image =
+                                HeapCacheProtos.Image.parseDelimitedFrom(is);
+                        if (image == null) {
+                            return truncated(path, numRecords);
+                        }
+                        final HeapCache.Key key = new HeapCache.Key(
+                                image.getIdentifier(),
+                                image.getOperationList());
+                        final HeapCache.Item item =
+                                cache.newImageItem(image.getData());
+                        item.setLastAccessedTime(image.getLastAccessed());
+                        cache.restore(key, item);
+                        break;
+                    }
+                    case INFO: {
+                        final HeapCacheProtos.Info info =
+                                HeapCacheProtos.Info.parseDelimitedFrom(is);
+                        if (info == null) {
+                            return truncated(path, numRecords);
+                        }
+                        final HeapCache.Key key =
+                                new HeapCache.Key(info.getIdentifier());
+                        final HeapCache.Item item = new HeapCache.Item(
+                                info.getJsonBytes().toByteArray());
+                        item.setLastAccessedTime(info.getLastAccessed());
+                        cache.restore(key, item);
+                        break;
+                    }
+                    case PURGED_IMAGE: {
+                        final HeapCacheProtos.Image image =
+                                HeapCacheProtos.Image.parseDelimitedFrom(is);
+                        if (image == null) {
+                            return truncated(path, numRecords);
+                        }
+                        cache.restorePurge(new HeapCache.Key(
+                                image.getIdentifier(),
+                                image.getOperationList()));
+                        break;
+                    }
+                    case PURGED_IDENTIFIER: {
+                        final HeapCacheProtos.Info info =
+                                HeapCacheProtos.Info.parseDelimitedFrom(is);
+                        if (info == null) {
+                            return truncated(path, numRecords);
+                        }
+                        cache.restorePurge(info.getIdentifier());
+                        break;
+                    }
+                    default:
+                        LOGGER.warn("loadSegment(): unrecognized record " +
+                                "type {} in {}; skipping the rest", type, path);
+                        return numRecords;
+                }
+                numRecords++;
+            }
+        } catch (InvalidProtocolBufferException e) {
+            // Most likely the last record is truncated, from a crash.
+            LOGGER.warn("loadSegment(): {} in {} after {} records",
+                    e.getMessage(), path, numRecords);
+        }
+        return numRecords;
+    }
+
+    /**
+     * Compacts the segments if they have gotten too big relative to the
+     * cache. Must be called while holding the instance's monitor.
+     */
+    private void maybeCompact() throws IOException {
+        if (isLoading) {
+            return;
+        }
+        final long threshold = COMPACTION_FACTOR *
+                Math.max(cache.getByteSize(), SEGMENT_SIZE);
+        if (getByteSize() > threshold) {
+            compact();
+        }
+    }
+
+    /**
+     * <p>Converts a cache file written by a version prior to 3.4, which
+     * serialized the whole cache into a single {@link HeapCacheProtos.Cache}
+     * message at the pathname that now names the segment directory, into the
+     * first segment of a new segment directory.</p>
+     *
+     * <p>The old file is moved aside first, and if it turns out to be
+     * unreadable, it is left there under a <code>.legacy</code> suffix.</p>
+     */
+    private void migrateLegacyFile() throws IOException {
+        final Path legacyPath = directory.resolveSibling(
+                directory.getFileName() + ".legacy");
+        LOGGER.info("migrateLegacyFile(): converting {} into a segment " +
+                "directory", directory);
+        Files.move(directory, legacyPath);
+        Files.createDirectories(directory);
+
+        final HeapCacheProtos.Cache legacyCache;
+        try (InputStream is = new BufferedInputStream(
+                Files.newInputStream(legacyPath))) {
+            legacyCache = HeapCacheProtos.Cache.parseFrom(is);
+        } catch (InvalidProtocolBufferException e) {
+            LOGGER.warn("migrateLegacyFile(): failed to read {} ({}); " +
+                    "leaving it in place", legacyPath, e.getMessage());
+            return;
+        }
+        try (OutputStream os = new BufferedOutputStream(
+                Files.newOutputStream(segmentPath(1)))) {
+            for (HeapCacheProtos.Info info : legacyCache.getInfoList()) {
+                os.write(INFO);
+                info.writeDelimitedTo(os);
+            }
+            for (HeapCacheProtos.Image image : legacyCache.getImageList()) {
+                os.write(IMAGE);
+                image.writeDelimitedTo(os);
+            }
+        }
+        Files.delete(legacyPath);
+        LOGGER.info("migrateLegacyFile(): converted {} infos and {} images",
+                legacyCache.getInfoCount(), legacyCache.getImageCount());
+    }
+
+    /**
+     * Must be called while holding the instance's monitor.
+     */
+    private OutputStream openSegment() throws IOException {
+        if (currentSegment == null ||
+                currentSegment.getByteCount() >= SEGMENT_SIZE) {
+            closeSegment();
+            currentSequence++;
+            final Path path = segmentPath(currentSequence);
+            LOGGER.debug("openSegment(): starting {}", path);
+            currentSegment = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path)));
+            segments.put(currentSequence, 0L);
+        }
+        return currentSegment;
+    }
+
+    /**
+     * Records that the whole cache is being purged. Must be called before the
+     * cache is cleared, so that a concurrent {@link #load()} can't restore
+     * any of its contents afterwards.
+     */
+    void purged() {
+        if (isLoading) {
+            isAllPurgedWhileLoading = true;
+        }
+        if (isStarted) {
+            enqueue(new Command(PURGED_ALL, null, null));
+        } else {
+            synchronized (this) {
+                try {
+                    deleteAllSegments();
+                } catch (IOException e) {
+                    LOGGER.error("purged(): {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%010d.seg", sequence));
+    }
+
+    /**
+     * @return Sequence number of the given segment, or <code>-1</code> if it
+     *         is not a segment.
+     */
+    private static long sequenceOf(Path path) {
+        final Matcher matcher = SEGMENT_FILENAME_PATTERN.matcher(
+                path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Starts loading existing segments in the background, and starts
+     * appending subsequent changes to new ones.
+     */
+    void start() {
+        isStarted = true;
+        // Set here rather than only in load(), so that purges between now
+        // and then are tracked.
+        isLoading = true;
+        try {
+            ThreadPool.getInstance().submit(() -> {
+                try {
+                    load();
+                } catch (IOException e) {
+                    LOGGER.error("start(): {}", e.getMessage(), e);
+                }
+            });
+            ThreadPool.getInstance().submit(new Writer());
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("start(): {}", e.getMessage());
+            isStarted = false;
+            isLoading = false;
+        }
+    }
+
+    /**
+     * Writes any remaining queued changes and stops the background writer.
+     */
+    void stop() {
+        if (!isStarted) {
+            return;
+        }
+        isStarted = false;
+        final CountDownLatch latch = new CountDownLatch(1);
+        queue.add(new Command(STOP, null, latch));
+        try {
+            if (!latch.await(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("stop(): timed out waiting for the queue to " +
+                        "drain");
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("stop(): interrupted");
+        }
+    }
+
+    /**
+     * Logs that a segment ends partway through a record, which most likely
+     * means that the application crashed while writing it.
+     *
+     * @return The given number of records.
+     */
+    private static long truncated(Path path, long numRecords) {
+        LOGGER.warn("loadSegment(): {} ends with a truncated record after " +
+                "{} records; skipping the rest", path, numRecords);
+        return numRecords;
+    }
+
+    /**
+     * Writes a record to the current segment. Must be called while holding
+     * the instance's monitor.
+     *
+     * @param type Record type.
+     * @param key  Key of the item.
+     * @param item Item to write. May be <code>null</code> for tombstone
+     *             records.
+     */
+    private void write(byte type, HeapCache.Key key, HeapCache.Item item)
+            throws IOException {
+        final OutputStream os = openSegment();
+        switch (type) {
+            case IMAGE: {
+                final ByteString data;
+                try (InputStream is = item.newInputStream()) {
+                    if (is == null) { // it was evicted in the meantime
+                        return;
+                    }
+                    data = ByteString.readFrom(is);
+                }
+                os.write(type);
+                HeapCacheProtos.Image.newBuilder().
+                        setLastAccessed(item.getLastAccessedTime()).
+                        setIdentifier(key.getIdentifier()).
+                        setOperationList(key.getOperationList()).
+                        setData(data).
+                        build().writeDelimitedTo(os);
+                break;
+            }
+            case INFO:
+                os.write(type);
+                HeapCacheProtos.Info.newBuilder().
+                        setLastAccessed(item.getLastAccessedTime()).
+                        setIdentifier(key.getIdentifier()).
+                        setJson(new String(item.getData(),
+                                StandardCharsets.UTF_8)).
+                        build().writeDelimitedTo(os);
+                break;
+            case PURGED_IMAGE:
+                os.write(type);
+                HeapCacheProtos.Image.newBuilder().
+                        setLastAccessed(System.currentTimeMillis()).
+                        setIdentifier(key.getIdentifier()).
+                        setOperationList(key.getOperationList()).
+                        setData(ByteString.EMPTY).
+                        build().writeDelimitedTo(os);
+                break;
+            case PURGED_IDENTIFIER:
+                os.write(type);
+                HeapCacheProtos.Info.newBuilder().
+                        setLastAccessed(System.currentTimeMillis()).
+                        setIdentifier(key.getIdentifier()).
+                        build().writeDelimitedTo(os);
+                break;
+        }
+    }
+
+}
@@ -0,0 +1,385 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Coalesces concurrent requests for identical derivative images
+ * ("single-flight"), so that a burst of requests for the same
+ * {@link OperationList} on a cold cache costs one render instead of one per
+ * request.</p>
+ *
+ * <p>The first thread to {@link #acquire(OperationList) acquire} a render
+ * becomes its leader, and is responsible for producing it and writing it to
+ * {@link InFlightRender#getOutputStream()}. Threads that acquire the same
+ * operation list while the leader is still working become followers, and can
+ * read the render from {@link InFlightRender#newInputStream()}, starting with
+ * the bytes that have already been written.</p>
+ *
+ * <p>Renders are buffered in memory only for as long as they are in flight.
+ * Renders that grow larger than {@link #MAX_SHARED_BYTES} stop accepting new
+ * followers, and stop buffering altogether if they have none.</p>
+ *
+ * @since 3.4
+ */
+public final class InFlightRenderRegistry {
+
+    /**
+     * Render of a derivative image that may be shared across threads while it
+     * is being written.
+     */
+    public static final class InFlightRender {
+
+        private static final int CHUNK_SIZE = 65536;
+
+        private final InFlightRenderRegistry registry;
+        private final OperationList opList;
+        private final long maxSharedBytes;
+
+        private volatile Thread leader;
+        private List<byte[]> chunks = new ArrayList<>();
+        private long count = 0;
+        private boolean isBuffering = true;
+        private boolean isJoinable = true;
+        private boolean isComplete = false;
+        private Throwable failure;
+        private int numFollowers = 0;
+
+        /**
+         * @param registry       Registry containing the instance. May be
+         *                       <code>null</code> if the instance is not
+         *                       registered, in which case it can't be
+         *                       shared.
+         * @param opList         Operation list describing the render.
+         * @param maxSharedBytes Size beyond which the render will stop
+         *                       accepting followers.
+         */
+        InFlightRender(InFlightRenderRegistry registry,
+                       OperationList opList,
+                       long maxSharedBytes) {
+            this.registry = registry;
+            this.opList = opList;
+            this.maxSharedBytes = maxSharedBytes;
+            if (registry == null) {
+                isBuffering = false;
+                isJoinable = false;
+            }
+        }
+
+        /**
+         * Stops the render with a generic failure, if it has not already
+         * been {@link #complete() completed} or {@link #fail(Throwable)
+         * failed}. Leaders should invoke this in a <code>finally</code> block
+         * to ensure that followers never wait forever.
+         */
+        public void abort() {
+            fail(new IOException("Render aborted: " + opList));
+        }
+
+        private synchronized void append(byte[] b, int off, int len) {
+            if (isComplete || failure != null) {
+                return;
+            }
+            if (isBuffering) {
+                while (len > 0) {
+                    final int chunkOffset = (int) (count % CHUNK_SIZE);
+                    if (chunkOffset == 0) {
+                        chunks.add(new byte[CHUNK_SIZE]);
+                    }
+                    final int toCopy = Math.min(len, CHUNK_SIZE - chunkOffset);
+                    System.arraycopy(b, off,
+                            chunks.get(chunks.size() - 1), chunkOffset, toCopy);
+                    count += toCopy;
+                    off += toCopy;
+                    len -= toCopy;
+                }
+                if (count > maxSharedBytes) {
+                    // Too big to keep sharing. Existing followers still get
+                    // the whole thing, but no new ones may join.
+                    if (isJoinable) {
+                        LOGGER.debug("append(): {} exceeds {} bytes; no " +
+                                "longer accepting followers",
+                                opList, maxSharedBytes);
+                        isJoinable = false;
+                        deregister();
+                    }
+                    if (numFollowers == 0) {
+                        isBuffering = false;
+                        chunks = null;
+                    }
+                }
+            } else {
+                count += len;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Marks the render as successfully completed. Followers will receive
+         * end-of-stream after reading all of the written bytes.
+         */
+        public synchronized void complete() {
+            if (isComplete || failure != null) {
+                return;
+            }
+            isComplete = true;
+            isJoinable = false;
+            deregister();
+            notifyAll();
+        }
+
+        private void deregister() {
+            if (registry != null) {
+                registry.renders.remove(opList, this);
+            }
+        }
+
+        /**
+         * Marks the render as failed. Followers will receive an
+         * {@link IOException} upon their next read.
+         *
+         * @param t Cause of the failure.
+         */
+        public synchronized void fail(Throwable t) {
+            if (isComplete || failure != null) {
+                return;
+            }
+            failure = t;
+            isJoinable = false;
+            chunks = null;
+            deregister();
+            notifyAll();
+        }
+
+        private synchronized void followerClosed() {
+            numFollowers--;
+            if (numFollowers == 0 && count > maxSharedBytes) {
+                isBuffering = false;
+                chunks = null;
+            }
+        }
+
+        /**
+         * @return Stream to which the leader should write the render. Its
+         *         {@link OutputStream#close()} method does nothing, so it is
+         *         safe to close more than once.
+         */
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    append(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    append(b, off, len);
+                }
+            };
+        }
+
+        /**
+         * @return Whether any followers are currently reading the render.
+         */
+        public synchronized boolean hasFollowers() {
+            return numFollowers > 0;
+        }
+
+        /**
+         * @return Whether the calling thread is responsible for producing
+         *         the render.
+         */
+        public boolean isLeader() {
+            return Thread.currentThread() == leader;
+        }
+
+        private synchronized boolean join() {
+            if (!isJoinable) {
+                return false;
+            }
+            numFollowers++;
+            return true;
+        }
+
+        /**
+         * @return Stream from which a follower can read the render, starting
+         *         from its first byte. It will block while waiting for the
+         *         leader to write more data, and throw an {@link IOException}
+         *         if the leader fails. Clients must close it.
+         * @throws IllegalStateException If invoked by a leader.
+         */
+        public InputStream newInputStream() {
+            if (isLeader()) {
+                throw new IllegalStateException("Leaders can't read.");
+            }
+            return new InputStream() {
+                private long position = 0;
+                private boolean isClosed = false;
+
+                @Override
+                public void close() {
+                    if (!isClosed) {
+                        isClosed = true;
+                        followerClosed();
+                    }
+                }
+
+                @Override
+                public int read() throws IOException {
+                    final byte[] b = new byte[1];
+                    final int n = read(b, 0, 1);
+                    return (n == -1) ? -1 : (b[0] & 0xff);
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len)
+                        throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    synchronized (InFlightRender.this) {
+                        while (position >= count && !isComplete &&
+                                failure == null) {
+                            try {
+                                InFlightRender.this.wait();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                        if (failure != null) {
+                            throw new IOException(failure.getMessage(),
+                                    failure);
+                        }
+                        if (position >= count) {
+                            return -1;
+                        }
+                        final int chunkIndex = (int) (position / CHUNK_SIZE);
+                        final int chunkOffset = (int) (position % CHUNK_SIZE);
+                        final int toCopy = (int) Math.min(
+                                Math.min(len, CHUNK_SIZE - chunkOffset),
+                                count - position);
+                        System.arraycopy(chunks.get(chunkIndex), chunkOffset,
+                                b, off, toCopy);
+                        position += toCopy;
+                        return toCopy;
+                    }
+                }
+            };
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(InFlightRenderRegistry.class);
+
+    /**
+     * Renders larger than this will not accept new followers.
+     */
+    static final long MAX_SHARED_BYTES = 1024 * 1024 * 64;
+
+    private static final InFlightRenderRegistry INSTANCE =
+            new InFlightRenderRegistry(MAX_SHARED_BYTES);
+
+    private final long maxSharedBytes;
+
+    private final ConcurrentMap<OperationList, InFlightRender> renders =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @return Shared instance.
+     */
+    public static InFlightRenderRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxSharedBytes Size beyond which renders will stop accepting
+     *                       followers.
+     */
+    InFlightRenderRegistry(long maxSharedBytes) {
+        this.maxSharedBytes = maxSharedBytes;
+    }
+
+    /**
+     * <p>Returns a render corresponding to the given operation list. If
+     * {@link InFlightRender#isLeader()} returns <code>true</code>, the calling
+     * thread must produce it and then either {@link InFlightRender#complete()
+     * complete} or {@link InFlightRender#fail(Throwable) fail} it. Otherwise,
+     * it must read it from {@link InFlightRender#newInputStream()}.</p>
+     *
+     * <p>The operation list is used as a map key, so it must have been
+     * {@link OperationList#freeze() frozen} by the caller; it is not frozen
+     * here, in order not to modify the caller's instance behind its
+     * back.</p>
+     *
+     * @param opList Frozen operation list.
+     * @return Render corresponding to the given operation list.
+     * @throws IllegalArgumentException If the operation list is not frozen.
+     */
+    public InFlightRender acquire(OperationList opList) {
+        checkFrozen(opList);
+        final InFlightRender render =
+                new InFlightRender(this, opList, maxSharedBytes);
+        final InFlightRender existing = renders.putIfAbsent(opList, render);
+        if (existing == null) {
+            render.leader = Thread.currentThread();
+            return render;
+        } else if (existing.join()) {
+            LOGGER.debug("acquire(): following in-flight render of {}",
+                    opList);
+            return existing;
+        }
+        // The existing render is finishing up or is too big to share, so
+        // return an unregistered one that the caller will have to produce on
+        // its own.
+        return newUnsharedRender(opList);
+    }
+
+    /**
+     * @param opList Operation list.
+     * @return Whether a render corresponding to the given operation list is
+     *         currently in flight. By the time this returns, that may no
+     *         longer be the case.
+     */
+    public boolean isInFlight(OperationList opList) {
+        return renders.containsKey(opList);
+    }
+
+    /**
+     * @param opList Operation list. Unlike with {@link #acquire}, it need not
+     *               be frozen.
+     * @return New unregistered render, led by the caller, that can't be
+     *         followed by other threads.
+     */
+    public InFlightRender newUnsharedRender(OperationList opList) {
+        final InFlightRender render =
+                new InFlightRender(null, opList, maxSharedBytes);
+        render.leader = Thread.currentThread();
+        return render;
+    }
+
+    private static void checkFrozen(OperationList opList) {
+        if (!opList.isFrozen()) {
+            throw new IllegalArgumentException(
+                    "The operation list must be frozen.");
+        }
+    }
+
+    /**
+     * @return Number of renders currently in flight.
+     */
+    int size() {
+        return renders.size();
+    }
+
+}
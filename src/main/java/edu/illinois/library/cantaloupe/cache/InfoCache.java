@@ -0,0 +1,133 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Bounded in-process cache of parsed {@link Info}s that sits in front of
+ * the {@link DerivativeCache}, so that repeated requests for the same image
+ * (such as requests for its tiles) don't have to retrieve and deserialize its
+ * info from the derivative cache every time.</p>
+ *
+ * <p>Entries are evicted in least-recently-used order once there are more
+ * than {@link Key#INFO_CACHE_MAX_SIZE} of them, and are considered invalid
+ * once they are older than {@link Key#CACHE_SERVER_TTL}, consistent with the
+ * derivative cache.</p>
+ *
+ * <p>Cached instances are shared and must not be modified.</p>
+ *
+ * @since 3.4
+ */
+public final class InfoCache {
+
+    private static final class Entry {
+
+        private final Info info;
+        private final long created = System.currentTimeMillis();
+
+        Entry(Info info) {
+            this.info = info;
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(InfoCache.class);
+
+    static final long DEFAULT_MAX_SIZE = 10000;
+
+    private static volatile InfoCache instance;
+
+    private final Cache<Identifier, Entry> store;
+
+    /**
+     * @return Shared instance, sized according to the application
+     *         configuration.
+     */
+    public static InfoCache getInstance() {
+        InfoCache cache = instance;
+        if (cache == null) {
+            synchronized (InfoCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    final long maxSize = Configuration.getInstance().
+                            getLong(Key.INFO_CACHE_MAX_SIZE, DEFAULT_MAX_SIZE);
+                    LOGGER.info("Info cache limit: {}", maxSize);
+                    cache = new InfoCache(maxSize);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param maxSize Maximum number of infos to hold.
+     */
+    InfoCache(long maxSize) {
+        store = Caffeine.newBuilder().maximumSize(Math.max(0, maxSize)).build();
+    }
+
+    /**
+     * @param identifier Image identifier.
+     * @return Info corresponding to the given identifier, or
+     *         <code>null</code> if there is none or it is expired.
+     */
+    public Info get(Identifier identifier) {
+        final Entry entry = store.getIfPresent(identifier);
+        if (entry != null) {
+            if (!isExpired(entry)) {
+                return entry.info;
+            }
+            store.asMap().remove(identifier, entry);
+        }
+        return null;
+    }
+
+    private boolean isExpired(Entry entry) {
+        final long ttl = Configuration.getInstance().
+                getLong(Key.CACHE_SERVER_TTL, 0);
+        return ttl > 0 &&
+                System.currentTimeMillis() - entry.created > ttl * 1000;
+    }
+
+    /**
+     * Removes all infos.
+     */
+    public void purge() {
+        store.invalidateAll();
+    }
+
+    /**
+     * Removes the info corresponding to the given identifier.
+     *
+     * @param identifier Image identifier.
+     */
+    public void purge(Identifier identifier) {
+        store.invalidate(identifier);
+    }
+
+    /**
+     * @param identifier Image identifier.
+     * @param info       Info to cache.
+     */
+    public void put(Identifier identifier, Info info) {
+        store.put(identifier, new Entry(info));
+    }
+
+    /**
+     * @return Approximate number of infos in the cache, including expired
+     *         ones that have not been removed yet.
+     */
+    public long size() {
+        store.cleanUp();
+        return store.estimatedSize();
+    }
+
+}
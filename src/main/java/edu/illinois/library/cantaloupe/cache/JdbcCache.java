@@ -2,18 +2,26 @@ package edu.illinois.library.cantaloupe.cache;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.zaxxer.hikari.HikariDataSource;
+import edu.illinois.library.cantaloupe.ThreadPool;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.sql.Blob;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -21,6 +29,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>Cache using a database table, storing images as BLOBs and image infos
@@ -39,86 +55,122 @@ import java.util.Calendar;
  *     identifier VARCHAR(4096) NOT NULL,
  *     info VARCHAR(8192) NOT NULL,
  *     last_accessed DATETIME
- * );</pre>
+ * );
+ *
+ * CREATE INDEX operations_idx ON {JdbcCache.derivative_image_table} (operations);
+ * CREATE INDEX image_last_accessed_idx ON {JdbcCache.derivative_image_table} (last_accessed);
+ * CREATE INDEX identifier_idx ON {JdbcCache.info_table} (identifier);
+ * CREATE INDEX info_last_accessed_idx ON {JdbcCache.info_table} (last_accessed);</pre>
+ *
+ * <p>Reads don't write to the database. Instead, last-accessed times are
+ * collected in memory and written in batches every {@link
+ * #ACCESS_FLUSH_INTERVAL_SECONDS} seconds (and before expired content is
+ * purged), so that reads don't contend with each other for write locks. The
+ * last-accessed times in the database may therefore lag by that much.</p>
+ *
+ * <p>Images are read fully before they are returned&mdash;into memory, or,
+ * if they are larger than {@link #MAX_BUFFERED_IMAGE_SIZE}, into a temp
+ * file&mdash;so that no pooled connection is held while a client is
+ * downloading them.</p>
  */
 class JdbcCache implements DerivativeCache {
 
     /**
-     * Wraps a {@link Blob} OutputStream, for writing an image to a BLOB.
-     * The constructor creates a transaction, which is committed on close.
+     * Buffers an image in memory, and inserts it into the database when it
+     * is closed. This way, no connection is held while the image is being
+     * produced.
      */
     private class ImageBlobOutputStream extends OutputStream {
 
-        private OutputStream blobOutputStream;
-        private OperationList ops;
-        private Connection connection;
-        private PreparedStatement statement;
+        private final BlobBuffer buffer = new BlobBuffer();
+        private boolean isClosed = false;
+        private final OperationList ops;
 
         /**
          * Constructor for writing derivative images.
          *
-         * @param conn
          * @param ops Derivative image operation list
          */
-        ImageBlobOutputStream(Connection conn, OperationList ops)
-                throws SQLException {
-            this.connection = conn;
+        ImageBlobOutputStream(OperationList ops) {
             this.ops = ops;
+        }
 
-            connection.setAutoCommit(false);
+        @Override
+        public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            logger.debug("Closing stream for {}", ops);
 
-            final Configuration config = Configuration.getInstance();
             final String sql = String.format(
                     "INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
-                    config.getString(Key.JDBCCACHE_DERIVATIVE_IMAGE_TABLE),
+                    Configuration.getInstance().
+                            getString(Key.JDBCCACHE_DERIVATIVE_IMAGE_TABLE),
                     DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN,
                     DERIVATIVE_IMAGE_TABLE_IMAGE_COLUMN,
                     DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN);
-            logger.debug(sql);
-
-            final Blob blob = connection.createBlob();
-            blobOutputStream = blob.setBinaryStream(1);
-            statement = connection.prepareStatement(sql);
-            statement.setString(1, ops.toString());
-            statement.setBlob(2, blob);
-            statement.setTimestamp(3, now());
-        }
-
-        @Override
-        public void close() throws IOException {
-            logger.debug("Closing stream for {}", ops);
-            try {
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setString(1, ops.toString());
+                statement.setBinaryStream(2, buffer.newInputStream(),
+                        buffer.size());
+                statement.setTimestamp(3, now());
+                logger.debug(sql);
                 statement.executeUpdate();
-                connection.commit();
             } catch (SQLException e) {
                 throw new IOException(e.getMessage(), e);
-            } finally {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
-                    logger.error(e.getMessage(), e);
-                }
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    logger.error(e.getMessage(), e);
-                }
             }
         }
 
         @Override
-        public void write(int b) throws IOException {
-            blobOutputStream.write(b);
+        public void write(int b) {
+            buffer.write(b);
         }
 
         @Override
-        public void write(byte[] b) throws IOException {
-            blobOutputStream.write(b);
+        public void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+
+    }
+
+    /**
+     * Provides access to its buffer without copying it.
+     */
+    private static class BlobBuffer extends ByteArrayOutputStream {
+
+        BlobBuffer() {
+            super(65536);
+        }
+
+        InputStream newInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+    }
+
+    /**
+     * Reads from a temp file, which it deletes when it is closed.
+     */
+    private static class TempFileInputStream extends FileInputStream {
+
+        private final File file;
+
+        TempFileInputStream(File file) throws FileNotFoundException {
+            super(file);
+            this.file = file;
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            blobOutputStream.write(b, off, len);
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!file.delete() && file.exists()) {
+                    logger.warn("Failed to delete {}", file);
+                }
+            }
         }
 
     }
@@ -135,54 +187,110 @@ class JdbcCache implements DerivativeCache {
     static final String INFO_TABLE_INFO_COLUMN = "info";
     static final String INFO_TABLE_LAST_ACCESSED_COLUMN = "last_accessed";
 
-    private static HikariDataSource dataSource;
+    /**
+     * Interval at which pending last-accessed times are written to the
+     * database.
+     */
+    static final long ACCESS_FLUSH_INTERVAL_SECONDS = 10;
+
+    /**
+     * Number of pending last-accessed times above which they will be written
+     * immediately rather than waiting for the next scheduled flush.
+     */
+    static final int MAX_PENDING_ACCESS_TIMES = 10000;
+
+    /**
+     * Images larger than this many bytes are spooled to a temp file instead
+     * of being read into memory.
+     */
+    static final int MAX_BUFFERED_IMAGE_SIZE = 1024 * 1024;
+
+    private static final String TEMP_FILE_PREFIX = "cantaloupe-jdbccache";
+
+    /** Initialized by {@link #getConnection()}. */
+    private static volatile HikariDataSource dataSource;
+
+    /**
+     * Whether a flush of pending last-accessed times has been submitted to
+     * the thread pool and has not yet started.
+     */
+    private final AtomicBoolean isFlushPending = new AtomicBoolean(false);
+
+    /** Initialized by {@link #initialize()}. */
+    private ScheduledExecutorService accessFlushExecutor;
+
+    /**
+     * Last-accessed times of derivative images that have not yet been written
+     * to the database, keyed by operation list string.
+     */
+    private final Map<String,Timestamp> pendingImageAccessTimes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Last-accessed times of infos that have not yet been written to the
+     * database, keyed by identifier string.
+     */
+    private final Map<String,Timestamp> pendingInfoAccessTimes =
+            new ConcurrentHashMap<>();
 
     /**
      * @return Connection from the connection pool. Clients must call
      *         {@link Connection#close} when they are done with it.
      * @throws SQLException
      */
-    public static synchronized Connection getConnection() throws SQLException {
-        if (dataSource == null) {
-            final Configuration config = Configuration.getInstance();
-            final String connectionString = config.
-                    getString(Key.JDBCCACHE_JDBC_URL, "");
-            final int connectionTimeout = 1000 *
-                    config.getInt(Key.JDBCCACHE_CONNECTION_TIMEOUT, 10);
-            final int maxPoolSize =
-                    Runtime.getRuntime().availableProcessors() * 2 + 1;
-            final String user = config.getString(Key.JDBCCACHE_USER, "");
-            final String password = config.getString(Key.JDBCCACHE_PASSWORD, "");
-
-            dataSource = new HikariDataSource();
-            dataSource.setJdbcUrl(connectionString);
-            dataSource.setUsername(user);
-            dataSource.setPassword(password);
-            dataSource.setPoolName("JdbcCachePool");
-            dataSource.setMaximumPoolSize(maxPoolSize);
-            dataSource.setConnectionTimeout(connectionTimeout);
-
-            // Create a connection in order to log some things and check
-            // whether the database is sane.
-            try (Connection connection = dataSource.getConnection()) {
-                final DatabaseMetaData metadata = connection.getMetaData();
-                logger.info("Using {} {}", metadata.getDriverName(),
-                        metadata.getDriverVersion());
-                logger.info("Connection URL: {}",
-                        config.getString(Key.JDBCCACHE_JDBC_URL));
-
-                final String[] tableNames = { getDerivativeImageTableName(),
-                        getInfoTableName() };
-                for (String tableName : tableNames) {
-                    if (!tableExists(connection, tableName)) {
-                        logger.error("Missing table: {}", tableName);
-                    }
+    public static Connection getConnection() throws SQLException {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            synchronized (JdbcCache.class) {
+                ds = dataSource;
+                if (ds == null) {
+                    ds = newDataSource();
+                    dataSource = ds;
                 }
-            } catch (CacheException e) {
-                logger.error(e.getMessage(), e);
             }
         }
-        return dataSource.getConnection();
+        return ds.getConnection();
+    }
+
+    private static HikariDataSource newDataSource() throws SQLException {
+        final Configuration config = Configuration.getInstance();
+        final String connectionString = config.
+                getString(Key.JDBCCACHE_JDBC_URL, "");
+        final int connectionTimeout = 1000 *
+                config.getInt(Key.JDBCCACHE_CONNECTION_TIMEOUT, 10);
+        final int maxPoolSize =
+                Runtime.getRuntime().availableProcessors() * 2 + 1;
+        final String user = config.getString(Key.JDBCCACHE_USER, "");
+        final String password = config.getString(Key.JDBCCACHE_PASSWORD, "");
+
+        final HikariDataSource ds = new HikariDataSource();
+        ds.setJdbcUrl(connectionString);
+        ds.setUsername(user);
+        ds.setPassword(password);
+        ds.setPoolName("JdbcCachePool");
+        ds.setMaximumPoolSize(maxPoolSize);
+        ds.setConnectionTimeout(connectionTimeout);
+
+        // Create a connection in order to log some things and check
+        // whether the database is sane.
+        try (Connection connection = ds.getConnection()) {
+            final DatabaseMetaData metadata = connection.getMetaData();
+            logger.info("Using {} {}", metadata.getDriverName(),
+                    metadata.getDriverVersion());
+            logger.info("Connection URL: {}",
+                    config.getString(Key.JDBCCACHE_JDBC_URL));
+
+            final String[] tableNames = { getDerivativeImageTableName(),
+                    getInfoTableName() };
+            for (String tableName : tableNames) {
+                if (!tableExists(connection, tableName)) {
+                    logger.error("Missing table: {}", tableName);
+                }
+            }
+        } catch (CacheException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return ds;
     }
 
     /**
@@ -225,84 +333,133 @@ class JdbcCache implements DerivativeCache {
     }
 
     /**
-     * Updates the last-accessed time for the derivative image corresponding to
-     * the given operation list.
-     *
-     * @param opList
-     * @param connection
-     *
-     * @throws CacheException
-     * @throws SQLException
+     * Records the last-accessed time of a derivative image or info, to be
+     * written later by {@link #flushAccessTimes()}. If too many are pending,
+     * they are written in the background rather than in the calling (request)
+     * thread.
      */
-    private void accessDerivativeImage(OperationList opList,
-                                       Connection connection)
-            throws CacheException, SQLException {
-        final String sql = String.format(
-                "UPDATE %s SET %s = ? WHERE %s = ?",
-                getDerivativeImageTableName(),
-                DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN,
-                DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN);
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setTimestamp(1, now());
-            statement.setString(2, opList.toString());
-
-            logger.debug(sql);
-            statement.executeUpdate();
+    private void access(Map<String,Timestamp> pendingTimes, String key) {
+        pendingTimes.put(key, now());
+        if (pendingImageAccessTimes.size() + pendingInfoAccessTimes.size() >
+                MAX_PENDING_ACCESS_TIMES &&
+                isFlushPending.compareAndSet(false, true)) {
+            try {
+                ThreadPool.getInstance().submit(() -> {
+                    isFlushPending.set(false);
+                    try {
+                        flushAccessTimes();
+                    } catch (CacheException e) {
+                        logger.error("access(): {}", e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                isFlushPending.set(false);
+                logger.error("access(): {}", e.getMessage());
+            }
         }
     }
 
     /**
-     * Updates the last-accessed time for the info corresponding to the given
-     * identifier.
-     *
-     * @param identifier
-     * @param connection
+     * Writes all pending last-accessed times to the database in batches,
+     * within a single transaction. If the write fails, the times are
+     * retained to be written on the next attempt.
      *
      * @throws CacheException
-     * @throws SQLException
      */
-    private void accessImageInfo(Identifier identifier, Connection connection)
-            throws CacheException, SQLException {
-        final String sql = String.format(
-                "UPDATE %s SET %s = ? WHERE %s = ?",
-                getInfoTableName(),
-                INFO_TABLE_LAST_ACCESSED_COLUMN,
-                INFO_TABLE_IDENTIFIER_COLUMN);
+    synchronized void flushAccessTimes() throws CacheException {
+        final Map<String,Timestamp> imageTimes =
+                drain(pendingImageAccessTimes);
+        final Map<String,Timestamp> infoTimes =
+                drain(pendingInfoAccessTimes);
+        if (imageTimes.isEmpty() && infoTimes.isEmpty()) {
+            return;
+        }
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            updateAccessTimes(connection, getDerivativeImageTableName(),
+                    DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN,
+                    DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN, imageTimes);
+            updateAccessTimes(connection, getInfoTableName(),
+                    INFO_TABLE_LAST_ACCESSED_COLUMN,
+                    INFO_TABLE_IDENTIFIER_COLUMN, infoTimes);
+            connection.commit();
+            logger.debug("Updated last-accessed times of {} image(s) and " +
+                    "{} info(s)", imageTimes.size(), infoTimes.size());
+        } catch (CacheException | SQLException e) {
+            // Put the times back, without overwriting any newer ones.
+            imageTimes.forEach(pendingImageAccessTimes::putIfAbsent);
+            infoTimes.forEach(pendingInfoAccessTimes::putIfAbsent);
+            throw new CacheException(e.getMessage(), e);
+        }
+    }
 
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setTimestamp(1, now());
-            statement.setString(2, identifier.toString());
+    /**
+     * Removes all entries from the given map, returning them in a new map.
+     */
+    private static Map<String,Timestamp> drain(Map<String,Timestamp> map) {
+        final Map<String,Timestamp> drained = new HashMap<>();
+        for (String key : map.keySet()) {
+            Timestamp time = map.remove(key);
+            if (time != null) {
+                drained.put(key, time);
+            }
+        }
+        return drained;
+    }
 
-            logger.debug(sql);
-            statement.executeUpdate();
+    /**
+     * @param conn Will not be closed.
+     * @throws SQLException
+     */
+    private static void updateAccessTimes(Connection conn,
+                                          String table,
+                                          String lastAccessedColumn,
+                                          String keyColumn,
+                                          Map<String,Timestamp> times)
+            throws SQLException {
+        if (times.isEmpty()) {
+            return;
+        }
+        final String sql = String.format("UPDATE %s SET %s = ? WHERE %s = ?",
+                table, lastAccessedColumn, keyColumn);
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            for (Map.Entry<String,Timestamp> entry : times.entrySet()) {
+                statement.setTimestamp(1, entry.getValue());
+                statement.setString(2, entry.getKey());
+                statement.addBatch();
+            }
+            logger.debug("{} (x{})", sql, times.size());
+            statement.executeBatch();
         }
     }
 
     @Override
     public Info getImageInfo(Identifier identifier) throws CacheException {
         final String sql = String.format(
-                "SELECT %s FROM %s WHERE %s = ? AND %s >= ?",
+                "SELECT %s, %s FROM %s WHERE %s = ?",
                 INFO_TABLE_INFO_COLUMN,
+                INFO_TABLE_LAST_ACCESSED_COLUMN,
                 getInfoTableName(),
-                INFO_TABLE_IDENTIFIER_COLUMN,
-                INFO_TABLE_LAST_ACCESSED_COLUMN);
+                INFO_TABLE_IDENTIFIER_COLUMN);
 
         try (Connection connection = getConnection();
              PreparedStatement statement = connection.prepareStatement(sql)) {
-
             statement.setString(1, identifier.toString());
-            statement.setTimestamp(2, oldestValidDate());
 
             logger.debug(sql);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
-                    accessImageInfo(identifier, connection);
-                    logger.info("Hit for image info: {}", identifier);
-                    String json = resultSet.getString(1);
-                    return Info.fromJSON(json);
+                    if (isValid(resultSet.getTimestamp(2),
+                            pendingInfoAccessTimes.get(identifier.toString()))) {
+                        logger.info("Hit for image info: {}", identifier);
+                        access(pendingInfoAccessTimes, identifier.toString());
+                        return Info.fromJSON(resultSet.getString(1));
+                    }
+                    logger.info("Miss for image info (expired): {}",
+                            identifier);
+                    purgeImageInfo(identifier, connection);
                 } else {
                     logger.info("Miss for image info: {}", identifier);
-                    purgeImageInfo(identifier, connection);
                 }
             }
         } catch (CacheException | IOException | SQLException e) {
@@ -311,38 +468,112 @@ class JdbcCache implements DerivativeCache {
         return null;
     }
 
+    /**
+     * Starts the executor that periodically writes pending last-accessed
+     * times to the database.
+     */
+    @Override
+    public void initialize() {
+        accessFlushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                    Thread thread = new Thread(runnable, "jdbccache-access");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        accessFlushExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                flushAccessTimes();
+            } catch (CacheException e) {
+                logger.error("Failed to update last-accessed times: {}",
+                        e.getMessage());
+            }
+        }, ACCESS_FLUSH_INTERVAL_SECONDS, ACCESS_FLUSH_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param lastAccessed Last-accessed time in the database.
+     * @param pendingLastAccessed Last-accessed time not yet written to the
+     *                            database. May be {@literal null}.
+     * @return Whether content with the given last-accessed times has not
+     *         expired.
+     */
+    private boolean isValid(Timestamp lastAccessed,
+                            Timestamp pendingLastAccessed) {
+        final Timestamp oldestValidDate = oldestValidDate();
+        return (lastAccessed != null && !lastAccessed.before(oldestValidDate)) ||
+                (pendingLastAccessed != null &&
+                        !pendingLastAccessed.before(oldestValidDate));
+    }
+
+    /**
+     * The image is {@link #readImage read fully} so that the connection it
+     * was read from can be released before the returned stream is consumed.
+     */
     @Override
     public InputStream newDerivativeImageInputStream(OperationList opList)
             throws CacheException {
-        InputStream inputStream = null;
-
         final String sql = String.format(
-                "SELECT %s FROM %s WHERE %s = ? AND %s >= ?",
+                "SELECT %s, %s FROM %s WHERE %s = ?",
                 DERIVATIVE_IMAGE_TABLE_IMAGE_COLUMN,
+                DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN,
                 getDerivativeImageTableName(),
-                DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN,
-                DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN);
+                DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN);
 
         try (Connection conn = getConnection();
              PreparedStatement statement = conn.prepareStatement(sql)) {
             statement.setString(1, opList.toString());
-            statement.setTimestamp(2, oldestValidDate());
 
             logger.debug(sql);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
-                    logger.info("Hit for image: {}", opList);
-                    inputStream = resultSet.getBinaryStream(1);
-                    accessDerivativeImage(opList, conn);
+                    if (isValid(resultSet.getTimestamp(2),
+                            pendingImageAccessTimes.get(opList.toString()))) {
+                        logger.info("Hit for image: {}", opList);
+                        access(pendingImageAccessTimes, opList.toString());
+                        try (InputStream blobInputStream =
+                                     resultSet.getBinaryStream(1)) {
+                            return readImage(blobInputStream);
+                        }
+                    }
+                    logger.info("Miss for image (expired): {}", opList);
+                    purgeDerivativeImage(opList, conn);
                 } else {
                     logger.info("Miss for image: {}", opList);
-                    purgeDerivativeImage(opList, conn);
                 }
             }
-        } catch (SQLException e) {
+        } catch (IOException | SQLException e) {
             logger.error(e.getMessage(), e);
         }
-        return inputStream;
+        return null;
+    }
+
+    /**
+     * @param blobInputStream Stream from which to read an image.
+     * @return Stream from which to read the image once the given stream has
+     *         been closed: from memory if it is no larger than
+     *         {@link #MAX_BUFFERED_IMAGE_SIZE}, and otherwise from a temp
+     *         file that is deleted when it is closed.
+     */
+    private static InputStream readImage(InputStream blobInputStream)
+            throws IOException {
+        final BlobBuffer buffer = new BlobBuffer();
+        final long count = IOUtils.copyLarge(blobInputStream, buffer, 0,
+                MAX_BUFFERED_IMAGE_SIZE + 1);
+        if (count <= MAX_BUFFERED_IMAGE_SIZE) {
+            return buffer.newInputStream();
+        }
+        final Path tempFile = Files.createTempFile(TEMP_FILE_PREFIX, ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                buffer.writeTo(os);
+                IOUtils.copyLarge(blobInputStream, os);
+            }
+            return new TempFileInputStream(tempFile.toFile());
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
     }
 
     @Override
@@ -351,11 +582,7 @@ class JdbcCache implements DerivativeCache {
         // TODO: return a no-op stream when a write corresponding to an
         // identical op list is in progress in another thread
         logger.info("Miss; caching {}", ops);
-        try {
-            return new ImageBlobOutputStream(getConnection(), ops);
-        } catch (SQLException e) {
-            throw new CacheException(e.getMessage(), e);
-        }
+        return new ImageBlobOutputStream(ops);
     }
 
     private Timestamp now() {
@@ -401,8 +628,13 @@ class JdbcCache implements DerivativeCache {
         }
     }
 
+    /**
+     * Writes any pending last-accessed times before purging, so that
+     * recently accessed content is not purged.
+     */
     @Override
     public void purgeExpired() throws CacheException {
+        flushAccessTimes();
         try (Connection connection = getConnection()) {
             connection.setAutoCommit(false);
             final int numDeletedDerivativeImages =
@@ -584,4 +816,20 @@ class JdbcCache implements DerivativeCache {
         }
     }
 
+    /**
+     * Stops the access time executor and writes any pending last-accessed
+     * times.
+     */
+    @Override
+    public void shutdown() {
+        if (accessFlushExecutor != null) {
+            accessFlushExecutor.shutdown();
+        }
+        try {
+            flushAccessTimes();
+        } catch (CacheException e) {
+            logger.error("shutdown(): {}", e.getMessage());
+        }
+    }
+
 }
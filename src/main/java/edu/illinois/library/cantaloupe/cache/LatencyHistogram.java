@@ -0,0 +1,128 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Lock-free histogram of latencies with fixed, roughly logarithmic bucket
+ * boundaries between 1 msec and 10 sec.</p>
+ *
+ * <p>Percentiles are reported as the upper bound of the bucket they fall
+ * into, which is precise enough to size caches and spot regressions without
+ * having to retain individual samples.</p>
+ *
+ * @since 3.4
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Inclusive upper bounds of all but the last (unbounded) bucket, in
+     * milliseconds.
+     */
+    static final long[] BUCKET_BOUNDS_MSEC = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private final AtomicLongArray bucketCounts =
+            new AtomicLongArray(BUCKET_BOUNDS_MSEC.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * @param nanos Latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        final long msec = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int i = 0;
+        while (i < BUCKET_BOUNDS_MSEC.length && msec > BUCKET_BOUNDS_MSEC[i]) {
+            i++;
+        }
+        bucketCounts.incrementAndGet(i);
+        count.increment();
+        totalNanos.add(nanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Maximum recorded latency in milliseconds.
+     */
+    public double getMax() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @return Mean recorded latency in milliseconds, or 0 if nothing has been
+     *         recorded.
+     */
+    public double getMean() {
+        final long count = getCount();
+        return (count > 0) ? totalNanos.sum() / 1000000.0 / count : 0;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound of the bucket containing the given percentile in
+     *         milliseconds, or the maximum recorded latency if it falls into
+     *         the unbounded bucket, or 0 if nothing has been recorded.
+     */
+    public double getPercentile(double percentile) {
+        final long count = getCount();
+        if (count < 1) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(count * percentile / 100.0);
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MSEC.length; i++) {
+            cumulativeCount += bucketCounts.get(i);
+            if (cumulativeCount >= rank) {
+                return Math.min(BUCKET_BOUNDS_MSEC[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < bucketCounts.length(); i++) {
+            bucketCounts.set(i, 0);
+        }
+        count.reset();
+        maxNanos.set(0);
+        totalNanos.reset();
+    }
+
+    /**
+     * @return Map representation of the instance, suitable for serializing
+     *         to JSON. Bucket keys are the upper bounds in milliseconds.
+     */
+    public Map<String,Object> toMap() {
+        final Map<String,Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_BOUNDS_MSEC.length; i++) {
+            buckets.put(Long.toString(BUCKET_BOUNDS_MSEC[i]),
+                    bucketCounts.get(i));
+        }
+        buckets.put("+Inf", bucketCounts.get(BUCKET_BOUNDS_MSEC.length));
+
+        final Map<String,Object> map = new LinkedHashMap<>();
+        map.put("count", getCount());
+        map.put("mean_msec", getMean());
+        map.put("p50_msec", getPercentile(50));
+        map.put("p95_msec", getPercentile(95));
+        map.put("p99_msec", getPercentile(99));
+        map.put("max_msec", getMax());
+        map.put("buckets", buckets);
+        return map;
+    }
+
+}
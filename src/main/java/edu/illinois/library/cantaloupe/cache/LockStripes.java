@@ -0,0 +1,55 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Fixed-size set of {@link ReadWriteLock}s, any of which can be obtained
+ * for an arbitrary key.</p>
+ *
+ * <p>This allows for per-key locking with bounded memory usage. Equal keys
+ * always get the same lock. Unequal keys usually get different ones, but
+ * occasionally share one, which is harmless except for the unnecessary
+ * contention.</p>
+ *
+ * @since 3.4
+ */
+final class LockStripes {
+
+    private final ReadWriteLock[] locks;
+
+    /**
+     * @param minNumStripes Minimum number of locks, which will be rounded up
+     *                      to the nearest power of two.
+     */
+    LockStripes(int minNumStripes) {
+        int numStripes = Integer.highestOneBit(Math.max(1, minNumStripes));
+        if (numStripes < minNumStripes) {
+            numStripes <<= 1;
+        }
+        locks = new ReadWriteLock[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @param key Object to lock on.
+     * @return Lock corresponding to the given key.
+     */
+    ReadWriteLock get(Object key) {
+        int hash = key.hashCode();
+        // Spread the higher bits downward, as in HashMap, since the mask
+        // below only keeps the lower ones.
+        hash ^= (hash >>> 16);
+        return locks[hash & (locks.length - 1)];
+    }
+
+    /**
+     * @return Number of locks.
+     */
+    int size() {
+        return locks.length;
+    }
+
+}
@@ -0,0 +1,137 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Decorates a {@link DerivativeCache}, recording its usage in a
+ * {@link CacheMetrics} instance.
+ *
+ * @since 3.4
+ */
+final class MeteredDerivativeCache implements DerivativeCache {
+
+    private final DerivativeCache cache;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param cache   Cache to decorate.
+     * @param metrics Instance to record usage in.
+     */
+    MeteredDerivativeCache(DerivativeCache cache, CacheMetrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+        cache.setEvictionListener(metrics::recordEvictions);
+    }
+
+    @Override
+    public void cleanUp() throws CacheException {
+        cache.cleanUp();
+    }
+
+    @Override
+    public Info getImageInfo(Identifier identifier) throws CacheException {
+        final long start = System.nanoTime();
+        final Info info = cache.getImageInfo(identifier);
+        if (info != null) {
+            metrics.recordInfoHit(System.nanoTime() - start);
+        } else {
+            metrics.recordInfoMiss(System.nanoTime() - start);
+        }
+        return info;
+    }
+
+    /**
+     * @return The decorated cache.
+     */
+    DerivativeCache getWrappedCache() {
+        return cache;
+    }
+
+    @Override
+    public void initialize() {
+        cache.initialize();
+    }
+
+    @Override
+    public InputStream newDerivativeImageInputStream(OperationList opList)
+            throws CacheException {
+        final long start = System.nanoTime();
+        final InputStream inputStream =
+                cache.newDerivativeImageInputStream(opList);
+        if (inputStream != null) {
+            metrics.recordHit(System.nanoTime() - start);
+            return metrics.newInputStream(inputStream);
+        }
+        metrics.recordMiss(System.nanoTime() - start);
+        return null;
+    }
+
+    @Override
+    public OutputStream newDerivativeImageOutputStream(OperationList opList)
+            throws CacheException {
+        final long start = System.nanoTime();
+        final OutputStream outputStream;
+        try {
+            outputStream = cache.newDerivativeImageOutputStream(opList);
+        } catch (CacheException | RuntimeException e) {
+            metrics.recordWriteFailure();
+            throw e;
+        }
+        return (outputStream != null) ?
+                metrics.newOutputStream(outputStream,
+                        System.nanoTime() - start) : null;
+    }
+
+    @Override
+    public void purge() throws CacheException {
+        metrics.recordPurge();
+        cache.purge();
+    }
+
+    @Override
+    public void purge(Identifier identifier) throws CacheException {
+        metrics.recordPurge();
+        cache.purge(identifier);
+    }
+
+    @Override
+    public void purge(OperationList opList) throws CacheException {
+        metrics.recordPurge();
+        cache.purge(opList);
+    }
+
+    @Override
+    public void purgeExpired() throws CacheException {
+        metrics.recordPurge();
+        cache.purgeExpired();
+    }
+
+    @Override
+    public void put(Identifier identifier, Info imageInfo)
+            throws CacheException {
+        final long start = System.nanoTime();
+        try {
+            cache.put(identifier, imageInfo);
+        } catch (CacheException | RuntimeException e) {
+            metrics.recordWriteFailure();
+            throw e;
+        }
+        metrics.recordWrite(System.nanoTime() - start);
+    }
+
+    @Override
+    public void shutdown() {
+        cache.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return cache.getClass().getSimpleName();
+    }
+
+}
@@ -0,0 +1,128 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.image.Identifier;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Decorates a {@link SourceCache}, recording its usage in a
+ * {@link CacheMetrics} instance. When source images are obtained as files
+ * rather than streams, the size of a file is counted as read when it is
+ * found.
+ *
+ * @since 3.4
+ */
+final class MeteredSourceCache implements SourceCache {
+
+    private final SourceCache cache;
+    private final CacheMetrics metrics;
+
+    /**
+     * @param cache   Cache to decorate.
+     * @param metrics Instance to record usage in.
+     */
+    MeteredSourceCache(SourceCache cache, CacheMetrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+        cache.setEvictionListener(metrics::recordEvictions);
+    }
+
+    @Override
+    public void cleanUp() throws CacheException {
+        cache.cleanUp();
+    }
+
+    @Override
+    public File getSourceImageFile(Identifier identifier)
+            throws CacheException {
+        final long start = System.nanoTime();
+        final File file = cache.getSourceImageFile(identifier);
+        if (file != null) {
+            metrics.recordHit(System.nanoTime() - start);
+            metrics.recordBytesRead(file.length());
+        } else {
+            metrics.recordMiss(System.nanoTime() - start);
+        }
+        return file;
+    }
+
+    /**
+     * @return The decorated cache.
+     */
+    SourceCache getWrappedCache() {
+        return cache;
+    }
+
+    @Override
+    public void initialize() {
+        cache.initialize();
+    }
+
+    @Override
+    public Map<String, Object> getSourceImageStatistics(int maxEntries)
+            throws CacheException {
+        return cache.getSourceImageStatistics(maxEntries);
+    }
+
+    @Override
+    public InputStream newSourceImageInputStream(Identifier identifier)
+            throws CacheException {
+        final long start = System.nanoTime();
+        final InputStream inputStream =
+                cache.newSourceImageInputStream(identifier);
+        if (inputStream != null) {
+            metrics.recordHit(System.nanoTime() - start);
+            return metrics.newInputStream(inputStream);
+        }
+        metrics.recordMiss(System.nanoTime() - start);
+        return null;
+    }
+
+    @Override
+    public OutputStream newSourceImageOutputStream(Identifier identifier)
+            throws CacheException {
+        final long start = System.nanoTime();
+        final OutputStream outputStream;
+        try {
+            outputStream = cache.newSourceImageOutputStream(identifier);
+        } catch (CacheException | RuntimeException e) {
+            metrics.recordWriteFailure();
+            throw e;
+        }
+        return (outputStream != null) ?
+                metrics.newOutputStream(outputStream,
+                        System.nanoTime() - start) : null;
+    }
+
+    @Override
+    public void purge() throws CacheException {
+        metrics.recordPurge();
+        cache.purge();
+    }
+
+    @Override
+    public void purge(Identifier identifier) throws CacheException {
+        metrics.recordPurge();
+        cache.purge(identifier);
+    }
+
+    @Override
+    public void purgeExpired() throws CacheException {
+        metrics.recordPurge();
+        cache.purgeExpired();
+    }
+
+    @Override
+    public void shutdown() {
+        cache.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return cache.getClass().getSimpleName();
+    }
+
+}
@@ -0,0 +1,180 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+
+/**
+ * <p>Bounded in-process cache of failed source image resolutions&mdash;i.e.
+ * {@link FileNotFoundException}s and {@link AccessDeniedException}s&mdash;so
+ * that repeated requests for nonexistent or inaccessible images can be
+ * answered without consulting the resolver, and therefore the source image
+ * storage, every time.</p>
+ *
+ * <p>Failures are keyed by identifier and resolver, and are forgotten after
+ * {@link Key#NEGATIVE_CACHE_TTL} seconds. When that is not set, or is set to
+ * <code>0</code>, the cache is disabled.</p>
+ *
+ * @since 3.4
+ */
+public final class NegativeResultCache {
+
+    private static final class Entry {
+
+        private final long created = System.currentTimeMillis();
+        private final boolean isAccessDenied;
+        private final String message;
+
+        Entry(IOException e) {
+            this.isAccessDenied = (e instanceof AccessDeniedException);
+            this.message = e.getMessage();
+        }
+
+    }
+
+    private static final class EntryKey {
+
+        private final Identifier identifier;
+        private final String resolverName;
+
+        EntryKey(Identifier identifier, String resolverName) {
+            this.identifier = identifier;
+            this.resolverName = resolverName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof EntryKey) {
+                final EntryKey other = (EntryKey) obj;
+                return identifier.equals(other.identifier) &&
+                        resolverName.equals(other.resolverName);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return identifier.hashCode() * 31 + resolverName.hashCode();
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(NegativeResultCache.class);
+
+    static final long DEFAULT_MAX_SIZE = 10000;
+
+    private static volatile NegativeResultCache instance;
+
+    private final Cache<EntryKey, Entry> store;
+
+    /**
+     * @return Shared instance, sized according to the application
+     *         configuration.
+     */
+    public static NegativeResultCache getInstance() {
+        NegativeResultCache cache = instance;
+        if (cache == null) {
+            synchronized (NegativeResultCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    final long maxSize = Configuration.getInstance().
+                            getLong(Key.NEGATIVE_CACHE_MAX_SIZE,
+                                    DEFAULT_MAX_SIZE);
+                    LOGGER.info("Negative result cache limit: {}", maxSize);
+                    cache = new NegativeResultCache(maxSize);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param maxSize Maximum number of failures to hold.
+     */
+    NegativeResultCache(long maxSize) {
+        store = Caffeine.newBuilder().maximumSize(Math.max(0, maxSize)).build();
+    }
+
+    /**
+     * @param identifier   Identifier of the source image.
+     * @param resolverName Name of the resolver that failed to resolve it.
+     * @return New exception equivalent to the one that was
+     *         {@link #put(Identifier, String, IOException) put}, or
+     *         <code>null</code> if there is none or it has expired.
+     */
+    public IOException get(Identifier identifier, String resolverName) {
+        final long ttl = getTTL();
+        if (ttl <= 0) {
+            return null;
+        }
+        final EntryKey key = new EntryKey(identifier, resolverName);
+        final Entry entry = store.getIfPresent(key);
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.created <= ttl * 1000) {
+                return entry.isAccessDenied ?
+                        new AccessDeniedException(entry.message) :
+                        new FileNotFoundException(entry.message);
+            }
+            store.asMap().remove(key, entry);
+        }
+        return null;
+    }
+
+    private long getTTL() {
+        return Configuration.getInstance().getLong(Key.NEGATIVE_CACHE_TTL, 0);
+    }
+
+    /**
+     * Removes all failures.
+     */
+    public void purge() {
+        store.invalidateAll();
+    }
+
+    /**
+     * Removes all failures corresponding to the given identifier, regardless
+     * of resolver.
+     *
+     * @param identifier Identifier of the source image.
+     */
+    public void purge(Identifier identifier) {
+        store.asMap().keySet().removeIf(k -> k.identifier.equals(identifier));
+    }
+
+    /**
+     * Records a failure to resolve a source image. Exceptions other than
+     * {@link FileNotFoundException} and {@link AccessDeniedException} are
+     * ignored, as they may well be transient.
+     *
+     * @param identifier   Identifier of the source image.
+     * @param resolverName Name of the resolver that failed to resolve it.
+     * @param e            Exception thrown by the resolver.
+     */
+    public void put(Identifier identifier, String resolverName,
+                    IOException e) {
+        if (getTTL() > 0 && (e instanceof FileNotFoundException ||
+                e instanceof AccessDeniedException)) {
+            store.put(new EntryKey(identifier, resolverName), new Entry(e));
+        }
+    }
+
+    /**
+     * @return Approximate number of failures in the cache, including expired
+     *         ones that have not been removed yet.
+     */
+    public long size() {
+        store.cleanUp();
+        return store.estimatedSize();
+    }
+
+}
@@ -0,0 +1,315 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Stores byte sequences outside of the Java heap, in fixed-size blocks
+ * carved out of large direct {@link ByteBuffer} "slabs."</p>
+ *
+ * <p>Each stored sequence is represented on the heap only by a compact
+ * {@link Region}, which is an array of block indices and a length. Slabs are
+ * allocated on demand and never released; freed blocks are reused for later
+ * writes. The amount of data stored is expected to be bounded by the
+ * client.</p>
+ *
+ * <p>The total amount of direct memory available to the JVM can be set using
+ * the <code>-XX:MaxDirectMemorySize</code> VM argument.</p>
+ *
+ * @since 3.4
+ */
+class OffHeapStore {
+
+    /**
+     * Describes the location of a stored byte sequence.
+     */
+    static final class Region {
+
+        private final int[] blocks;
+        private final int length;
+
+        private Region(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        /**
+         * @return Length of the stored sequence.
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * @return Number of blocks occupied by the sequence.
+         */
+        int getNumBlocks() {
+            return blocks.length;
+        }
+
+    }
+
+    /**
+     * Writes to newly allocated blocks, and makes the resulting region
+     * available via {@link #getRegion()} after being closed.
+     */
+    class RegionOutputStream extends OutputStream {
+
+        private int[] blocks = new int[8];
+        private int numBlocks = 0;
+        private int length = 0;
+        private Region region;
+
+        /**
+         * Frees any blocks that have been written to. For use when the
+         * written data is not going to be used.
+         */
+        void abort() {
+            if (region == null) {
+                free(Arrays.copyOf(blocks, numBlocks));
+                numBlocks = 0;
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (region == null) {
+                region = new Region(Arrays.copyOf(blocks, numBlocks), length);
+            }
+        }
+
+        /**
+         * @return Written region, or <code>null</code> if the instance has not
+         *         been closed.
+         */
+        Region getRegion() {
+            return region;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (region != null) {
+                throw new IOException("Stream is closed.");
+            }
+            while (len > 0) {
+                final int blockOffset = length % blockSize;
+                if (blockOffset == 0) {
+                    if (numBlocks == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, numBlocks * 2);
+                    }
+                    blocks[numBlocks++] = allocate();
+                }
+                final int toCopy = Math.min(len, blockSize - blockOffset);
+                final ByteBuffer buffer = bufferAt(blocks[numBlocks - 1],
+                        blockOffset);
+                buffer.put(b, off, toCopy);
+                length += toCopy;
+                off += toCopy;
+                len -= toCopy;
+            }
+        }
+
+    }
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(OffHeapStore.class);
+
+    static final int DEFAULT_BLOCK_SIZE = 8192;
+    static final int DEFAULT_BLOCKS_PER_SLAB = 8192;
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+
+    /** Guarded by {@link #lock}. */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * Stack of free block indices, with room for all blocks of all slabs.
+     * Guarded by {@link #lock}.
+     */
+    private int[] freeBlocks = new int[0];
+
+    /** Number of elements in {@link #freeBlocks}. Guarded by {@link #lock}. */
+    private int numFreeBlocks = 0;
+
+    private final Object lock = new Object();
+
+    OffHeapStore() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS_PER_SLAB);
+    }
+
+    /**
+     * @param blockSize     Size of each block in bytes.
+     * @param blocksPerSlab Number of blocks in each slab.
+     */
+    OffHeapStore(int blockSize, int blocksPerSlab) {
+        this.blockSize = blockSize;
+        this.blocksPerSlab = blocksPerSlab;
+    }
+
+    /**
+     * @return Index of a free block.
+     */
+    private int allocate() {
+        synchronized (lock) {
+            if (numFreeBlocks == 0) {
+                addSlab();
+            }
+            return freeBlocks[--numFreeBlocks];
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void addSlab() {
+        final int firstBlock = slabs.size() * blocksPerSlab;
+        LOGGER.debug("addSlab(): allocating {} bytes of direct memory",
+                (long) blockSize * blocksPerSlab);
+        slabs.add(ByteBuffer.allocateDirect(blockSize * blocksPerSlab));
+        // Any block of any slab may be freed at the same time, so the stack
+        // must be able to hold all of them.
+        freeBlocks = Arrays.copyOf(freeBlocks, slabs.size() * blocksPerSlab);
+        // Push them in reverse so that they get allocated in order.
+        for (int i = blocksPerSlab - 1; i >= 0; i--) {
+            freeBlocks[numFreeBlocks++] = firstBlock + i;
+        }
+    }
+
+    /**
+     * @param block       Block index.
+     * @param blockOffset Offset within the block.
+     * @return Independent buffer positioned at the given offset within the
+     *         given block, with its limit at the end of the block.
+     */
+    private ByteBuffer bufferAt(int block, int blockOffset) {
+        final ByteBuffer slab;
+        synchronized (lock) {
+            slab = slabs.get(block / blocksPerSlab);
+        }
+        final ByteBuffer buffer = slab.duplicate();
+        final int start = (block % blocksPerSlab) * blockSize;
+        buffer.limit(start + blockSize);
+        buffer.position(start + blockOffset);
+        return buffer;
+    }
+
+    /**
+     * Returns the blocks of the given region to the pool. The region must not
+     * be read from afterwards.
+     *
+     * @param region Region to free.
+     */
+    void free(Region region) {
+        free(region.blocks);
+    }
+
+    private void free(int[] blocks) {
+        synchronized (lock) {
+            for (int block : blocks) {
+                freeBlocks[numFreeBlocks++] = block;
+            }
+        }
+    }
+
+    /**
+     * @return Number of bytes of direct memory allocated by the instance.
+     */
+    long getAllocatedByteSize() {
+        synchronized (lock) {
+            return (long) slabs.size() * blocksPerSlab * blockSize;
+        }
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return Number of bytes of direct memory in use by stored regions.
+     */
+    long getUsedByteSize() {
+        synchronized (lock) {
+            return ((long) slabs.size() * blocksPerSlab - numFreeBlocks) *
+                    blockSize;
+        }
+    }
+
+    /**
+     * @param region Region to read.
+     * @return Stream that reads the given region directly from the direct
+     *         buffer(s) it occupies.
+     */
+    InputStream newInputStream(Region region) {
+        return new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int available() {
+                return region.length - position;
+            }
+
+            @Override
+            public int read() {
+                if (position >= region.length) {
+                    return -1;
+                }
+                final ByteBuffer buffer = bufferAt(
+                        region.blocks[position / blockSize],
+                        position % blockSize);
+                position++;
+                return buffer.get() & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                } else if (position >= region.length) {
+                    return -1;
+                }
+                final int blockOffset = position % blockSize;
+                final int toCopy = Math.min(
+                        Math.min(len, blockSize - blockOffset),
+                        region.length - position);
+                final ByteBuffer buffer = bufferAt(
+                        region.blocks[position / blockSize], blockOffset);
+                buffer.get(b, off, toCopy);
+                position += toCopy;
+                return toCopy;
+            }
+
+            @Override
+            public long skip(long n) {
+                final int skipped = (int) Math.max(0,
+                        Math.min(n, region.length - position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * @return New stream for writing a region. Clients must either close it
+     *         and then {@link #free(Region)} its region when no longer
+     *         needed, or {@link RegionOutputStream#abort() abort} it.
+     */
+    RegionOutputStream newOutputStream() {
+        return new RegionOutputStream();
+    }
+
+}
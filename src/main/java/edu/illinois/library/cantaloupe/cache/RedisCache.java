@@ -1,11 +1,15 @@
 package edu.illinois.library.cantaloupe.cache;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.lambdaworks.redis.MapScanCursor;
+import com.lambdaworks.redis.KeyScanCursor;
 import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisFuture;
 import com.lambdaworks.redis.RedisURI;
 import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScriptOutputType;
 import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.api.async.RedisAsyncCommands;
+import com.lambdaworks.redis.api.sync.RedisCommands;
 import com.lambdaworks.redis.codec.ByteArrayCodec;
 import com.lambdaworks.redis.codec.RedisCodec;
 import com.lambdaworks.redis.codec.Utf8StringCodec;
@@ -17,12 +21,19 @@ import edu.illinois.library.cantaloupe.operation.OperationList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <p>Cache using Redis via the <a href="http://redis.paluch.biz">Lettuce</a>
@@ -31,13 +42,26 @@ import java.nio.ByteBuffer;
  * <p>Content is structured as follows:</p>
  *
  * <pre>{
- *     #{@link #IMAGE_HASH_KEY}: {
- *         "operation list string representation": image byte array
- *     },
- *     #{@link #INFO_HASH_KEY}: {
- *         "identifier": "UTF-8 JSON string"
- *     }
+ *     "#{@link #IMAGE_KEY_PREFIX}operation list string representation":
+ *         image byte array,
+ *     "#{@link #INFO_KEY_PREFIX}identifier": "UTF-8 JSON string"
  * }</pre>
+ *
+ * <p>Images are streamed in and out in chunks of {@link #CHUNK_SIZE} bytes,
+ * so that neither reading nor writing one requires buffering all of it.
+ * They are written by <code>APPEND</code>ing chunks to a temporary key
+ * without waiting for each reply (Lettuce pipelines commands sent over the
+ * same connection), which is then <code>RENAME</code>d into place, so that
+ * incomplete images are never visible. They are read using
+ * <code>GETRANGE</code>, with the first chunk serving as the existence check
+ * and each subsequent one requested while the previous one is being
+ * consumed. As the key may expire, be purged, or be replaced in between
+ * chunks, each chunk is read by a script that checks that the length of the
+ * value is still the same as when the first chunk was read, and a reader
+ * for which it isn't fails rather than returning a mixture of values.</p>
+ *
+ * <p>Every key is a top-level key, so that Redis can expire it after
+ * {@link Key#CACHE_SERVER_TTL} seconds, if set.</p>
  */
 class RedisCache implements DerivativeCache {
 
@@ -73,32 +97,94 @@ class RedisCache implements DerivativeCache {
     }
 
     /**
-     * Reads data into a buffer and provides stream access to it.
+     * Reads a value chunk-by-chunk, requesting each chunk while the previous
+     * one is being read.
      */
     private static class RedisInputStream extends InputStream {
 
-        private ByteArrayInputStream bufferStream;
-        private StatefulRedisConnection<String, byte[]> connection;
-        private String hashKey;
-        private String valueKey;
-
-        RedisInputStream(String hashKey,
-                         String valueKey,
+        private final StatefulRedisConnection<String, byte[]> connection;
+        private final String key;
+        private final long length;
+
+        private byte[] chunk;
+        private int chunkPos = 0;
+        private boolean isLastChunk;
+        private RedisFuture<byte[]> nextChunk;
+        private long nextChunkOffset;
+
+        /**
+         * @param key        Key of the value to read.
+         * @param length     Length of the value.
+         * @param firstChunk First {@link #CHUNK_SIZE} (or fewer) bytes of the
+         *                   value, already read.
+         * @param connection Connection to read the rest of the value from.
+         */
+        RedisInputStream(String key,
+                         long length,
+                         byte[] firstChunk,
                          StatefulRedisConnection<String, byte[]> connection) {
             this.connection = connection;
-            this.hashKey = hashKey;
-            this.valueKey = valueKey;
+            this.key = key;
+            this.length = length;
+            setChunk(firstChunk);
+        }
+
+        /**
+         * @return Whether there is anything left to read.
+         */
+        private boolean ensureAvailable() throws IOException {
+            if (chunkPos < chunk.length) {
+                return true;
+            } else if (isLastChunk) {
+                return false;
+            }
+            try {
+                setChunk(nextChunk.get(connection.getTimeout(),
+                        connection.getTimeoutUnit()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            } catch (ExecutionException e) {
+                // Most likely the script's error reply about the value
+                // having changed.
+                throw new IOException("Failed to read " + key + ": " +
+                        e.getCause().getMessage(), e);
+            } catch (TimeoutException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return chunkPos < chunk.length;
+        }
+
+        private void setChunk(byte[] chunk) {
+            this.chunk = (chunk != null) ? chunk : new byte[0];
+            chunkPos = 0;
+            nextChunkOffset += this.chunk.length;
+            isLastChunk = (nextChunkOffset >= length ||
+                    this.chunk.length == 0);
+            if (isLastChunk) {
+                nextChunk = null;
+            } else {
+                nextChunk = connection.async().eval(GET_CHUNK_SCRIPT,
+                        ScriptOutputType.VALUE, new String[] { key },
+                        bytes(length), bytes(nextChunkOffset),
+                        bytes(nextChunkOffset + CHUNK_SIZE - 1));
+            }
         }
 
-        private void bufferValue() {
-            byte[] value = connection.sync().hget(hashKey, valueKey);
-            bufferStream = new ByteArrayInputStream(value);
+        @Override
+        public int available() {
+            return chunk.length - chunkPos;
         }
 
         @Override
         public void close() throws IOException {
             try {
-                bufferStream.close();
+                if (nextChunk != null) {
+                    nextChunk.cancel(false);
+                    nextChunk = null;
+                }
+                chunk = new byte[0];
+                isLastChunk = true;
             } finally {
                 super.close();
             }
@@ -106,71 +192,208 @@ class RedisCache implements DerivativeCache {
 
         @Override
         public int read() throws IOException {
-            if (bufferStream == null) {
-                bufferValue();
+            if (!ensureAvailable()) {
+                return -1;
             }
-            return bufferStream.read();
-        }
-
-        @Override
-        public int read(byte[] b) throws IOException {
-            if (bufferStream == null) {
-                bufferValue();
-            }
-            return bufferStream.read(b);
+            return chunk[chunkPos++] & 0xff;
         }
 
         @Override
         public int read(byte[] b, int off, int len) throws IOException {
-            if (bufferStream == null) {
-                bufferValue();
+            if (len == 0) {
+                return 0;
+            } else if (!ensureAvailable()) {
+                return -1;
             }
-            return bufferStream.read(b, off, len);
+            final int n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(chunk, chunkPos, b, off, n);
+            chunkPos += n;
+            return n;
         }
 
     }
 
     /**
-     * Buffers written data and then writes it asynchronously to Redis.
+     * Writes data to a temporary key in chunks, without waiting for any but
+     * the oldest of {@link #MAX_PENDING_CHUNKS} to be acknowledged, and moves
+     * it to its final key upon closure, or deletes it if aborted.
      */
-    private static class RedisOutputStream extends OutputStream {
-
-        private ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
-        private StatefulRedisConnection<String, byte[]> connection;
-        private String hashKey;
-        private String valueKey;
+    private static class RedisOutputStream extends AbortableOutputStream {
+
+        /**
+         * Chunk that has been sent but not necessarily acknowledged.
+         */
+        private static class PendingChunk {
+            final byte[] buffer;
+            final RedisFuture<Long> future;
+
+            PendingChunk(byte[] buffer, RedisFuture<Long> future) {
+                this.buffer = buffer;
+                this.future = future;
+            }
+        }
 
-        RedisOutputStream(String hashKey,
-                          String valueKey,
+        /**
+         * Maximum number of unacknowledged chunks, which bounds the memory
+         * used by an instance to this many chunks, plus one.
+         */
+        private static final int MAX_PENDING_CHUNKS = 4;
+
+        /**
+         * TTL of temporary keys, so that those of writes that never complete
+         * don't linger.
+         */
+        private static final long TEMP_KEY_TTL = 60 * 60;
+
+        private final StatefulRedisConnection<String, byte[]> connection;
+        private final String key;
+        private final long ttl;
+        private final String tempKey;
+
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int bufferPos = 0;
+        private boolean isClosed = false;
+        private int numChunksSent = 0;
+        private final Deque<PendingChunk> pendingChunks = new ArrayDeque<>();
+
+        /**
+         * @param key        Key to write to.
+         * @param ttl        TTL of the key in seconds, or 0 for no TTL.
+         * @param connection Connection to write to.
+         */
+        RedisOutputStream(String key,
+                          long ttl,
                           StatefulRedisConnection<String, byte[]> connection) {
             this.connection = connection;
-            this.hashKey = hashKey;
-            this.valueKey = valueKey;
+            this.key = key;
+            this.ttl = ttl;
+            this.tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+        }
+
+        private void await(RedisFuture<?> future) throws IOException {
+            try {
+                future.get(connection.getTimeout(),
+                        connection.getTimeoutUnit());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Sends the buffer contents, and obtains a new buffer, waiting for
+         * the oldest pending chunk to be acknowledged and reusing its buffer
+         * if there are too many.
+         */
+        private void sendBuffer() throws IOException {
+            final byte[] value = (bufferPos == buffer.length) ?
+                    buffer : Arrays.copyOf(buffer, bufferPos);
+            final RedisAsyncCommands<String, byte[]> commands =
+                    connection.async();
+            pendingChunks.add(new PendingChunk(buffer,
+                    commands.append(tempKey, value)));
+            if (numChunksSent == 0) {
+                commands.expire(tempKey, TEMP_KEY_TTL);
+            }
+            numChunksSent++;
+            bufferPos = 0;
+
+            if (pendingChunks.size() > MAX_PENDING_CHUNKS) {
+                final PendingChunk oldest = pendingChunks.remove();
+                await(oldest.future);
+                buffer = oldest.buffer;
+            } else {
+                buffer = new byte[CHUNK_SIZE];
+            }
         }
 
         @Override
         public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
             try {
-                connection.async().hset(hashKey, valueKey,
-                        bufferStream.toByteArray());
+                if (bufferPos > 0) {
+                    sendBuffer();
+                }
+                if (numChunksSent == 0) {
+                    return;
+                }
+                // Don't move anything into place unless all of it has been
+                // written.
+                try {
+                    while (!pendingChunks.isEmpty()) {
+                        await(pendingChunks.remove().future);
+                    }
+                } catch (IOException e) {
+                    connection.async().del(tempKey);
+                    throw e;
+                }
+                final RedisAsyncCommands<String, byte[]> commands =
+                        connection.async();
+                // RENAME preserves the TTL.
+                if (ttl > 0) {
+                    commands.expire(tempKey, ttl);
+                } else {
+                    commands.persist(tempKey);
+                }
+                commands.rename(tempKey, key).whenComplete((result, t) -> {
+                    if (t != null) {
+                        logger.warn("close(): failed to rename {} to {}: {}",
+                                tempKey, key, t.getMessage());
+                    }
+                });
             } finally {
+                pendingChunks.clear();
+                buffer = null;
                 super.close();
             }
         }
 
+        /**
+         * Deletes the temporary key instead of moving it into place. As the
+         * deletion is sent on the same connection as the chunks, it takes
+         * effect after any that are still pending.
+         */
         @Override
-        public void write(int b) throws IOException {
-            bufferStream.write(b);
+        public void abort() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                if (numChunksSent > 0) {
+                    await(connection.async().del(tempKey));
+                }
+            } finally {
+                pendingChunks.clear();
+                buffer = null;
+            }
         }
 
         @Override
-        public void write(byte[] b) throws IOException {
-            bufferStream.write(b);
+        public void write(int b) throws IOException {
+            buffer[bufferPos++] = (byte) b;
+            if (bufferPos == buffer.length) {
+                sendBuffer();
+            }
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            bufferStream.write(b, off, len);
+            while (len > 0) {
+                final int n = Math.min(len, buffer.length - bufferPos);
+                System.arraycopy(b, off, buffer, bufferPos, n);
+                bufferPos += n;
+                off += n;
+                len -= n;
+                if (bufferPos == buffer.length) {
+                    sendBuffer();
+                }
+            }
         }
 
     }
@@ -199,30 +422,106 @@ class RedisCache implements DerivativeCache {
     private static final Logger logger = LoggerFactory.
             getLogger(RedisCache.class);
 
-    static final String IMAGE_HASH_KEY =
+    /**
+     * Size of the chunks in which images are read and written.
+     */
+    static final int CHUNK_SIZE = 512 * 1024;
+
+    static final String IMAGE_KEY_PREFIX =
+            "edu.illinois.library.cantaloupe.image:";
+    static final String INFO_KEY_PREFIX =
+            "edu.illinois.library.cantaloupe.info:";
+    static final String TEMP_KEY_PREFIX =
+            "edu.illinois.library.cantaloupe.tmp:";
+
+    /**
+     * Hashes in which images and infos were stored by earlier development
+     * versions.
+     */
+    static final String LEGACY_IMAGE_HASH_KEY =
             "edu.illinois.library.cantaloupe.image";
-    static final String INFO_HASH_KEY =
+    static final String LEGACY_INFO_HASH_KEY =
             "edu.illinois.library.cantaloupe.info";
 
+    /**
+     * Returns the length of the value at <code>KEYS[1]</code> and the range
+     * from 0 to <code>ARGV[1]</code> of it.
+     */
+    private static final String GET_FIRST_CHUNK_SCRIPT =
+            "return {redis.call('STRLEN', KEYS[1]), " +
+                    "redis.call('GETRANGE', KEYS[1], 0, ARGV[1])}";
+
+    /**
+     * Returns the range from <code>ARGV[2]</code> to <code>ARGV[3]</code> of
+     * the value at <code>KEYS[1]</code>, or an error if its length is no
+     * longer <code>ARGV[1]</code>.
+     */
+    private static final String GET_CHUNK_SCRIPT =
+            "if redis.call('STRLEN', KEYS[1]) ~= tonumber(ARGV[1]) then " +
+                    "return redis.error_reply('value has changed') end " +
+                    "return redis.call('GETRANGE', KEYS[1], ARGV[2], ARGV[3])";
+
+    /**
+     * @return Script argument representing the given number.
+     */
+    private static byte[] bytes(long number) {
+        return Long.toString(number).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param str String to include in a <code>SCAN</code> pattern.
+     * @return Given string with glob-style pattern characters escaped.
+     */
+    private static String escapePattern(String str) {
+        return str.replaceAll("([\\\\*?\\[\\]^])", "\\\\$1");
+    }
+
     private static StatefulRedisConnection<String, byte[]> getConnection() {
         return LazyConnectionHolder.connection;
     }
 
-    private static String imageKey(OperationList opList) {
-        return opList.toString();
+    /**
+     * @return Effective value of {@link Key#CACHE_SERVER_TTL}.
+     */
+    private static long getTTL() {
+        return Configuration.getInstance().getLong(Key.CACHE_SERVER_TTL, 0);
     }
 
-    private static String infoKey(Identifier identifier) {
-        return identifier.toString();
+    static String imageKey(OperationList opList) {
+        return IMAGE_KEY_PREFIX + opList.toString();
+    }
+
+    static String infoKey(Identifier identifier) {
+        return INFO_KEY_PREFIX + identifier.toString();
+    }
+
+    /**
+     * Deletes all keys matching the given pattern.
+     *
+     * @param pattern Glob-style pattern.
+     */
+    private static void deleteMatching(String pattern) {
+        final RedisCommands<String, byte[]> commands = getConnection().sync();
+        final ScanArgs args = ScanArgs.Builder.matches(pattern).limit(1000);
+        KeyScanCursor<String> cursor = commands.scan(args);
+        while (true) {
+            final List<String> keys = cursor.getKeys();
+            if (!keys.isEmpty()) {
+                commands.del(keys.toArray(new String[keys.size()]));
+            }
+            if (cursor.isFinished()) {
+                break;
+            }
+            cursor = commands.scan(cursor, args);
+        }
     }
 
     @Override
     public Info getImageInfo(Identifier identifier) throws CacheException {
-        byte[] json = getConnection().sync().hget(INFO_HASH_KEY,
-                infoKey(identifier));
+        byte[] json = getConnection().sync().get(infoKey(identifier));
         if (json != null) {
             try {
-                String jsonStr = new String(json, "UTF-8");
+                String jsonStr = new String(json, StandardCharsets.UTF_8);
                 return Info.fromJSON(jsonStr);
             } catch (IOException e) {
                 throw new CacheException(e.getMessage(), e);
@@ -235,9 +534,15 @@ class RedisCache implements DerivativeCache {
     public InputStream newDerivativeImageInputStream(OperationList opList)
             throws CacheException {
         final String imageKey = imageKey(opList);
-        if (getConnection().sync().hexists(IMAGE_HASH_KEY, imageKey)) {
-            return new RedisInputStream(IMAGE_HASH_KEY, imageKey,
-                    getConnection());
+        // STRLEN returns 0 for nonexistent keys, which saves a separate
+        // EXISTS round trip.
+        final List<Object> result = getConnection().sync().eval(
+                GET_FIRST_CHUNK_SCRIPT, ScriptOutputType.MULTI,
+                new String[] { imageKey }, bytes(CHUNK_SIZE - 1));
+        final long length = (Long) result.get(0);
+        if (length > 0) {
+            return new RedisInputStream(imageKey, length,
+                    (byte[]) result.get(1), getConnection());
         }
         return null;
     }
@@ -245,19 +550,22 @@ class RedisCache implements DerivativeCache {
     @Override
     public OutputStream newDerivativeImageOutputStream(OperationList opList)
             throws CacheException {
-        return new RedisOutputStream(IMAGE_HASH_KEY, imageKey(opList),
+        return new RedisOutputStream(imageKey(opList), getTTL(),
                 getConnection());
     }
 
     @Override
     public void purge() {
         // Purge infos
-        logger.info("purge(): purging {}...", INFO_HASH_KEY);
-        getConnection().sync().del(INFO_HASH_KEY);
+        logger.info("purge(): purging {}*...", INFO_KEY_PREFIX);
+        deleteMatching(escapePattern(INFO_KEY_PREFIX) + "*");
 
         // Purge images
-        logger.info("purge(): purging {}...", IMAGE_HASH_KEY);
-        getConnection().sync().del(IMAGE_HASH_KEY);
+        logger.info("purge(): purging {}*...", IMAGE_KEY_PREFIX);
+        deleteMatching(escapePattern(IMAGE_KEY_PREFIX) + "*");
+
+        // Purge anything left over from the older format
+        getConnection().sync().del(LEGACY_IMAGE_HASH_KEY, LEGACY_INFO_HASH_KEY);
     }
 
     @Override
@@ -265,16 +573,14 @@ class RedisCache implements DerivativeCache {
         // Purge info
         String infoKey = infoKey(identifier);
         logger.info("purge(Identifier): purging {}...", infoKey);
-        getConnection().sync().hdel(INFO_HASH_KEY, infoKey);
+        getConnection().sync().del(infoKey);
 
-        // Purge images
-        ScanArgs imagePattern = ScanArgs.Builder.matches(identifier + "*");
+        // Purge images. Operation list string representations begin with
+        // the identifier, followed by either an underscore or the extension.
+        String imagePattern = escapePattern(IMAGE_KEY_PREFIX +
+                identifier.toString()) + "[_.]*";
         logger.info("purge(Identifier): purging {}...", imagePattern);
-        MapScanCursor cursor = getConnection().sync().
-                hscan(IMAGE_HASH_KEY, imagePattern);
-        for (Object key : cursor.getMap().keySet()) {
-            getConnection().sync().hdel(IMAGE_HASH_KEY, (String) key);
-        }
+        deleteMatching(imagePattern);
     }
 
     /**
@@ -282,15 +588,15 @@ class RedisCache implements DerivativeCache {
      */
     @Override
     public void purgeExpired() {
-        logger.info("purgeExpired(): " +
-                "nothing to do (expiration must be configured in Redis)");
+        logger.info("purgeExpired(): nothing to do (expired content is " +
+                "removed by Redis)");
     }
 
     @Override
     public void purge(OperationList opList) {
         String imageKey = imageKey(opList);
         logger.info("purge(OperationList): purging {}...", imageKey);
-        getConnection().sync().hdel(IMAGE_HASH_KEY, imageKey);
+        getConnection().sync().del(imageKey);
     }
 
     @Override
@@ -298,8 +604,14 @@ class RedisCache implements DerivativeCache {
             throws CacheException {
         logger.info("put(): caching info for {}", identifier);
         try {
-            getConnection().async().hset(INFO_HASH_KEY, infoKey(identifier),
-                    imageInfo.toJSON().getBytes());
+            final byte[] json =
+                    imageInfo.toJSON().getBytes(StandardCharsets.UTF_8);
+            final long ttl = getTTL();
+            if (ttl > 0) {
+                getConnection().async().setex(infoKey(identifier), ttl, json);
+            } else {
+                getConnection().async().set(infoKey(identifier), json);
+            }
         } catch (JsonProcessingException e) {
             logger.error("put(): {}", e.getMessage());
             throw new CacheException(e.getMessage(), e);
@@ -3,7 +3,11 @@ package edu.illinois.library.cantaloupe.cache;
 import edu.illinois.library.cantaloupe.image.Identifier;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
 
 /**
  * Interface to be implemented by caches that cache source images.
@@ -34,6 +38,55 @@ public interface SourceCache extends Cache {
      */
     File getSourceImageFile(Identifier identifier) throws CacheException;
 
+    /**
+     * <p>Returns information about the size of the cache and the source
+     * images in it, suitable for serializing as JSON.</p>
+     *
+     * <p>The default implementation returns null, meaning that the
+     * implementation doesn't provide any.</p>
+     *
+     * @param maxEntries Maximum number of per-image entries to include.
+     * @return Map of statistics, or null.
+     * @throws CacheException
+     * @since 3.4
+     */
+    default Map<String, Object> getSourceImageStatistics(int maxEntries)
+            throws CacheException {
+        return null;
+    }
+
+    /**
+     * <p>Returns a stream from which a source image corresponding to the
+     * given identifier can be read, or null if a non-expired source image
+     * corresponding to the given identifier does not exist in the cache and
+     * is not being written.</p>
+     *
+     * <p>If the desired image is being written in another thread,
+     * implementations may return a stream that reads it while it is being
+     * written, blocking as necessary until more of it is available, rather
+     * than waiting for it to be written completely.</p>
+     *
+     * <p>The default implementation returns a stream that reads the file
+     * returned by {@link #getSourceImageFile(Identifier)}.</p>
+     *
+     * @param identifier Identifier of an image to read from the cache.
+     * @return Stream for reading the image, or null.
+     * @throws CacheException
+     * @since 3.4
+     */
+    default InputStream newSourceImageInputStream(Identifier identifier)
+            throws CacheException {
+        final File file = getSourceImageFile(identifier);
+        if (file != null) {
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+                throw new CacheException(e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
     /**
      * @param identifier Identifier of an image to write to the cache.
      * @return Output stream to which an image corresponding to the given
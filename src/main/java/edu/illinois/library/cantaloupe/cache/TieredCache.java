@@ -0,0 +1,495 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.ThreadPool;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>Two-tier derivative cache, consisting of a bounded {@link HeapCache}
+ * "upper" tier in front of a slower, larger "lower" tier (any other
+ * {@link DerivativeCache}, specified by
+ * {@link Key#TIEREDCACHE_LOWER_TIER}).</p>
+ *
+ * <p>Reads are served from the upper tier when possible, and otherwise fall
+ * through to the lower tier. Images and infos read from the lower tier are
+ * promoted to the upper tier as they are read, so that frequently requested
+ * items end up being served from RAM while the long tail remains in the lower
+ * tier. The upper tier is size-limited by
+ * {@link Key#HEAPCACHE_TARGET_SIZE}, just like a standalone HeapCache.</p>
+ *
+ * <p>Writes always go to the upper tier. Depending on
+ * {@link Key#TIEREDCACHE_WRITE_STRATEGY}, they also go either to the lower
+ * tier simultaneously ("write-through"), or to the lower tier in the
+ * background after the upper tier has been written ("write-behind").</p>
+ *
+ * @since 3.4
+ */
+class TieredCache implements DerivativeCache {
+
+    /**
+     * Strategy for writing to the lower tier.
+     */
+    enum WriteStrategy {
+
+        /**
+         * Written to the lower tier asynchronously, after being written to
+         * the upper tier.
+         */
+        BEHIND,
+
+        /**
+         * Written to both tiers simultaneously.
+         */
+        THROUGH;
+
+        /**
+         * @param value Configuration value.
+         * @return Strategy corresponding to the given value, or
+         *         {@link #THROUGH} if the value is unrecognized.
+         */
+        static WriteStrategy forConfigValue(String value) {
+            if (value != null &&
+                    "behind".equals(value.trim().toLowerCase())) {
+                return BEHIND;
+            }
+            return THROUGH;
+        }
+
+    }
+
+    /**
+     * Reads from the lower tier, writing everything that is read to the upper
+     * tier. The upper tier's stream is closed (committing the image to it)
+     * only if the lower tier's stream is read all the way to its end, and is
+     * otherwise aborted.
+     */
+    private static class PromotingInputStream extends FilterInputStream {
+
+        private OutputStream upperTierStream;
+        private boolean isPromoted = false;
+
+        PromotingInputStream(InputStream lowerTierStream,
+                             OutputStream upperTierStream) {
+            super(lowerTierStream);
+            this.upperTierStream = upperTierStream;
+        }
+
+        /**
+         * Aborts the upper tier's stream, freeing whatever has been written
+         * to it, if it hasn't already been promoted.
+         */
+        private void abandon() {
+            if (!isPromoted && upperTierStream != null) {
+                try {
+                    AbortableOutputStream.abortOrClose(upperTierStream);
+                } catch (IOException e) {
+                    LOGGER.warn("abandon(): {}", e.getMessage());
+                } finally {
+                    upperTierStream = null;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandon();
+            }
+        }
+
+        private void promote() {
+            if (!isPromoted && upperTierStream != null) {
+                isPromoted = true;
+                try {
+                    upperTierStream.close();
+                } catch (IOException e) {
+                    LOGGER.warn("promote(): {}", e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                promote();
+            } else if (upperTierStream != null) {
+                upperTierStream.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n == -1) {
+                promote();
+            } else if (upperTierStream != null) {
+                upperTierStream.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipping would leave a hole in the promoted copy.
+            abandon();
+            return super.skip(n);
+        }
+
+    }
+
+    /**
+     * Writes to the upper tier and, depending on the write strategy, either
+     * the lower tier simultaneously or the lower tier later.
+     */
+    private class TieredOutputStream extends AbortableOutputStream {
+
+        private final OperationList opList;
+        private final OutputStream upperTierStream;
+        private final OutputStream lowerTierStream;
+        private boolean isClosed = false;
+
+        /**
+         * @param opList          Operation list describing the image being
+         *                        written.
+         * @param upperTierStream Stream to the upper tier.
+         * @param lowerTierStream Stream to the lower tier. May be
+         *                        <code>null</code> when writing behind.
+         */
+        TieredOutputStream(OperationList opList,
+                           OutputStream upperTierStream,
+                           OutputStream lowerTierStream) {
+            this.opList = opList;
+            this.upperTierStream = upperTierStream;
+            this.lowerTierStream = lowerTierStream;
+        }
+
+        /**
+         * Aborts both tiers' streams. A lower tier stream that can't be
+         * aborted is closed instead, leaving it up to the caller to purge
+         * the image from the lower tier.
+         */
+        @Override
+        public void abort() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                AbortableOutputStream.abortOrClose(upperTierStream);
+            } finally {
+                if (lowerTierStream != null) {
+                    AbortableOutputStream.abortOrClose(lowerTierStream);
+                }
+            }
+        }
+
+        /**
+         * N.B.: This implementation can cope with being called multiple times,
+         * which is important. See inline doc in
+         * {@link edu.illinois.library.cantaloupe.resource.ImageRepresentation#write}
+         * for more info.
+         */
+        @Override
+        public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                upperTierStream.close();
+            } finally {
+                if (lowerTierStream != null) {
+                    lowerTierStream.close();
+                } else {
+                    writeBehind(opList);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            upperTierStream.flush();
+            if (lowerTierStream != null) {
+                lowerTierStream.flush();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            upperTierStream.write(b);
+            if (lowerTierStream != null) {
+                lowerTierStream.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            upperTierStream.write(b, off, len);
+            if (lowerTierStream != null) {
+                lowerTierStream.write(b, off, len);
+            }
+        }
+
+    }
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(TieredCache.class);
+
+    private HeapCache upperTier;
+    private DerivativeCache lowerTier;
+    private boolean isLowerTierResolved = false;
+
+    TieredCache() {}
+
+    /**
+     * For testing.
+     *
+     * @param upperTier Upper tier.
+     * @param lowerTier Lower tier.
+     */
+    TieredCache(HeapCache upperTier, DerivativeCache lowerTier) {
+        this.upperTier = upperTier;
+        this.lowerTier = lowerTier;
+        this.isLowerTierResolved = true;
+    }
+
+    @Override
+    public void cleanUp() throws CacheException {
+        getUpperTier().cleanUp();
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.cleanUp();
+        }
+    }
+
+    @Override
+    public Info getImageInfo(Identifier identifier) throws CacheException {
+        Info info = getUpperTier().getImageInfo(identifier);
+        if (info == null) {
+            final DerivativeCache lowerTier = getLowerTier();
+            if (lowerTier != null) {
+                info = lowerTier.getImageInfo(identifier);
+                if (info != null) {
+                    LOGGER.debug("getImageInfo(): promoting info for {}",
+                            identifier);
+                    getUpperTier().put(identifier, info);
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * @return Lower tier, or <code>null</code> if
+     *         {@link Key#TIEREDCACHE_LOWER_TIER} is not set to a valid
+     *         derivative cache.
+     */
+    synchronized DerivativeCache getLowerTier() {
+        if (!isLowerTierResolved) {
+            isLowerTierResolved = true;
+            final String unqualifiedName = Configuration.getInstance().
+                    getString(Key.TIEREDCACHE_LOWER_TIER, "");
+            if (unqualifiedName.isEmpty() ||
+                    unqualifiedName.equals(getClass().getSimpleName()) ||
+                    unqualifiedName.equals(HeapCache.class.getSimpleName())) {
+                LOGGER.error("getLowerTier(): {} must be set to a " +
+                                "derivative cache other than {} or {}",
+                        Key.TIEREDCACHE_LOWER_TIER,
+                        getClass().getSimpleName(),
+                        HeapCache.class.getSimpleName());
+                return null;
+            }
+            final String qualifiedName =
+                    getClass().getPackage().getName() + "." + unqualifiedName;
+            try {
+                Class<?> implClass = Class.forName(qualifiedName);
+                lowerTier = (DerivativeCache) implClass.newInstance();
+                lowerTier.initialize();
+            } catch (ClassNotFoundException e) {
+                LOGGER.error("Class not found: {}", e.getMessage());
+            } catch (ClassCastException | IllegalAccessException |
+                    InstantiationException e) {
+                LOGGER.error(e.getMessage());
+            }
+        }
+        return lowerTier;
+    }
+
+    synchronized HeapCache getUpperTier() {
+        if (upperTier == null) {
+            upperTier = new HeapCache();
+            upperTier.initialize();
+        }
+        return upperTier;
+    }
+
+    private WriteStrategy getWriteStrategy() {
+        return WriteStrategy.forConfigValue(Configuration.getInstance().
+                getString(Key.TIEREDCACHE_WRITE_STRATEGY, "through"));
+    }
+
+    @Override
+    public void initialize() {
+        getUpperTier();
+        getLowerTier();
+    }
+
+    @Override
+    public InputStream newDerivativeImageInputStream(OperationList opList)
+            throws CacheException {
+        InputStream inputStream =
+                getUpperTier().newDerivativeImageInputStream(opList);
+        if (inputStream == null) {
+            final DerivativeCache lowerTier = getLowerTier();
+            if (lowerTier != null) {
+                inputStream = lowerTier.newDerivativeImageInputStream(opList);
+                if (inputStream != null) {
+                    LOGGER.debug("newDerivativeImageInputStream(): " +
+                            "promoting {}", opList);
+                    inputStream = new PromotingInputStream(inputStream,
+                            getUpperTier().newDerivativeImageOutputStream(opList));
+                }
+            }
+        }
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream newDerivativeImageOutputStream(OperationList opList)
+            throws CacheException {
+        final OutputStream upperTierStream =
+                getUpperTier().newDerivativeImageOutputStream(opList);
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier == null) {
+            return upperTierStream;
+        }
+        OutputStream lowerTierStream = null;
+        if (WriteStrategy.THROUGH.equals(getWriteStrategy())) {
+            lowerTierStream = lowerTier.newDerivativeImageOutputStream(opList);
+        }
+        return new TieredOutputStream(opList, upperTierStream,
+                lowerTierStream);
+    }
+
+    @Override
+    public void purge() throws CacheException {
+        getUpperTier().purge();
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.purge();
+        }
+    }
+
+    @Override
+    public void purge(Identifier identifier) throws CacheException {
+        getUpperTier().purge(identifier);
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.purge(identifier);
+        }
+    }
+
+    @Override
+    public void purge(OperationList opList) throws CacheException {
+        getUpperTier().purge(opList);
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.purge(opList);
+        }
+    }
+
+    @Override
+    public void purgeExpired() throws CacheException {
+        getUpperTier().purgeExpired();
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.purgeExpired();
+        }
+    }
+
+    @Override
+    public void put(Identifier identifier, Info imageInfo)
+            throws CacheException {
+        getUpperTier().put(identifier, imageInfo);
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            if (WriteStrategy.THROUGH.equals(getWriteStrategy())) {
+                lowerTier.put(identifier, imageInfo);
+            } else {
+                submit(() -> {
+                    try {
+                        lowerTier.put(identifier, imageInfo);
+                    } catch (CacheException e) {
+                        LOGGER.error("put(): {}", e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        getUpperTier().shutdown();
+        final DerivativeCache lowerTier = getLowerTier();
+        if (lowerTier != null) {
+            lowerTier.shutdown();
+        }
+    }
+
+    private void submit(Runnable runnable) {
+        try {
+            ThreadPool.getInstance().submit(runnable);
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("submit(): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the image corresponding to the given operation list from the
+     * upper tier to the lower tier in the background. If it gets evicted from
+     * the upper tier in the meantime, it won't be copied.
+     */
+    private void writeBehind(OperationList opList) {
+        final DerivativeCache lowerTier = getLowerTier();
+        submit(() -> {
+            try (InputStream is =
+                         getUpperTier().newDerivativeImageInputStream(opList)) {
+                if (is == null) {
+                    LOGGER.debug("writeBehind(): {} is no longer in the " +
+                            "upper tier; not writing it", opList);
+                    return;
+                }
+                try (OutputStream os =
+                             lowerTier.newDerivativeImageOutputStream(opList)) {
+                    IOUtils.copy(is, os);
+                }
+                LOGGER.debug("writeBehind(): wrote {} to {}", opList,
+                        lowerTier.getClass().getSimpleName());
+            } catch (CacheException | IOException e) {
+                LOGGER.error("writeBehind(): {}", e.getMessage());
+                try {
+                    lowerTier.purge(opList);
+                } catch (CacheException e2) {
+                    LOGGER.error("writeBehind(): {}", e2.getMessage());
+                }
+            }
+        });
+    }
+
+}
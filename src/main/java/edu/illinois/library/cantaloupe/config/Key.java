@@ -30,6 +30,7 @@ public enum Key {
     AMAZONS3CACHE_ACCESS_KEY_ID("AmazonS3Cache.access_key_id"),
     AMAZONS3CACHE_BUCKET_NAME("AmazonS3Cache.bucket.name"),
     AMAZONS3CACHE_BUCKET_REGION("AmazonS3Cache.bucket.region"),
+    AMAZONS3CACHE_MAX_CONCURRENT_UPLOADS("AmazonS3Cache.max_concurrent_uploads"),
     AMAZONS3CACHE_OBJECT_KEY_PREFIX("AmazonS3Cache.object_key_prefix"),
     AMAZONS3CACHE_SECRET_KEY("AmazonS3Cache.secret_key"),
     AMAZONS3RESOLVER_ACCESS_KEY_ID("AmazonS3Resolver.access_key_id"),
@@ -66,9 +67,12 @@ public enum Key {
     BASIC_AUTH_ENABLED("endpoint.public.auth.basic.enabled"),
     BASIC_AUTH_SECRET("endpoint.public.auth.basic.secret"),
     BASIC_AUTH_USERNAME("endpoint.public.auth.basic.username"),
+    CACHE_METRICS_ENABLED("cache.server.metrics.enabled"),
     CACHE_SERVER_PURGE_MISSING("cache.server.purge_missing"),
     CACHE_SERVER_RESOLVE_FIRST("cache.server.resolve_first"),
     CACHE_SERVER_TTL("cache.server.ttl_seconds"),
+    CACHE_WARMING_MAX_RATE("cache.server.warming.max_rate"),
+    CACHE_WARMING_THREADS("cache.server.warming.threads"),
     CACHE_WORKER_ENABLED("cache.server.worker.enabled"),
     CACHE_WORKER_INTERVAL("cache.server.worker.interval"),
     CLIENT_CACHE_ENABLED("cache.client.enabled"),
@@ -85,6 +89,10 @@ public enum Key {
     DELEGATE_SCRIPT_ENABLED("delegate_script.enabled"),
     DELEGATE_SCRIPT_PATHNAME("delegate_script.pathname"),
     DERIVATIVE_CACHE("cache.server.derivative"),
+    DERIVATIVE_CACHE_ASYNC_WRITES_ENABLED("cache.server.derivative.async_writes.enabled"),
+    DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE("cache.server.derivative.async_writes.max_pending_size"),
+    DERIVATIVE_CACHE_ASYNC_WRITES_THREADS("cache.server.derivative.async_writes.threads"),
+    DERIVATIVE_CACHE_DERIVE_FROM_CACHED("cache.server.derivative.derive_from_cached"),
     DERIVATIVE_CACHE_ENABLED("cache.server.derivative.enabled"),
     ERROR_LOG_FILEAPPENDER_ENABLED("log.error.FileAppender.enabled"),
     ERROR_LOG_FILEAPPENDER_PATHNAME("log.error.FileAppender.pathname"),
@@ -96,11 +104,15 @@ public enum Key {
     FFMPEGPROCESSOR_PATH_TO_BINARIES("FfmpegProcessor.path_to_binaries"),
     FILESYSTEMCACHE_DIRECTORY_DEPTH("FilesystemCache.dir.depth"),
     FILESYSTEMCACHE_DIRECTORY_NAME_LENGTH("FilesystemCache.dir.name_length"),
+    FILESYSTEMCACHE_MAX_SIZE("FilesystemCache.max_size"),
     FILESYSTEMCACHE_PATHNAME("FilesystemCache.pathname"),
+    FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY("FilesystemCache.source.admission_policy"),
+    FILESYSTEMCACHE_SOURCE_MAX_SIZE("FilesystemCache.source.max_size"),
     FILESYSTEMRESOLVER_LOOKUP_STRATEGY("FilesystemResolver.lookup_strategy"),
     FILESYSTEMRESOLVER_PATH_PREFIX("FilesystemResolver.BasicLookupStrategy.path_prefix"),
     FILESYSTEMRESOLVER_PATH_SUFFIX("FilesystemResolver.BasicLookupStrategy.path_suffix"),
     GRAPHICSMAGICKPROCESSOR_PATH_TO_BINARIES("GraphicsMagickProcessor.path_to_binaries"),
+    HEAPCACHE_OFF_HEAP("HeapCache.off_heap"),
     HEAPCACHE_PATHNAME("HeapCache.persist.filesystem.pathname"),
     HEAPCACHE_PERSIST("HeapCache.persist"),
     HEAPCACHE_TARGET_SIZE("HeapCache.target_size"),
@@ -130,6 +142,7 @@ public enum Key {
     IIIF_MIN_SIZE("endpoint.iiif.min_size"),
     IIIF_MIN_TILE_SIZE("endpoint.iiif.min_tile_size"),
     IMAGEMAGICKPROCESSOR_PATH_TO_BINARIES("ImageMagickProcessor.path_to_binaries"),
+    INFO_CACHE_MAX_SIZE("cache.server.info.max_size"),
     JDBCCACHE_CONNECTION_TIMEOUT("JdbcCache.connection_timeout"),
     JDBCCACHE_DERIVATIVE_IMAGE_TABLE("JdbcCache.derivative_image_table"),
     JDBCCACHE_INFO_TABLE("JdbcCache.info_table"),
@@ -142,6 +155,8 @@ public enum Key {
     JDBCRESOLVER_USER("JdbcResolver.user"),
     KAKADUPROCESSOR_PATH_TO_BINARIES("KakaduProcessor.path_to_binaries"),
     MAX_PIXELS("max_pixels"),
+    NEGATIVE_CACHE_MAX_SIZE("cache.server.negative.max_size"),
+    NEGATIVE_CACHE_TTL("cache.server.negative.ttl_seconds"),
     OPENJPEGPROCESSOR_PATH_TO_BINARIES("OpenJpegProcessor.path_to_binaries"),
     OVERLAY_ENABLED("overlays.enabled"),
     OVERLAY_IMAGE("overlays.BasicStrategy.image"),
@@ -169,10 +184,13 @@ public enum Key {
     PROCESSOR_JPG_PROGRESSIVE("processor.jpg.progressive"),
     PROCESSOR_JPG_QUALITY("processor.jpg.quality"),
     PROCESSOR_LIMIT_TO_8_BITS("processor.limit_to_8_bits"),
+    PROCESSOR_MEMORY_BUDGET("processor.memory_budget"),
+    PROCESSOR_MEMORY_BUDGET_MAX_WAIT("processor.memory_budget.max_wait"),
     PROCESSOR_NORMALIZE("processor.normalize"),
     PROCESSOR_PRESERVE_METADATA("processor.metadata.preserve"),
     PROCESSOR_RESPECT_ORIENTATION("processor.metadata.respect_orientation"),
     PROCESSOR_SHARPEN("processor.sharpen"),
+    PROCESSOR_STREAMING_THRESHOLD("processor.streaming_threshold"),
     PROCESSOR_TIF_COMPRESSION("processor.tif.compression"),
     PROCESSOR_UPSCALE_FILTER("processor.upscale_filter"),
     REDACTION_ENABLED("redaction.enabled"),
@@ -185,8 +203,12 @@ public enum Key {
     RESOLVER_STATIC("resolver.static"),
     SLASH_SUBSTITUTE("slash_substitute"),
     SOURCE_CACHE("cache.server.source"),
+    SOURCE_CACHE_DOWNLOAD_THREADS("cache.server.source.download_threads"),
     SOURCE_CACHE_ENABLED("cache.server.source.enabled"),
-    STREAMPROCESSOR_RETRIEVAL_STRATEGY("StreamProcessor.retrieval_strategy");
+    SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS("cache.server.source.max_concurrent_downloads"),
+    STREAMPROCESSOR_RETRIEVAL_STRATEGY("StreamProcessor.retrieval_strategy"),
+    TIEREDCACHE_LOWER_TIER("TieredCache.lower_tier"),
+    TIEREDCACHE_WRITE_STRATEGY("TieredCache.write_strategy");
 
     private String key;
 
@@ -473,6 +473,14 @@ public final class OperationList implements Comparable<OperationList>,
         return toString().hashCode();
     }
 
+    /**
+     * @return Whether the instance has been {@link #freeze() frozen}.
+     * @since 3.4
+     */
+    public boolean isFrozen() {
+        return isFrozen;
+    }
+
     /**
      * @return Iterator over the instance's operations. If the instance is
      *         frozen, {@link Iterator#remove()} will throw an
@@ -2,19 +2,13 @@ package edu.illinois.library.cantaloupe.processor;
 
 import edu.illinois.library.cantaloupe.image.Format;
 import edu.illinois.library.cantaloupe.image.Info;
-import edu.illinois.library.cantaloupe.operation.ColorTransform;
 import edu.illinois.library.cantaloupe.operation.Crop;
 import edu.illinois.library.cantaloupe.operation.Encode;
 import edu.illinois.library.cantaloupe.operation.Normalize;
 import edu.illinois.library.cantaloupe.operation.Operation;
 import edu.illinois.library.cantaloupe.operation.OperationList;
 import edu.illinois.library.cantaloupe.operation.ReductionFactor;
-import edu.illinois.library.cantaloupe.operation.Rotate;
-import edu.illinois.library.cantaloupe.operation.Scale;
-import edu.illinois.library.cantaloupe.operation.Sharpen;
-import edu.illinois.library.cantaloupe.operation.Transpose;
 import edu.illinois.library.cantaloupe.operation.redaction.Redaction;
-import edu.illinois.library.cantaloupe.operation.overlay.Overlay;
 import edu.illinois.library.cantaloupe.processor.imageio.ImageReader;
 import edu.illinois.library.cantaloupe.processor.imageio.ImageWriter;
 import edu.illinois.library.cantaloupe.resource.iiif.ProcessorFeature;
@@ -94,6 +88,25 @@ abstract class AbstractJava2DProcessor extends AbstractImageIOProcessor {
         return qualities;
     }
 
+    /**
+     * If the Encode specifies a max sample size of 8 bits, or if the output
+     * format's max sample size is 8 bits, we will need to reduce it. HOWEVER,
+     * if the output format's max sample size is LESS THAN 8 bits (I'm looking
+     * at you, GIF), don't do anything and let the writer handle it.
+     *
+     * @param opList Operations to apply to an image.
+     * @return Whether images with more than 8 bits per sample should be
+     *         reduced to 8 bits before processing.
+     */
+    static boolean isReducingTo8Bits(OperationList opList) {
+        final Format outputFormat = opList.getOutputFormat();
+        final Encode encode = (Encode) opList.getFirst(Encode.class);
+        return ((encode != null && encode.getMaxSampleSize() != null &&
+                encode.getMaxSampleSize() <= 8) ||
+                outputFormat.getMaxSampleSize() <= 8) &&
+                !Format.GIF.equals(outputFormat);
+    }
+
     /**
      * Convenience method for processors that use a Java 2D pipeline. Generally
      * a processor will read an image, and then pass it to this method to
@@ -126,18 +139,10 @@ abstract class AbstractJava2DProcessor extends AbstractImageIOProcessor {
             image = Java2DUtil.stretchContrast(image);
         }
 
-        // If the Encode specifies a max sample size of 8 bits, or if the
-        // output format's max sample size is 8 bits, we will need to reduce
-        // it. HOWEVER, if the output format's max sample size is LESS THAN
-        // 8 bits (I'm looking at you, GIF), don't do anything and let the
-        // writer handle it.
         // The writer could actually do this itself regardless, but doing it
         // here could make subsequent processing steps more efficient as they
         // will have less data to deal with.
-        Encode encode = (Encode) opList.getFirst(Encode.class);
-        if (((encode != null && encode.getMaxSampleSize() != null && encode.getMaxSampleSize() <= 8)
-                || outputFormat.getMaxSampleSize() <= 8)
-                && !Format.GIF.equals(outputFormat)) {
+        if (isReducingTo8Bits(opList)) {
             image = Java2DUtil.reduceTo8Bits(image);
         }
 
@@ -169,25 +174,10 @@ abstract class AbstractJava2DProcessor extends AbstractImageIOProcessor {
         image = Java2DUtil.applyRedactions(image, crop, reductionFactor,
                 redactions);
 
-        // Apply remaining operations.
-        for (Operation op : opList) {
-            if (op.hasEffect(fullSize, opList)) {
-                if (op instanceof Scale) {
-                    image = Java2DUtil.scaleImage(image, (Scale) op,
-                            reductionFactor);
-                } else if (op instanceof Transpose) {
-                    image = Java2DUtil.transposeImage(image, (Transpose) op);
-                } else if (op instanceof Rotate) {
-                    image = Java2DUtil.rotateImage(image, (Rotate) op);
-                } else if (op instanceof ColorTransform) {
-                    image = Java2DUtil.transformColor(image, (ColorTransform) op);
-                } else if (op instanceof Sharpen) {
-                    image = Java2DUtil.sharpenImage(image, (Sharpen) op);
-                } else if (op instanceof Overlay) {
-                    image = Java2DUtil.applyOverlay(image, (Overlay) op);
-                }
-            }
-        }
+        // Apply remaining operations, combining them into as few passes as
+        // possible.
+        image = new Java2DPipeline(opList, fullSize, reductionFactor).
+                apply(image);
 
         new ImageWriter(opList).write(image, outputFormat, outputStream);
     }
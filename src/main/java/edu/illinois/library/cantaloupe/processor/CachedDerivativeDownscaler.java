@@ -0,0 +1,388 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.cache.CacheException;
+import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.Encode;
+import edu.illinois.library.cantaloupe.operation.Operation;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import edu.illinois.library.cantaloupe.processor.imageio.ImageWriter;
+import edu.illinois.library.cantaloupe.util.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Produces downscaled derivative images from higher-resolution renderings
+ * of the same region that are already present in a {@link DerivativeCache},
+ * instead of from the source image. This is much cheaper than decoding
+ * expensive source formats like JPEG2000 or pyramidal TIFF again, especially
+ * for deep-zoom viewers, which request every tile at several scales.</p>
+ *
+ * <p>Two kinds of cached derivatives are looked for, in order:</p>
+ *
+ * <ol>
+ *     <li>The four tiles at the next-higher scale that make up the same
+ *     region, when the requested region looks like a tile in a power-of-two
+ *     pyramid (as advertised in IIIF Image API information responses).</li>
+ *     <li>The same region at up to {@link #MAX_LEVELS} power-of-two steps
+ *     larger than the requested size, including unscaled.</li>
+ * </ol>
+ *
+ * <p>A cached derivative is used only if its operation list is identical to
+ * the requested one apart from the {@link Crop} and {@link Scale}, so the
+ * result is equivalent to what a processor would have produced, apart from
+ * resampling differences and a further generation of lossy compression.
+ * Operation lists containing any other effective operations (rotation,
+ * overlays, redactions, etc.) are not eligible.</p>
+ *
+ * @since 3.4
+ */
+public final class CachedDerivativeDownscaler {
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(CachedDerivativeDownscaler.class);
+
+    /**
+     * Maximum number of times larger, as a power of two, that a cached
+     * derivative can be than the requested size. Larger ones would take too
+     * long to decode to be worthwhile.
+     */
+    static final int MAX_LEVELS = 3;
+
+    private final DerivativeCache cache;
+
+    /**
+     * @param cache Cache to look for higher-resolution derivatives in.
+     */
+    public CachedDerivativeDownscaler(DerivativeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param opList   Requested operations.
+     * @param fullSize Full size of the source image.
+     * @return Whether the given operation list consists only of a crop and a
+     *         downscale that could be derived from other cached derivatives.
+     */
+    static boolean isEligible(OperationList opList, Dimension fullSize) {
+        if (!ImageWriter.supportedFormats().contains(opList.getOutputFormat())) {
+            return false;
+        }
+        final Scale scale = (Scale) opList.getFirst(Scale.class);
+        if (scale == null || !scale.hasEffect(fullSize, opList) ||
+                Scale.Mode.NON_ASPECT_FILL.equals(scale.getMode())) {
+            return false;
+        }
+        for (Operation op : opList) {
+            if (!(op instanceof Crop || op instanceof Scale ||
+                    op instanceof Encode) && op.hasEffect(fullSize, opList)) {
+                return false;
+            }
+        }
+        final Dimension regionSize = getRegionSize(opList, fullSize);
+        final Dimension targetSize = getTargetSize(scale, regionSize);
+        return targetSize.width < regionSize.width &&
+                targetSize.height < regionSize.height;
+    }
+
+    private static Dimension getRegionSize(OperationList opList,
+                                           Dimension fullSize) {
+        final Crop crop = (Crop) opList.getFirst(Crop.class);
+        if (crop != null && crop.hasEffect(fullSize, opList)) {
+            return crop.getResultingSize(fullSize);
+        }
+        return fullSize;
+    }
+
+    /**
+     * @return Size of the given scale applied to the given region, computed
+     *         the same way as in {@link Java2DUtil#scaleImage}.
+     */
+    private static Dimension getTargetSize(Scale scale, Dimension regionSize) {
+        if (scale.getPercent() != null) {
+            return new Dimension(
+                    (int) Math.round(regionSize.width * scale.getPercent()),
+                    (int) Math.round(regionSize.height * scale.getPercent()));
+        }
+        return scale.getResultingSize(regionSize);
+    }
+
+    /**
+     * @return Exponent of the power-of-two scale factor by which the region
+     *         is reduced to the given length, as in a IIIF Image API tile or
+     *         size, or 0 if it is not reduced by a power of two.
+     */
+    private static int getPyramidLevel(int regionLength, int targetLength) {
+        for (int level = 1; (1 << level) <= regionLength; level++) {
+            final double reduced = regionLength / (double) (1 << level);
+            if (Math.ceil(reduced) == targetLength ||
+                    Math.round(reduced) == targetLength) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param opList Requested operations.
+     * @param crop   Crop to use instead of the requested one, if any. May be
+     *               <code>null</code> to keep the requested one.
+     * @param scale  Scale to use instead of the requested one. May be
+     *               <code>null</code> for no scale.
+     * @return Frozen copy of the given operation list.
+     */
+    private static OperationList newCandidate(OperationList opList,
+                                              Crop crop,
+                                              Scale scale) {
+        final OperationList candidate = new OperationList(
+                opList.getIdentifier(), opList.getOutputFormat());
+        for (Operation op : opList) {
+            if (op instanceof Scale) {
+                candidate.add(scale);
+            } else if (op instanceof Crop && crop != null) {
+                candidate.add(crop);
+            } else {
+                candidate.add(op);
+            }
+        }
+        candidate.getOptions().putAll(opList.getOptions());
+        candidate.freeze();
+        return candidate;
+    }
+
+    private static Scale newScale(Scale requestedScale,
+                                  Integer width, Integer height) {
+        final Scale scale = new Scale(width, height, requestedScale.getMode());
+        scale.setFilter(requestedScale.getFilter());
+        return scale;
+    }
+
+    /**
+     * @return Operation lists of the four tiles one level up the pyramid that
+     *         together make up the requested region, in the order top left,
+     *         top right, bottom left, bottom right; or an empty list if the
+     *         requested region does not look like a pyramid tile.
+     */
+    List<OperationList> getChildTileCandidates(OperationList opList,
+                                               Dimension fullSize) {
+        final List<OperationList> candidates = new ArrayList<>();
+        final Crop crop = (Crop) opList.getFirst(Crop.class);
+        final Scale scale = (Scale) opList.getFirst(Scale.class);
+        if (crop == null || !crop.hasEffect(fullSize, opList) ||
+                !Crop.Unit.PIXELS.equals(crop.getUnit()) ||
+                !Crop.Shape.ARBITRARY.equals(crop.getShape()) ||
+                !Scale.Mode.ASPECT_FIT_WIDTH.equals(scale.getMode())) {
+            return candidates;
+        }
+        final Rectangle region = crop.getRectangle(fullSize);
+        final Dimension targetSize = getTargetSize(scale,
+                region.getSize());
+        final int level = getPyramidLevel(region.width, targetSize.width);
+        final int scaleFactor = 1 << level;
+        if (level < 1 || region.width != targetSize.width * scaleFactor ||
+                region.height != targetSize.height * scaleFactor) {
+            // Not an interior tile in a power-of-two pyramid.
+            return candidates;
+        }
+        final int childWidth = region.width / 2;
+        final int childHeight = region.height / 2;
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 2; col++) {
+                final Crop childCrop = new Crop(
+                        region.x + col * childWidth,
+                        region.y + row * childHeight,
+                        childWidth, childHeight);
+                // Level-0 tiles are unscaled.
+                final Scale childScale = (level > 1) ?
+                        newScale(scale, targetSize.width, null) : null;
+                candidates.add(newCandidate(opList, childCrop, childScale));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return Operation lists of the requested region at larger sizes, from
+     *         smallest to largest.
+     */
+    List<OperationList> getLargerCandidates(OperationList opList,
+                                            Dimension fullSize) {
+        final Set<OperationList> candidates = new LinkedHashSet<>();
+        final Scale scale = (Scale) opList.getFirst(Scale.class);
+        final Dimension regionSize = getRegionSize(opList, fullSize);
+        final Dimension targetSize = getTargetSize(scale, regionSize);
+
+        int level = 0;
+        if (Scale.Mode.ASPECT_FIT_WIDTH.equals(scale.getMode())) {
+            level = getPyramidLevel(regionSize.width, targetSize.width);
+        } else if (Scale.Mode.ASPECT_FIT_HEIGHT.equals(scale.getMode())) {
+            level = getPyramidLevel(regionSize.height, targetSize.height);
+        }
+        // Sizes at the next few levels up, rounded both of the ways that
+        // IIIF Image API clients would have been told about them.
+        for (int i = level - 1; i >= Math.max(1, level - MAX_LEVELS); i--) {
+            final double factor = 1 << i;
+            final int[] lengths = (scale.getWidth() != null) ?
+                    new int[] { (int) Math.ceil(regionSize.width / factor),
+                            (int) Math.round(regionSize.width / factor) } :
+                    new int[] { (int) Math.ceil(regionSize.height / factor),
+                            (int) Math.round(regionSize.height / factor) };
+            for (int length : lengths) {
+                candidates.add(newCandidate(opList, null,
+                        (scale.getWidth() != null) ?
+                                newScale(scale, length, null) :
+                                newScale(scale, null, length)));
+            }
+        }
+        // The unscaled region, if it isn't too large.
+        if (regionSize.width <= targetSize.width << MAX_LEVELS &&
+                regionSize.height <= targetSize.height << MAX_LEVELS) {
+            candidates.add(newCandidate(opList, null, null));
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * @return Decoded image, or <code>null</code> if it is not cached.
+     */
+    private BufferedImage read(OperationList opList)
+            throws CacheException, IOException {
+        try (InputStream is = cache.newDerivativeImageInputStream(opList)) {
+            return (is != null) ? ImageIO.read(is) : null;
+        }
+    }
+
+    /**
+     * @return Type of an image into which all of the given images can be
+     *         drawn without loss. Indexed types are never returned, as each
+     *         tile may have its own palette.
+     */
+    private static int getStitchedImageType(BufferedImage[] images) {
+        final int type = images[0].getType();
+        boolean isSameType = true;
+        boolean hasAlpha = false;
+        for (BufferedImage image : images) {
+            isSameType &= (image.getType() == type);
+            hasAlpha |= image.getColorModel().hasAlpha();
+        }
+        switch (type) {
+            case BufferedImage.TYPE_CUSTOM:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                break;
+            default:
+                if (isSameType) {
+                    return type;
+                }
+        }
+        return hasAlpha ?
+                BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * @return Image stitched together from the given tiles, or
+     *         <code>null</code> if any of them are not cached.
+     */
+    private BufferedImage readAndStitch(List<OperationList> tiles)
+            throws CacheException, IOException {
+        final BufferedImage[] images = new BufferedImage[tiles.size()];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = read(tiles.get(i));
+            if (images[i] == null) {
+                return null;
+            }
+        }
+        final int width = images[0].getWidth() + images[1].getWidth();
+        final int height = images[0].getHeight() + images[2].getHeight();
+        final BufferedImage stitchedImage =
+                new BufferedImage(width, height, getStitchedImageType(images));
+        final Graphics2D g2d = stitchedImage.createGraphics();
+        try {
+            g2d.drawImage(images[0], 0, 0, null);
+            g2d.drawImage(images[1], images[0].getWidth(), 0, null);
+            g2d.drawImage(images[2], 0, images[0].getHeight(), null);
+            g2d.drawImage(images[3], images[0].getWidth(),
+                    images[0].getHeight(), null);
+        } finally {
+            g2d.dispose();
+        }
+        return stitchedImage;
+    }
+
+    /**
+     * Writes the image corresponding to the given operation list to the given
+     * output stream, if it can be derived from other cached derivatives.
+     * Nothing is written otherwise.
+     *
+     * @param opList       Requested operations.
+     * @param info         Information about the source image.
+     * @param outputStream Stream to write the derived image to.
+     * @return Whether the image was derived and written.
+     * @throws IOException If the derived image could not be written.
+     */
+    public boolean write(OperationList opList,
+                         Info info,
+                         OutputStream outputStream) throws IOException {
+        final Dimension fullSize = info.getSize();
+        if (!isEligible(opList, fullSize)) {
+            return false;
+        }
+        final Stopwatch watch = new Stopwatch();
+
+        BufferedImage image = null;
+        try {
+            final List<OperationList> tiles =
+                    getChildTileCandidates(opList, fullSize);
+            if (!tiles.isEmpty()) {
+                image = readAndStitch(tiles);
+            }
+            if (image == null) {
+                for (OperationList candidate :
+                        getLargerCandidates(opList, fullSize)) {
+                    image = read(candidate);
+                    if (image != null) {
+                        break;
+                    }
+                }
+            }
+        } catch (CacheException | IOException e) {
+            // The source image is still available to fall back on.
+            LOGGER.warn("write(): failed to read a cached derivative: {}",
+                    e.getMessage());
+            return false;
+        }
+        if (image == null) {
+            return false;
+        }
+
+        final Scale requestedScale = (Scale) opList.getFirst(Scale.class);
+        final Dimension targetSize = getTargetSize(requestedScale,
+                getRegionSize(opList, fullSize));
+        final Scale scale = new Scale(targetSize.width, targetSize.height,
+                Scale.Mode.NON_ASPECT_FILL);
+        scale.setFilter(requestedScale.getFilter());
+        image = Java2DUtil.scaleImage(image, scale);
+
+        new ImageWriter(opList).write(image, opList.getOutputFormat(),
+                outputStream);
+        LOGGER.debug("write(): derived from cached derivatives in {} msec: {}",
+                watch.timeElapsed(), opList);
+        return true;
+    }
+
+}
@@ -0,0 +1,147 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.operation.ColorTransform;
+import edu.illinois.library.cantaloupe.operation.Operation;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.ReductionFactor;
+import edu.illinois.library.cantaloupe.operation.Rotate;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import edu.illinois.library.cantaloupe.operation.Sharpen;
+import edu.illinois.library.cantaloupe.operation.Transpose;
+import edu.illinois.library.cantaloupe.operation.overlay.Overlay;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Applies the operations in an {@link OperationList} that follow cropping
+ * and redaction&mdash;scaling, transposition, rotation, color
+ * transformation, sharpening, and overlaying&mdash;to a {@link BufferedImage}
+ * in as few passes as possible. Applying each of them separately, as
+ * {@link Java2DUtil} does, would make a full copy of the image for each
+ * one.</p>
+ *
+ * <ul>
+ *     <li>Consecutive transpositions and rotations are combined into one
+ *     affine transform. See
+ *     {@link Java2DUtil#transformImage(BufferedImage, List)}.</li>
+ *     <li>A conversion to gray and a sharpen that follow a scale are done
+ *     along with it, as long as only transpositions and rotations by
+ *     multiples of 90 degrees (which don't affect either of them) come in
+ *     between. See {@link Java2DUtil#scaleImage(BufferedImage, Scale,
+ *     ReductionFactor, ColorTransform, Sharpen)}.</li>
+ * </ul>
+ *
+ * <p>Cropping is already done without copying, using a view of the source
+ * image.</p>
+ *
+ * @since 3.4
+ */
+final class Java2DPipeline {
+
+    private interface Step {
+        BufferedImage apply(BufferedImage image) throws IOException;
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * @param opList          Operation list to compile.
+     * @param fullSize        Full size of the source image.
+     * @param reductionFactor Reduction factor that will already have been
+     *                        applied to the image passed to {@link #apply}.
+     */
+    Java2DPipeline(OperationList opList,
+                   Dimension fullSize,
+                   ReductionFactor reductionFactor) {
+        final List<Operation> ops = new ArrayList<>();
+        for (Operation op : opList) {
+            if ((op instanceof Scale || op instanceof Transpose ||
+                    op instanceof Rotate || op instanceof ColorTransform ||
+                    op instanceof Sharpen || op instanceof Overlay) &&
+                    op.hasEffect(fullSize, opList)) {
+                ops.add(op);
+            }
+        }
+
+        for (int i = 0; i < ops.size(); i++) {
+            final Operation op = ops.get(i);
+            if (op instanceof Scale) {
+                ColorTransform colorTransform = null;
+                Sharpen sharpen = null;
+                for (int j = i + 1; j < ops.size(); j++) {
+                    final Operation next = ops.get(j);
+                    if (colorTransform == null &&
+                            ColorTransform.GRAY.equals(next)) {
+                        colorTransform = ColorTransform.GRAY;
+                        ops.remove(j--);
+                    } else if (sharpen == null && next instanceof Sharpen) {
+                        sharpen = (Sharpen) next;
+                        ops.remove(j--);
+                    } else if (!isRightAngleTransform(next)) {
+                        break;
+                    }
+                }
+                final ColorTransform finalColorTransform = colorTransform;
+                final Sharpen finalSharpen = sharpen;
+                steps.add(image -> Java2DUtil.scaleImage(image, (Scale) op,
+                        reductionFactor, finalColorTransform, finalSharpen));
+            } else if (op instanceof Transpose || op instanceof Rotate) {
+                final List<Operation> transforms = new ArrayList<>();
+                while (i < ops.size() && (ops.get(i) instanceof Transpose ||
+                        ops.get(i) instanceof Rotate)) {
+                    transforms.add(ops.get(i++));
+                }
+                i--;
+                steps.add(image -> Java2DUtil.transformImage(image, transforms));
+            } else if (op instanceof ColorTransform) {
+                steps.add(image -> Java2DUtil.transformColor(image,
+                        (ColorTransform) op));
+            } else if (op instanceof Sharpen) {
+                steps.add(image -> Java2DUtil.sharpenImage(image,
+                        (Sharpen) op));
+            } else if (op instanceof Overlay) {
+                steps.add(image -> Java2DUtil.applyOverlay(image,
+                        (Overlay) op));
+            }
+        }
+    }
+
+    /**
+     * @return Whether the given operation is a transposition or a rotation by
+     *         a multiple of 90 degrees.
+     */
+    private static boolean isRightAngleTransform(Operation op) {
+        if (op instanceof Transpose) {
+            return true;
+        } else if (op instanceof Rotate) {
+            final float remainder = ((Rotate) op).getDegrees() % 90;
+            return Math.abs(remainder) < 0.0001f ||
+                    Math.abs(remainder) > 90 - 0.0001f;
+        }
+        return false;
+    }
+
+    /**
+     * @param image Cropped and redacted image.
+     * @return Processed image.
+     */
+    BufferedImage apply(BufferedImage image) throws IOException {
+        for (Step step : steps) {
+            image = step.apply(image);
+        }
+        return image;
+    }
+
+    /**
+     * @return Number of passes that {@link #apply} will make over the image
+     *         (not counting passes that have no effect).
+     */
+    int getNumSteps() {
+        return steps.size();
+    }
+
+}
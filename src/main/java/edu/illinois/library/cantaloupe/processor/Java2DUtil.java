@@ -41,6 +41,9 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ImagingOpException;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
@@ -211,6 +214,63 @@ public final class Java2DUtil {
         }
     }
 
+    /**
+     * @param scale      Scale operation.
+     * @param sourceSize Size of the image to scale.
+     * @param targetSize Size to scale it to.
+     * @return Resample filter requested by the scale operation, or a
+     *         reasonable default if none is requested.
+     */
+    static ResampleFilter getResampleFilter(final Scale scale,
+                                            final Dimension sourceSize,
+                                            final Dimension targetSize) {
+        // Try to use the requested resample filter.
+        ResampleFilter filter = null;
+        if (scale.getFilter() != null) {
+            filter = scale.getFilter().toResampleFilter();
+        }
+        // No particular filter requested, so select a default.
+        if (filter == null) {
+            if (targetSize.width < sourceSize.width ||
+                    targetSize.height < sourceSize.height) {
+                filter = DEFAULT_DOWNSCALE_FILTER.toResampleFilter();
+            } else {
+                filter = DEFAULT_UPSCALE_FILTER.toResampleFilter();
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @param sourceSize Size of the image to scale.
+     * @param scale      Requested size ignoring any reduction factor.
+     * @param rf         Reduction factor that has already been applied to
+     *                   the image to scale.
+     * @return Size that the image will need to be scaled to, at least 3
+     *         pixels on a side.
+     */
+    static Dimension getScaledSize(final Dimension sourceSize,
+                                   final Scale scale,
+                                   final ReductionFactor rf) {
+        Dimension targetSize;
+        if (scale.getPercent() != null) {
+            targetSize = new Dimension();
+            targetSize.width = (int) Math.round(sourceSize.width *
+                    (scale.getPercent() / rf.getScale()));
+            targetSize.height = (int) Math.round(sourceSize.height *
+                    (scale.getPercent() / rf.getScale()));
+        } else {
+            targetSize = scale.getResultingSize(sourceSize);
+        }
+
+        // com.mortennobel.imagescaling.ResampleFilter requires a target size
+        // of at least 3 pixels on a side.
+        // OpenSeadragon has been known to request smaller.
+        targetSize.width = (targetSize.width < 3) ? 3 : targetSize.width;
+        targetSize.height = (targetSize.height < 3) ? 3 : targetSize.height;
+        return targetSize;
+    }
+
     /**
      * @param baseImage    Image to overlay the image onto.
      * @param overlayImage Image to overlay.
@@ -670,6 +730,32 @@ public final class Java2DUtil {
     static BufferedImage scaleImage(final BufferedImage inImage,
                                     final Scale scale,
                                     final ReductionFactor rf) {
+        return scaleImage(inImage, scale, rf, null, null);
+    }
+
+    /**
+     * Scales an image as {@link #scaleImage(BufferedImage, Scale,
+     * ReductionFactor)} does, and then transforms its color and/or sharpens
+     * it, doing as much of that as possible in the same pass over the image.
+     * A conversion to gray is done as the rows of an RGB image are read, and
+     * sharpening is done without resampling the scaled image again.
+     *
+     * @param inImage        Image to scale.
+     * @param scale          Requested size ignoring any reduction factor.
+     * @param rf             Reduction factor that has already been applied
+     *                       to <code>inImage</code>.
+     * @param colorTransform Color transform to apply to the scaled image. May
+     *                       be <code>null</code>.
+     * @param sharpen        Sharpen operation to apply to the scaled image.
+     *                       May be <code>null</code>.
+     * @return Processed image, or the input image if all of the given
+     *         operations are no-ops.
+     */
+    static BufferedImage scaleImage(final BufferedImage inImage,
+                                    final Scale scale,
+                                    final ReductionFactor rf,
+                                    final ColorTransform colorTransform,
+                                    final Sharpen sharpen) {
         /*
         This method uses the image scaling code in
         com.mortennobel.imagescaling (see
@@ -716,26 +802,7 @@ public final class Java2DUtil {
 
         final Dimension sourceSize = new Dimension(
                 inImage.getWidth(), inImage.getHeight());
-
-        // Calculate the size that the image will need to be scaled to based
-        // on the source image size, scale, and already-applied reduction
-        // factor.
-        Dimension targetSize;
-        if (scale.getPercent() != null) {
-            targetSize = new Dimension();
-            targetSize.width = (int) Math.round(sourceSize.width *
-                    (scale.getPercent() / rf.getScale()));
-            targetSize.height = (int) Math.round(sourceSize.height *
-                    (scale.getPercent() / rf.getScale()));
-        } else {
-            targetSize = scale.getResultingSize(sourceSize);
-        }
-
-        // com.mortennobel.imagescaling.ResampleFilter requires a target size
-        // of at least 3 pixels on a side.
-        // OpenSeadragon has been known to request smaller.
-        targetSize.width = (targetSize.width < 3) ? 3 : targetSize.width;
-        targetSize.height = (targetSize.height < 3) ? 3 : targetSize.height;
+        final Dimension targetSize = getScaledSize(sourceSize, scale, rf);
 
         BufferedImage scaledImage = inImage;
         if (scale.hasEffect() && (targetSize.width != sourceSize.width ||
@@ -745,29 +812,35 @@ public final class Java2DUtil {
             final ResampleOp resampleOp = new ResampleOp(
                     targetSize.width, targetSize.height);
 
-            // Try to use the requested resample filter.
-            ResampleFilter filter = null;
-            if (scale.getFilter() != null) {
-                filter = scale.getFilter().toResampleFilter();
-            }
-            // No particular filter requested, so select a default.
-            if (filter == null) {
-                if (targetSize.width < sourceSize.width ||
-                        targetSize.height < sourceSize.height) {
-                    filter = DEFAULT_DOWNSCALE_FILTER.toResampleFilter();
-                } else {
-                    filter = DEFAULT_UPSCALE_FILTER.toResampleFilter();
-                }
-            }
+            final ResampleFilter filter =
+                    getResampleFilter(scale, sourceSize, targetSize);
             resampleOp.setFilter(filter);
+            resampleOp.setGrayscale(ColorTransform.GRAY.equals(colorTransform));
+            if (sharpen != null && sharpen.hasEffect()) {
+                resampleOp.setUnsharpenMask(sharpen.getAmount());
+            }
 
-            scaledImage = resampleOp.filter(inImage, null);
+            scaledImage = ResamplePool.filter(resampleOp, inImage,
+                    targetSize.width, targetSize.height);
 
             logger.debug("scaleImage(): scaled {}x{} image to {}x{} using " +
                     "the {} filter in {} msec",
                     sourceSize.width, sourceSize.height,
                     targetSize.width, targetSize.height,
                     filter.getName(), watch.timeElapsed());
+
+            // The ResampleOp only converts RGB images without alpha to gray.
+            if (colorTransform != null && !(resampleOp.isGrayscale() &&
+                    scaledImage.getType() == BufferedImage.TYPE_BYTE_GRAY)) {
+                scaledImage = transformColor(scaledImage, colorTransform);
+            }
+        } else {
+            if (colorTransform != null) {
+                scaledImage = transformColor(scaledImage, colorTransform);
+            }
+            if (sharpen != null) {
+                scaledImage = sharpenImage(scaledImage, sharpen);
+            }
         }
         return scaledImage;
     }
@@ -787,7 +860,8 @@ public final class Java2DUtil {
                 final ResampleOp resampleOp = new ResampleOp(
                         inImage.getWidth(), inImage.getHeight());
                 resampleOp.setUnsharpenMask(sharpen.getAmount());
-                sharpenedImage = resampleOp.filter(inImage, null);
+                sharpenedImage = ResamplePool.filter(resampleOp, inImage,
+                        inImage.getWidth(), inImage.getHeight());
 
                 logger.debug("sharpenImage(): sharpened by {} in {} msec",
                         sharpen.getAmount(), watch.timeElapsed());
@@ -925,6 +999,117 @@ public final class Java2DUtil {
         return filteredImage;
     }
 
+    /**
+     * <p>Transposes and/or rotates an image in a single pass, rather than
+     * making a copy of it for each operation.</p>
+     *
+     * <p>If the result only flips the image and/or rotates it by a multiple
+     * of 90 degrees, the pixels are copied exactly into an image of the same
+     * type. Otherwise, the image is drawn onto a transparent canvas as in
+     * {@link #rotateImage(BufferedImage, Rotate)}.</p>
+     *
+     * @param inImage    Image to transform.
+     * @param transforms {@link Transpose} and/or {@link Rotate} operations,
+     *                   in the order in which to apply them.
+     * @return Transformed image.
+     */
+    static BufferedImage transformImage(final BufferedImage inImage,
+                                        final List<Operation> transforms) {
+        final Stopwatch watch = new Stopwatch();
+        int width = inImage.getWidth();
+        int height = inImage.getHeight();
+
+        final AffineTransform tx = new AffineTransform();
+        for (Operation op : transforms) {
+            // note: operations happen in reverse order of declaration
+            final AffineTransform step = new AffineTransform();
+            if (op instanceof Transpose) {
+                switch ((Transpose) op) {
+                    case HORIZONTAL:
+                        step.translate(width, 0);
+                        step.scale(-1, 1);
+                        break;
+                    case VERTICAL:
+                        step.translate(0, height);
+                        step.scale(1, -1);
+                        break;
+                }
+            } else if (op instanceof Rotate) {
+                final double radians =
+                        Math.toRadians(((Rotate) op).getDegrees());
+                final int canvasWidth = (int) Math.round(Math.abs(width *
+                        Math.cos(radians)) + Math.abs(height *
+                        Math.sin(radians)));
+                final int canvasHeight = (int) Math.round(Math.abs(height *
+                        Math.cos(radians)) + Math.abs(width *
+                        Math.sin(radians)));
+                step.translate(canvasWidth / 2f, canvasHeight / 2f);
+                step.rotate(radians);
+                step.translate(-width / 2f, -height / 2f);
+                width = canvasWidth;
+                height = canvasHeight;
+            }
+            tx.preConcatenate(step);
+        }
+
+        BufferedImage outImage = null;
+        final AffineTransform gridTx = toGridTransform(tx);
+        if (gridTx != null) {
+            final ColorModel cm = inImage.getColorModel();
+            final WritableRaster outRaster = inImage.getRaster().
+                    createCompatibleWritableRaster(width, height);
+            try {
+                outImage = new BufferedImage(cm, outRaster,
+                        cm.isAlphaPremultiplied(), null);
+                new AffineTransformOp(gridTx,
+                        AffineTransformOp.TYPE_NEAREST_NEIGHBOR).
+                        filter(inImage, outImage);
+            } catch (ImagingOpException e) {
+                outImage = null;
+                logger.debug("transformImage(): {}; drawing instead",
+                        e.getMessage());
+            }
+        }
+        if (outImage == null) {
+            outImage = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D g2d = outImage.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(inImage, tx, null);
+            g2d.dispose();
+        }
+
+        logger.debug("transformImage(): applied {} to {}x{} image in {} msec",
+                transforms, inImage.getWidth(), inImage.getHeight(),
+                watch.timeElapsed());
+        return outImage;
+    }
+
+    /**
+     * @param tx Transform to check.
+     * @return Copy of the given transform with its coefficients rounded to
+     *         integers, if it maps pixels onto pixels (i.e. only flips,
+     *         rotates by multiples of 90 degrees, and translates by whole
+     *         pixels); otherwise <code>null</code>.
+     */
+    private static AffineTransform toGridTransform(AffineTransform tx) {
+        final double[] matrix = new double[6];
+        tx.getMatrix(matrix);
+        for (int i = 0; i < matrix.length; i++) {
+            final double rounded = Math.rint(matrix[i]);
+            if (Math.abs(matrix[i] - rounded) > 0.0001) {
+                return null;
+            }
+            matrix[i] = rounded;
+        }
+        return new AffineTransform(matrix);
+    }
+
     /**
      * @param inImage   Image to transpose.
      * @param transpose The transpose operation.
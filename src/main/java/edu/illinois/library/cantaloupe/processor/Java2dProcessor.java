@@ -1,14 +1,29 @@
 package edu.illinois.library.cantaloupe.processor;
 
+import com.mortennobel.imagescaling.ResampleFilter;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
 import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.Encode;
+import edu.illinois.library.cantaloupe.operation.MetadataCopy;
 import edu.illinois.library.cantaloupe.operation.Normalize;
+import edu.illinois.library.cantaloupe.operation.Operation;
 import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Orientation;
 import edu.illinois.library.cantaloupe.operation.ReductionFactor;
+import edu.illinois.library.cantaloupe.operation.Scale;
 import edu.illinois.library.cantaloupe.processor.imageio.ImageReader;
+import edu.illinois.library.cantaloupe.processor.imageio.ImageWriter;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -18,6 +33,21 @@ import java.util.Set;
 class Java2dProcessor extends AbstractJava2DProcessor
         implements StreamProcessor, FileProcessor {
 
+    static final long DEFAULT_STREAMING_THRESHOLD = 50000000;
+
+    /**
+     * @return Region of the full-sized source image that the given operations
+     *         need.
+     */
+    private static Rectangle getRegion(OperationList ops, Dimension fullSize) {
+        final Rectangle bounds = new Rectangle(fullSize);
+        final Crop crop = (Crop) ops.getFirst(Crop.class);
+        if (crop != null && crop.hasEffect(fullSize, ops)) {
+            return crop.getRectangle(fullSize).intersection(bounds);
+        }
+        return bounds;
+    }
+
     @Override
     public void process(final OperationList ops,
                         final Info imageInfo,
@@ -27,6 +57,11 @@ class Java2dProcessor extends AbstractJava2DProcessor
 
         final ImageReader reader = getReader();
         try {
+            if (isStreamable(reader, ops, imageInfo)) {
+                processInStrips(reader, ops, imageInfo, outputStream);
+                return;
+            }
+
             final ReductionFactor rf = new ReductionFactor();
             final Set<ImageReader.Hint> hints = new HashSet<>();
 
@@ -47,4 +82,84 @@ class Java2dProcessor extends AbstractJava2DProcessor
         }
     }
 
+    /**
+     * @return Whether the given operations can be applied in strips by a
+     *         {@link StripedImage}, and whether the region of the source image
+     *         that they need is larger than
+     *         {@link Key#PROCESSOR_STREAMING_THRESHOLD}.
+     */
+    boolean isStreamable(ImageReader reader,
+                         OperationList ops,
+                         Info imageInfo) throws IOException {
+        final long threshold = Configuration.getInstance().getLong(
+                Key.PROCESSOR_STREAMING_THRESHOLD, DEFAULT_STREAMING_THRESHOLD);
+        final Dimension fullSize = imageInfo.getSize();
+        // Reading a band of most other formats means decoding everything
+        // above it, and so does reading one of a TIFF that has only one
+        // strip.
+        if (threshold <= 0 || !Format.TIF.equals(getSourceFormat()) ||
+                reader.getTileSize(0).height >= fullSize.height ||
+                !Orientation.ROTATE_0.equals(imageInfo.getOrientation())) {
+            return false;
+        }
+        // StripedImages have 8 bits per sample.
+        if (!isReducingTo8Bits(ops) &&
+                !Format.GIF.equals(ops.getOutputFormat())) {
+            return false;
+        }
+        for (Operation op : ops) {
+            if (!(op instanceof Crop || op instanceof Scale ||
+                    op instanceof Encode || op instanceof MetadataCopy) &&
+                    op.hasEffect(fullSize, ops)) {
+                return false;
+            }
+        }
+        // A multi-resolution image will likely have a smaller subimage
+        // that is better to scale down from.
+        final Scale scale = (Scale) ops.getFirst(Scale.class);
+        if (scale != null && scale.hasEffect() &&
+                reader.getNumResolutions() > 1) {
+            return false;
+        }
+        final Rectangle region = getRegion(ops, fullSize);
+        return (long) region.width * region.height > threshold;
+    }
+
+    /**
+     * Reads, scales, and writes the region of the source image needed by the
+     * given operations in strips, as a {@link StripedImage}.
+     */
+    private void processInStrips(ImageReader reader,
+                                 OperationList ops,
+                                 Info imageInfo,
+                                 OutputStream outputStream)
+            throws IOException {
+        final Rectangle region = getRegion(ops, imageInfo.getSize());
+        Dimension size = region.getSize();
+        ResampleFilter filter = null;
+        final Scale scale = (Scale) ops.getFirst(Scale.class);
+        if (scale != null && scale.hasEffect()) {
+            size = Java2DUtil.getScaledSize(region.getSize(), scale,
+                    new ReductionFactor());
+            filter = Java2DUtil.getResampleFilter(scale, region.getSize(),
+                    size);
+        }
+        final StripedImage stripedImage = new StripedImage(reader, region,
+                size, filter, reader.getTileSize(0).height);
+
+        final Format outputFormat = ops.getOutputFormat();
+        RenderedImage image = stripedImage;
+        if (!Format.PNG.equals(outputFormat) &&
+                !Format.TIF.equals(outputFormat)) {
+            // The other writers need the whole image at once, but at least
+            // the source region doesn't have to be in memory.
+            image = stripedImage.getAsBufferedImage();
+        }
+        try {
+            new ImageWriter(ops).write(image, outputFormat, outputStream);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
 }
@@ -0,0 +1,431 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.cache.LatencyHistogram;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Global budget of memory that processors may use to decode and produce
+ * images at the same time, which keeps many simultaneous requests for large
+ * images from exhausting the heap.</p>
+ *
+ * <p>Before an image is processed, a {@link Permit} for its {@link
+ * #estimateBytes estimated} footprint is {@link #tryAcquire acquired}, and
+ * closed when it is done. When the footprints of the images being processed
+ * would exceed {@link Key#PROCESSOR_MEMORY_BUDGET}, further requests wait in
+ * line, in the order in which they arrived, for up to {@link
+ * Key#PROCESSOR_MEMORY_BUDGET_MAX_WAIT} seconds, after which they are
+ * rejected. Requests whose footprint is no more than {@link #EXEMPT_BYTES},
+ * like most tile requests, are neither counted nor ever made to wait.
+ * A request whose footprint exceeds the whole budget is counted as using the
+ * whole budget, meaning that it is processed alone.</p>
+ *
+ * <p>Queue depth, wait times, and admission counts are tracked, and the
+ * instance is registered with the platform MBean server under
+ * <code>edu.illinois.library.cantaloupe:type=MemoryBudget</code>.</p>
+ *
+ * @since 3.4
+ */
+public final class MemoryBudget implements MemoryBudgetMBean {
+
+    /**
+     * Reservation of part of the budget, to be closed once the image has
+     * been processed. Closing it more than once has no effect.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final long numBytes;
+        private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+        private Permit(long numBytes) {
+            this.numBytes = numBytes;
+        }
+
+        @Override
+        public void close() {
+            if (isClosed.compareAndSet(false, true)) {
+                release(numBytes);
+            }
+        }
+
+        /**
+         * @return Number of bytes of the budget that the permit holds, which
+         *         is 0 for exempt requests.
+         */
+        public long getNumBytes() {
+            return numBytes;
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(MemoryBudget.class);
+
+    /**
+     * Number of bytes assumed for each decoded pixel, i.e. 8-bit RGBA.
+     */
+    static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Footprint at or below which requests are not counted against the
+     * budget: enough to decode and scale a 1024&times;1024 region.
+     */
+    static final long EXEMPT_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Number of times that JPEG2000 decoders are assumed to be able to halve
+     * the resolution of the source image while decoding it.
+     */
+    private static final int JP2_MAX_REDUCTION_FACTOR = 5;
+
+    private static final long DEFAULT_MAX_WAIT_SECONDS = 10;
+
+    private static final MemoryBudget instance = new MemoryBudget();
+
+    static {
+        register(instance);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition availability = lock.newCondition();
+
+    /**
+     * Requests that are waiting to be admitted, in the order in which they
+     * arrived. Only the first one may be admitted.
+     */
+    private final Deque<Object> queue = new ArrayDeque<>();
+
+    private long bytesInUse;
+    private long peakBytesInUse;
+
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder exemptions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LongAdder waits = new LongAdder();
+
+    /**
+     * <p>Estimates the memory needed to process an image: that of the source
+     * region to be decoded, plus that of the resulting image, at {@link
+     * #BYTES_PER_PIXEL} each.</p>
+     *
+     * <p>The source region is assumed to be decoded from the smallest
+     * resolution level of a multi-resolution source that is still at least
+     * as large as the scaled region, or, with JPEG2000 sources, at the
+     * reduced resolution that the decoder would pick. Other sources are
+     * assumed to be decoded at full resolution.</p>
+     *
+     * @param opList Operations to apply to the image.
+     * @param info   Information about the source image.
+     * @return Estimated number of bytes.
+     */
+    public static long estimateBytes(OperationList opList, Info info) {
+        final Dimension fullSize = info.getSize();
+        Rectangle region = new Rectangle(fullSize);
+        final Crop crop = (Crop) opList.getFirst(Crop.class);
+        if (crop != null) {
+            region = crop.getRectangle(fullSize).intersection(region);
+        }
+        Dimension scaledSize = region.getSize();
+        final Scale scale = (Scale) opList.getFirst(Scale.class);
+        if (scale != null) {
+            scaledSize = scale.getResultingSize(scaledSize);
+        }
+
+        double decodedScale = 1;
+        for (Info.Image image : info.getImages()) {
+            final double levelScale = image.width / (double) fullSize.width;
+            if (levelScale < decodedScale &&
+                    region.width * levelScale >= scaledSize.width &&
+                    region.height * levelScale >= scaledSize.height) {
+                decodedScale = levelScale;
+            }
+        }
+        if (scale != null && Format.JP2.equals(info.getSourceFormat())) {
+            decodedScale = Math.min(decodedScale, scale.getReductionFactor(
+                    region.getSize(), JP2_MAX_REDUCTION_FACTOR).getScale());
+        }
+
+        final double decodedPixels = region.width * decodedScale *
+                region.height * decodedScale;
+        final Dimension resultingSize = opList.getResultingSize(fullSize);
+        final double resultingPixels =
+                resultingSize.width * (double) resultingSize.height;
+        return (long) ((decodedPixels + resultingPixels) * BYTES_PER_PIXEL);
+    }
+
+    /**
+     * @return Shared instance.
+     */
+    public static MemoryBudget getInstance() {
+        return instance;
+    }
+
+    private static void register(MemoryBudget budget) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(
+                    "edu.illinois.library.cantaloupe:type=MemoryBudget");
+            // The application may have been redeployed in the same JVM.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(budget, name);
+        } catch (JMException | RuntimeException e) {
+            LOGGER.warn("register(): failed to register with JMX: {}",
+                    e.getMessage());
+        }
+    }
+
+    MemoryBudget() {}
+
+    @Override
+    public long getAdmissions() {
+        return admissions.sum();
+    }
+
+    /**
+     * @return Value of {@link Key#PROCESSOR_MEMORY_BUDGET}, which is 0 if the
+     *         budget is disabled.
+     */
+    @Override
+    public long getBudget() {
+        return Math.max(0, Configuration.getInstance().
+                getLong(Key.PROCESSOR_MEMORY_BUDGET, 0));
+    }
+
+    @Override
+    public long getBytesInUse() {
+        lock.lock();
+        try {
+            return bytesInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getExemptions() {
+        return exemptions.sum();
+    }
+
+    @Override
+    public long getPeakBytesInUse() {
+        lock.lock();
+        try {
+            return peakBytesInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests that are currently waiting to be admitted.
+     */
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public double getWaitTimeMax() {
+        return waitTime.getMax();
+    }
+
+    @Override
+    public double getWaitTimeMean() {
+        return waitTime.getMean();
+    }
+
+    @Override
+    public double getWaitTime95thPercentile() {
+        return waitTime.getPercentile(95);
+    }
+
+    @Override
+    public double getWaitTime99thPercentile() {
+        return waitTime.getPercentile(99);
+    }
+
+    /**
+     * @return Number of admitted requests that had to wait.
+     */
+    @Override
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    private void release(long numBytes) {
+        if (numBytes < 1) {
+            return;
+        }
+        lock.lock();
+        try {
+            bytesInUse -= numBytes;
+            availability.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resets all statistics except the bytes in use and the queue depth.
+     */
+    @Override
+    public void reset() {
+        admissions.reset();
+        exemptions.reset();
+        rejections.reset();
+        waitTime.reset();
+        waits.reset();
+        lock.lock();
+        try {
+            peakBytesInUse = bytesInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Map representation of the instance, suitable for serializing
+     *         to JSON.
+     */
+    public Map<String,Object> toMap() {
+        final Map<String,Object> map = new LinkedHashMap<>();
+        map.put("budget", getBudget());
+        map.put("bytes_in_use", getBytesInUse());
+        map.put("peak_bytes_in_use", getPeakBytesInUse());
+        map.put("queue_depth", getQueueDepth());
+        map.put("admissions", getAdmissions());
+        map.put("exemptions", getExemptions());
+        map.put("waits", getWaits());
+        map.put("rejections", getRejections());
+        map.put("wait_time", waitTime.toMap());
+        return map;
+    }
+
+    /**
+     * Acquires a permit for processing the given image, waiting for up to
+     * {@link Key#PROCESSOR_MEMORY_BUDGET_MAX_WAIT} seconds for enough of the
+     * budget to become available.
+     *
+     * @param opList Operations to apply to the image.
+     * @param info   Information about the source image.
+     * @return Permit, which must be closed once the image has been
+     *         processed; or <code>null</code> if the image could not be
+     *         admitted in time.
+     * @throws InterruptedException If the calling thread is interrupted while
+     *                              waiting.
+     */
+    public Permit tryAcquire(OperationList opList, Info info)
+            throws InterruptedException {
+        final long maxWait = Configuration.getInstance().getLong(
+                Key.PROCESSOR_MEMORY_BUDGET_MAX_WAIT, DEFAULT_MAX_WAIT_SECONDS);
+        final Permit permit = tryAcquire(estimateBytes(opList, info),
+                getBudget(), TimeUnit.SECONDS.toMillis(Math.max(0, maxWait)));
+        if (permit == null) {
+            LOGGER.info("tryAcquire(): rejected after {} sec with {} bytes " +
+                            "in use and {} requests waiting: {}",
+                    maxWait, getBytesInUse(), getQueueDepth(), opList);
+        } else if (permit.getNumBytes() > 0) {
+            LOGGER.debug("tryAcquire(): admitted {} bytes ({} in use): {}",
+                    permit.getNumBytes(), getBytesInUse(), opList);
+        }
+        return permit;
+    }
+
+    /**
+     * @param numBytes    Estimated number of bytes needed.
+     * @param budget      Budget to admit against. If less than 1, the
+     *                    request is exempt.
+     * @param maxWaitMsec Maximum time to wait.
+     * @return Permit, or <code>null</code> if the request could not be
+     *         admitted in time.
+     */
+    Permit tryAcquire(long numBytes, long budget, long maxWaitMsec)
+            throws InterruptedException {
+        if (budget < 1 || numBytes <= EXEMPT_BYTES) {
+            exemptions.increment();
+            return new Permit(0);
+        }
+        numBytes = Math.min(numBytes, budget);
+
+        final long start = System.nanoTime();
+        final Object ticket = new Object();
+        lock.lock();
+        try {
+            if (queue.isEmpty() && bytesInUse + numBytes <= budget) {
+                return admit(numBytes, 0);
+            }
+            queue.addLast(ticket);
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMsec);
+            try {
+                while (queue.peekFirst() != ticket ||
+                        bytesInUse + numBytes > budget) {
+                    if (remainingNanos <= 0) {
+                        rejections.increment();
+                        return null;
+                    }
+                    remainingNanos = availability.awaitNanos(remainingNanos);
+                }
+            } finally {
+                queue.remove(ticket);
+                // Whether or not this request was admitted, the next one
+                // may now be at the front of the line with room to spare.
+                availability.signalAll();
+            }
+            waits.increment();
+            return admit(numBytes, System.nanoTime() - start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     *
+     * @param numBytes  Number of bytes to admit.
+     * @param waitNanos Time that the request spent waiting.
+     */
+    private Permit admit(long numBytes, long waitNanos) {
+        waitTime.record(waitNanos);
+        bytesInUse += numBytes;
+        peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+        admissions.increment();
+        return new Permit(numBytes);
+    }
+
+}
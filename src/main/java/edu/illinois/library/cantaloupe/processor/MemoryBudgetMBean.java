@@ -0,0 +1,37 @@
+package edu.illinois.library.cantaloupe.processor;
+
+/**
+ * JMX management interface of {@link MemoryBudget}. Wait times are in
+ * milliseconds.
+ *
+ * @since 3.4
+ */
+public interface MemoryBudgetMBean {
+
+    long getAdmissions();
+
+    long getBudget();
+
+    long getBytesInUse();
+
+    long getExemptions();
+
+    long getPeakBytesInUse();
+
+    int getQueueDepth();
+
+    long getRejections();
+
+    double getWaitTimeMax();
+
+    double getWaitTimeMean();
+
+    double getWaitTime95thPercentile();
+
+    double getWaitTime99thPercentile();
+
+    long getWaits();
+
+    void reset();
+
+}
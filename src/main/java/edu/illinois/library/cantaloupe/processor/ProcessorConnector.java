@@ -12,15 +12,12 @@ import edu.illinois.library.cantaloupe.resolver.InputStreamStreamSource;
 import edu.illinois.library.cantaloupe.resolver.Resolver;
 import edu.illinois.library.cantaloupe.resolver.StreamResolver;
 import edu.illinois.library.cantaloupe.resolver.StreamSource;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 /**
  * Establishes the best connection between a processor and a resolver.
@@ -72,10 +69,12 @@ public class ProcessorConnector {
      *             <li>If {@link Key#STREAMPROCESSOR_RETRIEVAL_STRATEGY}
      *             is set to <code>CacheStrategy</code>, the source image will
      *             be downloaded to the source cache, and the processor will
-     *             read the file returned by
-     *             {@link SourceCache#getSourceImageFile(Identifier)}. This will
-     *             block, and other threads trying to access the same source
-     *             image will wait for it to download.</li>
+     *             read the stream returned by
+     *             {@link SourceCache#newSourceImageInputStream(Identifier)}.
+     *             Only one thread will download a given source image; it and
+     *             any other threads trying to access the same image will read
+     *             it while it is downloading, if the source cache supports
+     *             that.</li>
      *         </ul>
      *     </li>
      *     <li>If the resolver is a {@link StreamResolver} (only) and the
@@ -87,7 +86,8 @@ public class ProcessorConnector {
      *             returned by
      *             {@link SourceCache#getSourceImageFile(Identifier)}. This will
      *             block, and other threads trying to access the same source
-     *             image will wait for it to download.</li>
+     *             image will wait for it to download rather than downloading
+     *             it again.</li>
      *             <li>Otherwise, an {@link IncompatibleResolverException}
      *             will be thrown.</li>
      *         </ul>
@@ -162,35 +162,55 @@ public class ProcessorConnector {
 
     private void setSourceCacheAsSource(SourceCache sourceCache)
             throws IOException, CacheException {
-        // This will block while a file is being written in another thread,
-        // which will prevent the image from being downloaded multiple times.
-        File sourceFile = sourceCache.getSourceImageFile(identifier);
-        if (sourceFile == null) {
-            downloadToSourceCache(sourceCache);
-            sourceFile = sourceCache.getSourceImageFile(identifier);
-        }
-        logger.info("SourceCache -> FileProcessor connection between {} and {}",
+        logger.info("SourceCache -> {} connection between {} and {}",
+                (processor instanceof FileProcessor) ?
+                        "FileProcessor" : "StreamProcessor",
                 sourceCache.getClass().getSimpleName(),
                 processor.getClass().getSimpleName());
         if (processor instanceof FileProcessor) {
+            // This will block while a file is being written in another
+            // thread.
+            File sourceFile = sourceCache.getSourceImageFile(identifier);
+            if (sourceFile == null) {
+                downloadToSourceCache(sourceCache).await();
+                sourceFile = sourceCache.getSourceImageFile(identifier);
+            }
             ((FileProcessor) processor).setSourceFile(sourceFile);
         } else {
-            InputStream inputStream = new FileInputStream(sourceFile);
+            // This will not block while a file is being written in another
+            // thread; instead, the stream will read it as it grows.
+            InputStream inputStream =
+                    sourceCache.newSourceImageInputStream(identifier);
+            if (inputStream == null) {
+                final SourceCacheDownloader.Download download =
+                        downloadToSourceCache(sourceCache);
+                download.awaitStart();
+                inputStream = sourceCache.newSourceImageInputStream(identifier);
+                if (inputStream == null) {
+                    // The source cache can't read images that are still
+                    // being written.
+                    download.await();
+                    inputStream =
+                            sourceCache.newSourceImageInputStream(identifier);
+                }
+                if (inputStream == null) {
+                    throw new IOException("Failed to read " + identifier +
+                            " from the source cache");
+                }
+            }
             StreamSource streamSource = new InputStreamStreamSource(inputStream);
             ((StreamProcessor) processor).setStreamSource(streamSource);
         }
     }
 
-    private void downloadToSourceCache(SourceCache sourceCache)
-            throws IOException, CacheException {
-        // Download to the SourceCache and then read from it.
-        try (InputStream inputStream = ((StreamResolver) resolver).
-                newStreamSource().newInputStream();
-             OutputStream outputStream =
-                     sourceCache.newSourceImageOutputStream(identifier)) {
-            logger.info("Downloading {} to the source cache", identifier);
-            IOUtils.copy(inputStream, outputStream);
-        }
+    /**
+     * Downloads the source image to the source cache in the background,
+     * unless it is already being downloaded.
+     */
+    private SourceCacheDownloader.Download downloadToSourceCache(
+            SourceCache sourceCache) {
+        return SourceCacheDownloader.getInstance().download(
+                sourceCache, (StreamResolver) resolver, identifier);
     }
 
 }
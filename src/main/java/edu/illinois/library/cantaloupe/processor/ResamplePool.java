@@ -0,0 +1,98 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import com.mortennobel.imagescaling.ResampleOp;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Runs {@link ResampleOp}s in a pool of threads shared by all requests.</p>
+ *
+ * <p>On its own, a {@link ResampleOp} starts as many new threads as there are
+ * CPUs for each pass of each filter. Under concurrent load, that adds up to
+ * far more threads than CPUs, and most of them only live long enough to
+ * process a small tile. Instead, filters run here are split into a number of
+ * parts that depends on the size of the image and the number of other filters
+ * running at the same time: small images are processed entirely in the
+ * calling thread, and large images are split among the pool's threads, which
+ * are divided among all of the large images being processed.</p>
+ *
+ * @since 3.4
+ */
+final class ResamplePool {
+
+    /**
+     * Filters involving fewer samples than this are processed in the calling
+     * thread. This is about the size of a 1024&times;1024 image being scaled
+     * to 512&times;512, which takes a few milliseconds&mdash;not enough to be
+     * worth handing off to other threads.
+     */
+    static final long MIN_PARALLEL_WORK = 2 * 1024 * 1024;
+
+    private static final ForkJoinPool POOL = newPool(
+            Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicInteger numActiveFilters = new AtomicInteger();
+
+    /**
+     * @param op         Operation to run. Its pool and number of threads
+     *                   will be set.
+     * @param image      Image to filter.
+     * @param dstWidth   Width of the filtered image.
+     * @param dstHeight  Height of the filtered image.
+     * @return Filtered image.
+     */
+    static BufferedImage filter(ResampleOp op, BufferedImage image,
+                                int dstWidth, int dstHeight) {
+        final long work = estimateWork(image.getWidth(), image.getHeight(),
+                dstWidth, dstHeight);
+        final int numActive = numActiveFilters.incrementAndGet();
+        try {
+            op.setPool(POOL);
+            op.setNumberOfThreads(
+                    getParallelism(work, numActive, POOL.getParallelism()));
+            return op.filter(image, null);
+        } finally {
+            numActiveFilters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return Approximate number of samples computed by the two passes of a
+     *         {@link ResampleOp}.
+     */
+    static long estimateWork(int srcWidth, int srcHeight,
+                             int dstWidth, int dstHeight) {
+        return (long) srcHeight * dstWidth + (long) dstWidth * dstHeight;
+    }
+
+    /**
+     * @param work            Value returned from {@link #estimateWork}.
+     * @param numActive       Number of filters running at the same time,
+     *                        including this one.
+     * @param poolParallelism Number of threads in the pool.
+     * @return Number of parts into which to split the filter.
+     */
+    static int getParallelism(long work, int numActive, int poolParallelism) {
+        if (work < MIN_PARALLEL_WORK) {
+            return 1;
+        }
+        return Math.max(1, poolParallelism / Math.max(1, numActive));
+    }
+
+    private static ForkJoinPool newPool(int parallelism) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("resample-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    private ResamplePool() {}
+
+}
@@ -0,0 +1,251 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.cache.AbortableOutputStream;
+import edu.illinois.library.cantaloupe.cache.SourceCache;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.resolver.StreamResolver;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Downloads source images from {@link StreamResolver}s into the
+ * {@link SourceCache} in the background, so that there is only ever one
+ * download in flight for a given identifier, and so that readers don't have
+ * to wait for a download to complete before they can start reading it (if
+ * the source cache supports that; see
+ * {@link SourceCache#newSourceImageInputStream(Identifier)}).</p>
+ *
+ * <p>The number of downloads that may be in flight at once from each origin
+ * (which is to say, each resolver implementation) is limited by
+ * {@link Key#SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS}. Downloads in excess of
+ * the limit wait for a permit. All downloads run in a pool of
+ * {@link Key#SOURCE_CACHE_DOWNLOAD_THREADS} threads, which are started on
+ * demand; downloads in excess of that wait in a queue.</p>
+ *
+ * @since 3.4
+ */
+final class SourceCacheDownloader {
+
+    /**
+     * Download of a source image into the source cache.
+     */
+    static final class Download {
+
+        private final Identifier identifier;
+        private final CountDownLatch startLatch = new CountDownLatch(1);
+        private final CountDownLatch endLatch = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        Download(Identifier identifier) {
+            this.identifier = identifier;
+        }
+
+        /**
+         * Blocks until the download has completed.
+         *
+         * @throws IOException if the download failed.
+         */
+        void await() throws IOException {
+            await(endLatch);
+        }
+
+        private void await(CountDownLatch latch) throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while " +
+                        "waiting for " + identifier);
+            }
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+        }
+
+        /**
+         * Blocks until the source cache has started writing the image, at
+         * which point it is readable via
+         * {@link SourceCache#newSourceImageInputStream(Identifier)}, or until
+         * the download has failed.
+         *
+         * @throws IOException if the download failed.
+         */
+        void awaitStart() throws IOException {
+            await(startLatch);
+        }
+
+        private void complete(IOException failure) {
+            this.failure = failure;
+            startLatch.countDown();
+            endLatch.countDown();
+        }
+
+        private void start() {
+            startLatch.countDown();
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(SourceCacheDownloader.class);
+
+    /** Idle download threads are stopped after this many seconds. */
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final SourceCacheDownloader INSTANCE =
+            new SourceCacheDownloader();
+
+    private final ConcurrentMap<Identifier, Download> downloads =
+            new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    /** Download permits, keyed by origin. */
+    private final ConcurrentMap<String, Semaphore> originPermits =
+            new ConcurrentHashMap<>();
+
+    static SourceCacheDownloader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the download executor, whose thread count is set by
+     * {@link Key#SOURCE_CACHE_DOWNLOAD_THREADS}. Its threads are started on
+     * demand, and stopped when they have been idle for a while.
+     */
+    SourceCacheDownloader() {
+        final int numThreads = Math.max(1, Configuration.getInstance().
+                getInt(Key.SOURCE_CACHE_DOWNLOAD_THREADS, 8));
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                numThreads, numThreads,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "source-download-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the in-flight download of the source image with the given
+     * identifier, starting it if necessary.
+     *
+     * @param sourceCache Source cache to download into.
+     * @param resolver    Resolver from which to download the image.
+     * @param identifier  Identifier of the image.
+     * @return Download of the image, which may have been started in another
+     *         thread.
+     */
+    Download download(SourceCache sourceCache,
+                      StreamResolver resolver,
+                      Identifier identifier) {
+        final Download download = new Download(identifier);
+        final Download existing = downloads.putIfAbsent(identifier, download);
+        if (existing != null) {
+            LOGGER.debug("download(): joining in-flight download of {}",
+                    identifier);
+            return existing;
+        }
+        final String origin = resolver.getClass().getSimpleName();
+        executor.submit(() -> run(download, sourceCache, resolver, origin));
+        return download;
+    }
+
+    /**
+     * @return Number of downloads currently in flight.
+     */
+    int getNumDownloads() {
+        return downloads.size();
+    }
+
+    /**
+     * @return Semaphore limiting concurrent downloads from the given origin,
+     *         or <code>null</code> if there is no limit.
+     */
+    private Semaphore getPermits(String origin) {
+        final int limit = Configuration.getInstance().
+                getInt(Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS, 4);
+        if (limit <= 0) {
+            return null;
+        }
+        return originPermits.computeIfAbsent(origin,
+                o -> new Semaphore(limit, true));
+    }
+
+    private void run(Download download,
+                     SourceCache sourceCache,
+                     StreamResolver resolver,
+                     String origin) {
+        final Identifier identifier = download.identifier;
+        final Semaphore permits = getPermits(origin);
+        IOException failure = null;
+        try {
+            if (permits != null) {
+                permits.acquire();
+            }
+            try (InputStream inputStream =
+                         resolver.newStreamSource().newInputStream()) {
+                final OutputStream outputStream =
+                        sourceCache.newSourceImageOutputStream(identifier);
+                try {
+                    download.start();
+                    LOGGER.info("Downloading {} from {} to the source cache",
+                            identifier, origin);
+                    IOUtils.copy(inputStream, outputStream);
+                    outputStream.close();
+                } catch (Exception e) {
+                    // Discard the partial image, failing anyone who is
+                    // reading it, rather than committing it.
+                    AbortableOutputStream.abortOrClose(outputStream);
+                    throw e;
+                }
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException(e.getMessage());
+        } catch (Exception e) {
+            LOGGER.error("Failed to download {}: {}",
+                    identifier, e.getMessage());
+            failure = (e instanceof IOException) ?
+                    (IOException) e : new IOException(e.getMessage(), e);
+        }
+        if (failure != null) {
+            // Don't leave a partial image in the cache.
+            try {
+                sourceCache.purge(identifier);
+            } catch (Exception e) {
+                LOGGER.error("Failed to purge {}: {}",
+                        identifier, e.getMessage());
+            }
+        }
+        downloads.remove(identifier, download);
+        download.complete(failure);
+    }
+
+}
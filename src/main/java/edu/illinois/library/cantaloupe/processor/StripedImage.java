@@ -0,0 +1,433 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import com.mortennobel.imagescaling.ImageUtils;
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.StripResampler;
+import edu.illinois.library.cantaloupe.processor.imageio.ImageReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Dimension;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Vector;
+
+/**
+ * <p>{@link RenderedImage} of a region of a source image, optionally scaled,
+ * whose rows are produced on demand from horizontal bands of the source image
+ * that are read one at a time. Neither the source region nor the result is
+ * ever in memory in its entirety&mdash;only one band of the source, the few
+ * rows being resampled, and the rows requested last.</p>
+ *
+ * <p>Image writers that pull their source data a few rows at a time from top
+ * to bottom via {@link #getData(Rectangle)}, like the ImageIO PNG and TIFF
+ * writers, can therefore encode an arbitrarily large image in bounded memory.
+ * A request for rows above the ones requested last causes the image to be
+ * produced again from the top, which works, but is slow. {@link #getData()}
+ * and {@link #getTile(int, int)} produce the whole image at once.</p>
+ *
+ * <p>The image is always of one of the types of a {@link BufferedImage} of
+ * {@link BufferedImage#TYPE_BYTE_GRAY}, {@link BufferedImage#TYPE_3BYTE_BGR},
+ * or {@link BufferedImage#TYPE_4BYTE_ABGR}, i.e. 8 bits per sample.</p>
+ *
+ * @since 3.4
+ */
+final class StripedImage implements RenderedImage {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(StripedImage.class);
+
+    /**
+     * Approximate maximum size of a band of the source image, assuming 4
+     * bytes per pixel.
+     */
+    static final long MAX_BAND_BYTES = 16 * 1024 * 1024;
+
+    private final ImageReader reader;
+    private final Rectangle region;
+    private final int width;
+    private final int height;
+    private final int tileHeight;
+    private final int bandHeight;
+    private final ResampleFilter filter;
+    private final int type;
+    private final int numChannels;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    /** Source row buffers for {@link ImageUtils#getPixelsBGR}. */
+    private final byte[] sourceRow;
+    private final int[] tempRow;
+
+    /** Produced rows, starting at {@link #firstRow}. */
+    private final Deque<byte[]> rows = new ArrayDeque<>();
+    private final Deque<byte[]> spareRows = new ArrayDeque<>();
+    private int firstRow;
+
+    private StripResampler resampler;
+    private BufferedImage band;
+    private int bandRow;
+    private int numSourceRowsRead;
+    private int numPasses;
+
+    /**
+     * @param regionWidth Width of the region to read.
+     * @param tileHeight  Height of the tiles or strips of the source image.
+     * @return Height of the bands to read: a multiple of the tile height,
+     *         and no larger than {@link #MAX_BAND_BYTES} allows, unless one
+     *         tile is larger than that.
+     */
+    static int getBandHeight(int regionWidth, int tileHeight) {
+        final long maxRows = Math.max(1, MAX_BAND_BYTES / (regionWidth * 4L));
+        return (int) Math.max(1, maxRows / tileHeight) * tileHeight;
+    }
+
+    /**
+     * @param image Image to get the type of.
+     * @return The type that a {@link StripedImage} will have when reading
+     *         the given image.
+     */
+    static int getType(BufferedImage image) {
+        final ColorModel cm = image.getColorModel();
+        if (cm.hasAlpha()) {
+            return BufferedImage.TYPE_4BYTE_ABGR;
+        } else if (cm.getNumComponents() == 1) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    /**
+     * Reads the first band of the source image right away, to find out what
+     * it looks like.
+     *
+     * @param reader     Reader to read the source image from. It must stay
+     *                   open as long as the instance is being read from.
+     * @param region     Region of the source image to read. It must not
+     *                   extend beyond the source image.
+     * @param size       Size to scale the region to. If it is the same as the
+     *                   size of the region, it will not be scaled.
+     * @param filter     Filter to scale the region with. May be
+     *                   <code>null</code> if it will not be scaled.
+     * @param tileHeight Height of the tiles or strips of the source image.
+     */
+    StripedImage(ImageReader reader,
+                 Rectangle region,
+                 Dimension size,
+                 ResampleFilter filter,
+                 int tileHeight) throws IOException {
+        this.reader = reader;
+        this.region = new Rectangle(region);
+        this.width = size.width;
+        this.height = size.height;
+        this.filter = filter;
+        this.tileHeight = tileHeight;
+        this.bandHeight = getBandHeight(region.width, tileHeight);
+
+        BufferedImage firstBand = readBand(0);
+        type = getType(firstBand);
+        final BufferedImage typeImage = new BufferedImage(1, 1, type);
+        numChannels = typeImage.getRaster().getNumDataElements();
+        colorModel = typeImage.getColorModel();
+        sampleModel = typeImage.getSampleModel().
+                createCompatibleSampleModel(width, height);
+        sourceRow = new byte[region.width * numChannels];
+        tempRow = new int[region.width];
+
+        start();
+        band = convert(firstBand);
+        numSourceRowsRead = band.getHeight();
+
+        LOGGER.debug("Reading a {}x{} region in bands of {} rows to " +
+                        "produce a {}x{} image",
+                region.width, region.height, bandHeight, width, height);
+    }
+
+    /**
+     * @param image Image to convert.
+     * @return Image that {@link ImageUtils#getPixelsBGR} can read rows of
+     *         this instance's type from.
+     */
+    private BufferedImage convert(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_BGR:
+                if (type == BufferedImage.TYPE_3BYTE_BGR) {
+                    return image;
+                }
+                break;
+            case BufferedImage.TYPE_INT_ARGB:
+                if (type == BufferedImage.TYPE_4BYTE_ABGR) {
+                    return image;
+                }
+                break;
+            default:
+                if (image.getType() == type) {
+                    return image;
+                }
+        }
+        return ImageUtils.convert(image, type);
+    }
+
+    /**
+     * @return The whole image, which is as large in memory as it is.
+     */
+    BufferedImage getAsBufferedImage() {
+        return new BufferedImage(colorModel, (WritableRaster) getData(),
+                false, null);
+    }
+
+    /**
+     * @return Number of times that the image has been produced, or has
+     *         started to be, from the top.
+     */
+    int getNumPasses() {
+        return numPasses;
+    }
+
+    /**
+     * @return Number of rows that are being kept.
+     */
+    int getNumRows() {
+        return rows.size();
+    }
+
+    private boolean isScaling() {
+        return width != region.width || height != region.height;
+    }
+
+    /**
+     * Produces the next row of the image.
+     */
+    private void produceRow(byte[] row) throws IOException {
+        if (resampler == null) {
+            readSourceRow(row);
+        } else {
+            while (!resampler.hasNextRow()) {
+                readSourceRow(sourceRow);
+                resampler.pushRow(sourceRow);
+            }
+            resampler.nextRow(row);
+        }
+        if (firstRow + rows.size() + 1 == height) {
+            // Done with the source.
+            band = null;
+        }
+    }
+
+    /**
+     * @param y Zero-based row of the region to start at.
+     * @return The next band of the source region.
+     */
+    private BufferedImage readBand(int y) throws IOException {
+        y += region.y;
+        // End bands on tile boundaries so that no tile is read twice.
+        final int end = Math.min(region.y + region.height,
+                (y + bandHeight) / tileHeight * tileHeight);
+        final BufferedImage image = reader.readRegion(0,
+                new Rectangle(region.x, y, region.width, end - y));
+        if (image.getHeight() < 1) {
+            throw new IOException("Read an empty band at " + y);
+        }
+        return image;
+    }
+
+    private void readSourceRow(byte[] row) throws IOException {
+        if (band == null || bandRow == band.getHeight()) {
+            band = convert(readBand(numSourceRowsRead));
+            bandRow = 0;
+            numSourceRowsRead += band.getHeight();
+        }
+        ImageUtils.getPixelsBGR(band, bandRow++, region.width, row, tempRow);
+    }
+
+    /**
+     * (Re)starts producing the image from the top.
+     */
+    private void start() {
+        spareRows.addAll(rows);
+        rows.clear();
+        firstRow = 0;
+        band = null;
+        bandRow = 0;
+        numSourceRowsRead = 0;
+        if (isScaling()) {
+            resampler = new StripResampler(region.width, region.height,
+                    width, height, numChannels, filter);
+        }
+        numPasses++;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    /////////////////////// RenderedImage methods //////////////////////////
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return (WritableRaster) getData();
+        }
+        raster.setRect(getData(raster.getBounds()));
+        return raster;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * @param rect Region of the image to get. Requesting rows above the ones
+     *             requested last causes the image to be produced again from
+     *             the top.
+     * @throws UncheckedIOException If the source image can't be read.
+     */
+    @Override
+    public synchronized Raster getData(Rectangle rect) {
+        rect = rect.intersection(new Rectangle(0, 0, width, height));
+        try {
+            if (rect.y < firstRow) {
+                LOGGER.debug("getData(): row {} was requested after row {}; " +
+                        "starting over", rect.y, firstRow);
+                start();
+            }
+            // Rows above the requested ones won't be requested again.
+            while (firstRow < rect.y) {
+                if (rows.isEmpty()) {
+                    produceRow(spareRows.isEmpty() ?
+                            new byte[width * numChannels] : spareRows.peek());
+                } else {
+                    spareRows.push(rows.removeFirst());
+                }
+                firstRow++;
+            }
+            while (firstRow + rows.size() < rect.y + rect.height) {
+                final byte[] row = spareRows.isEmpty() ?
+                        new byte[width * numChannels] : spareRows.pop();
+                produceRow(row);
+                rows.addLast(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final WritableRaster raster = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+                rect.getLocation());
+        int y = rect.y;
+        for (byte[] row : rows) {
+            if (y >= rect.y + rect.height) {
+                break;
+            }
+            if (rect.x != 0 || rect.width != width) {
+                row = Arrays.copyOfRange(row, rect.x * numChannels,
+                        (rect.x + rect.width) * numChannels);
+            }
+            raster.setDataElements(rect.x, y, rect.width, 1, row);
+            y++;
+        }
+        return raster;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+}
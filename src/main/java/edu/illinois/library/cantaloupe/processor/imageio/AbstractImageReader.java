@@ -28,6 +28,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -295,6 +296,26 @@ abstract class AbstractImageReader {
         return image;
     }
 
+    /**
+     * <p>Reads a region of an image, exploiting its tile layout, if possible.
+     * Intended for reading a large region in bands of a few tiles or strips
+     * each, so that the whole region never has to be in memory at once.</p>
+     *
+     * @param imageIndex Index of the image to read from.
+     * @param region     Region to read. The returned image will be this size
+     *                   or smaller if it would overlap the right or bottom
+     *                   edge of the image.
+     * @return Image of the region.
+     * @throws IOException
+     */
+    BufferedImage readRegion(final int imageIndex,
+                             final Rectangle region) throws IOException {
+        if (iioReader == null) {
+            createReader();
+        }
+        return tileAwareRead(imageIndex, region, new HashSet<>());
+    }
+
     /**
      * Reads the smallest image that can fulfill the given crop and scale from
      * a multi-resolution image.
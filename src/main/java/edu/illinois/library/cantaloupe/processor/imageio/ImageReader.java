@@ -11,6 +11,7 @@ import edu.illinois.library.cantaloupe.resolver.StreamSource;
 
 import javax.imageio.ImageIO;
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
@@ -230,6 +231,23 @@ public class ImageReader {
         return reader.read(opList, orientation, reductionFactor, hints);
     }
 
+    /**
+     * <p>Reads a region of an image, exploiting its tile layout, if possible.
+     * Intended for reading a large region in bands of a few tiles or strips
+     * each, so that the whole region never has to be in memory at once.</p>
+     *
+     * @param imageIndex Zero-based index.
+     * @param region     Region to read. The returned image will be this size
+     *                   or smaller if it would overlap the right or bottom
+     *                   edge of the image.
+     * @return Image of the region. It may be of type
+     *         {@link BufferedImage#TYPE_CUSTOM}.
+     */
+    public BufferedImage readRegion(int imageIndex, Rectangle region)
+            throws IOException {
+        return reader.readRegion(imageIndex, region);
+    }
+
     /**
      * Reads an image (excluding subimages).
      *
@@ -6,25 +6,35 @@ import edu.illinois.library.cantaloupe.auth.Authorizer;
 import edu.illinois.library.cantaloupe.cache.CacheException;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
 import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
+import edu.illinois.library.cantaloupe.cache.NegativeResultCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.image.Format;
 import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
 import edu.illinois.library.cantaloupe.processor.Processor;
 import edu.illinois.library.cantaloupe.processor.ProcessorException;
+import edu.illinois.library.cantaloupe.resolver.FileResolver;
+import edu.illinois.library.cantaloupe.resolver.Resolver;
 import edu.illinois.library.cantaloupe.util.Stopwatch;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.restlet.Request;
 import org.restlet.data.CacheDirective;
+import org.restlet.data.Conditions;
 import org.restlet.data.Disposition;
 import org.restlet.data.Header;
 import org.restlet.data.MediaType;
 import org.restlet.data.Parameter;
 import org.restlet.data.Protocol;
+import org.restlet.data.Range;
 import org.restlet.data.Reference;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.ext.velocity.TemplateRepresentation;
 import org.restlet.representation.EmptyRepresentation;
 import org.restlet.representation.Representation;
@@ -37,9 +47,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.script.ScriptException;
 import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -174,6 +188,54 @@ public abstract class AbstractResource extends ServerResource {
         logger.info("doInit(): handling {} {}", getMethod(), getReference());
     }
 
+    /**
+     * <p>Prepares a file-backed representation to be sent in part, with a
+     * <code>206 Partial Content</code> status, if the client has requested a
+     * single byte range of it. Otherwise, the representation is left alone
+     * and sent in full, which is always permissible.</p>
+     *
+     * <p>Ranges are handled here rather than by Restlet's range service,
+     * which would produce the full entity and discard what wasn't asked for.
+     * The representation is responsible for writing only its
+     * {@link Representation#getRange() range}.</p>
+     *
+     * @param rep  Representation whose {@link Representation#getTag() tag}
+     *             and {@link Representation#getModificationDate()
+     *             modification date}, if any, have already been set.
+     * @param size Full size of the representation in bytes.
+     * @throws ResourceException With a status of <code>416 Requested Range
+     *                           Not Satisfiable</code>, in which case the
+     *                           representation will have been released.
+     * @since 3.4
+     */
+    protected final void applyRange(final Representation rep,
+                                    final long size) {
+        final List<Range> ranges = getRequest().getRanges();
+        if (ranges.size() != 1 || !isRangeConditionMet(rep)) {
+            return;
+        }
+        final Range range = ranges.get(0);
+        long index, length;
+        if (range.getIndex() == Range.INDEX_LAST) { // e.g. bytes=-500
+            length = Math.min(range.getSize(), size);
+            index = size - length;
+        } else {
+            index = range.getIndex();
+            length = (range.getSize() == Range.SIZE_MAX) ?
+                    size - index : Math.min(range.getSize(), size - index);
+        }
+        if (index >= size || length < 1) {
+            rep.release();
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+        logger.debug("applyRange(): sending {} bytes at offset {} of {}",
+                length, index, size);
+        rep.setSize(size);
+        rep.setRange(new Range(index, length));
+        getResponse().setStatus(Status.SUCCESS_PARTIAL_CONTENT);
+    }
+
     /**
      * Uses an {@link Authorizer} to determine whether the request is
      * authorized.
@@ -331,8 +393,8 @@ public abstract class AbstractResource extends ServerResource {
 
     /**
      * Gets the image info corresponding to the given identifier, first by
-     * checking the cache and then, if necessary, by reading it from the image
-     * and caching the result.
+     * checking the {@link InfoCache} and the derivative cache and then, if
+     * necessary, by reading it from the image and caching the result.
      *
      * @param identifier
      * @param proc
@@ -348,6 +410,13 @@ public abstract class AbstractResource extends ServerResource {
         if (!isBypassingCache()) {
             DerivativeCache cache = CacheFactory.getDerivativeCache();
             if (cache != null) {
+                final InfoCache infoCache = InfoCache.getInstance();
+                info = infoCache.get(identifier);
+                if (info != null) {
+                    logger.debug("getOrReadInfo(): retrieved dimensions of {} from the info cache",
+                            identifier);
+                    return info;
+                }
                 final Stopwatch watch = new Stopwatch();
                 info = cache.getImageInfo(identifier);
                 if (info != null) {
@@ -357,6 +426,7 @@ public abstract class AbstractResource extends ServerResource {
                     info = readInfo(identifier, proc);
                     cache.put(identifier, info);
                 }
+                infoCache.put(identifier, info);
             }
         } else {
             logger.debug("getOrReadInfo(): bypassing the cache, as requested");
@@ -367,6 +437,34 @@ public abstract class AbstractResource extends ServerResource {
         return info;
     }
 
+    /**
+     * Gets the image info corresponding to the given identifier from the
+     * {@link InfoCache} or the derivative cache, without reading it from the
+     * image.
+     *
+     * @param identifier
+     * @return Info for the image with the given identifier, or
+     *         <code>null</code> if neither cache contains it.
+     * @throws CacheException
+     * @since 3.4
+     */
+    protected final Info getCachedInfo(final Identifier identifier)
+            throws CacheException {
+        final DerivativeCache cache = CacheFactory.getDerivativeCache();
+        if (cache == null) {
+            return null;
+        }
+        final InfoCache infoCache = InfoCache.getInstance();
+        Info info = infoCache.get(identifier);
+        if (info == null) {
+            info = cache.getImageInfo(identifier);
+            if (info != null) {
+                infoCache.put(identifier, info);
+            }
+        }
+        return info;
+    }
+
     /**
      * <p>Returns a content disposition based on the following in order of
      * preference:</p>
@@ -449,6 +547,181 @@ public abstract class AbstractResource extends ServerResource {
         return bypassingCache;
     }
 
+    /**
+     * @param rep Representation to check.
+     * @return Whether the request's <code>If-Range</code> condition, if any,
+     *         is met by the given representation, meaning that a requested
+     *         range of it may be sent. Only strong comparison is supported.
+     */
+    private boolean isRangeConditionMet(Representation rep) {
+        final Conditions conditions = getRequest().getConditions();
+        if (conditions.getRangeTag() != null) {
+            return rep.getTag() != null && !rep.getTag().isWeak() &&
+                    rep.getTag().equals(conditions.getRangeTag());
+        } else if (conditions.getRangeDate() != null) {
+            // HTTP dates have a resolution of one second.
+            return rep.getModificationDate() != null &&
+                    rep.getModificationDate().getTime() / 1000 ==
+                            conditions.getRangeDate().getTime() / 1000;
+        }
+        return true;
+    }
+
+    /**
+     * <p>Returns a representation of the image produced by the given
+     * operations straight from the derivative cache, for use when the source
+     * image does not have to be resolved first.</p>
+     *
+     * <p>The operations must have had the same mutations applied as they
+     * would on the way to {@link #newImageRepresentation}, so that a cache hit
+     * is found under the same key, and carries the same
+     * {@link #setValidators validators}, as the cache miss that produced
+     * it.</p>
+     *
+     * @param opList      Operations to apply to the image, with all mutations
+     *                    already applied.
+     * @param disposition Content disposition.
+     * @param resolver    Resolver of the source image, used only for
+     *                    validators.
+     * @return Cached representation, or <code>null</code> if there is no
+     *         derivative cache or it does not contain a matching image.
+     * @since 3.4
+     */
+    protected final Representation newCachedImageRepresentation(
+            final OperationList opList, final Disposition disposition,
+            final Resolver resolver) throws IOException, CacheException {
+        final DerivativeCache cache = CacheFactory.getDerivativeCache();
+        if (cache == null) {
+            return null;
+        }
+        final InputStream inputStream =
+                cache.newDerivativeImageInputStream(opList);
+        if (inputStream == null) {
+            return null;
+        }
+        final CachedImageRepresentation rep = new CachedImageRepresentation(
+                opList.getOutputFormat().getPreferredMediaType(),
+                disposition, inputStream);
+        setValidators(rep, opList, resolver);
+        if (rep.hasKnownSize()) {
+            getResponse().getServerInfo().setAcceptingRanges(true);
+            applyRange(rep, rep.getSize());
+        }
+        return rep;
+    }
+
+    /**
+     * <p>Returns a representation of the image produced by the given
+     * operations, with {@link #setValidators validators} for conditional
+     * requests.</p>
+     *
+     * <p>If a byte range has been requested, and the image is available as a
+     * file&mdash;either because no processing is needed, or because it is in
+     * a file-backed derivative cache&mdash;the range will be
+     * {@link #applyRange applied}.</p>
+     *
+     * <p>If the image will have to be processed&mdash;i.e. it is not in the
+     * derivative cache, and is not already being produced for another
+     * request&mdash;a permit is acquired from the {@link MemoryBudget} first,
+     * which may mean waiting for other images to finish processing. The
+     * representation releases it once the image has been processed, or once
+     * it turns out not to need it.</p>
+     *
+     * @param info        Source image info.
+     * @param processor   Processor configured for writing the image.
+     * @param resolver    Resolver from which the processor reads.
+     * @param opList      Operations to apply to the image.
+     * @param disposition Content disposition.
+     * @throws ServiceUnavailableException If the image could not be admitted
+     *                                     to the memory budget in time.
+     * @since 3.4
+     */
+    protected final Representation newImageRepresentation(
+            final Info info, final Processor processor,
+            final Resolver resolver, final OperationList opList,
+            final Disposition disposition)
+            throws IOException, CacheException {
+        getResponse().getServerInfo().setAcceptingRanges(true);
+
+        final ImageRepresentation rep = new ImageRepresentation(info,
+                processor, opList, disposition, isBypassingCache());
+        setValidators(rep, opList, resolver);
+
+        if (getRequest().getRanges().size() == 1) {
+            final File passthroughFile = rep.getPassthroughFile();
+            if (passthroughFile != null) {
+                applyRange(rep, passthroughFile.length());
+            } else if (!isBypassingCache()) {
+                final DerivativeCache cache = CacheFactory.getDerivativeCache();
+                if (cache != null) {
+                    final InputStream is =
+                            cache.newDerivativeImageInputStream(opList);
+                    if (is instanceof FileInputStream) {
+                        final CachedImageRepresentation cachedRep =
+                                new CachedImageRepresentation(
+                                        opList.getOutputFormat().getPreferredMediaType(),
+                                        disposition, is);
+                        cachedRep.setTag(rep.getTag());
+                        cachedRep.setModificationDate(rep.getModificationDate());
+                        applyRange(cachedRep, cachedRep.getSize());
+                        return cachedRep;
+                    } else if (is != null) {
+                        is.close();
+                    }
+                }
+            }
+        }
+        if (opList.hasEffect(processor.getSourceFormat()) &&
+                MemoryBudget.getInstance().getBudget() > 0 &&
+                !isCachedOrInFlight(opList)) {
+            rep.setMemoryPermit(acquireMemoryPermit(info, opList));
+        }
+        return rep;
+    }
+
+    /**
+     * @param opList Frozen operations to apply to the image.
+     * @return Whether the image corresponding to the given operations is in
+     *         the derivative cache, or is being produced for another request.
+     */
+    private boolean isCachedOrInFlight(OperationList opList)
+            throws IOException, CacheException {
+        if (InFlightRenderRegistry.getInstance().isInFlight(opList)) {
+            return true;
+        }
+        if (!isBypassingCache()) {
+            final DerivativeCache cache = CacheFactory.getDerivativeCache();
+            if (cache != null) {
+                try (InputStream is =
+                             cache.newDerivativeImageInputStream(opList)) {
+                    return (is != null);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param info   Source image info.
+     * @param opList Operations to apply to the image.
+     * @return Permit to process the image.
+     * @throws ServiceUnavailableException If the image could not be admitted
+     *                                     in time.
+     */
+    private MemoryBudget.Permit acquireMemoryPermit(final Info info,
+                                                    final OperationList opList) {
+        try {
+            final MemoryBudget.Permit permit =
+                    MemoryBudget.getInstance().tryAcquire(opList, info);
+            if (permit != null) {
+                return permit;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new ServiceUnavailableException();
+    }
+
     /**
      * Reads the information of the source image.
      *
@@ -466,6 +739,83 @@ public abstract class AbstractResource extends ServerResource {
         return info;
     }
 
+    /**
+     * <p>Returns the source format from the given resolver, unless it has
+     * recently failed to resolve the same identifier, in which case its
+     * failure is reproduced from the {@link NegativeResultCache} without
+     * consulting it again.</p>
+     *
+     * <p>The negative result cache is bypassed along with the derivative
+     * cache (see {@link #isBypassingCache()}).</p>
+     *
+     * @param identifier Identifier of the source image.
+     * @param resolver   Resolver to obtain the source format from.
+     * @return Source format.
+     * @throws java.io.FileNotFoundException If the source image does not
+     *                                       exist.
+     * @throws java.nio.file.AccessDeniedException If the source image is not
+     *                                             readable.
+     * @throws IOException If there is some other issue accessing the image.
+     * @since 3.4
+     */
+    protected final Format resolveSourceFormat(final Identifier identifier,
+                                               final Resolver resolver)
+            throws IOException {
+        if (isBypassingCache()) {
+            return resolver.getSourceFormat();
+        }
+        final NegativeResultCache negCache = NegativeResultCache.getInstance();
+        final String resolverName = resolver.getClass().getSimpleName();
+        final IOException failure = negCache.get(identifier, resolverName);
+        if (failure != null) {
+            logger.debug("resolveSourceFormat(): {} recently failed to " +
+                    "resolve {}", resolverName, identifier);
+            throw failure;
+        }
+        try {
+            return resolver.getSourceFormat();
+        } catch (IOException e) {
+            negCache.put(identifier, resolverName, e);
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Sets a strong entity tag and modification date on the given
+     * representation, which Restlet uses to respond to conditional requests
+     * (<code>If-None-Match</code>, <code>If-Modified-Since</code>, etc.) with
+     * <code>304 Not Modified</code> without writing the representation.</p>
+     *
+     * <p>The tag is derived from the operation list and the modification
+     * time of the source image. As the latter is only available from
+     * {@link FileResolver}s, representations of images from other resolvers
+     * are left without validators.</p>
+     *
+     * @param rep      Representation to set validators on.
+     * @param opList   Operations that produce the representation. Should
+     *                 already have had all mutations applied.
+     * @param resolver Resolver of the source image.
+     * @since 3.4
+     */
+    protected final void setValidators(final Representation rep,
+                                       final OperationList opList,
+                                       final Resolver resolver) {
+        if (!(resolver instanceof FileResolver)) {
+            return;
+        }
+        try {
+            final long lastModified =
+                    ((FileResolver) resolver).getFile().lastModified();
+            if (lastModified > 0) {
+                rep.setModificationDate(new Date(lastModified));
+                rep.setTag(new Tag(DigestUtils.sha1Hex(
+                        opList.toString() + "@" + lastModified), false));
+            }
+        } catch (IOException e) {
+            logger.warn("setValidators(): {}", e.getMessage());
+        }
+    }
+
     /**
      * @param name Template pathname, with leading slash.
      * @return Representation using the given template and the common template
@@ -4,16 +4,21 @@ import edu.illinois.library.cantaloupe.image.MediaType;
 import edu.illinois.library.cantaloupe.util.Stopwatch;
 import org.apache.commons.io.IOUtils;
 import org.restlet.data.Disposition;
+import org.restlet.data.Range;
 import org.restlet.representation.OutputRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * Restlet representation for cached images.
+ * <p>Restlet representation for cached images.</p>
+ *
+ * <p>When the cached image is file-backed, its size is known, and a
+ * {@link #setRange(Range) range} of it can be written.</p>
  */
 public class CachedImageRepresentation extends OutputRepresentation {
 
@@ -35,10 +40,30 @@ public class CachedImageRepresentation extends OutputRepresentation {
         super(new org.restlet.data.MediaType(mediaType.toString()));
         this.inputStream = inputStream;
         setDisposition(disposition);
+        if (inputStream instanceof FileInputStream) {
+            try {
+                setSize(((FileInputStream) inputStream).getChannel().size());
+            } catch (IOException e) {
+                logger.warn("CachedImageRepresentation(): {}", e.getMessage());
+            }
+        }
     }
 
     /**
-     * Writes the source image to the given output stream.
+     * Closes the cached image stream, which will not have been consumed if
+     * the response has no body, as in the case of a <code>HEAD</code> request
+     * or a <code>304 Not Modified</code> response.
+     */
+    @Override
+    public void release() {
+        IOUtils.closeQuietly(inputStream);
+        super.release();
+    }
+
+    /**
+     * Writes the source image, or the part of it corresponding to the
+     * {@link #getRange() range}, if one has been set, to the given output
+     * stream.
      *
      * @param outputStream Response body stream supplied by Restlet
      * @throws IOException
@@ -46,9 +71,22 @@ public class CachedImageRepresentation extends OutputRepresentation {
     @Override
     public void write(OutputStream outputStream) throws IOException {
         final Stopwatch watch = new Stopwatch();
-        IOUtils.copy(inputStream, outputStream);
-        logger.debug("Streamed from the cache without resolving in {} msec",
+        try (InputStream is = inputStream) {
+            if (is instanceof FileInputStream) {
+                final FileInputStream fis = (FileInputStream) is;
+                final Range range = getRange();
+                if (range != null) {
+                    FileChannelWriter.write(fis.getChannel(),
+                            range.getIndex(), range.getSize(), outputStream);
+                } else {
+                    FileChannelWriter.write(fis.getChannel(), outputStream);
+                }
+            } else {
+                IOUtils.copy(is, outputStream);
+            }
+        }
+        logger.debug("Streamed from the cache in {} msec",
                 watch.timeElapsed());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package edu.illinois.library.cantaloupe.resource;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Writes files to response output streams with as little copying as
+ * possible.</p>
+ *
+ * <p>When the output stream is Jetty's own response stream (as it is when
+ * Restlet is writing an unencoded entity), the file's channel is handed to
+ * Jetty. Files of at least {@link #MIN_MAPPED_SIZE} are memory-mapped, so
+ * that their contents are written to the socket straight from the page cache;
+ * smaller ones are read into Jetty's pooled direct buffers, bypassing the Java
+ * heap. (Mapping small files would cost more than it saves, and would tie up
+ * mappings until the buffers are garbage-collected.) Other streams fall back
+ * to {@link FileChannel#transferTo}.</p>
+ *
+ * <p>In the Jetty case, the response is completed as part of the write, so
+ * nothing else may be written to the stream afterwards.</p>
+ *
+ * @since 3.4
+ */
+final class FileChannelWriter {
+
+    /** Files this size and larger will be memory-mapped. */
+    static final long MIN_MAPPED_SIZE = 1024 * 1024;
+
+    /**
+     * Writes the remainder of the given channel, from its current position,
+     * to the given output stream.
+     *
+     * @param channel      Channel to read. Will not be closed.
+     * @param outputStream Stream to write to. Will not be closed.
+     */
+    static void write(FileChannel channel,
+                      OutputStream outputStream) throws IOException {
+        final long position = channel.position();
+        final long length = channel.size() - position;
+        write(channel, position, length, outputStream);
+        channel.position(position + length);
+    }
+
+    /**
+     * Writes part of the given channel to the given output stream. The
+     * channel's position is undefined afterwards.
+     *
+     * @param channel      Channel to read. Will not be closed.
+     * @param position     Position in the channel at which to start reading.
+     * @param length       Number of bytes to write.
+     * @param outputStream Stream to write to. Will not be closed.
+     */
+    static void write(FileChannel channel,
+                      long position,
+                      long length,
+                      OutputStream outputStream) throws IOException {
+        if (outputStream instanceof HttpOutput) {
+            final HttpOutput httpOutput = (HttpOutput) outputStream;
+            if (length >= MIN_MAPPED_SIZE && length <= Integer.MAX_VALUE) {
+                httpOutput.sendContent(channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, length));
+                return;
+            } else if (position + length == channel.size()) {
+                // Jetty reads channels to the end.
+                channel.position(position);
+                httpOutput.sendContent(channel);
+                return;
+            } else if (length < MIN_MAPPED_SIZE) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                httpOutput.sendContent(buffer);
+                return;
+            }
+        }
+
+        final WritableByteChannel target = Channels.newChannel(outputStream);
+        long numWritten = 0;
+        while (numWritten < length) {
+            final long n = channel.transferTo(position + numWritten,
+                    length - numWritten, target);
+            if (n <= 0) {
+                break;
+            }
+            numWritten += n;
+        }
+    }
+
+    /**
+     * Writes the given file to the given output stream.
+     *
+     * @param file         File to read.
+     * @param outputStream Stream to write to. Will not be closed.
+     */
+    static void write(Path file, OutputStream outputStream) throws IOException {
+        try (FileChannel channel =
+                     FileChannel.open(file, StandardOpenOption.READ)) {
+            write(channel, outputStream);
+        }
+    }
+
+    private FileChannelWriter() {}
+
+}
@@ -1,10 +1,18 @@
 package edu.illinois.library.cantaloupe.resource;
 
+import edu.illinois.library.cantaloupe.cache.AbortableOutputStream;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
 import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.DerivativeCacheWriter;
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry;
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry.InFlightRender;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.processor.CachedDerivativeDownscaler;
 import edu.illinois.library.cantaloupe.processor.FileProcessor;
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
 import edu.illinois.library.cantaloupe.processor.Processor;
 import edu.illinois.library.cantaloupe.processor.StreamProcessor;
 import edu.illinois.library.cantaloupe.resolver.StreamSource;
@@ -12,33 +20,126 @@ import edu.illinois.library.cantaloupe.util.Stopwatch;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.TeeOutputStream;
 import org.restlet.data.Disposition;
+import org.restlet.data.Range;
 import org.restlet.representation.OutputRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Restlet representation for images.
  */
 public class ImageRepresentation extends OutputRepresentation {
 
+    /**
+     * Wraps the response output stream, and swallows any exceptions from it
+     * (such as when the client has disconnected), so that the image can
+     * still be rendered into the cache and to any followers. Writes after a
+     * failure are discarded.
+     */
+    private static class ClientOutputStream extends FilterOutputStream {
+
+        private final InFlightRender render;
+        private boolean isFailed = false;
+
+        /**
+         * @param outputStream Response output stream to wrap.
+         * @param render       Render being written to the stream and
+         *                     followed, if the image is not being rendered
+         *                     into the cache, in which case rendering is only
+         *                     continued after a failure for as long as the
+         *                     render has followers. May be
+         *                     <code>null</code>.
+         */
+        ClientOutputStream(OutputStream outputStream, InFlightRender render) {
+            super(outputStream);
+            this.render = render;
+        }
+
+        /**
+         * @throws IOException If the response has failed and nobody else
+         *                     needs the render any longer.
+         */
+        private void checkNeeded() throws IOException {
+            if (isFailed && render != null && !render.hasFollowers()) {
+                throw new IOException("The client has disconnected and the " +
+                        "render has no followers");
+            }
+        }
+
+        @Override
+        public void close() {
+            // The response output stream is closed by Restlet.
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!isFailed) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            checkNeeded();
+        }
+
+        private void fail(IOException e) {
+            // This typically happens when the connection has been closed
+            // prematurely, as in the case of e.g. the client hitting the
+            // stop button.
+            LOGGER.info("write(): {}; continuing to render for {}",
+                    e.getMessage(),
+                    (render != null) ? "any followers" : "the cache");
+            isFailed = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!isFailed) {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            checkNeeded();
+        }
+
+    }
+
     private static final Logger LOGGER = LoggerFactory.
             getLogger(ImageRepresentation.class);
 
     private boolean bypassCache = false;
     private Info imageInfo;
+    private volatile MemoryBudget.Permit memoryPermit;
     private OperationList opList;
     private Processor processor;
 
     /**
      * @param imageInfo
      * @param processor   Processor configured for writing the image.
-     * @param opList      Will be frozen, if it isn't already.
+     * @param opList      Will be frozen, if it isn't already. This is a side
+     *                    effect on the caller's instance, which can't be
+     *                    modified afterwards: as it is used to look up
+     *                    {@link InFlightRenderRegistry in-flight renders}
+     *                    and cached images, it must not change while the
+     *                    image is being written.
      * @param disposition
      * @param bypassCache If true, the cache will not be written to nor read
      *                    from, regardless of whether caching is enabled in the
@@ -54,10 +155,42 @@ public class ImageRepresentation extends OutputRepresentation {
         this.imageInfo = imageInfo;
         this.processor = processor;
         this.opList = opList;
+        this.opList.freeze();
         this.bypassCache = bypassCache;
         this.setDisposition(disposition);
     }
 
+    /**
+     * Releases the {@link #setMemoryPermit memory permit}, if any, which will
+     * not have been released if the response has no body, as in the case of
+     * a <code>HEAD</code> request or a <code>304 Not Modified</code> response.
+     */
+    @Override
+    public void release() {
+        super.release();
+        releaseMemoryPermit();
+    }
+
+    private void releaseMemoryPermit() {
+        final MemoryBudget.Permit permit = memoryPermit;
+        memoryPermit = null;
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    /**
+     * @param permit Permit to process the image, acquired before the response
+     *               was committed. It will be released once the image has
+     *               been processed, or as soon as it turns out not to need
+     *               processing. If none is set, one is acquired just before
+     *               processing.
+     * @since 3.4
+     */
+    void setMemoryPermit(MemoryBudget.Permit permit) {
+        this.memoryPermit = permit;
+    }
+
     /**
      * Writes the image requested in the constructor to the given output
      * stream, either retrieving it from the derivative cache, or getting it
@@ -67,64 +200,74 @@ public class ImageRepresentation extends OutputRepresentation {
      */
     @Override
     public void write(OutputStream responseOutputStream) throws IOException {
+        try {
+            writeImage(responseOutputStream);
+        } finally {
+            releaseMemoryPermit();
+        }
+    }
+
+    private void writeImage(OutputStream responseOutputStream)
+            throws IOException {
         // N.B. We don't need to close outputStream after writing to it;
         // Restlet will take care of that.
+        final Range range = getRange();
+        if (range != null) {
+            // Ranges are only ever set on passthrough images, which are
+            // written straight from the source file; there would be no sense
+            // in caching part of one.
+            final Stopwatch watch = new Stopwatch();
+            try (FileChannel channel = FileChannel.open(
+                    getPassthroughFile().toPath(), StandardOpenOption.READ)) {
+                FileChannelWriter.write(channel, range.getIndex(),
+                        range.getSize(), responseOutputStream);
+            }
+            LOGGER.debug("Streamed {} bytes at offset {} with no processing " +
+                            "in {} msec: {}", range.getSize(), range.getIndex(),
+                    watch.timeElapsed(), opList);
+            return;
+        }
         if (!bypassCache) {
-            // The cache will be null if caching is disabled.
-            final DerivativeCache cache = CacheFactory.getDerivativeCache();
-            if (cache != null) {
-                // Try to get the image from the cache.
-                try (InputStream cacheInputStream =
-                             cache.newDerivativeImageInputStream(opList)) {
-                    if (cacheInputStream != null) {
-                        // The image is available in the cache; write it to the
-                        // response output stream.
-                        final Stopwatch watch = new Stopwatch();
-                        IOUtils.copy(cacheInputStream, responseOutputStream);
-
-                        LOGGER.debug("Streamed from {} in {} msec: {}",
-                                cache.getClass().getSimpleName(),
-                                watch.timeElapsed(),
-                                opList);
-                    } else {
-                        // Create a TeeOutputStream to write to the response
-                        // output stream and the cache pseudo-simultaneously.
-                        //
-                        // N.B.: The contract for this method says we can't
-                        // close responseOutputStream, which means we also
-                        // can't close teeOutputStream (because that would
-                        // close its wrapped streams). So, we have to leave it
-                        // up to the finalizer. But, when the finalizer closes
-                        // teeOutputStream, the end result will be close()
-                        // having been called twice on both of its wrapped
-                        // streams. So, it's important that these two output
-                        // streams' close() methods can deal with being called
-                        // twice.
-                        try (OutputStream cacheOutputStream =
-                                     cache.newDerivativeImageOutputStream(opList)) {
-
-                            OutputStream teeStream = new TeeOutputStream(
-                                    responseOutputStream, cacheOutputStream);
-                            doWrite(teeStream);
-                        } catch (Exception e) {
-                            // This typically happens when the connection has
-                            // been closed prematurely, as in the case of e.g.
-                            // the client hitting the stop button. The cached
-                            // image has been incompletely written and is
-                            // corrupt, so it must be purged.
-                            LOGGER.info("write(): {}", e.getMessage());
-                            cache.purge(opList);
+            try {
+                // The cache will be null if caching is disabled.
+                final DerivativeCache cache = CacheFactory.getDerivativeCache();
+                if (cache != null) {
+                    // Try to get the image from the cache.
+                    try (InputStream cacheInputStream =
+                                 cache.newDerivativeImageInputStream(opList)) {
+                        if (cacheInputStream != null) {
+                            releaseMemoryPermit();
+                            // The image is available in the cache; write it
+                            // to the response output stream. If it's
+                            // file-backed, avoid copying it through the heap.
+                            final Stopwatch watch = new Stopwatch();
+                            if (cacheInputStream instanceof FileInputStream) {
+                                FileChannelWriter.write(
+                                        ((FileInputStream) cacheInputStream).getChannel(),
+                                        responseOutputStream);
+                            } else {
+                                IOUtils.copy(cacheInputStream,
+                                        responseOutputStream);
+                            }
+
+                            LOGGER.debug("Streamed from {} in {} msec: {}",
+                                    cache.getClass().getSimpleName(),
+                                    watch.timeElapsed(),
+                                    opList);
+                            return;
                         }
                     }
-                } catch (Exception e) {
-                    throw new IOException(e);
-                }
-            } else {
-                try {
+                } else if (getPassthroughFile() != null) {
+                    // There's nothing to coalesce when streaming a file
+                    // through, so write it straight to the response.
                     doWrite(responseOutputStream);
-                } catch (Exception e) {
-                    throw new IOException(e);
+                    return;
                 }
+                writeCoalesced(responseOutputStream, cache);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
             }
         } else {
             try {
@@ -135,6 +278,194 @@ public class ImageRepresentation extends OutputRepresentation {
         }
     }
 
+    /**
+     * @return Source file, if the operations are effectively a no-op and the
+     *         processor reads from a file, in which case it can be streamed
+     *         through with no processing; otherwise <code>null</code>.
+     * @since 3.4
+     */
+    public File getPassthroughFile() {
+        if (!opList.hasEffect(processor.getSourceFormat()) &&
+                processor instanceof FileProcessor) {
+            return ((FileProcessor) processor).getSourceFile();
+        }
+        return null;
+    }
+
+    /**
+     * <p>Produces the image using {@link #doWrite(OutputStream)}, unless an
+     * identical image is already being produced in another thread, in which
+     * case that one is streamed to the response instead.</p>
+     *
+     * <p>If the other thread fails before any of its output has been sent,
+     * the image is produced independently.</p>
+     *
+     * @param responseOutputStream Response body output stream.
+     * @param cache                Derivative cache to write to. May be
+     *                             <code>null</code>.
+     * @see InFlightRenderRegistry
+     */
+    private void writeCoalesced(OutputStream responseOutputStream,
+                                DerivativeCache cache) throws Exception {
+        InFlightRender render =
+                InFlightRenderRegistry.getInstance().acquire(opList);
+        if (!render.isLeader()) {
+            releaseMemoryPermit();
+            final Stopwatch watch = new Stopwatch();
+            if (copyFromInFlightRender(render, responseOutputStream)) {
+                LOGGER.debug("Streamed from an in-flight render in {} msec: {}",
+                        watch.timeElapsed(), opList);
+                return;
+            }
+            LOGGER.info("write(): in-flight render failed; rendering " +
+                    "independently: {}", opList);
+            render = InFlightRenderRegistry.getInstance().acquire(opList);
+            if (!render.isLeader()) {
+                // Someone else has already stepped in; no sense in following
+                // a second render that could fail the same way.
+                render = InFlightRenderRegistry.getInstance().
+                        newUnsharedRender(opList);
+            }
+        }
+        try {
+            writeAsLeader(render, responseOutputStream, cache);
+        } finally {
+            render.abort();
+        }
+    }
+
+    /**
+     * @param render               In-flight render to follow.
+     * @param responseOutputStream Response body output stream.
+     * @return <code>true</code> if the render was streamed in its entirety;
+     *         <code>false</code> if it failed before anything was streamed.
+     * @throws IOException If the render failed after some of it had already
+     *                     been streamed, or the response could not be
+     *                     written.
+     */
+    private boolean copyFromInFlightRender(InFlightRender render,
+                                           OutputStream responseOutputStream)
+            throws IOException {
+        final byte[] buffer = new byte[8192];
+        long numCopied = 0;
+        try (InputStream inputStream = render.newInputStream()) {
+            while (true) {
+                int n;
+                try {
+                    n = inputStream.read(buffer);
+                } catch (IOException e) {
+                    if (numCopied == 0) {
+                        return false;
+                    }
+                    throw e;
+                }
+                if (n == -1) {
+                    return true;
+                }
+                responseOutputStream.write(buffer, 0, n);
+                numCopied += n;
+            }
+        }
+    }
+
+    /**
+     * @param render               Render to lead.
+     * @param responseOutputStream Response body output stream.
+     * @param cache                Derivative cache to write to. May be
+     *                             <code>null</code>.
+     */
+    private void writeAsLeader(InFlightRender render,
+                               OutputStream responseOutputStream,
+                               DerivativeCache cache) throws Exception {
+        if (cache != null) {
+            // If the client disconnects, keep rendering, so that the image
+            // can still be cached and streamed to any followers.
+            final OutputStream clientOutputStream =
+                    new ClientOutputStream(responseOutputStream, null);
+            final boolean isSuccessful = DerivativeCacheWriter.isEnabled() ?
+                    writeAndCacheAsync(render, clientOutputStream, cache) :
+                    writeAndCache(render, clientOutputStream, cache);
+            if (isSuccessful) {
+                render.complete();
+            }
+        } else {
+            // If the client disconnects, keep rendering for as long as there
+            // are followers to stream it to.
+            doWrite(new TeeOutputStream(
+                    new ClientOutputStream(responseOutputStream, render),
+                    render.getOutputStream()));
+            render.complete();
+        }
+    }
+
+    /**
+     * Renders the image to the response, the cache, and any followers
+     * pseudo-simultaneously.
+     *
+     * @return Whether the image was rendered successfully. If not, the
+     *         render has been failed.
+     */
+    private boolean writeAndCache(InFlightRender render,
+                                  OutputStream responseOutputStream,
+                                  DerivativeCache cache) throws Exception {
+        // N.B.: The contract for write() says we can't close
+        // responseOutputStream, which means we also can't close
+        // teeOutputStream (because that would close its wrapped streams).
+        // So, we have to leave it up to the finalizer. But, when the
+        // finalizer closes teeOutputStream, the end result will be close()
+        // having been called twice on both of its wrapped streams. So, it's
+        // important that these output streams' close() methods can deal with
+        // being called twice.
+        OutputStream cacheOutputStream = null;
+        try {
+            cacheOutputStream = cache.newDerivativeImageOutputStream(opList);
+            OutputStream teeStream = new TeeOutputStream(
+                    responseOutputStream,
+                    new TeeOutputStream(cacheOutputStream,
+                            render.getOutputStream()));
+            doWrite(teeStream);
+            cacheOutputStream.close();
+        } catch (Exception e) {
+            // The cached image has been incompletely written and is corrupt,
+            // so it must be discarded rather than committed, and purged in
+            // case the cache can't discard it.
+            LOGGER.info("write(): {}", e.getMessage());
+            render.fail(e);
+            if (cacheOutputStream != null) {
+                AbortableOutputStream.abortOrClose(cacheOutputStream);
+            }
+            cache.purge(opList);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Renders the image to the response and any followers, while capturing
+     * it for writing to the cache in the background by the
+     * {@link DerivativeCacheWriter}.
+     *
+     * @return Whether the image was rendered successfully. If not, the
+     *         render has been failed, and the capture discarded.
+     */
+    private boolean writeAndCacheAsync(InFlightRender render,
+                                       OutputStream responseOutputStream,
+                                       DerivativeCache cache) {
+        try (DerivativeCacheWriter.Capture capture = DerivativeCacheWriter.
+                getInstance().newCapture(cache, opList)) {
+            OutputStream teeStream = new TeeOutputStream(
+                    responseOutputStream,
+                    new TeeOutputStream(capture, render.getOutputStream()));
+            doWrite(teeStream);
+            capture.commit();
+        } catch (Exception e) {
+            LOGGER.info("write(): {}", e.getMessage());
+            render.fail(e);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @param outputStream Either the response output stream, or a tee stream
      *                     for writing to the response and the cache
@@ -145,11 +476,9 @@ public class ImageRepresentation extends OutputRepresentation {
         // If the operations are effectively a no-op, the source image can be
         // streamed through with no processing.
         if (!opList.hasEffect(processor.getSourceFormat())) {
-            if (processor instanceof FileProcessor &&
-                    ((FileProcessor) processor).getSourceFile() != null) {
-                final File sourceFile =
-                        ((FileProcessor) processor).getSourceFile();
-                Files.copy(sourceFile.toPath(), outputStream);
+            final File sourceFile = getPassthroughFile();
+            if (sourceFile != null) {
+                FileChannelWriter.write(sourceFile.toPath(), outputStream);
             } else {
                 final StreamSource streamSource =
                         ((StreamProcessor) processor).getStreamSource();
@@ -160,12 +489,69 @@ public class ImageRepresentation extends OutputRepresentation {
             LOGGER.debug("Streamed with no processing in {} msec: {}",
                     watch.timeElapsed(), opList);
         } else {
-            processor.process(opList, imageInfo, outputStream);
+            // Followers of this render and cache hits never get here, so
+            // they don't take up any of the memory budget.
+            try (MemoryBudget.Permit permit = takeMemoryPermit()) {
+                if (deriveFromCache(outputStream)) {
+                    LOGGER.debug("Derived from cached derivatives in {} msec: {}",
+                            watch.timeElapsed(), opList);
+                } else {
+                    processor.process(opList, imageInfo, outputStream);
 
-            LOGGER.debug("{} processed in {} msec: {}",
-                    processor.getClass().getSimpleName(),
-                    watch.timeElapsed(), opList);
+                    LOGGER.debug("{} processed in {} msec: {}",
+                            processor.getClass().getSimpleName(),
+                            watch.timeElapsed(), opList);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link #setMemoryPermit memory permit}, if any. Otherwise,
+     * as when the image was expected to be served from the cache or from
+     * another request's render but wasn't, acquires one from the
+     * {@link MemoryBudget}, which may mean waiting for other images to finish
+     * processing. As the response has been committed by then, a rejection can
+     * only fail it.
+     *
+     * @return Permit, to be closed once the image has been processed.
+     * @throws IOException If the image could not be admitted in time.
+     */
+    private MemoryBudget.Permit takeMemoryPermit() throws IOException {
+        final MemoryBudget.Permit memoryPermit = this.memoryPermit;
+        if (memoryPermit != null) {
+            return memoryPermit;
+        }
+        try {
+            final MemoryBudget.Permit permit =
+                    MemoryBudget.getInstance().tryAcquire(opList, imageInfo);
+            if (permit != null) {
+                return permit;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        throw new IOException("The server is too busy to produce the " +
+                "requested image: " + opList);
+    }
+
+    /**
+     * @param outputStream Stream to write the derived image to.
+     * @return Whether the image was derived from higher-resolution images in
+     *         the derivative cache, in which case it has been written to the
+     *         given stream; otherwise nothing has been written.
+     * @see CachedDerivativeDownscaler
+     */
+    private boolean deriveFromCache(OutputStream outputStream)
+            throws IOException {
+        if (bypassCache || !Configuration.getInstance().getBoolean(
+                Key.DERIVATIVE_CACHE_DERIVE_FROM_CACHED, false)) {
+            return false;
         }
+        final DerivativeCache cache = CacheFactory.getDerivativeCache();
+        return cache != null && new CachedDerivativeDownscaler(cache).
+                write(opList, imageInfo, outputStream);
     }
 
 }
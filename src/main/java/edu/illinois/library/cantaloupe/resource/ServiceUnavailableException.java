@@ -0,0 +1,17 @@
+package edu.illinois.library.cantaloupe.resource;
+
+import org.restlet.data.Status;
+import org.restlet.resource.ResourceException;
+
+/**
+ * @since 3.4
+ */
+class ServiceUnavailableException extends ResourceException {
+
+    ServiceUnavailableException() {
+        super(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                "The server is too busy to produce the requested image. " +
+                        "Please try again later.");
+    }
+
+}
@@ -0,0 +1,44 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.cache.CacheMetrics;
+import edu.illinois.library.cantaloupe.resource.JSONRepresentation;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Delete;
+import org.restlet.resource.Get;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports and resets {@link CacheMetrics}.
+ *
+ * @since 3.4
+ */
+public class CacheMetricsResource extends APIResource {
+
+    /**
+     * Resets all metrics.
+     */
+    @Delete
+    public Representation doReset() throws Exception {
+        CacheMetrics.getDerivativeCacheMetrics().reset();
+        CacheMetrics.getSourceCacheMetrics().reset();
+        return new EmptyRepresentation();
+    }
+
+    /**
+     * @return JSON object with <code>derivative_cache</code> and
+     *         <code>source_cache</code> keys.
+     */
+    @Get("json")
+    public Representation getMetrics() throws Exception {
+        final Map<String,Object> map = new LinkedHashMap<>();
+        map.put("derivative_cache",
+                CacheMetrics.getDerivativeCacheMetrics().toMap());
+        map.put("source_cache",
+                CacheMetrics.getSourceCacheMetrics().toMap());
+        return new JSONRepresentation(map);
+    }
+
+}
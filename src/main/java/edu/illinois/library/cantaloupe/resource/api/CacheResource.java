@@ -2,6 +2,8 @@ package edu.illinois.library.cantaloupe.resource.api;
 
 import edu.illinois.library.cantaloupe.cache.Cache;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
+import edu.illinois.library.cantaloupe.cache.NegativeResultCache;
 import org.restlet.representation.EmptyRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Delete;
@@ -14,6 +16,8 @@ public class CacheResource extends APIResource {
         if (cache != null) {
             cache.purge(getIdentifier());
         }
+        InfoCache.getInstance().purge(getIdentifier());
+        NegativeResultCache.getInstance().purge(getIdentifier());
         return new EmptyRepresentation();
     }
 
@@ -0,0 +1,99 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.library.cantaloupe.RestletApplication;
+import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.resource.JSONRepresentation;
+import org.restlet.data.Reference;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Lists and submits {@link CacheWarmingTask cache warming tasks}.
+ *
+ * @since 3.4
+ */
+public class CacheWarmingResource extends APIResource {
+
+    private static final Format DEFAULT_FORMAT = Format.JPG;
+
+    /**
+     * @return JSON array of all remembered tasks.
+     */
+    @Get("json")
+    public Representation getTasks() throws Exception {
+        final List<Map<String,Object>> tasks = CacheWarmingService.
+                getInstance().getTasks().stream().
+                map(CacheWarmingTask::toMap).
+                collect(Collectors.toList());
+        return new JSONRepresentation(tasks);
+    }
+
+    /**
+     * Accepts a JSON object with an <code>identifiers</code> array and an
+     * optional <code>format</code> extension.
+     *
+     * @param rep POSTed JSON task.
+     */
+    @Post("json")
+    public Representation submitTask(Representation rep) throws Exception {
+        if (CacheFactory.getDerivativeCache() == null) {
+            throw new ResourceException(Status.CLIENT_ERROR_CONFLICT,
+                    "No derivative cache is available.");
+        }
+
+        final List<Identifier> identifiers = new ArrayList<>();
+        Format format = DEFAULT_FORMAT;
+        try {
+            final JsonNode root = new ObjectMapper().readTree(rep.getStream());
+            if (root != null && root.path("identifiers").isArray()) {
+                for (JsonNode node : root.get("identifiers")) {
+                    identifiers.add(new Identifier(node.asText()));
+                }
+            }
+            if (root != null && root.hasNonNull("format")) {
+                format = Format.valueOf(
+                        root.get("format").asText().toUpperCase());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+                    "Invalid request body: " + e.getMessage());
+        }
+        if (identifiers.isEmpty()) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+                    "The request body does not contain any identifiers.");
+        }
+
+        final Reference publicRootRef = getPublicRootRef(
+                getRequest().getRootRef(), getRequest().getHeaders());
+        final String imageBaseUri =
+                publicRootRef + RestletApplication.IIIF_2_PATH;
+        final CacheWarmingTask task;
+        try {
+            task = CacheWarmingService.getInstance().submit(identifiers,
+                    format, imageBaseUri);
+        } catch (RejectedExecutionException e) {
+            throw new ResourceException(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                    "Too many cache warming tasks are queued.");
+        }
+
+        getResponse().setStatus(Status.SUCCESS_ACCEPTED);
+        getResponse().setLocationRef(publicRootRef +
+                RestletApplication.CACHE_WARMING_PATH + "/" + task.getID());
+        return new JSONRepresentation(task.toMap());
+    }
+
+}
@@ -0,0 +1,188 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Runs {@link CacheWarmingTask}s in the background.</p>
+ *
+ * <p>Warming is meant to make use of spare capacity without competing with
+ * live requests, so tasks run in a small pool (sized by
+ * {@link Key#CACHE_WARMING_THREADS}) of minimum-priority threads, and the
+ * rate at which all of them together render derivatives is limited by
+ * {@link Key#CACHE_WARMING_MAX_RATE}.</p>
+ *
+ * @since 3.4
+ */
+final class CacheWarmingService {
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(CacheWarmingService.class);
+
+    private static final int DEFAULT_NUM_THREADS = 1;
+
+    /**
+     * Maximum number of tasks that can be waiting to run.
+     */
+    static final int MAX_QUEUED_TASKS = 100;
+
+    /**
+     * Maximum number of tasks to remember, including finished ones.
+     */
+    private static final int MAX_REMEMBERED_TASKS = 100;
+
+    private static volatile CacheWarmingService instance;
+
+    private final ThreadPoolExecutor executor;
+
+    private long nextPermitNanos = System.nanoTime();
+
+    /** Guarded by itself. */
+    private final Map<String,CacheWarmingTask> tasks = new LinkedHashMap<>();
+
+    static CacheWarmingService getInstance() {
+        CacheWarmingService service = instance;
+        if (service == null) {
+            synchronized (CacheWarmingService.class) {
+                service = instance;
+                if (service == null) {
+                    final int numThreads = Configuration.getInstance().
+                            getInt(Key.CACHE_WARMING_THREADS,
+                                    DEFAULT_NUM_THREADS);
+                    service = new CacheWarmingService(numThreads);
+                    instance = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * @param numThreads Number of tasks that can run concurrently.
+     */
+    CacheWarmingService(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(numThreads, numThreads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_TASKS),
+                r -> {
+                    Thread thread = new Thread(r,
+                            "cache-warmer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        LOGGER.info("Cache warming threads: {}", numThreads);
+    }
+
+    /**
+     * Cancels the task with the given ID. Queued tasks are removed from the
+     * queue; running ones stop after the tile they are currently rendering.
+     *
+     * @param id Task ID.
+     * @return Whether the task exists.
+     */
+    boolean cancel(String id) {
+        final CacheWarmingTask task = getTask(id);
+        if (task != null) {
+            task.cancel();
+            executor.remove(task);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param id Task ID.
+     * @return Task with the given ID, or <code>null</code> if there is no
+     *         such task or it has been forgotten.
+     */
+    CacheWarmingTask getTask(String id) {
+        synchronized (tasks) {
+            return tasks.get(id);
+        }
+    }
+
+    /**
+     * @return All remembered tasks in order of submission.
+     */
+    List<CacheWarmingTask> getTasks() {
+        synchronized (tasks) {
+            return new ArrayList<>(tasks.values());
+        }
+    }
+
+    /**
+     * Creates a task and queues it for execution.
+     *
+     * @param identifiers  Identifiers of the images to warm.
+     * @param format       Output format of the tiles.
+     * @param imageBaseUri Base URI of the IIIF Image API 2.x endpoint.
+     * @return The queued task.
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    CacheWarmingTask submit(List<Identifier> identifiers,
+                            Format format,
+                            String imageBaseUri) {
+        final CacheWarmingTask task = new CacheWarmingTask(identifiers,
+                format, imageBaseUri, this);
+        executor.execute(task);
+        synchronized (tasks) {
+            tasks.put(task.getID(), task);
+            // Forget the oldest finished tasks.
+            final Iterator<CacheWarmingTask> it = tasks.values().iterator();
+            while (tasks.size() > MAX_REMEMBERED_TASKS && it.hasNext()) {
+                if (it.next().isFinished()) {
+                    it.remove();
+                }
+            }
+        }
+        LOGGER.info("submit(): queued task {} for {} images",
+                task.getID(), identifiers.size());
+        return task;
+    }
+
+    /**
+     * Blocks until another derivative may be rendered, according to
+     * {@link Key#CACHE_WARMING_MAX_RATE}, which is read on every call so that
+     * it can be adjusted while tasks are running.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void throttle() throws InterruptedException {
+        final double maxRate = Configuration.getInstance().
+                getDouble(Key.CACHE_WARMING_MAX_RATE, 0);
+        if (maxRate <= 0) {
+            return;
+        }
+        final long intervalNanos = (long) (1000000000 / maxRate);
+        final long waitNanos;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long permitNanos = Math.max(now, nextPermitNanos);
+            nextPermitNanos = permitNanos + intervalNanos;
+            waitNanos = permitNanos - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+}
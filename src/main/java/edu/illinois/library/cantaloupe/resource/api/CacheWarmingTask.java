@@ -0,0 +1,335 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.cache.AbortableOutputStream;
+import edu.illinois.library.cantaloupe.cache.CacheDisabledException;
+import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry;
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry.InFlightRender;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.processor.FileProcessor;
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
+import edu.illinois.library.cantaloupe.processor.Processor;
+import edu.illinois.library.cantaloupe.processor.ProcessorConnector;
+import edu.illinois.library.cantaloupe.processor.ProcessorFactory;
+import edu.illinois.library.cantaloupe.processor.StreamProcessor;
+import edu.illinois.library.cantaloupe.processor.UnsupportedOutputFormatException;
+import edu.illinois.library.cantaloupe.resolver.Resolver;
+import edu.illinois.library.cantaloupe.resolver.ResolverFactory;
+import edu.illinois.library.cantaloupe.resource.RequestContext;
+import edu.illinois.library.cantaloupe.resource.iiif.v2.TileProfile;
+import edu.illinois.library.cantaloupe.util.Stopwatch;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Pre-warms the derivative cache with the infos of a list of images, and
+ * with all of the tiles that IIIF Image API 2.x clients would request of
+ * them (see {@link TileProfile}).</p>
+ *
+ * <p>Tiles that are already cached, or that are being rendered for a live
+ * request at the same time, are skipped. Rendering is paced by
+ * {@link CacheWarmingService#throttle()}, and tiles that need processing
+ * are admitted to the {@link MemoryBudget} like live requests.</p>
+ *
+ * @since 3.4
+ */
+final class CacheWarmingTask implements Runnable {
+
+    enum Status {
+        QUEUED, RUNNING, SUCCEEDED, CANCELED
+    }
+
+    private static final Logger LOGGER = LoggerFactory.
+            getLogger(CacheWarmingTask.class);
+
+    private final String id = UUID.randomUUID().toString();
+    private final List<Identifier> identifiers;
+    private final Format format;
+    private final String imageBaseUri;
+    private final CacheWarmingService service;
+
+    private volatile Date endTime;
+    private volatile boolean isCanceled = false;
+    private volatile Date startTime;
+    private volatile Status status = Status.QUEUED;
+
+    private final AtomicInteger numImagesFailed = new AtomicInteger();
+    private final AtomicInteger numImagesProcessed = new AtomicInteger();
+    private final AtomicInteger numTiles = new AtomicInteger();
+    private final AtomicInteger numTilesFailed = new AtomicInteger();
+    private final AtomicInteger numTilesRendered = new AtomicInteger();
+    private final AtomicInteger numTilesSkipped = new AtomicInteger();
+
+    /**
+     * @param identifiers  Identifiers of the images to warm.
+     * @param format       Output format of the tiles.
+     * @param imageBaseUri Base URI of the IIIF Image API 2.x endpoint.
+     * @param service      Service that will run the instance.
+     */
+    CacheWarmingTask(List<Identifier> identifiers,
+                     Format format,
+                     String imageBaseUri,
+                     CacheWarmingService service) {
+        this.identifiers = Collections.unmodifiableList(
+                new ArrayList<>(identifiers));
+        this.format = format;
+        this.imageBaseUri = imageBaseUri;
+        this.service = service;
+    }
+
+    /**
+     * Stops the task after the tile currently being rendered, if any.
+     */
+    void cancel() {
+        isCanceled = true;
+        if (Status.QUEUED.equals(status)) {
+            status = Status.CANCELED;
+            endTime = new Date();
+        }
+    }
+
+    String getID() {
+        return id;
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    boolean isFinished() {
+        return Status.SUCCEEDED.equals(status) ||
+                Status.CANCELED.equals(status);
+    }
+
+    /**
+     * Acquires a permit to process a tile from the {@link MemoryBudget}, so
+     * that warming doesn't take more than its share of memory away from live
+     * requests.
+     *
+     * @return Permit, to be closed once the tile has been processed.
+     * @throws IOException If the tile could not be admitted in time.
+     */
+    private static MemoryBudget.Permit acquireMemoryPermit(OperationList opList,
+                                                           Info info)
+            throws IOException, InterruptedException {
+        final MemoryBudget.Permit permit =
+                MemoryBudget.getInstance().tryAcquire(opList, info);
+        if (permit == null) {
+            throw new IOException("Not admitted to the memory budget in time");
+        }
+        return permit;
+    }
+
+    private Info getOrReadInfo(Identifier identifier,
+                               DerivativeCache cache,
+                               Processor processor) throws Exception {
+        final InfoCache infoCache = InfoCache.getInstance();
+        Info info = infoCache.get(identifier);
+        if (info == null) {
+            info = cache.getImageInfo(identifier);
+            if (info == null) {
+                info = processor.readImageInfo();
+                cache.put(identifier, info);
+            }
+            infoCache.put(identifier, info);
+        }
+        return info;
+    }
+
+    private boolean isCached(DerivativeCache cache, OperationList opList)
+            throws Exception {
+        try (InputStream is = cache.newDerivativeImageInputStream(opList)) {
+            return (is != null);
+        }
+    }
+
+    private Processor newProcessor(Identifier identifier,
+                                   Resolver resolver,
+                                   Format sourceFormat) throws Exception {
+        final Processor processor =
+                new ProcessorFactory().newProcessor(sourceFormat);
+        new ProcessorConnector(resolver, processor, identifier).connect();
+        return processor;
+    }
+
+    /**
+     * Renders a tile to the cache, and to any live requests that join it
+     * while it is in flight.
+     */
+    private void render(OperationList opList,
+                        Processor processor,
+                        Info info,
+                        DerivativeCache cache) throws Exception {
+        final InFlightRender render =
+                InFlightRenderRegistry.getInstance().acquire(opList);
+        if (!render.isLeader()) {
+            // A live request is already rendering it into the cache.
+            numTilesSkipped.incrementAndGet();
+            return;
+        }
+        OutputStream cacheOutputStream = null;
+        try {
+            cacheOutputStream = cache.newDerivativeImageOutputStream(opList);
+            final OutputStream os = new TeeOutputStream(cacheOutputStream,
+                    render.getOutputStream());
+            if (!opList.hasEffect(processor.getSourceFormat())) {
+                // Write the source image unaltered, as ImageRepresentation
+                // would.
+                final File sourceFile = (processor instanceof FileProcessor) ?
+                        ((FileProcessor) processor).getSourceFile() : null;
+                if (sourceFile != null) {
+                    Files.copy(sourceFile.toPath(), os);
+                } else {
+                    try (InputStream is = ((StreamProcessor) processor).
+                            getStreamSource().newInputStream()) {
+                        IOUtils.copy(is, os);
+                    }
+                }
+            } else {
+                try (MemoryBudget.Permit permit =
+                             acquireMemoryPermit(opList, info)) {
+                    processor.process(opList, info, os);
+                }
+            }
+            cacheOutputStream.close();
+            render.complete();
+            numTilesRendered.incrementAndGet();
+        } catch (Exception e) {
+            render.fail(e);
+            if (cacheOutputStream != null) {
+                AbortableOutputStream.abortOrClose(cacheOutputStream);
+            }
+            cache.purge(opList);
+            throw e;
+        } finally {
+            render.abort();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isCanceled) {
+            return;
+        }
+        status = Status.RUNNING;
+        startTime = new Date();
+        LOGGER.info("run(): warming {} images [task {}]",
+                identifiers.size(), id);
+        try {
+            for (Identifier identifier : identifiers) {
+                if (isCanceled) {
+                    break;
+                }
+                try {
+                    warm(identifier);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isCanceled = true;
+                    break;
+                } catch (Exception e) {
+                    LOGGER.warn("run(): failed to warm {}: {}",
+                            identifier, e.getMessage());
+                    numImagesFailed.incrementAndGet();
+                }
+                numImagesProcessed.incrementAndGet();
+            }
+        } finally {
+            endTime = new Date();
+            status = isCanceled ? Status.CANCELED : Status.SUCCEEDED;
+            LOGGER.info("run(): {} [task {}]: {} tiles rendered, {} " +
+                            "skipped, {} failed",
+                    status, id, numTilesRendered.get(),
+                    numTilesSkipped.get(), numTilesFailed.get());
+        }
+    }
+
+    /**
+     * @return Map representation of the task's progress, suitable for
+     *         serializing to JSON.
+     */
+    Map<String,Object> toMap() {
+        final Map<String,Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("status", status.toString().toLowerCase());
+        map.put("format", format.getPreferredExtension());
+        map.put("start_time", startTime);
+        map.put("end_time", endTime);
+        map.put("num_images", identifiers.size());
+        map.put("num_images_processed", numImagesProcessed.get());
+        map.put("num_images_failed", numImagesFailed.get());
+        map.put("num_tiles", numTiles.get());
+        map.put("num_tiles_rendered", numTilesRendered.get());
+        map.put("num_tiles_skipped", numTilesSkipped.get());
+        map.put("num_tiles_failed", numTilesFailed.get());
+        return map;
+    }
+
+    private void warm(Identifier identifier) throws Exception {
+        final DerivativeCache cache = CacheFactory.getDerivativeCache();
+        if (cache == null) {
+            throw new CacheDisabledException("No derivative cache is available");
+        }
+        final Resolver resolver = new ResolverFactory().newResolver(identifier);
+        resolver.setContext(new RequestContext());
+        final Format sourceFormat = resolver.getSourceFormat();
+
+        Processor processor = newProcessor(identifier, resolver, sourceFormat);
+        if (!processor.getAvailableOutputFormats().contains(format)) {
+            throw new UnsupportedOutputFormatException(format);
+        }
+        final Info info = getOrReadInfo(identifier, cache, processor);
+        final List<OperationList> opLists = new TileProfile(info).
+                newOperationLists(identifier, format, imageBaseUri);
+        numTiles.addAndGet(opLists.size());
+
+        for (OperationList opList : opLists) {
+            if (isCanceled) {
+                return;
+            }
+            if (isCached(cache, opList)) {
+                numTilesSkipped.incrementAndGet();
+                continue;
+            }
+            service.throttle();
+            final Stopwatch watch = new Stopwatch();
+            try {
+                // Processors can't necessarily be reused.
+                if (processor == null) {
+                    processor = newProcessor(identifier, resolver, sourceFormat);
+                }
+                render(opList, processor, info, cache);
+                LOGGER.debug("warm(): rendered in {} msec: {}",
+                        watch.timeElapsed(), opList);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.warn("warm(): failed to render {}: {}",
+                        opList, e.getMessage());
+                numTilesFailed.incrementAndGet();
+            }
+            processor = null;
+        }
+    }
+
+}
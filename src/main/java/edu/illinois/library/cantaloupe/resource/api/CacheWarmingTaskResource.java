@@ -0,0 +1,40 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.resource.JSONRepresentation;
+import org.restlet.data.Status;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Delete;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Reports the progress of, and cancels, a {@link CacheWarmingTask}.
+ *
+ * @since 3.4
+ */
+public class CacheWarmingTaskResource extends APIResource {
+
+    private String getTaskID() {
+        return (String) getRequest().getAttributes().get("id");
+    }
+
+    @Delete
+    public Representation cancelTask() throws Exception {
+        if (!CacheWarmingService.getInstance().cancel(getTaskID())) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        return new EmptyRepresentation();
+    }
+
+    @Get("json")
+    public Representation getTask() throws Exception {
+        final CacheWarmingTask task =
+                CacheWarmingService.getInstance().getTask(getTaskID());
+        if (task == null) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        return new JSONRepresentation(task.toMap());
+    }
+
+}
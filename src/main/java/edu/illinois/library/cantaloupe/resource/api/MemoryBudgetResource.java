@@ -0,0 +1,34 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
+import edu.illinois.library.cantaloupe.resource.JSONRepresentation;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Delete;
+import org.restlet.resource.Get;
+
+/**
+ * Reports and resets the statistics of the {@link MemoryBudget}.
+ *
+ * @since 3.4
+ */
+public class MemoryBudgetResource extends APIResource {
+
+    /**
+     * Resets all statistics.
+     */
+    @Delete
+    public Representation doReset() throws Exception {
+        MemoryBudget.getInstance().reset();
+        return new EmptyRepresentation();
+    }
+
+    /**
+     * @return JSON object of {@link MemoryBudget#toMap()}.
+     */
+    @Get("json")
+    public Representation getMetrics() throws Exception {
+        return new JSONRepresentation(MemoryBudget.getInstance().toMap());
+    }
+
+}
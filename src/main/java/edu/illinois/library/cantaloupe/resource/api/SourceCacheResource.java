@@ -0,0 +1,58 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.SourceCache;
+import edu.illinois.library.cantaloupe.resource.JSONRepresentation;
+import org.restlet.data.Parameter;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+import java.util.Map;
+
+/**
+ * Reports the size of the source cache and access statistics of the images
+ * in it.
+ *
+ * @since 3.4
+ */
+public class SourceCacheResource extends APIResource {
+
+    private static final int DEFAULT_LIMIT = 1000;
+
+    private int getLimit() {
+        final Parameter param =
+                getReference().getQueryAsForm().getFirst("limit");
+        if (param != null) {
+            try {
+                return Math.max(0, Integer.parseInt(param.getValue()));
+            } catch (NumberFormatException e) {
+                throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST,
+                        "Invalid limit: " + param.getValue());
+            }
+        }
+        return DEFAULT_LIMIT;
+    }
+
+    /**
+     * @return JSON object with the maximum and current size of the source
+     *         cache, its admission policy, and an array of entries for the
+     *         most recently accessed images, limited by the
+     *         <code>limit</code> query argument.
+     * @throws ResourceException with status 404 if the source cache is
+     *         disabled or doesn't support statistics.
+     */
+    @Get("json")
+    public Representation getStatistics() throws Exception {
+        final int limit = getLimit();
+        final SourceCache cache = CacheFactory.getSourceCache();
+        final Map<String,Object> stats = (cache != null) ?
+                cache.getSourceImageStatistics(limit) : null;
+        if (stats == null) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        return new JSONRepresentation(stats);
+    }
+
+}
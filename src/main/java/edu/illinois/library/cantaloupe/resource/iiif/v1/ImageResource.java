@@ -2,7 +2,7 @@ package edu.illinois.library.cantaloupe.resource.iiif.v1;
 
 import edu.illinois.library.cantaloupe.cache.Cache;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
-import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Format;
@@ -15,9 +15,7 @@ import edu.illinois.library.cantaloupe.processor.ProcessorFactory;
 import edu.illinois.library.cantaloupe.processor.UnsupportedSourceFormatException;
 import edu.illinois.library.cantaloupe.resolver.Resolver;
 import edu.illinois.library.cantaloupe.resolver.ResolverFactory;
-import edu.illinois.library.cantaloupe.resource.CachedImageRepresentation;
 import edu.illinois.library.cantaloupe.processor.ProcessorConnector;
-import edu.illinois.library.cantaloupe.resource.ImageRepresentation;
 import edu.illinois.library.cantaloupe.resource.RequestContext;
 import org.apache.commons.lang3.StringUtils;
 import org.restlet.data.Disposition;
@@ -28,7 +26,6 @@ import org.restlet.resource.Get;
 
 import java.awt.Dimension;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -67,7 +64,7 @@ public class ImageResource extends IIIF1Resource {
         // Determine the format of the source image.
         Format sourceFormat;
         try {
-            sourceFormat = resolver.getSourceFormat();
+            sourceFormat = resolveSourceFormat(identifier, resolver);
         } catch (FileNotFoundException e) { // this needs to be rethrown
             if (config.getBoolean(Key.CACHE_SERVER_PURGE_MISSING, false)) {
                 // if the image was not found, purge it from the cache
@@ -75,6 +72,7 @@ public class ImageResource extends IIIF1Resource {
                 if (cache != null) {
                     cache.purge(identifier);
                 }
+                InfoCache.getInstance().purge(identifier);
             }
             throw e;
         }
@@ -131,18 +129,21 @@ public class ImageResource extends IIIF1Resource {
                         .getFirstValue(RESPONSE_CONTENT_DISPOSITION_QUERY_ARG),
                 ops.getIdentifier(), ops.getOutputFormat());
 
+        ops.applyNonEndpointMutations(fullSize,
+                info.getOrientation(),
+                getCanonicalClientIpAddress(),
+                getReference().toUrl(),
+                getRequest().getHeaders().getValuesMap(),
+                getCookies().getValuesMap());
+
         // If we don't need to resolve first, and are using a cache, and the
         // cache contains an image matching the request, skip all the setup and
         // just return the cached image.
-        final DerivativeCache cache = CacheFactory.getDerivativeCache();
         if (!config.getBoolean(Key.CACHE_SERVER_RESOLVE_FIRST, true)) {
-            if (cache != null) {
-                InputStream inputStream = cache.newDerivativeImageInputStream(ops);
-                if (inputStream != null) {
-                    return new CachedImageRepresentation(
-                            ops.getOutputFormat().getPreferredMediaType(),
-                            disposition, inputStream);
-                }
+            final Representation cachedRep =
+                    newCachedImageRepresentation(ops, disposition, resolver);
+            if (cachedRep != null) {
+                return cachedRep;
             }
         }
 
@@ -153,13 +154,6 @@ public class ImageResource extends IIIF1Resource {
         getBufferedResponseHeaders().add("Link",
                 String.format("<%s>;rel=\"profile\";", complianceLevel.getUri()));
 
-        ops.applyNonEndpointMutations(fullSize,
-                info.getOrientation(),
-                getCanonicalClientIpAddress(),
-                getReference().toUrl(),
-                getRequest().getHeaders().getValuesMap(),
-                getCookies().getValuesMap());
-
         // Find out whether the processor supports the source format by asking
         // it whether it offers any output formats for it.
         if (!availableOutputFormats.contains(ops.getOutputFormat())) {
@@ -172,8 +166,8 @@ public class ImageResource extends IIIF1Resource {
 
         commitCustomResponseHeaders();
 
-        return new ImageRepresentation(info, processor, ops, disposition,
-                isBypassingCache());
+        return newImageRepresentation(info, processor, resolver, ops,
+                disposition);
     }
 
     /**
@@ -45,6 +45,53 @@ class ImageInfoFactory {
                     ServiceFeature.JSON_LD_MEDIA_TYPE,
                     ServiceFeature.PROFILE_LINK_HEADER);
 
+    /**
+     * @param virtualSize Orientation-aware full size of an image.
+     * @return Number of times that the image can be halved in size before
+     *         falling below {@link Key#IIIF_MIN_SIZE}, which is also the
+     *         exponent of the largest advertised scale factor.
+     * @since 3.4
+     */
+    static int getMaxReductionFactor(Dimension virtualSize) {
+        final int minSize = Configuration.getInstance().
+                getInt(Key.IIIF_MIN_SIZE, 64);
+        return ImageInfoUtil.maxReductionFactor(virtualSize, minSize);
+    }
+
+    /**
+     * <p>Finds the tile sizes to advertise for an image. If the image is not
+     * tiled, a tile size close to {@link Key#IIIF_MIN_TILE_SIZE} pixels is
+     * calculated. Otherwise, the smallest multiple of the tile size above
+     * that of each resolution is used.</p>
+     *
+     * @param info Image info.
+     * @return Unique orientation-aware tile sizes.
+     * @since 3.4
+     */
+    static Set<Dimension> getTileSizes(Info info) {
+        final Set<Dimension> uniqueTileSizes = new HashSet<>();
+        final int minTileSize = Configuration.getInstance().
+                getInt(Key.IIIF_MIN_TILE_SIZE, 1024);
+        final Dimension virtualSize = info.getOrientationSize();
+
+        // Find the virtual tile size based on the virtual full image size.
+        final Dimension virtualTileSize =
+                info.getImages().get(0).getOrientationTileSize();
+
+        if (info.getImages().size() == 1 &&
+                virtualTileSize.equals(virtualSize)) {
+            uniqueTileSizes.add(
+                    ImageInfoUtil.smallestTileSize(virtualSize, minTileSize));
+        } else {
+            for (Info.Image image : info.getImages()) {
+                uniqueTileSizes.add(
+                        ImageInfoUtil.smallestTileSize(virtualSize,
+                                image.getOrientationTileSize(), minTileSize));
+            }
+        }
+        return uniqueTileSizes;
+    }
+
     @SuppressWarnings("unchecked")
     ImageInfo<String,Object> newImageInfo(final Identifier identifier,
                                           final String imageUri,
@@ -74,8 +121,7 @@ class ImageInfoFactory {
         /** Minimum size that will be used in info.json "sizes" keys. */
         final int minSize = config.getInt(Key.IIIF_MIN_SIZE, 64);
 
-        final int maxReductionFactor =
-                ImageInfoUtil.maxReductionFactor(virtualSize, minSize);
+        final int maxReductionFactor = getMaxReductionFactor(virtualSize);
         for (double i = 1; i <= Math.pow(2, maxReductionFactor); i *= 2) {
             final int width = (int) Math.round(virtualSize.width / i);
             final int height = (int) Math.round(virtualSize.height / i);
@@ -89,35 +135,10 @@ class ImageInfoFactory {
         // tiles -- this is not a canonical listing of tiles that are
         // actually encoded in the image, but rather a hint to the client as
         // to what can be delivered efficiently.
-        final Set<Dimension> uniqueTileSizes = new HashSet<>();
-
-        final int minTileSize = config.getInt(Key.IIIF_MIN_TILE_SIZE, 1024);
-
-        // Find a tile width and height. If the image is not tiled,
-        // calculate a tile size close to IIIF_MIN_TILE_SIZE pixels.
-        // Otherwise, use the smallest multiple of the tile size above that
-        // of image resolution 0.
         final List<ImageInfo.Tile> tiles = new ArrayList<>();
         imageInfo.put("tiles", tiles);
 
-        final Info.Image firstImage =
-                cacheInfo.getImages().get(0);
-
-        // Find the virtual tile size based on the virtual full image size.
-        final Dimension virtualTileSize = firstImage.getOrientationTileSize();
-
-        if (cacheInfo.getImages().size() == 1 &&
-                virtualTileSize.equals(virtualSize)) {
-            uniqueTileSizes.add(
-                    ImageInfoUtil.smallestTileSize(virtualSize, minTileSize));
-        } else {
-            for (Info.Image image : cacheInfo.getImages()) {
-                uniqueTileSizes.add(
-                        ImageInfoUtil.smallestTileSize(virtualSize,
-                                image.getOrientationTileSize(), minTileSize));
-            }
-        }
-        for (Dimension uniqueTileSize : uniqueTileSizes) {
+        for (Dimension uniqueTileSize : getTileSizes(cacheInfo)) {
             final ImageInfo.Tile tile = new ImageInfo.Tile();
             tile.width = uniqueTileSize.width;
             tile.height = uniqueTileSize.height;
@@ -3,6 +3,7 @@ package edu.illinois.library.cantaloupe.resource.iiif.v2;
 import edu.illinois.library.cantaloupe.RestletApplication;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
 import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Format;
@@ -14,9 +15,7 @@ import edu.illinois.library.cantaloupe.processor.ProcessorFactory;
 import edu.illinois.library.cantaloupe.processor.UnsupportedOutputFormatException;
 import edu.illinois.library.cantaloupe.resolver.Resolver;
 import edu.illinois.library.cantaloupe.resolver.ResolverFactory;
-import edu.illinois.library.cantaloupe.resource.CachedImageRepresentation;
 import edu.illinois.library.cantaloupe.processor.ProcessorConnector;
-import edu.illinois.library.cantaloupe.resource.ImageRepresentation;
 import edu.illinois.library.cantaloupe.resource.RequestContext;
 import edu.illinois.library.cantaloupe.resource.iiif.SizeRestrictedException;
 import org.restlet.data.Disposition;
@@ -28,7 +27,6 @@ import org.restlet.util.Series;
 
 import java.awt.Dimension;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,9 +55,7 @@ public class ImageResource extends IIIF2Resource {
                 (String) attrs.get("rotation"),
                 (String) attrs.get("quality"),
                 (String) attrs.get("format"));
-        final OperationList ops = params.toOperationList();
-        ops.getOptions().putAll(
-                getReference().getQueryAsForm(true).getValuesMap());
+        final OperationList ops = newOperationList(params);
 
         addLinkHeader(params);
 
@@ -68,22 +64,6 @@ public class ImageResource extends IIIF2Resource {
                         .getFirstValue(RESPONSE_CONTENT_DISPOSITION_QUERY_ARG),
                 ops.getIdentifier(), ops.getOutputFormat());
 
-        // If we don't need to resolve first, and are using a cache, and the
-        // cache contains an image matching the request, skip all the setup and
-        // just return the cached image.
-        final DerivativeCache cache = CacheFactory.getDerivativeCache();
-        if (!config.getBoolean(Key.CACHE_SERVER_RESOLVE_FIRST, true)) {
-            if (cache != null) {
-                InputStream inputStream = cache.newDerivativeImageInputStream(ops);
-                if (inputStream != null) {
-                    commitCustomResponseHeaders();
-                    return new CachedImageRepresentation(
-                            params.getOutputFormat().getPreferredMediaType(),
-                            disposition, inputStream);
-                }
-            }
-        }
-
         Resolver resolver = new ResolverFactory().newResolver(identifier);
 
         // Setup the resolver context.
@@ -94,16 +74,42 @@ public class ImageResource extends IIIF2Resource {
         requestContext.setCookies(getRequest().getCookies().getValuesMap());
         resolver.setContext(requestContext);
 
+        // If we don't need to resolve first, and are using a cache, and the
+        // cache contains an image matching the request, skip all the setup and
+        // just return the cached image. Its operations have to be mutated the
+        // same way as below for it to be found, and to get the same ETag, so
+        // this requires the info to be cached as well.
+        final DerivativeCache cache = CacheFactory.getDerivativeCache();
+        if (!config.getBoolean(Key.CACHE_SERVER_RESOLVE_FIRST, true)) {
+            final Info cachedInfo = getCachedInfo(identifier);
+            if (cachedInfo != null) {
+                final OperationList cachedOps = newOperationList(params);
+                cachedOps.applyNonEndpointMutations(cachedInfo.getSize(),
+                        cachedInfo.getOrientation(),
+                        getCanonicalClientIpAddress(),
+                        getReference().toUrl(),
+                        getRequest().getHeaders().getValuesMap(),
+                        getCookies().getValuesMap());
+                final Representation cachedRep = newCachedImageRepresentation(
+                        cachedOps, disposition, resolver);
+                if (cachedRep != null) {
+                    commitCustomResponseHeaders();
+                    return cachedRep;
+                }
+            }
+        }
+
         // Determine the format of the source image.
         Format sourceFormat;
         try {
-            sourceFormat = resolver.getSourceFormat();
+            sourceFormat = resolveSourceFormat(identifier, resolver);
         } catch (FileNotFoundException e) { // this needs to be rethrown
             if (config.getBoolean(Key.CACHE_SERVER_PURGE_MISSING, false)) {
                 // if the image was not found, purge it from the cache
                 if (cache != null) {
                     cache.purge(ops.getIdentifier());
                 }
+                InfoCache.getInstance().purge(ops.getIdentifier());
             }
             throw e;
         }
@@ -168,8 +174,20 @@ public class ImageResource extends IIIF2Resource {
 
         commitCustomResponseHeaders();
 
-        return new ImageRepresentation(info, processor, ops, disposition,
-                isBypassingCache());
+        return newImageRepresentation(info, processor, resolver, ops,
+                disposition);
+    }
+
+    /**
+     * @param params Parsed URI parameters.
+     * @return New operation list corresponding to the given parameters and
+     *         the query arguments, with no mutations applied.
+     */
+    private OperationList newOperationList(Parameters params) {
+        final OperationList ops = params.toOperationList();
+        ops.getOptions().putAll(
+                getReference().getQueryAsForm(true).getValuesMap());
+        return ops;
     }
 
     private void addLinkHeader(Parameters params) {
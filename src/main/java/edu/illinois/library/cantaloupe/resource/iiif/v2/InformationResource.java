@@ -5,6 +5,7 @@ import java.util.List;
 
 import edu.illinois.library.cantaloupe.cache.Cache;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Format;
@@ -76,7 +77,7 @@ public class InformationResource extends IIIF2Resource {
         // Determine the format of the source image.
         Format format;
         try {
-            format = resolver.getSourceFormat();
+            format = resolveSourceFormat(identifier, resolver);
         } catch (FileNotFoundException e) { // this needs to be rethrown
             if (Configuration.getInstance().
                     getBoolean(Key.CACHE_SERVER_PURGE_MISSING, false)) {
@@ -85,6 +86,7 @@ public class InformationResource extends IIIF2Resource {
                 if (cache != null) {
                     cache.purge(identifier);
                 }
+                InfoCache.getInstance().purge(identifier);
             }
             throw e;
         }
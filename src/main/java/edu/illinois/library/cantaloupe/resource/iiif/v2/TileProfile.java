@@ -0,0 +1,134 @@
+package edu.illinois.library.cantaloupe.resource.iiif.v2;
+
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+
+import java.awt.Dimension;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Enumerates the tiles that a IIIF Image API 2.x client would request
+ * based on the tile sizes and scale factors advertised in an information
+ * response (see {@link ImageInfoFactory}).</p>
+ *
+ * <p>Tiles are expressed in canonical URI syntax: <code>full</code> for
+ * regions that encompass the full image and sizes that are unscaled, and
+ * <code>x,y,w,h</code> and <code>w,</code> otherwise.</p>
+ *
+ * @since 3.4
+ */
+public final class TileProfile {
+
+    private final Info info;
+    private final int maxReductionFactor;
+    private final Set<Dimension> tileSizes;
+    private final Dimension virtualSize;
+
+    /**
+     * @param info Info of the image to profile.
+     */
+    public TileProfile(Info info) {
+        this.info = info;
+        this.virtualSize = info.getOrientationSize();
+        this.maxReductionFactor =
+                ImageInfoFactory.getMaxReductionFactor(virtualSize);
+        this.tileSizes = ImageInfoFactory.getTileSizes(info);
+    }
+
+    /**
+     * @return Exponent of the largest advertised scale factor.
+     */
+    public int getMaxReductionFactor() {
+        return maxReductionFactor;
+    }
+
+    /**
+     * @param identifier Image identifier.
+     * @param format     Output format.
+     * @return Parameters of all tiles at all scale factors, from the
+     *         smallest scale to the largest.
+     */
+    List<Parameters> getTileParameters(Identifier identifier,
+                                       Format format) {
+        final List<Parameters> params = new ArrayList<>();
+        final String extension = format.getPreferredExtension();
+        for (int i = maxReductionFactor; i >= 0; i--) {
+            final int scaleFactor = (int) Math.pow(2, i);
+            for (Dimension tileSize : tileSizes) {
+                final int regionWidth = tileSize.width * scaleFactor;
+                final int regionHeight = tileSize.height * scaleFactor;
+                for (int y = 0; y < virtualSize.height; y += regionHeight) {
+                    for (int x = 0; x < virtualSize.width; x += regionWidth) {
+                        final int w = Math.min(regionWidth,
+                                virtualSize.width - x);
+                        final int h = Math.min(regionHeight,
+                                virtualSize.height - y);
+                        final boolean isFullRegion = (w == virtualSize.width &&
+                                h == virtualSize.height);
+                        final String region = isFullRegion ?
+                                "full" : String.format("%d,%d,%d,%d", x, y, w, h);
+                        final String size = (scaleFactor == 1) ? "full" :
+                                (int) Math.ceil(w / (double) scaleFactor) + ",";
+                        params.add(new Parameters(identifier, region, size,
+                                "0", "default", extension));
+                    }
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * @return Orientation-aware tile sizes.
+     */
+    public Set<Dimension> getTileSizes() {
+        return Collections.unmodifiableSet(tileSizes);
+    }
+
+    /**
+     * Returns operation lists corresponding to {@link
+     * #getTileParameters(Identifier, Format)}, including the mutations that
+     * {@link ImageResource} would apply to a request that carries no
+     * headers, cookies, or client address.
+     *
+     * @param identifier   Image identifier.
+     * @param format       Output format.
+     * @param imageBaseUri Base URI of the IIIF Image API 2.x endpoint, which
+     *                     is used to construct the request URIs made
+     *                     available to the delegate script.
+     * @return Frozen operation lists.
+     * @throws IllegalArgumentException If the base URI is invalid.
+     */
+    public List<OperationList> newOperationLists(Identifier identifier,
+                                                 Format format,
+                                                 String imageBaseUri) {
+        final List<Parameters> params = getTileParameters(identifier, format);
+        final List<OperationList> opLists = new ArrayList<>(params.size());
+        for (Parameters param : params) {
+            final URL requestUrl;
+            try {
+                requestUrl = new URL(imageBaseUri + "/" + param);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            final OperationList ops = param.toOperationList();
+            ops.applyNonEndpointMutations(info.getSize(),
+                    info.getOrientation(),
+                    null,
+                    requestUrl,
+                    Collections.emptyMap(),
+                    Collections.emptyMap());
+            ops.freeze();
+            opLists.add(ops);
+        }
+        return opLists;
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.mortennobel.imagescaling;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ResampleOpTest extends BaseTest {
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        SubSamplingCache.clear();
+    }
+
+    private static BufferedImage newImage(int width, int height, int type,
+                                          long seed) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertSamePixels(BufferedImage expected,
+                                         BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image,
+                                       int width, int height) {
+        final ResampleOp op = new ResampleOp(width, height);
+        op.setNumberOfThreads(1);
+        return op.filter(image, null);
+    }
+
+    /* doFilter() */
+
+    @Test
+    public void testDoFilterWithReusedBuffersProducesSameResult() {
+        final BufferedImage image =
+                newImage(300, 200, BufferedImage.TYPE_INT_RGB, 1);
+        final BufferedImage expected = scale(image, 150, 100);
+
+        // Dirty the pooled buffers with a larger, different image.
+        scale(newImage(500, 400, BufferedImage.TYPE_INT_ARGB, 2), 250, 300);
+
+        assertSamePixels(expected, scale(image, 150, 100));
+    }
+
+    @Test
+    public void testDoFilterWithReusedBuffersAndGrayImage() {
+        final BufferedImage image =
+                newImage(300, 200, BufferedImage.TYPE_BYTE_GRAY, 1);
+        final BufferedImage expected = scale(image, 150, 100);
+        scale(newImage(500, 400, BufferedImage.TYPE_INT_RGB, 2), 250, 300);
+        assertSamePixels(expected, scale(image, 150, 100));
+    }
+
+    @Test
+    public void testDoFilterReusesContributorTables() {
+        final BufferedImage image =
+                newImage(300, 200, BufferedImage.TYPE_INT_RGB, 1);
+        scale(image, 150, 100);
+        assertEquals(0, SubSamplingCache.getNumHits());
+        assertEquals(2, SubSamplingCache.getNumMisses());
+
+        scale(image, 150, 100);
+        assertEquals(2, SubSamplingCache.getNumHits());
+        assertEquals(2, SubSamplingCache.getNumMisses());
+    }
+
+    @Test
+    public void testDoFilterWithGrayscale() {
+        final BufferedImage image =
+                newImage(300, 200, BufferedImage.TYPE_INT_RGB, 1);
+        final ResampleOp op = new ResampleOp(150, 100);
+        op.setNumberOfThreads(1);
+        op.setGrayscale(true);
+        final BufferedImage outImage = op.filter(image, null);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, outImage.getType());
+
+        // Compare with converting to gray first.
+        final BufferedImage grayImage = new BufferedImage(300, 200,
+                BufferedImage.TYPE_BYTE_GRAY);
+        grayImage.createGraphics().drawImage(image, 0, 0, null);
+        assertSamePixels(scale(grayImage, 150, 100), outImage);
+    }
+
+    @Test
+    public void testDoFilterWithGrayscaleAndAlpha() {
+        final BufferedImage image =
+                newImage(300, 200, BufferedImage.TYPE_INT_ARGB, 1);
+        final ResampleOp op = new ResampleOp(150, 100);
+        op.setGrayscale(true);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR,
+                op.filter(image, null).getType());
+    }
+
+    /* SubSamplingCache.get() */
+
+    @Test
+    public void testSubSamplingCacheGetReturnsSameTableForSameArguments() {
+        final ResampleFilter filter = ResampleFilters.getLanczos3Filter();
+        assertSame(SubSamplingCache.get(filter, 1024, 512),
+                SubSamplingCache.get(filter, 1024, 512));
+        assertNotSame(SubSamplingCache.get(filter, 1024, 512),
+                SubSamplingCache.get(filter, 1024, 256));
+        assertNotSame(SubSamplingCache.get(filter, 1024, 512),
+                SubSamplingCache.get(ResampleFilters.getBoxFilter(), 1024, 512));
+    }
+
+    @Test
+    public void testSubSamplingCacheGetReturnsSameTableAsCreateSubSampling() {
+        final ResampleFilter filter = ResampleFilters.getMitchellFilter();
+        final ResampleOp.SubSamplingData expected =
+                ResampleOp.createSubSampling(filter, 1000, 333);
+        final ResampleOp.SubSamplingData actual =
+                SubSamplingCache.get(filter, 1000, 333);
+        assertEquals(expected.getNumContributors(),
+                actual.getNumContributors());
+        assertArrayEquals(expected.getArrN(), actual.getArrN());
+        assertArrayEquals(expected.getArrPixel(), actual.getArrPixel());
+        assertArrayEquals(expected.getArrWeight(), actual.getArrWeight(), 0);
+    }
+
+    @Test
+    public void testSubSamplingCacheGetRespectsMaxSize() {
+        final ResampleFilter filter = ResampleFilters.getLanczos3Filter();
+        for (int dstSize = 100; dstSize < 140; dstSize++) {
+            SubSamplingCache.get(filter, 20000, dstSize);
+            assertTrue(SubSamplingCache.getNumCachedContributions() <=
+                    SubSamplingCache.MAX_CACHED_CONTRIBUTIONS);
+        }
+        assertTrue(SubSamplingCache.getNumCachedContributions() > 0);
+    }
+
+    /* ResampleScratch.release() */
+
+    @Test
+    public void testResampleScratchReleaseDoesNotPoolLargeBuffers() {
+        final ResampleScratch scratch = new ResampleScratch();
+        scratch.getOutPixels((int) ResampleScratch.MAX_POOLED_BYTES + 1);
+        final int poolSize = ResampleScratch.getPoolSize();
+        ResampleScratch.release(scratch);
+        assertEquals(poolSize, ResampleScratch.getPoolSize());
+    }
+
+}
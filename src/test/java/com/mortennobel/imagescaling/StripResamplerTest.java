@@ -0,0 +1,127 @@
+package com.mortennobel.imagescaling;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StripResamplerTest extends BaseTest {
+
+    private static BufferedImage newImage(int width, int height, int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Resamples the given image with a {@link StripResampler}, pushing each
+     * source row and then taking all of the destination rows that it makes
+     * available, and asserts that the result is the same as that of a
+     * {@link ResampleOp}.
+     */
+    private static void assertSameAsResampleOp(BufferedImage image,
+                                               int dstWidth, int dstHeight,
+                                               ResampleFilter filter) {
+        final ResampleOp op = new ResampleOp(dstWidth, dstHeight);
+        op.setFilter(filter);
+        op.setNumberOfThreads(1);
+        final BufferedImage expected = op.filter(image, null);
+
+        final int nrChannels = ImageUtils.nrChannels(image);
+        final StripResampler instance = new StripResampler(image.getWidth(),
+                image.getHeight(), dstWidth, dstHeight, nrChannels, filter);
+        final byte[] srcRow = new byte[image.getWidth() * nrChannels];
+        final int[] tempRow = new int[image.getWidth()];
+        final byte[] dstRow = new byte[dstWidth * nrChannels];
+        final byte[] expectedRow = new byte[dstWidth * nrChannels];
+        final int[] expectedTempRow = new int[dstWidth];
+
+        int dstY = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            ImageUtils.getPixelsBGR(image, y, image.getWidth(), srcRow, tempRow);
+            instance.pushRow(srcRow);
+            while (instance.hasNextRow()) {
+                instance.nextRow(dstRow);
+                ImageUtils.getPixelsBGR(expected, dstY, dstWidth,
+                        expectedRow, expectedTempRow);
+                assertArrayEquals("Row " + dstY, expectedRow, dstRow);
+                dstY++;
+            }
+        }
+        assertEquals(dstHeight, dstY);
+        assertTrue(instance.isDone());
+    }
+
+    /* nextRow() */
+
+    @Test
+    public void testNextRowWithDownscaleProducesSameResultAsResampleOp() {
+        assertSameAsResampleOp(
+                newImage(300, 200, BufferedImage.TYPE_3BYTE_BGR),
+                97, 61, ResampleFilters.getLanczos3Filter());
+        assertSameAsResampleOp(
+                newImage(300, 200, BufferedImage.TYPE_3BYTE_BGR),
+                150, 100, ResampleFilters.getBoxFilter());
+    }
+
+    @Test
+    public void testNextRowWithUpscaleProducesSameResultAsResampleOp() {
+        assertSameAsResampleOp(
+                newImage(40, 30, BufferedImage.TYPE_3BYTE_BGR),
+                97, 61, ResampleFilters.getBiCubicFilter());
+    }
+
+    @Test
+    public void testNextRowWithGrayImageProducesSameResultAsResampleOp() {
+        assertSameAsResampleOp(
+                newImage(300, 200, BufferedImage.TYPE_BYTE_GRAY),
+                97, 61, ResampleFilters.getLanczos3Filter());
+    }
+
+    @Test
+    public void testNextRowWithAlphaImageProducesSameResultAsResampleOp() {
+        assertSameAsResampleOp(
+                newImage(300, 200, BufferedImage.TYPE_4BYTE_ABGR),
+                97, 61, ResampleFilters.getLanczos3Filter());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNextRowBeforeEnoughRowsArePushed() {
+        final StripResampler instance = new StripResampler(100, 100, 50, 50,
+                3, ResampleFilters.getLanczos3Filter());
+        instance.pushRow(new byte[300]);
+        instance.nextRow(new byte[150]);
+    }
+
+    /* getNumWorkRows() */
+
+    @Test
+    public void testGetNumWorkRowsIsIndependentOfImageHeight() {
+        final ResampleFilter filter = ResampleFilters.getLanczos3Filter();
+        final int numWorkRows =
+                new StripResampler(100, 1000, 50, 500, 3, filter).getNumWorkRows();
+        assertTrue(numWorkRows < 20);
+        assertEquals(numWorkRows,
+                new StripResampler(100, 100000, 50, 50000, 3, filter).getNumWorkRows());
+    }
+
+    /* pushRow() */
+
+    @Test(expected = IllegalStateException.class)
+    public void testPushRowWithoutTakingRows() {
+        final StripResampler instance = new StripResampler(100, 100, 50, 50,
+                3, ResampleFilters.getLanczos3Filter());
+        for (int i = 0; i < 100; i++) {
+            instance.pushRow(new byte[300]);
+        }
+    }
+
+}
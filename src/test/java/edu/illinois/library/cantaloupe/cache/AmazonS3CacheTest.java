@@ -69,8 +69,8 @@ public class AmazonS3CacheTest extends BaseTest {
         config.setProperty(Key.AMAZONS3CACHE_SECRET_KEY, getSecretKey());
         config.setProperty(Key.AMAZONS3CACHE_BUCKET_REGION, getRegion());
 
+        // initialize() is not needed, and is deliberately not called.
         instance = new AmazonS3Cache();
-        instance.initialize();
     }
 
     @After
@@ -0,0 +1,273 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AmazonS3OutputStreamTest extends BaseTest {
+
+    /**
+     * Records the calls made to it and the data that was "uploaded".
+     */
+    private static class FakeS3 {
+
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final Map<Integer, byte[]> parts = new TreeMap<>();
+        byte[] object;
+        volatile boolean isFailingParts = false;
+        volatile CountDownLatch partLatch;
+
+        AmazonS3 newProxy() {
+            return (AmazonS3) Proxy.newProxyInstance(
+                    AmazonS3.class.getClassLoader(),
+                    new Class<?>[] { AmazonS3.class },
+                    (proxy, method, args) -> {
+                        calls.add(method.getName());
+                        switch (method.getName()) {
+                            case "putObject":
+                                object = IOUtils.toByteArray(
+                                        ((PutObjectRequest) args[0]).getInputStream());
+                                return new PutObjectResult();
+                            case "initiateMultipartUpload":
+                                InitiateMultipartUploadResult iResult =
+                                        new InitiateMultipartUploadResult();
+                                iResult.setUploadId("upload-id");
+                                return iResult;
+                            case "uploadPart":
+                                if (partLatch != null) {
+                                    partLatch.await();
+                                }
+                                if (isFailingParts) {
+                                    throw new RuntimeException("Failed");
+                                }
+                                UploadPartRequest request =
+                                        (UploadPartRequest) args[0];
+                                synchronized (parts) {
+                                    parts.put(request.getPartNumber(),
+                                            IOUtils.toByteArray(request.getInputStream()));
+                                }
+                                UploadPartResult uResult = new UploadPartResult();
+                                uResult.setPartNumber(request.getPartNumber());
+                                uResult.setETag("etag" + request.getPartNumber());
+                                return uResult;
+                            case "completeMultipartUpload":
+                                assertEquals(parts.size(),
+                                        ((CompleteMultipartUploadRequest) args[0]).
+                                                getPartETags().size());
+                                return new CompleteMultipartUploadResult();
+                            case "abortMultipartUpload":
+                                assertEquals("upload-id",
+                                        ((AbortMultipartUploadRequest) args[0]).
+                                                getUploadId());
+                                return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        byte[] getMultipartObject() throws Exception {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            for (byte[] part : parts.values()) {
+                os.write(part);
+            }
+            return os.toByteArray();
+        }
+
+    }
+
+    private ExecutorService executor;
+    private FakeS3 s3;
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(2);
+        s3 = new FakeS3();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private AmazonS3OutputStream newInstance(Semaphore permits) {
+        return new AmazonS3OutputStream(s3.newProxy(), "bucket", "key",
+                new ObjectMetadata(), executor, permits);
+    }
+
+    private void awaitUploads() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    /* abort() */
+
+    @Test
+    public void testAbortWithSmallObjectUploadsNothing() throws Exception {
+        AmazonS3OutputStream os = newInstance(new Semaphore(4));
+        os.write(randomBytes(100000));
+        os.abort();
+        os.close();
+        awaitUploads();
+        assertTrue(s3.calls.isEmpty());
+    }
+
+    @Test
+    public void testAbortWithLargeObjectAbortsMultipartUpload()
+            throws Exception {
+        final Semaphore permits = new Semaphore(4);
+        AmazonS3OutputStream os = newInstance(permits);
+        os.write(randomBytes(AmazonS3OutputStream.PART_SIZE + 12345));
+        os.abort();
+        os.close();
+        awaitUploads();
+        assertFalse(s3.calls.contains("completeMultipartUpload"));
+        assertEquals("abortMultipartUpload",
+                s3.calls.get(s3.calls.size() - 1));
+        assertEquals(1, s3.parts.size());
+        assertEquals(4, permits.availablePermits());
+    }
+
+    /* close() */
+
+    @Test
+    public void testCloseCanBeCalledMultipleTimes() throws Exception {
+        AmazonS3OutputStream os = newInstance(new Semaphore(4));
+        os.write(new byte[] { 1, 2, 3 });
+        os.close();
+        os.close();
+        awaitUploads();
+        assertEquals(1, s3.calls.size());
+    }
+
+    /* write() */
+
+    @Test
+    public void testWriteWithSmallObjectUsesSinglePut() throws Exception {
+        final byte[] data = randomBytes(100000);
+        final Semaphore permits = new Semaphore(4);
+        try (AmazonS3OutputStream os = newInstance(permits)) {
+            os.write(data);
+        }
+        awaitUploads();
+        assertEquals(1, s3.calls.size());
+        assertEquals("putObject", s3.calls.get(0));
+        assertArrayEquals(data, s3.object);
+        assertEquals(4, permits.availablePermits());
+    }
+
+    @Test
+    public void testWriteWithSmallObjectDoesNotNeedPermit() throws Exception {
+        final byte[] data = randomBytes(100000);
+        final Semaphore permits = new Semaphore(0);
+        try (AmazonS3OutputStream os = newInstance(permits)) {
+            os.write(data);
+        }
+        awaitUploads();
+        assertArrayEquals(data, s3.object);
+        assertEquals(0, permits.availablePermits());
+    }
+
+    @Test
+    public void testWriteWithLargeObjectUsesMultipartUpload()
+            throws Exception {
+        final int size = AmazonS3OutputStream.PART_SIZE * 2 + 12345;
+        final byte[] data = randomBytes(size);
+        final Semaphore permits = new Semaphore(4);
+        try (AmazonS3OutputStream os = newInstance(permits)) {
+            // Write byte-by-byte at first to exercise both write methods.
+            for (int i = 0; i < 1000; i++) {
+                os.write(data[i]);
+            }
+            os.write(data, 1000, size - 1000);
+        }
+        awaitUploads();
+        assertEquals("initiateMultipartUpload", s3.calls.get(0));
+        assertEquals("completeMultipartUpload",
+                s3.calls.get(s3.calls.size() - 1));
+        assertEquals(3, s3.parts.size());
+        assertEquals(AmazonS3OutputStream.PART_SIZE, s3.parts.get(1).length);
+        assertEquals(AmazonS3OutputStream.PART_SIZE, s3.parts.get(2).length);
+        assertEquals(12345, s3.parts.get(3).length);
+        assertArrayEquals(data, s3.getMultipartObject());
+        assertEquals(4, permits.availablePermits());
+    }
+
+    @Test
+    public void testWriteWithFailedPartAbortsMultipartUpload()
+            throws Exception {
+        s3.isFailingParts = true;
+        try (AmazonS3OutputStream os = newInstance(new Semaphore(4))) {
+            os.write(randomBytes(AmazonS3OutputStream.PART_SIZE + 1));
+        }
+        awaitUploads();
+        assertFalse(s3.calls.contains("completeMultipartUpload"));
+        assertEquals("abortMultipartUpload",
+                s3.calls.get(s3.calls.size() - 1));
+    }
+
+    @Test
+    public void testWriteBlocksWhenNoPermitsAreAvailable() throws Exception {
+        s3.partLatch = new CountDownLatch(1);
+        final Semaphore permits = new Semaphore(1);
+        final AmazonS3OutputStream os = newInstance(permits);
+        final AtomicBoolean isFinished = new AtomicBoolean(false);
+        final Thread writer = new Thread(() -> {
+            try {
+                // The first part takes the only permit and then blocks in
+                // uploadPart(); the second has to wait for it.
+                os.write(randomBytes(AmazonS3OutputStream.PART_SIZE * 2));
+                isFinished.set(true);
+            } catch (Exception e) {
+                fail(e.getMessage());
+            }
+        });
+        writer.start();
+        Thread.sleep(500);
+        assertFalse(isFinished.get());
+        assertEquals(0, permits.availablePermits());
+
+        s3.partLatch.countDown();
+        writer.join(10000);
+        assertTrue(isFinished.get());
+        os.close();
+        awaitUploads();
+        assertEquals(2, s3.parts.size());
+        assertEquals(1, permits.availablePermits());
+    }
+
+}
@@ -13,7 +13,7 @@ public class CacheFactoryTest extends BaseTest {
 
     @Test
     public void testGetAllDerivativeCaches() {
-        assertEquals(6, CacheFactory.getAllDerivativeCaches().size());
+        assertEquals(7, CacheFactory.getAllDerivativeCaches().size());
     }
 
     /* getAllSourceCaches() */
@@ -42,6 +42,34 @@ public class CacheFactoryTest extends BaseTest {
         assertNull(CacheFactory.getDerivativeCache());
     }
 
+    @Test
+    public void testGetDerivativeCacheWithMetricsEnabled() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.CACHE_METRICS_ENABLED, true);
+
+        final Key key = Key.DERIVATIVE_CACHE;
+
+        // Make sure that a new instance gets created.
+        config.setProperty(key, "MockCache");
+        CacheFactory.getDerivativeCache();
+        config.setProperty(key, "FilesystemCache");
+        try {
+            DerivativeCache cache = CacheFactory.getDerivativeCache();
+            assertTrue(cache instanceof MeteredDerivativeCache);
+            assertTrue(((MeteredDerivativeCache) cache).getWrappedCache()
+                    instanceof FilesystemCache);
+            assertSame(cache, CacheFactory.getDerivativeCache());
+            assertEquals("FilesystemCache", CacheMetrics.
+                    getDerivativeCacheMetrics().getImplementation());
+        } finally {
+            // Don't leave a metered instance behind for other tests.
+            config.setProperty(Key.CACHE_METRICS_ENABLED, false);
+            config.setProperty(key, "MockCache");
+            CacheFactory.getDerivativeCache();
+        }
+    }
+
     @Test
     public void testGetDerivativeCacheInitializesNewInstance() {
         Configuration config = Configuration.getInstance();
@@ -90,6 +118,32 @@ public class CacheFactoryTest extends BaseTest {
         assertNull(CacheFactory.getSourceCache());
     }
 
+    @Test
+    public void testGetSourceCacheWithMetricsEnabled() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.SOURCE_CACHE_ENABLED, true);
+        config.setProperty(Key.CACHE_METRICS_ENABLED, true);
+
+        final Key key = Key.SOURCE_CACHE;
+
+        // Make sure that a new instance gets created.
+        config.setProperty(key, "MockCache");
+        CacheFactory.getSourceCache();
+        config.setProperty(key, "FilesystemCache");
+        try {
+            SourceCache cache = CacheFactory.getSourceCache();
+            assertTrue(cache instanceof MeteredSourceCache);
+            assertTrue(((MeteredSourceCache) cache).getWrappedCache()
+                    instanceof FilesystemCache);
+            assertSame(cache, CacheFactory.getSourceCache());
+        } finally {
+            // Don't leave a metered instance behind for other tests.
+            config.setProperty(Key.CACHE_METRICS_ENABLED, false);
+            config.setProperty(key, "MockCache");
+            CacheFactory.getSourceCache();
+        }
+    }
+
     @Test
     public void testGetSourceCacheInitializesNewInstance() {
         Configuration config = Configuration.getInstance();
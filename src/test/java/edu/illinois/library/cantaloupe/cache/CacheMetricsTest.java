@@ -0,0 +1,166 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CacheMetricsTest extends BaseTest {
+
+    private static final double DELTA = 0.00001;
+
+    private CacheMetrics instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new CacheMetrics("Test");
+    }
+
+    /* getDerivativeCacheMetrics() */
+
+    @Test
+    public void testGetDerivativeCacheMetricsIsRegisteredWithJMX()
+            throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(
+                "edu.illinois.library.cantaloupe:type=CacheMetrics,name=DerivativeCache");
+        assertNotNull(CacheMetrics.getDerivativeCacheMetrics());
+        assertTrue(server.isRegistered(name));
+        assertNotNull(server.getAttribute(name, "Hits"));
+    }
+
+    /* getHitRatio() */
+
+    @Test
+    public void testGetHitRatio() {
+        instance.recordHit(1);
+        instance.recordHit(1);
+        instance.recordHit(1);
+        instance.recordMiss(1);
+        instance.recordInfoMiss(1);
+        assertEquals(0.75, instance.getHitRatio(), DELTA);
+    }
+
+    @Test
+    public void testGetHitRatioWithNoLookups() {
+        assertEquals(0, instance.getHitRatio(), DELTA);
+    }
+
+    /* newInputStream() */
+
+    @Test
+    public void testNewInputStreamCountsBytesRead() throws Exception {
+        try (InputStream is = instance.newInputStream(
+                new ByteArrayInputStream(new byte[1000]))) {
+            assertEquals(1, is.skip(1));
+            is.read();
+            IOUtils.toByteArray(is);
+        }
+        assertEquals(1000, instance.getBytesRead());
+    }
+
+    /* newOutputStream() */
+
+    @Test
+    public void testNewOutputStreamRecordsWrite() throws Exception {
+        final OutputStream os =
+                instance.newOutputStream(new NullOutputStream(), 5);
+        assertEquals(1, instance.getInFlightWrites());
+        os.write(new byte[100]);
+        os.write(1);
+        os.close();
+        os.close();
+
+        assertEquals(0, instance.getInFlightWrites());
+        assertEquals(101, instance.getBytesWritten());
+        assertEquals(1, instance.getWrites());
+        assertEquals(0, instance.getWriteFailures());
+    }
+
+    @Test
+    public void testNewOutputStreamRecordsWriteFailure() throws Exception {
+        final OutputStream os = instance.newOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void close() throws IOException {
+                throw new IOException("failed");
+            }
+        }, 0);
+        try {
+            os.close();
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+        assertEquals(0, instance.getInFlightWrites());
+        assertEquals(0, instance.getWrites());
+        assertEquals(1, instance.getWriteFailures());
+    }
+
+    /* reset() */
+
+    @Test
+    public void testReset() {
+        instance.reset("FilesystemCache");
+        instance.recordHit(1);
+        instance.recordMiss(1);
+        instance.recordPurge();
+        instance.recordEvictions(2);
+        instance.recordWrite(1);
+        instance.reset();
+
+        assertEquals(0, instance.getEvictions());
+        assertEquals(0, instance.getHits());
+        assertEquals(0, instance.getMisses());
+        assertEquals(0, instance.getPurges());
+        assertEquals(0, instance.getWrites());
+        assertEquals(0, instance.getReadLatencyMax(), DELTA);
+        assertEquals("FilesystemCache", instance.getImplementation());
+    }
+
+    @Test
+    public void testResetWithImplementation() {
+        instance.reset("FilesystemCache");
+        instance.recordHit(1);
+        instance.reset("HeapCache");
+        assertEquals(0, instance.getHits());
+        assertEquals("HeapCache", instance.getImplementation());
+    }
+
+    /* toMap() */
+
+    @Test
+    public void testToMap() {
+        instance.reset("FilesystemCache");
+        instance.recordHit(1000000);
+        instance.recordInfoMiss(1000000);
+        instance.recordWrite(3000000);
+        instance.recordEvictions(2);
+
+        final Map<String,Object> map = instance.toMap();
+        assertEquals("FilesystemCache", map.get("implementation"));
+        assertEquals(1L, map.get("hits"));
+        assertEquals(0L, map.get("misses"));
+        assertEquals(1L, map.get("info_misses"));
+        assertEquals(1L, map.get("writes"));
+        assertEquals(2L, map.get("evictions"));
+        assertEquals(2L, ((Map<?,?>) map.get("read_latency")).get("count"));
+        assertEquals(1L, ((Map<?,?>) map.get("write_latency")).get("count"));
+    }
+
+}
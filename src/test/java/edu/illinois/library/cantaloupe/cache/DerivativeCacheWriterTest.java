@@ -0,0 +1,146 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class DerivativeCacheWriterTest extends BaseTest {
+
+    private HeapCache cache;
+    private OperationList opList;
+    private DerivativeCacheWriter instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_TARGET_SIZE, "1G");
+        config.setProperty(Key.CACHE_SERVER_TTL, 0);
+        config.setProperty(Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE,
+                1024 * 1024 * 64);
+
+        cache = new HeapCache();
+        opList = new OperationList(new Identifier("cats"), Format.JPG);
+        instance = new DerivativeCacheWriter(1);
+    }
+
+    private void awaitWrites(long numWrites) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (instance.getNumWritten() < numWrites &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(numWrites, instance.getNumWritten());
+    }
+
+    private byte[] readFromCache() throws Exception {
+        try (InputStream is = cache.newDerivativeImageInputStream(opList)) {
+            return (is != null) ? IOUtils.toByteArray(is) : null;
+        }
+    }
+
+    /* Capture.close() */
+
+    @Test
+    public void testCloseWithoutCommitDiscardsCapture() throws Exception {
+        DerivativeCacheWriter.Capture capture =
+                instance.newCapture(cache, opList);
+        capture.write(new byte[] { 1, 2, 3 });
+        assertEquals(3, instance.getNumPendingBytes());
+        capture.close();
+
+        assertEquals(0, instance.getNumPendingBytes());
+        Thread.sleep(100);
+        assertNull(readFromCache());
+    }
+
+    @Test
+    public void testCloseAfterCommitDoesNothing() throws Exception {
+        DerivativeCacheWriter.Capture capture =
+                instance.newCapture(cache, opList);
+        capture.write(new byte[] { 1, 2, 3 });
+        capture.commit();
+        capture.close();
+        awaitWrites(1);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, readFromCache());
+    }
+
+    /* Capture.commit() */
+
+    @Test
+    public void testCommitWritesToCacheInBackground() throws Exception {
+        try (DerivativeCacheWriter.Capture capture =
+                     instance.newCapture(cache, opList)) {
+            capture.write(new byte[] { 1, 2, 3 });
+            capture.write(4);
+            capture.commit();
+        }
+        awaitWrites(1);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, readFromCache());
+        assertEquals(0, instance.getNumPendingBytes());
+    }
+
+    @Test
+    public void testCommitWithSpooledCapture() throws Exception {
+        final byte[] bytes =
+                new byte[DerivativeCacheWriter.SPOOL_THRESHOLD * 2];
+        bytes[bytes.length - 1] = 9;
+        try (DerivativeCacheWriter.Capture capture =
+                     instance.newCapture(cache, opList)) {
+            capture.write(bytes);
+            capture.commit();
+        }
+        awaitWrites(1);
+        assertArrayEquals(bytes, readFromCache());
+        assertEquals(0, instance.getNumPendingBytes());
+    }
+
+    /* newCapture() */
+
+    @Test
+    public void testNewCaptureDropsCaptureThatExceedsMaxPendingSize()
+            throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE, 10);
+        try (DerivativeCacheWriter.Capture capture =
+                     instance.newCapture(cache, opList)) {
+            capture.write(new byte[8]);
+            assertFalse(capture.isDropped());
+            capture.write(new byte[8]);
+            assertTrue(capture.isDropped());
+            assertEquals(0, instance.getNumPendingBytes());
+            capture.commit();
+        }
+        Thread.sleep(100);
+        assertNull(readFromCache());
+        assertEquals(1, instance.getNumDropped());
+    }
+
+    @Test
+    public void testNewCaptureWhenOverloaded() throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE, 10);
+        try (DerivativeCacheWriter.Capture capture1 =
+                     instance.newCapture(cache, opList)) {
+            capture1.write(new byte[10]);
+            try (DerivativeCacheWriter.Capture capture2 =
+                         instance.newCapture(cache, opList)) {
+                assertTrue(capture2.isDropped());
+            }
+        }
+        assertEquals(1, instance.getNumDropped());
+        assertEquals(0, instance.getNumPendingBytes());
+    }
+
+}
@@ -0,0 +1,148 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.ConfigurationFactory;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import org.apache.commons.io.FileUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Measures the read throughput of {@link FilesystemCache} with increasing
+ * numbers of threads, each working on its own set of identifiers. Throughput
+ * should scale roughly with the thread count (up to the number of cores and
+ * the limits of the filesystem), as reads of different identifiers don't
+ * contend for any locks.</p>
+ *
+ * <p>This is not a unit test and is not run by the test suite. Run it with
+ * e.g. <code>mvn test-compile exec:java
+ * -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.illinois.library.cantaloupe.cache.FilesystemCacheContentionBenchmark</code>.
+ * </p>
+ */
+public class FilesystemCacheContentionBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+    private static final int IDENTIFIERS_PER_THREAD = 50;
+    private static final long WARMUP_MSEC = 1000;
+    private static final long MEASUREMENT_MSEC = 3000;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty(ConfigurationFactory.CONFIG_VM_ARGUMENT, "memory");
+        final Path cacheDir = Files.createTempDirectory("cantaloupe");
+        try {
+            final Configuration config = Configuration.getInstance();
+            config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                    cacheDir.toString());
+            config.setProperty(Key.CACHE_SERVER_TTL, 0);
+
+            final FilesystemCache cache = new FilesystemCache();
+            final int maxThreads = THREAD_COUNTS[THREAD_COUNTS.length - 1];
+            seed(cache, maxThreads * IDENTIFIERS_PER_THREAD);
+
+            System.out.println("threads\tops/sec\tspeedup");
+            double baseline = 0;
+            for (int numThreads : THREAD_COUNTS) {
+                run(cache, numThreads, WARMUP_MSEC);
+                final double opsPerSec =
+                        run(cache, numThreads, MEASUREMENT_MSEC);
+                if (baseline == 0) {
+                    baseline = opsPerSec;
+                }
+                System.out.printf("%d\t%.0f\t%.2fx%n",
+                        numThreads, opsPerSec, opsPerSec / baseline);
+            }
+        } finally {
+            FileUtils.deleteDirectory(cacheDir.toFile());
+        }
+    }
+
+    private static Identifier identifier(int i) {
+        return new Identifier("image" + i);
+    }
+
+    private static void seed(FilesystemCache cache, int numIdentifiers)
+            throws Exception {
+        final byte[] data = new byte[16 * 1024];
+        for (int i = 0; i < numIdentifiers; i++) {
+            final Identifier identifier = identifier(i);
+            cache.put(identifier, new Info(1000, 1000));
+            try (OutputStream os =
+                         cache.newSourceImageOutputStream(identifier)) {
+                os.write(data);
+            }
+            try (OutputStream os = cache.newDerivativeImageOutputStream(
+                    new OperationList(identifier, Format.JPG))) {
+                os.write(data);
+            }
+        }
+    }
+
+    /**
+     * @return Number of operations per second completed by all threads.
+     */
+    private static double run(final FilesystemCache cache,
+                              final int numThreads,
+                              final long durationMsec) throws Exception {
+        final AtomicBoolean isStopped = new AtomicBoolean(false);
+        final AtomicLong opCount = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < numThreads; t++) {
+            final int firstIdentifier = t * IDENTIFIERS_PER_THREAD;
+            Thread thread = new Thread(() -> {
+                final byte[] buffer = new byte[8192];
+                long count = 0;
+                try {
+                    startLatch.await();
+                    int i = 0;
+                    while (!isStopped.get()) {
+                        final Identifier identifier = identifier(
+                                firstIdentifier + i++ % IDENTIFIERS_PER_THREAD);
+                        cache.getImageInfo(identifier);
+                        cache.getSourceImageFile(identifier);
+                        try (InputStream is = cache.newDerivativeImageInputStream(
+                                new OperationList(identifier, Format.JPG))) {
+                            while (is.read(buffer) != -1) {
+                                // Just consume it.
+                            }
+                        }
+                        count++;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    opCount.addAndGet(count);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        Thread.sleep(durationMsec);
+        isStopped.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsedNsec = System.nanoTime() - start;
+        return opCount.get() /
+                (elapsedNsec / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
@@ -0,0 +1,375 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FilesystemCacheIndexTest extends BaseTest {
+
+    private Path rootDir;
+    private FilesystemCacheIndex instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rootDir = Files.createTempDirectory("cantaloupe");
+        Files.createDirectories(rootDir.resolve("image"));
+        instance = newInstance();
+        instance.load();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instance.close();
+        FileUtils.deleteDirectory(rootDir.toFile());
+    }
+
+    private FilesystemCacheIndex newInstance() {
+        return new FilesystemCacheIndex(rootDir, "index", "image");
+    }
+
+    private File newFile(String name, int length) throws Exception {
+        File file = rootDir.resolve("image").resolve(name).toFile();
+        Files.write(file.toPath(), new byte[length]);
+        return file;
+    }
+
+    /* added() */
+
+    @Test
+    public void testAdded() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        instance.added(newFile("b", 20), 20);
+        assertEquals(2, instance.size());
+        assertEquals(30, instance.getByteSize());
+    }
+
+    @Test
+    public void testAddedReplacesExistingEntry() throws Exception {
+        File file = newFile("a", 10);
+        instance.added(file, 10);
+        instance.added(file, 15);
+        assertEquals(1, instance.size());
+        assertEquals(15, instance.getByteSize());
+    }
+
+    /* cleared() */
+
+    @Test
+    public void testCleared() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        instance.cleared();
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getByteSize());
+    }
+
+    /* compact() */
+
+    @Test
+    public void testCompact() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 20);
+        instance.added(a, 10);
+        instance.added(b, 20);
+        for (int i = 0; i < 100; i++) {
+            instance.added(a, 10);
+        }
+        final File logFile = rootDir.resolve("index")
+                .resolve(FilesystemCacheIndex.LOG_FILENAME).toFile();
+        final long uncompactedLength = logFile.length();
+
+        instance.compact();
+        assertTrue(logFile.length() < uncompactedLength);
+
+        // The compacted log is used for subsequent changes.
+        instance.removed(b);
+        instance.added(newFile("c", 30), 30);
+        instance.close();
+
+        instance = newInstance();
+        instance.load();
+        assertEquals(2, instance.size());
+        assertEquals(40, instance.getByteSize());
+    }
+
+    /* getByteSize(String) */
+
+    @Test
+    public void testGetByteSizeWithFolder() throws Exception {
+        Files.createDirectories(rootDir.resolve("info"));
+        instance.added(newFile("a", 10), 10);
+        File info = rootDir.resolve("info").resolve("b").toFile();
+        Files.write(info.toPath(), new byte[5]);
+        instance.added(info, 5);
+        assertEquals(10, instance.getByteSize("image"));
+        assertEquals(5, instance.getByteSize("info"));
+        assertEquals(0, instance.getByteSize("bogus"));
+
+        instance.removed(info);
+        assertEquals(0, instance.getByteSize("info"));
+    }
+
+    /* getEntryStats() */
+
+    @Test
+    public void testGetEntryStats() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 20);
+        instance.added(a, 10);
+        instance.added(b, 20);
+        instance.touch(a);
+        instance.touch(a);
+
+        List<Map<String, Object>> stats = instance.getEntryStats("image", 10);
+        assertEquals(2, stats.size());
+        assertEquals(instance.key(a), stats.get(0).get("path"));
+        assertEquals(10L, stats.get(0).get("size"));
+        assertEquals(2L, ((Number) stats.get(0).get("hits")).longValue());
+        assertEquals(instance.key(b), stats.get(1).get("path"));
+
+        assertEquals(1, instance.getEntryStats("image", 1).size());
+        assertTrue(instance.getEntryStats("info", 10).isEmpty());
+    }
+
+    /* load() */
+
+    @Test
+    public void testLoadCrawlsTreeWhenThereIsNoLog() throws Exception {
+        instance.close();
+        FileUtils.deleteDirectory(rootDir.resolve("index").toFile());
+        newFile("a", 10);
+        newFile("b", 20);
+        // Backdate the temp file so that it is older than "now" even on a
+        // coarse-grained clock.
+        newFile("c.tmp", 5).setLastModified(System.currentTimeMillis() - 10000);
+
+        instance = newInstance();
+        instance.load();
+        assertEquals(2, instance.size());
+        assertEquals(30, instance.getByteSize());
+        assertEquals(1, instance.removeCleanable(0).size());
+    }
+
+    @Test
+    public void testLoadReplaysLog() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        instance.added(newFile("b", 20), 20);
+        instance.removed(rootDir.resolve("image/a").toFile());
+        instance.close();
+
+        instance = newInstance();
+        instance.load();
+        assertEquals(1, instance.size());
+        assertEquals(20, instance.getByteSize());
+    }
+
+    @Test
+    public void testLoadKeepsChangesMadeWhileLoading() throws Exception {
+        File a = newFile("a", 10);
+        instance.added(a, 10);
+        instance.added(newFile("b", 20), 20);
+        instance.close();
+
+        instance = newInstance();
+        instance.removed(a);
+        instance.added(newFile("c", 30), 30);
+        instance.load();
+        assertEquals(2, instance.size());
+        assertEquals(50, instance.getByteSize());
+
+        instance.close();
+        instance = newInstance();
+        instance.load();
+        assertEquals(2, instance.size());
+    }
+
+    @Test
+    public void testLoadWithTruncatedLog() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        instance.added(newFile("b", 20), 20);
+        instance.close();
+
+        File log = rootDir.resolve("index").
+                resolve(FilesystemCacheIndex.LOG_FILENAME).toFile();
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+
+        instance = newInstance();
+        instance.load();
+        assertEquals(1, instance.size());
+        assertEquals(10, instance.getByteSize());
+    }
+
+    /* removeCleanable() */
+
+    @Test
+    public void testRemoveCleanable() throws Exception {
+        File temp = newFile("a.tmp", 5);
+        instance.tempFileAdded(temp);
+        instance.added(newFile("b", 0), 0);
+        instance.added(newFile("c", 10), 10);
+
+        assertTrue(instance.removeCleanable(10000).isEmpty());
+        Thread.sleep(20);
+        List<File> files = instance.removeCleanable(10);
+        assertEquals(2, files.size());
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    public void testRemoveCleanableSkipsCompletedTempFiles() throws Exception {
+        File temp = newFile("a.tmp", 5);
+        instance.tempFileAdded(temp);
+        instance.tempFileRemoved(temp);
+        Thread.sleep(20);
+        assertTrue(instance.removeCleanable(10).isEmpty());
+    }
+
+    /* removeExcess() */
+
+    @Test
+    public void testRemoveExcessRemovesLeastRecentlyAccessedFiles()
+            throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 10);
+        File c = newFile("c", 10);
+        instance.added(a, 10);
+        instance.added(b, 10);
+        instance.added(c, 10);
+        instance.touch(a);
+
+        List<File> files = instance.removeExcess(15);
+        assertEquals(2, files.size());
+        assertTrue(files.contains(b));
+        assertTrue(files.contains(c));
+        assertEquals(10, instance.getByteSize());
+    }
+
+    /* removeExcess(long, String, long, ToIntFunction) */
+
+    @Test
+    public void testRemoveExcessInFolderWithoutFrequency() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 10);
+        File c = newFile("c", 10);
+        instance.added(a, 10);
+        instance.added(b, 10);
+        instance.added(c, 10);
+        instance.touch(a);
+
+        List<File> files = instance.removeExcess(15, "image", 0, null);
+        assertEquals(2, files.size());
+        assertTrue(files.contains(b));
+        assertTrue(files.contains(c));
+        assertEquals(10, instance.getByteSize("image"));
+    }
+
+    @Test
+    public void testRemoveExcessInFolderWithFrequency() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 10);
+        File c = newFile("c", 10);
+        instance.added(a, 10);
+        instance.added(b, 10);
+        instance.added(c, 10);
+        final String hotKey = instance.key(a);
+
+        // a is the least recently accessed, but the most frequently.
+        List<File> files = instance.removeExcess(15, "image", 0,
+                key -> key.equals(hotKey) ? 10 : 1);
+        assertEquals(2, files.size());
+        assertFalse(files.contains(a));
+    }
+
+    @Test
+    public void testRemoveExcessInFolderRespectsMinAge() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        instance.added(newFile("b", 10), 10);
+
+        assertTrue(instance.removeExcess(5, "image", 60000, null).isEmpty());
+        assertEquals(20, instance.getByteSize("image"));
+    }
+
+    @Test
+    public void testRemoveExcessIgnoresOtherFolders() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        assertTrue(instance.removeExcess(5, "info", 0, null).isEmpty());
+        assertEquals(1, instance.size());
+    }
+
+    /* removeExpired() */
+
+    @Test
+    public void testRemoveExpired() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 10);
+        instance.added(a, 10);
+        instance.added(b, 10);
+        Thread.sleep(100);
+        instance.touch(b);
+
+        List<File> files = instance.removeExpired(50, "image");
+        assertEquals(1, files.size());
+        assertEquals(a, files.get(0));
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    public void testRemoveExpiredIgnoresOtherFolders() throws Exception {
+        instance.added(newFile("a", 10), 10);
+        Thread.sleep(100);
+        assertTrue(instance.removeExpired(50, "info").isEmpty());
+        assertEquals(1, instance.size());
+    }
+
+    /* touch() */
+
+    @Test
+    public void testTouchAdoptsUnindexedFiles() throws Exception {
+        File file = newFile("a", 10);
+        assertEquals(file.lastModified(), instance.touch(file));
+        assertEquals(1, instance.size());
+        assertEquals(10, instance.getByteSize());
+    }
+
+    @Test
+    public void testTouchWithManyAccesses() throws Exception {
+        File a = newFile("a", 10);
+        File b = newFile("b", 10);
+        instance.added(a, 10);
+        instance.added(b, 10);
+        for (int i = 0; i < 1000; i++) {
+            instance.touch(a);
+        }
+
+        List<Map<String, Object>> stats = instance.getEntryStats("image", 10);
+        assertEquals(instance.key(a), stats.get(0).get("path"));
+        assertEquals(1000L, ((Number) stats.get(0).get("hits")).longValue());
+    }
+
+    @Test
+    public void testTouchIsPersisted() throws Exception {
+        File file = newFile("a", 10);
+        instance.added(file, 10);
+        Thread.sleep(1100);
+        instance.touch(file);
+        instance.close();
+
+        instance = newInstance();
+        instance.load();
+        assertTrue(instance.removeExpired(1000, "image").isEmpty());
+    }
+
+}
@@ -15,15 +15,20 @@ import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.test.TestUtil;
 import edu.illinois.library.cantaloupe.util.StringUtil;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static edu.illinois.library.cantaloupe.cache.FilesystemCache.getHashedStringBasedSubdirectory;
 import static edu.illinois.library.cantaloupe.cache.FilesystemCache.rootDerivativeImagePathname;
@@ -70,9 +75,24 @@ public class FilesystemCacheTest extends BaseTest {
 
     @After
     public void tearDown() throws IOException {
+        instance.shutdown();
         FileUtils.deleteDirectory(fixturePath);
     }
 
+    private void writeSourceImage(Identifier identifier, int length)
+            throws Exception {
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier)) {
+            os.write(new byte[length]);
+        }
+    }
+
+    private void writeDerivativeImage(OperationList ops, int length)
+            throws Exception {
+        try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+            os.write(new byte[length]);
+        }
+    }
+
     /* getHashedStringBasedSubdirectory(String) */
 
     @Test
@@ -140,13 +160,7 @@ public class FilesystemCacheTest extends BaseTest {
         instance.setMinCleanableAge(10000);
         instance.cleanUp();
 
-        Iterator<File> it = FileUtils.iterateFiles(fixturePath, null, true);
-        int count = 0;
-        while (it.hasNext()) {
-            it.next();
-            count++;
-        }
-        assertEquals(12, count);
+        assertEquals(12, TestUtil.countCachedFiles(fixturePath));
     }
 
     @Test
@@ -198,13 +212,7 @@ public class FilesystemCacheTest extends BaseTest {
 
         instance.cleanUp();
 
-        Iterator<File> it = FileUtils.iterateFiles(fixturePath, null, true);
-        int count = 0;
-        while (it.hasNext()) {
-            it.next();
-            count++;
-        }
-        assertEquals(3, count);
+        assertEquals(3, TestUtil.countCachedFiles(fixturePath));
     }
 
     /* derivativeImageFile(OperationList) */
@@ -293,6 +301,93 @@ public class FilesystemCacheTest extends BaseTest {
         // TODO: write this
     }
 
+    /* evictExcessSourceImages() */
+
+    @Test
+    public void testEvictExcessSourceImagesWithNoMaxSize() throws Exception {
+        instance.setMinEvictableSourceAge(0);
+        writeSourceImage(new Identifier("cats"), 100);
+        writeSourceImage(new Identifier("dogs"), 100);
+        instance.evictExcessSourceImages();
+        assertEquals(200, instance.getIndex().getByteSize("source"));
+    }
+
+    @Test
+    public void testEvictExcessSourceImagesWithLRUPolicy() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 250);
+        config.setProperty(Key.FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY, "LRU");
+        instance.setMinEvictableSourceAge(0);
+
+        final Identifier hot = new Identifier("hot");
+        writeSourceImage(hot, 100);
+        for (int i = 0; i < 5; i++) {
+            instance.getSourceImageFile(hot);
+        }
+        writeSourceImage(new Identifier("cats"), 100);
+        writeSourceImage(new Identifier("dogs"), 100);
+
+        instance.evictExcessSourceImages();
+        // The least recently accessed image is evicted, however popular.
+        assertFalse(instance.sourceImageFile(hot).exists());
+        assertEquals(200, instance.getIndex().getByteSize("source"));
+    }
+
+    @Test
+    public void testEvictExcessSourceImagesWithTinyLFUPolicy()
+            throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 250);
+        config.setProperty(Key.FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY,
+                "TinyLFU");
+        instance.setMinEvictableSourceAge(0);
+
+        final Identifier hot = new Identifier("hot");
+        writeSourceImage(hot, 100);
+        for (int i = 0; i < 5; i++) {
+            instance.getSourceImageFile(hot);
+        }
+        final Identifier cold = new Identifier("cats");
+        writeSourceImage(cold, 100);
+        writeSourceImage(new Identifier("dogs"), 100);
+        // Make the hot image the least recently accessed.
+        instance.getSourceImageFile(cold);
+        instance.getSourceImageFile(new Identifier("dogs"));
+
+        instance.evictExcessSourceImages();
+        assertTrue(instance.sourceImageFile(hot).exists());
+        assertEquals(200, instance.getIndex().getByteSize("source"));
+    }
+
+    @Test
+    public void testEvictExcessSourceImagesRespectsMinEvictableAge()
+            throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 150);
+        instance.setMinEvictableSourceAge(60000);
+        writeSourceImage(new Identifier("cats"), 100);
+        writeSourceImage(new Identifier("dogs"), 100);
+        instance.evictExcessSourceImages();
+        assertEquals(200, instance.getIndex().getByteSize("source"));
+    }
+
+    @Test
+    public void testNewSourceImageOutputStreamEvictsExcessSourceImagesAsynchronously()
+            throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 150);
+        instance.setMinEvictableSourceAge(0);
+        writeSourceImage(new Identifier("cats"), 100);
+        writeSourceImage(new Identifier("dogs"), 100);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (instance.getIndex().getByteSize("source") > 150 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(100, instance.getIndex().getByteSize("source"));
+    }
+
     /* getImageInfo(Identifier) */
 
     @Test
@@ -356,6 +451,69 @@ public class FilesystemCacheTest extends BaseTest {
         assertFalse(cacheFile.exists());
     }
 
+    @Test
+    public void testGetSourceImageFileDoesNotWaitForWritesOfOtherImages()
+            throws Exception {
+        Identifier identifier = new Identifier("cats");
+        File imageFile = instance.sourceImageFile(identifier);
+        imageFile.getParentFile().mkdirs();
+        imageFile.createNewFile();
+
+        try (OutputStream os = instance.newSourceImageOutputStream(
+                new Identifier("dogs"))) {
+            assertNotNull(instance.getSourceImageFile(identifier));
+        }
+    }
+
+    @Test
+    public void testGetSourceImageFileWaitsForWriteOfSameImage()
+            throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        final OutputStream os = instance.newSourceImageOutputStream(identifier);
+        os.write(new byte[] { 1, 2, 3 });
+
+        final AtomicReference<File> file = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                file.set(instance.getSourceImageFile(identifier));
+            } catch (CacheException e) {
+                fail(e.getMessage());
+            }
+        });
+        reader.start();
+        reader.join(200);
+        assertTrue(reader.isAlive());
+
+        os.close();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals(3, file.get().length());
+    }
+
+    /* getSourceImageStatistics(int) */
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetSourceImageStatistics() throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 5000);
+        final Identifier identifier = new Identifier("cats");
+        writeSourceImage(identifier, 100);
+        writeSourceImage(new Identifier("dogs"), 50);
+        instance.getSourceImageFile(identifier);
+        instance.getSourceImageFile(identifier);
+
+        Map<String, Object> stats = instance.getSourceImageStatistics(1);
+        assertEquals(5000L, stats.get("max_size"));
+        assertEquals(150L, stats.get("size"));
+        assertEquals("TinyLFU", stats.get("admission_policy"));
+        List<Map<String, Object>> entries =
+                (List<Map<String, Object>>) stats.get("entries");
+        assertEquals(1, entries.size());
+        assertEquals(100L, entries.get(0).get("size"));
+        assertEquals(2, entries.get(0).get("frequency"));
+    }
+
     /* infoFile(Identifier) */
 
     @Test
@@ -412,6 +570,30 @@ public class FilesystemCacheTest extends BaseTest {
 
     /* newDerivativeImageOutputStream(OperationList) */
 
+    @Test
+    public void testNewDerivativeImageOutputStreamEvictsLeastRecentlyUsedFiles()
+            throws Exception {
+        Configuration.getInstance().setProperty(Key.FILESYSTEMCACHE_MAX_SIZE,
+                2500);
+        OperationList ops1 = new OperationList(new Identifier("1"), Format.JPG);
+        OperationList ops2 = new OperationList(new Identifier("2"), Format.JPG);
+        OperationList ops3 = new OperationList(new Identifier("3"), Format.JPG);
+        OperationList ops4 = new OperationList(new Identifier("4"), Format.JPG);
+
+        writeDerivativeImage(ops1, 1000);
+        writeDerivativeImage(ops2, 1000);
+        instance.newDerivativeImageInputStream(ops1).close();
+        writeDerivativeImage(ops3, 1000);
+        assertEquals(3000, instance.getIndex().getByteSize());
+
+        writeDerivativeImage(ops4, 1000);
+        assertTrue(instance.derivativeImageFile(ops1).exists());
+        assertFalse(instance.derivativeImageFile(ops2).exists());
+        assertTrue(instance.derivativeImageFile(ops3).exists());
+        assertTrue(instance.derivativeImageFile(ops4).exists());
+        assertEquals(3000, instance.getIndex().getByteSize());
+    }
+
     @Test
     public void testNewDerivativeImageOutputStreamWithOpList() throws Exception {
         OperationList ops = TestUtil.newOperationList();
@@ -428,6 +610,58 @@ public class FilesystemCacheTest extends BaseTest {
         assertTrue(derivativeImagePath.exists());
     }
 
+    /* newSourceImageInputStream(Identifier) */
+
+    @Test
+    public void testNewSourceImageInputStreamWithMiss() throws Exception {
+        assertNull(instance.newSourceImageInputStream(new Identifier("cats")));
+    }
+
+    @Test
+    public void testNewSourceImageInputStreamWithHit() throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier)) {
+            os.write(new byte[] { 1, 2, 3 });
+        }
+        try (InputStream is = instance.newSourceImageInputStream(identifier)) {
+            assertArrayEquals(new byte[] { 1, 2, 3 }, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testNewSourceImageInputStreamReadsImageBeingWritten()
+            throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        final OutputStream os = instance.newSourceImageOutputStream(identifier);
+        os.write(new byte[] { 1, 2, 3 });
+
+        // Unlike getSourceImageFile(), this does not wait for the write to
+        // complete.
+        try (InputStream is = instance.newSourceImageInputStream(identifier)) {
+            assertNotNull(is);
+            assertEquals(1, is.read());
+            assertEquals(2, is.read());
+            assertEquals(3, is.read());
+
+            os.write(new byte[] { 4 });
+            assertEquals(4, is.read());
+
+            os.close();
+            assertEquals(-1, is.read());
+        }
+        assertEquals(4, instance.getSourceImageFile(identifier).length());
+    }
+
+    @Test
+    public void testNewSourceImageInputStreamDoesNotWaitForWritesOfOtherImages()
+            throws Exception {
+        try (OutputStream os = instance.newSourceImageOutputStream(
+                new Identifier("dogs"))) {
+            assertNull(instance.newSourceImageInputStream(
+                    new Identifier("cats")));
+        }
+    }
+
     /* newSourceImageOutputStream(Identifier) */
 
     @Test
@@ -435,6 +669,23 @@ public class FilesystemCacheTest extends BaseTest {
         assertNotNull(instance.newSourceImageOutputStream(new Identifier("cats")));
     }
 
+    @Test
+    public void testNewSourceImageOutputStreamWithIdentifierBeingWritten()
+            throws Exception {
+        Identifier identifier = new Identifier("cats");
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier);
+             OutputStream os2 = instance.newSourceImageOutputStream(identifier);
+             OutputStream os3 = instance.newSourceImageOutputStream(
+                     new Identifier("dogs"))) {
+            assertFalse(os instanceof FilesystemCache.NullOutputStream);
+            assertTrue(os2 instanceof FilesystemCache.NullOutputStream);
+            assertFalse(os3 instanceof FilesystemCache.NullOutputStream);
+        }
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier)) {
+            assertFalse(os instanceof FilesystemCache.NullOutputStream);
+        }
+    }
+
     @Test
     public void testNewSourceImageOutputStreamWithIdentifierCreatesFolder()
             throws Exception {
@@ -499,13 +750,7 @@ public class FilesystemCacheTest extends BaseTest {
 
         instance.purge();
 
-        Iterator<File> it = FileUtils.iterateFiles(fixturePath, null, true);
-        int count = 0;
-        while (it.hasNext()) {
-            it.next();
-            count++;
-        }
-        assertEquals(0, count);
+        assertEquals(0, TestUtil.countCachedFiles(fixturePath));
     }
 
     /* purge(OperationsList) */
@@ -561,6 +806,24 @@ public class FilesystemCacheTest extends BaseTest {
         assertEquals(0, FileUtils.listFiles(infoPath, null, true).size());
     }
 
+    @Test
+    public void testPurgeExpiredUsesIndexedAccessTimes() throws Exception {
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 1);
+        OperationList ops1 = new OperationList(new Identifier("1"), Format.JPG);
+        OperationList ops2 = new OperationList(new Identifier("2"), Format.JPG);
+        writeDerivativeImage(ops1, 100);
+        writeDerivativeImage(ops2, 100);
+
+        Thread.sleep(600);
+        instance.newDerivativeImageInputStream(ops1).close();
+        Thread.sleep(600);
+
+        instance.purgeExpired();
+        assertTrue(instance.derivativeImageFile(ops1).exists());
+        assertFalse(instance.derivativeImageFile(ops2).exists());
+        assertEquals(1, instance.getIndex().size());
+    }
+
     /* purge(Identifier) */
 
     @Test
@@ -612,6 +875,18 @@ public class FilesystemCacheTest extends BaseTest {
 
     /* put(Identifier, Info) */
 
+    @Test
+    public void testPutIsIndexedAcrossInstances() throws Exception {
+        instance.put(new Identifier("cats"), new Info(52, 42));
+        writeDerivativeImage(TestUtil.newOperationList(), 100);
+        instance.shutdown();
+
+        instance = new FilesystemCache();
+        assertEquals(2, instance.getLoadedIndex().size());
+        assertEquals(100 + instance.infoFile(new Identifier("cats")).length(),
+                instance.getIndex().getByteSize());
+    }
+
     @Test
     public void testPut() throws CacheException {
         Identifier identifier = new Identifier("cats");
@@ -684,6 +959,20 @@ public class FilesystemCacheTest extends BaseTest {
         }
     }
 
+    /* shutdown() */
+
+    @Test
+    public void testShutdownKeepsIndexUsedByOtherInstances() throws Exception {
+        final FilesystemCacheIndex index = instance.getLoadedIndex();
+        final FilesystemCache other = new FilesystemCache();
+        assertSame(index, other.getIndex());
+        other.shutdown();
+
+        assertSame(index, instance.getIndex());
+        writeDerivativeImage(TestUtil.newOperationList(), 100);
+        assertEquals(100, index.getByteSize());
+    }
+
     /* sourceImageFile(Identifier) */
 
     @Test
@@ -0,0 +1,75 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrequencySketchTest extends BaseTest {
+
+    private FrequencySketch instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new FrequencySketch(1024);
+    }
+
+    /* frequency() */
+
+    @Test
+    public void testFrequencyOfUnknownKey() {
+        assertEquals(0, instance.frequency("cats"));
+    }
+
+    /* increment() */
+
+    @Test
+    public void testIncrement() {
+        instance.increment("cats");
+        instance.increment("cats");
+        instance.increment("dogs");
+        assertEquals(2, instance.frequency("cats"));
+        assertEquals(1, instance.frequency("dogs"));
+    }
+
+    @Test
+    public void testIncrementSaturates() {
+        for (int i = 0; i < 100; i++) {
+            instance.increment("cats");
+        }
+        assertEquals(15, instance.frequency("cats"));
+    }
+
+    @Test
+    public void testIncrementDistinguishesManyKeys() {
+        for (int i = 0; i < 500; i++) {
+            instance.increment("key" + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            instance.increment("hot");
+        }
+        assertTrue(instance.frequency("hot") >= 5);
+        int numOverestimated = 0;
+        for (int i = 0; i < 500; i++) {
+            if (instance.frequency("key" + i) > 1) {
+                numOverestimated++;
+            }
+        }
+        assertTrue(numOverestimated < 25);
+    }
+
+    @Test
+    public void testIncrementAgesCounters() {
+        for (int i = 0; i < 8; i++) {
+            instance.increment("cats");
+        }
+        // Enough additions to trigger a reset.
+        for (int i = 0; i < 10 * 2048; i++) {
+            instance.increment("key" + i);
+        }
+        assertTrue(instance.frequency("cats") <= 4);
+    }
+
+}
@@ -0,0 +1,125 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class GrowingFileTest extends BaseTest {
+
+    private File file;
+    private FileOutputStream outputStream;
+    private GrowingFile instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        file = new File(TestUtil.getTempFolder(), "growing.tmp");
+        outputStream = new FileOutputStream(file);
+        instance = new GrowingFile(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outputStream.close();
+        file.delete();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        outputStream.flush();
+        instance.advance(bytes.length);
+    }
+
+    /* abandon() */
+
+    @Test
+    public void testAbandonCausesReadersToFail() throws Exception {
+        write(new byte[] { 1, 2 });
+        try (InputStream is = instance.newInputStream()) {
+            assertEquals(1, is.read());
+            assertEquals(2, is.read());
+            instance.abandon();
+            is.read();
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+    }
+
+    @Test
+    public void testAbandonAfterCompleteDoesNothing() throws Exception {
+        write(new byte[] { 1, 2 });
+        instance.complete();
+        instance.abandon();
+        try (InputStream is = instance.newInputStream()) {
+            assertArrayEquals(new byte[] { 1, 2 }, IOUtils.toByteArray(is));
+        }
+    }
+
+    /* newInputStream() */
+
+    @Test
+    public void testNewInputStreamReadsWhileWriting() throws Exception {
+        write(new byte[] { 1, 2, 3 });
+
+        final AtomicReference<byte[]> result = new AtomicReference<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            try (InputStream is = instance.newInputStream()) {
+                result.set(IOUtils.toByteArray(is));
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        reader.join(200);
+        // The reader is waiting for more data.
+        assertTrue(reader.isAlive());
+
+        write(new byte[] { 4, 5 });
+        reader.join(200);
+        assertTrue(reader.isAlive());
+
+        instance.complete();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertNull(failure.get());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, result.get());
+    }
+
+    @Test
+    public void testNewInputStreamReadsAfterRename() throws Exception {
+        write(new byte[] { 1, 2, 3 });
+        try (InputStream is = instance.newInputStream()) {
+            assertEquals(1, is.read());
+            File renamed = new File(file.getParentFile(), "growing.renamed");
+            try {
+                assertTrue(file.renameTo(renamed));
+                instance.complete();
+                byte[] rest = IOUtils.toByteArray(is);
+                assertArrayEquals(new byte[] { 2, 3 }, rest);
+            } finally {
+                renamed.delete();
+            }
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testNewInputStreamWithMissingFile() throws Exception {
+        file.delete();
+        instance.newInputStream();
+    }
+
+}
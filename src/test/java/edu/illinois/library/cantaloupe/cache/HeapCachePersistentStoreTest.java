@@ -0,0 +1,334 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class HeapCachePersistentStoreTest extends BaseTest {
+
+    private static final String IMAGE = "jpg-rgb-64x56x8-baseline.jpg";
+
+    private Path cacheDir;
+    private HeapCache cache;
+    private HeapCachePersistentStore instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cacheDir = Files.createTempDirectory("cantaloupe");
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_TARGET_SIZE, Math.pow(1024, 2));
+        config.setProperty(Key.HEAPCACHE_PATHNAME, cacheDir.toString());
+
+        cache = new HeapCache();
+        instance = cache.getPersistentStore();
+        instance.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instance.stop();
+        FileUtils.deleteDirectory(cacheDir.toFile());
+    }
+
+    private static void writeImage(HeapCache cache, OperationList opList)
+            throws Exception {
+        try (OutputStream os = cache.newDerivativeImageOutputStream(opList)) {
+            Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        }
+    }
+
+    /**
+     * @return New cache loaded from the segments written by {@link #cache}.
+     */
+    private HeapCache reload() throws Exception {
+        instance.flushQueue();
+        instance.stop();
+        HeapCache newCache = new HeapCache();
+        newCache.loadFromPersistentStore();
+        return newCache;
+    }
+
+    /* added() */
+
+    @Test
+    public void testAddedImagesAndInfosAreAppendedInTheBackground()
+            throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(cache, opList);
+        Info info = new Info(64, 56);
+        cache.put(identifier, info);
+
+        HeapCache newCache = reload();
+        assertEquals(2, newCache.size());
+        assertNotNull(newCache.newDerivativeImageInputStream(opList));
+        assertEquals(info, newCache.getImageInfo(identifier));
+    }
+
+    /* compact() */
+
+    @Test
+    public void testCompact() throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        for (int i = 0; i < 3; i++) {
+            cache.purge(opList);
+            writeImage(cache, opList);
+        }
+        instance.flushQueue();
+        final long sizeBefore = instance.getByteSize();
+
+        instance.compact();
+
+        assertTrue(instance.getByteSize() < sizeBefore);
+        HeapCache newCache = reload();
+        assertEquals(1, newCache.size());
+        assertNotNull(newCache.newDerivativeImageInputStream(opList));
+    }
+
+    /* load() */
+
+    @Test
+    public void testLoadWithTruncatedSegment() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        cache.put(identifier, new Info(64, 56));
+        writeImage(cache, new OperationList(identifier, Format.JPG));
+        instance.flushQueue();
+        instance.stop();
+
+        // Chop off the end of the image record, as if the application had
+        // crashed while writing it.
+        File segment = cacheDir.toFile().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 100);
+        }
+
+        HeapCache newCache = new HeapCache();
+        newCache.loadFromPersistentStore();
+        assertEquals(1, newCache.size());
+        assertNotNull(newCache.getImageInfo(identifier));
+    }
+
+    @Test
+    public void testLoadWithSegmentEndingAfterRecordType() throws Exception {
+        Identifier identifier1 = new Identifier("cats");
+        cache.put(identifier1, new Info(64, 56));
+        instance.flushQueue();
+        instance.stop();
+
+        // Leave a record type with nothing after it at the end of the first
+        // segment.
+        File segment = cacheDir.toFile().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length());
+            file.write(1);
+        }
+
+        // Append a second segment.
+        cache = new HeapCache();
+        instance = cache.getPersistentStore();
+        instance.start();
+        Identifier identifier2 = new Identifier("dogs");
+        cache.put(identifier2, new Info(64, 56));
+
+        HeapCache newCache = reload();
+        assertNotNull(newCache.getImageInfo(identifier1));
+        assertNotNull(newCache.getImageInfo(identifier2));
+    }
+
+    @Test
+    public void testLoadDoesNotReplaceNewerItems() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        cache.put(identifier, new Info(64, 56));
+        instance.flushQueue();
+        instance.stop();
+
+        HeapCache newCache = new HeapCache();
+        Info newerInfo = new Info(100, 100);
+        newCache.put(identifier, newerInfo);
+        newCache.loadFromPersistentStore();
+
+        assertEquals(newerInfo, newCache.getImageInfo(identifier));
+    }
+
+    /**
+     * @param onFirstRestore Run before the first item is restored.
+     * @return New cache, not yet loaded.
+     */
+    private static HeapCache newCacheRunningOnFirstRestore(
+            Runnable onFirstRestore) throws Exception {
+        final AtomicBoolean isFirst = new AtomicBoolean(true);
+        return new HeapCache() {
+            @Override
+            void restore(HeapCache.Key key, HeapCache.Item item) {
+                if (isFirst.getAndSet(false)) {
+                    onFirstRestore.run();
+                }
+                super.restore(key, item);
+            }
+        };
+    }
+
+    @Test
+    public void testLoadDoesNotRestoreImagesPurgedWhileLoading()
+            throws Exception {
+        OperationList opList1 = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        OperationList opList2 = new OperationList(new Identifier("dogs"),
+                Format.JPG);
+        writeImage(cache, opList1);
+        writeImage(cache, opList2);
+        instance.flushQueue();
+        instance.stop();
+
+        final HeapCache[] newCache = new HeapCache[1];
+        newCache[0] = newCacheRunningOnFirstRestore(
+                () -> newCache[0].purge(opList2));
+        newCache[0].loadFromPersistentStore();
+
+        assertNotNull(newCache[0].newDerivativeImageInputStream(opList1));
+        assertNull(newCache[0].newDerivativeImageInputStream(opList2));
+    }
+
+    @Test
+    public void testLoadDoesNotRestoreIdentifiersPurgedWhileLoading()
+            throws Exception {
+        Identifier identifier = new Identifier("dogs");
+        cache.put(new Identifier("cats"), new Info(64, 56));
+        cache.put(identifier, new Info(64, 56));
+        writeImage(cache, new OperationList(identifier, Format.JPG));
+        instance.flushQueue();
+        instance.stop();
+
+        final HeapCache[] newCache = new HeapCache[1];
+        newCache[0] = newCacheRunningOnFirstRestore(
+                () -> newCache[0].purge(identifier));
+        newCache[0].loadFromPersistentStore();
+
+        assertEquals(1, newCache[0].size());
+        assertNull(newCache[0].getImageInfo(identifier));
+    }
+
+    @Test
+    public void testLoadWithPurgeWhileLoadingDefersSegmentDeletion()
+            throws Exception {
+        cache.put(new Identifier("cats"), new Info(64, 56));
+        cache.put(new Identifier("dogs"), new Info(64, 56));
+        instance.flushQueue();
+        instance.stop();
+        final File[] segments = cacheDir.toFile().listFiles();
+        assertTrue(segments.length > 0);
+
+        final AtomicBoolean segmentsExistAfterPurge = new AtomicBoolean();
+        final HeapCache[] newCache = new HeapCache[1];
+        newCache[0] = newCacheRunningOnFirstRestore(() -> {
+            try {
+                newCache[0].purge();
+            } catch (CacheException e) {
+                fail(e.getMessage());
+            }
+            segmentsExistAfterPurge.set(
+                    Arrays.stream(segments).allMatch(File::exists));
+        });
+        newCache[0].loadFromPersistentStore();
+
+        assertTrue(segmentsExistAfterPurge.get());
+        assertEquals(0, newCache[0].size());
+        assertEquals(0, cacheDir.toFile().listFiles().length);
+    }
+
+    /* HeapCachePersistentStore() */
+
+    @Test
+    public void testConstructorMigratesLegacyFile() throws Exception {
+        Path legacyPath = cacheDir.resolve("legacy");
+        try (OutputStream os = Files.newOutputStream(legacyPath)) {
+            HeapCacheProtos.Cache.newBuilder().
+                    addInfo(HeapCacheProtos.Info.newBuilder().
+                            setIdentifier("cats").
+                            setLastAccessed(System.currentTimeMillis()).
+                            setJson(new Info(64, 56).toJSON())).
+                    build().writeTo(os);
+        }
+        Configuration.getInstance().setProperty(Key.HEAPCACHE_PATHNAME,
+                legacyPath.toString());
+
+        HeapCache newCache = new HeapCache();
+        newCache.loadFromPersistentStore();
+
+        assertTrue(Files.isDirectory(legacyPath));
+        assertFalse(Files.exists(cacheDir.resolve("legacy.legacy")));
+        assertEquals(new Info(64, 56),
+                newCache.getImageInfo(new Identifier("cats")));
+    }
+
+    /* identifierPurged() */
+
+    @Test
+    public void testIdentifierPurged() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(cache, opList);
+        cache.put(identifier, new Info(64, 56));
+        cache.put(new Identifier("dogs"), new Info(64, 56));
+        cache.purge(identifier);
+
+        HeapCache newCache = reload();
+        assertEquals(1, newCache.size());
+        assertNull(newCache.getImageInfo(identifier));
+        assertNull(newCache.newDerivativeImageInputStream(opList));
+    }
+
+    /* imagePurged() */
+
+    @Test
+    public void testImagePurged() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(cache, opList);
+        cache.put(identifier, new Info(64, 56));
+        cache.purge(opList);
+
+        HeapCache newCache = reload();
+        assertEquals(1, newCache.size());
+        assertNull(newCache.newDerivativeImageInputStream(opList));
+    }
+
+    /* purged() */
+
+    @Test
+    public void testPurged() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        writeImage(cache, new OperationList(identifier, Format.JPG));
+        cache.put(identifier, new Info(64, 56));
+        cache.purge();
+
+        instance.flushQueue();
+        assertEquals(0, instance.getByteSize());
+
+        HeapCache newCache = reload();
+        assertEquals(0, newCache.size());
+    }
+
+}
@@ -1,5 +1,6 @@
 package edu.illinois.library.cantaloupe.cache;
 
+import com.google.protobuf.ByteString;
 import edu.illinois.library.cantaloupe.config.ConfigurationException;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Format;
@@ -9,9 +10,12 @@ import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.image.Identifier;
 import edu.illinois.library.cantaloupe.operation.OperationList;
 import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -84,10 +88,9 @@ public class HeapCacheTest extends BaseTest {
         Configuration config = Configuration.getInstance();
         config.setProperty(Key.HEAPCACHE_PERSIST, true);
 
-        Path cacheFile = Files.createTempFile("cantaloupe", "tmp");
+        Path cacheDir = Files.createTempDirectory("cantaloupe");
         try {
-            Files.delete(cacheFile);
-            config.setProperty(Key.HEAPCACHE_PATHNAME, cacheFile.toString());
+            config.setProperty(Key.HEAPCACHE_PATHNAME, cacheDir.toString());
 
             // Seed an image
             Identifier id1 = new Identifier("cats");
@@ -98,11 +101,10 @@ public class HeapCacheTest extends BaseTest {
 
             instance.dumpToPersistentStore();
 
-            assertTrue(Files.exists(cacheFile));
-            long size = Files.size(cacheFile);
+            long size = FileUtils.sizeOfDirectory(cacheDir.toFile());
             assertTrue(size > 5000);
         } finally {
-            Files.deleteIfExists(cacheFile);
+            FileUtils.deleteDirectory(cacheDir.toFile());
         }
     }
 
@@ -147,6 +149,21 @@ public class HeapCacheTest extends BaseTest {
         assertNull(instance.getImageInfo(new Identifier("bogus")));
     }
 
+    /* getStats() */
+
+    @Test
+    public void testGetStats() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        instance.put(identifier, new Info(50, 40));
+
+        instance.getImageInfo(identifier);
+        instance.getImageInfo(new Identifier("bogus"));
+
+        assertEquals(1, instance.getStats().hitCount());
+        assertEquals(1, instance.getStats().missCount());
+        assertEquals(0, instance.getStats().evictionCount());
+    }
+
     /* getTargetByteSize() */
 
     @Test
@@ -206,10 +223,9 @@ public class HeapCacheTest extends BaseTest {
         Configuration config = Configuration.getInstance();
         config.setProperty(Key.HEAPCACHE_PERSIST, true);
 
-        Path cacheFile = Files.createTempFile("cantaloupe", "tmp");
+        Path cacheDir = Files.createTempDirectory("cantaloupe");
         try {
-            Files.delete(cacheFile);
-            config.setProperty(Key.HEAPCACHE_PATHNAME, cacheFile.toString());
+            config.setProperty(Key.HEAPCACHE_PATHNAME, cacheDir.toString());
 
             // Seed an image
             Identifier id1 = new Identifier("cats");
@@ -226,7 +242,7 @@ public class HeapCacheTest extends BaseTest {
 
             assertNotNull(instance.newDerivativeImageInputStream(ops1));
         } finally {
-            Files.deleteIfExists(cacheFile);
+            FileUtils.deleteDirectory(cacheDir.toFile());
         }
     }
 
@@ -378,6 +394,159 @@ public class HeapCacheTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testContentsAreEvictedWithoutPurgeExcess() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_TARGET_SIZE, 8000);
+        instance = new HeapCache();
+
+        // Seed two images, which together exceed the target size
+        for (String id : new String[] { "cats", "dogs" }) {
+            OperationList ops = new OperationList(new Identifier(id), Format.JPG);
+            try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+                Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+            }
+        }
+
+        assertEquals(5439, instance.getByteSize());
+        assertEquals(1, instance.size());
+        assertEquals(1, instance.getStats().evictionCount());
+    }
+
+    /* off-heap storage */
+
+    @Test
+    public void testOffHeapStorage() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        instance = new HeapCache();
+
+        OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+            Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        }
+
+        // The size is rounded up to the block size.
+        assertEquals(OffHeapStore.DEFAULT_BLOCK_SIZE, instance.getByteSize());
+
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertArrayEquals(Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()),
+                    IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testOffHeapItemsCanBeReadAfterEviction() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        instance = new HeapCache();
+
+        OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+            Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        }
+
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            instance.purge();
+            // Write something else that could reuse the purged item's memory.
+            OperationList ops2 = new OperationList(new Identifier("dogs"), Format.JPG);
+            try (OutputStream os = instance.newDerivativeImageOutputStream(ops2)) {
+                os.write(new byte[OffHeapStore.DEFAULT_BLOCK_SIZE]);
+            }
+            assertArrayEquals(Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()),
+                    IOUtils.toByteArray(is));
+        }
+        assertNull(instance.newDerivativeImageInputStream(ops));
+    }
+
+    @Test
+    public void testOffHeapOutputStreamAbort() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        instance = new HeapCache();
+
+        OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+        AbortableOutputStream os = (AbortableOutputStream)
+                instance.newDerivativeImageOutputStream(ops);
+        Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        os.abort();
+        os.close();
+
+        assertNull(instance.newDerivativeImageInputStream(ops));
+        assertEquals(0, instance.getOffHeapStore().getUsedByteSize());
+    }
+
+    @Test
+    public void testOffHeapOutputStreamCloseMoreThanOnce() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        instance = new HeapCache();
+
+        OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+        OutputStream os = instance.newDerivativeImageOutputStream(ops);
+        Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        os.close();
+        os.close();
+
+        assertEquals(OffHeapStore.DEFAULT_BLOCK_SIZE,
+                instance.getOffHeapStore().getUsedByteSize());
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertArrayEquals(Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()),
+                    IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testOffHeapStorageWithPersistence() throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        config.setProperty(Key.HEAPCACHE_PERSIST, true);
+        instance = new HeapCache();
+
+        Path cacheDir = Files.createTempDirectory("cantaloupe");
+        try {
+            config.setProperty(Key.HEAPCACHE_PATHNAME, cacheDir.toString());
+
+            OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+            try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+                Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+            }
+            instance.dumpToPersistentStore();
+
+            instance = new HeapCache();
+            instance.loadFromPersistentStore();
+            try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+                assertArrayEquals(Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()),
+                        IOUtils.toByteArray(is));
+            }
+        } finally {
+            FileUtils.deleteDirectory(cacheDir.toFile());
+        }
+    }
+
+    /* restore() */
+
+    @Test
+    public void testRestoreWithExistingItemFreesRestoredItem()
+            throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        instance = new HeapCache();
+
+        OperationList ops = new OperationList(new Identifier("cats"), Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+            Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        }
+        HeapCache.Key key = new HeapCache.Key(
+                ops.getIdentifier().toString(), ops.toString());
+        instance.restore(key, instance.newImageItem(ByteString.copyFrom(
+                Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()))));
+
+        assertFalse(instance.peek(key).isLoaded());
+        assertEquals(OffHeapStore.DEFAULT_BLOCK_SIZE,
+                instance.getOffHeapStore().getUsedByteSize());
+    }
+
     /* put(Identifier, Info) */
 
     @Test
@@ -0,0 +1,244 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.cache.InFlightRenderRegistry.InFlightRender;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class InFlightRenderRegistryTest extends BaseTest {
+
+    private InFlightRenderRegistry instance;
+    private OperationList opList;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new InFlightRenderRegistry(1024);
+        opList = new OperationList(new Identifier("cats"), Format.JPG);
+        opList.freeze();
+    }
+
+    /**
+     * Acquires the given operation list in another thread, which is necessary
+     * in order to become a follower.
+     */
+    private InFlightRender acquireInOtherThread(OperationList opList)
+            throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> instance.acquire(opList)).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private byte[] readInOtherThread(InFlightRender render,
+                                     Callable<Void> whileReading)
+            throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> future = executor.submit(() -> {
+                try (InputStream is = render.newInputStream()) {
+                    return IOUtils.toByteArray(is);
+                }
+            });
+            whileReading.call();
+            return future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* acquire() */
+
+    @Test
+    public void testAcquireWithNoRenderInFlight() {
+        InFlightRender render = instance.acquire(opList);
+        assertTrue(render.isLeader());
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    public void testAcquireWithRenderInFlight() throws Exception {
+        InFlightRender leader = instance.acquire(opList);
+        InFlightRender follower = acquireInOtherThread(opList);
+        assertSame(leader, follower);
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    public void testAcquireWithDifferentOperationLists() throws Exception {
+        instance.acquire(opList);
+        OperationList otherOpList =
+                new OperationList(new Identifier("dogs"), Format.JPG);
+        otherOpList.freeze();
+        InFlightRender render = acquireInOtherThread(otherOpList);
+        assertEquals(2, instance.size());
+        assertNotNull(render);
+    }
+
+    @Test
+    public void testAcquireWithUnfrozenOperationList() {
+        OperationList unfrozen =
+                new OperationList(new Identifier("dogs"), Format.JPG);
+        try {
+            instance.acquire(unfrozen);
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertFalse(unfrozen.isFrozen());
+            assertEquals(0, instance.size());
+        }
+    }
+
+    @Test
+    public void testAcquireAfterRenderHasCompleted() throws Exception {
+        InFlightRender render1 = instance.acquire(opList);
+        render1.complete();
+        assertEquals(0, instance.size());
+
+        InFlightRender render2 = instance.acquire(opList);
+        assertNotSame(render1, render2);
+        assertTrue(render2.isLeader());
+    }
+
+    @Test
+    public void testAcquireWithRenderTooBigToShare() throws Exception {
+        InFlightRender leader = instance.acquire(opList);
+        try (OutputStream os = leader.getOutputStream()) {
+            os.write(new byte[2048]);
+        }
+        assertEquals(0, instance.size());
+
+        // Should get an unshared render that it has to produce itself.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            boolean isLeader = executor.submit(() ->
+                    instance.acquire(opList).isLeader()).get();
+            assertTrue(isLeader);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* hasFollowers() */
+
+    @Test
+    public void testHasFollowers() throws Exception {
+        final InFlightRender leader = instance.acquire(opList);
+        assertFalse(leader.hasFollowers());
+
+        final InFlightRender follower = acquireInOtherThread(opList);
+        assertTrue(leader.hasFollowers());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                follower.newInputStream().close();
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+        assertFalse(leader.hasFollowers());
+    }
+
+    /* newInputStream() */
+
+    @Test
+    public void testFollowerReadsBytesWrittenBeforeAndAfterJoining()
+            throws Exception {
+        final InFlightRender leader = instance.acquire(opList);
+        final OutputStream os = leader.getOutputStream();
+        os.write(new byte[] { 1, 2, 3 });
+
+        final InFlightRender follower = acquireInOtherThread(opList);
+        byte[] bytes = readInOtherThread(follower, () -> {
+            Thread.sleep(50);
+            os.write(new byte[] { 4, 5 });
+            leader.complete();
+            return null;
+        });
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, bytes);
+    }
+
+    @Test
+    public void testFollowerReadsRenderSpanningMultipleChunks()
+            throws Exception {
+        instance = new InFlightRenderRegistry(1024 * 1024);
+        final InFlightRender leader = instance.acquire(opList);
+        final InFlightRender follower = acquireInOtherThread(opList);
+
+        final byte[] expected = new byte[200000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        byte[] bytes = readInOtherThread(follower, () -> {
+            OutputStream os = leader.getOutputStream();
+            for (int i = 0; i < expected.length; i += 1000) {
+                os.write(expected, i, 1000);
+            }
+            leader.complete();
+            return null;
+        });
+        assertArrayEquals(expected, bytes);
+    }
+
+    @Test
+    public void testFollowerReceivesLeaderFailure() throws Exception {
+        final InFlightRender leader = instance.acquire(opList);
+        final InFlightRender follower = acquireInOtherThread(opList);
+        try {
+            readInOtherThread(follower, () -> {
+                leader.getOutputStream().write(new byte[] { 1 });
+                leader.fail(new IOException("oops"));
+                return null;
+            });
+            fail("Expected exception");
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testAbortAfterCompletionDoesNothing() throws Exception {
+        final InFlightRender leader = instance.acquire(opList);
+        final InFlightRender follower = acquireInOtherThread(opList);
+        byte[] bytes = readInOtherThread(follower, () -> {
+            leader.getOutputStream().write(new byte[] { 1, 2 });
+            leader.complete();
+            leader.abort();
+            return null;
+        });
+        assertArrayEquals(new byte[] { 1, 2 }, bytes);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNewInputStreamByLeader() {
+        instance.acquire(opList).newInputStream();
+    }
+
+    /* newUnsharedRender() */
+
+    @Test
+    public void testNewUnsharedRender() {
+        InFlightRender render = instance.newUnsharedRender(opList);
+        assertTrue(render.isLeader());
+        assertEquals(0, instance.size());
+    }
+
+}
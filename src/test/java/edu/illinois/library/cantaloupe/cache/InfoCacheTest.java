@@ -0,0 +1,100 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InfoCacheTest extends BaseTest {
+
+    private InfoCache instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new InfoCache(100);
+    }
+
+    /* getInstance() */
+
+    @Test
+    public void testGetInstance() {
+        assertSame(InfoCache.getInstance(), InfoCache.getInstance());
+    }
+
+    /* get() */
+
+    @Test
+    public void testGetWithHit() {
+        final Identifier identifier = new Identifier("cats");
+        final Info info = new Info(50, 40);
+        instance.put(identifier, info);
+        assertSame(info, instance.get(identifier));
+    }
+
+    @Test
+    public void testGetWithMiss() {
+        assertNull(instance.get(new Identifier("cats")));
+    }
+
+    @Test
+    public void testGetWithExpiredInfo() throws Exception {
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 1);
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, new Info(50, 40));
+        assertNotNull(instance.get(identifier));
+
+        Thread.sleep(1100);
+        assertNull(instance.get(identifier));
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testGetWithZeroTTL() throws Exception {
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 0);
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, new Info(50, 40));
+        Thread.sleep(50);
+        assertNotNull(instance.get(identifier));
+    }
+
+    /* purge() */
+
+    @Test
+    public void testPurge() {
+        instance.put(new Identifier("cats"), new Info(50, 40));
+        instance.put(new Identifier("dogs"), new Info(50, 40));
+        instance.purge();
+        assertEquals(0, instance.size());
+    }
+
+    /* purge(Identifier) */
+
+    @Test
+    public void testPurgeWithIdentifier() {
+        final Identifier identifier = new Identifier("cats");
+        final Identifier otherIdentifier = new Identifier("dogs");
+        instance.put(identifier, new Info(50, 40));
+        instance.put(otherIdentifier, new Info(50, 40));
+        instance.purge(identifier);
+        assertNull(instance.get(identifier));
+        assertNotNull(instance.get(otherIdentifier));
+    }
+
+    /* put() */
+
+    @Test
+    public void testPutRespectsMaxSize() {
+        instance = new InfoCache(10);
+        for (int i = 0; i < 50; i++) {
+            instance.put(new Identifier("image" + i), new Info(50, 40));
+        }
+        assertTrue(instance.size() <= 10);
+    }
+
+}
@@ -11,10 +11,13 @@ import edu.illinois.library.cantaloupe.operation.OperationList;
 import edu.illinois.library.cantaloupe.operation.Rotate;
 import edu.illinois.library.cantaloupe.operation.Scale;
 import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.sql.Connection;
@@ -24,6 +27,8 @@ import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -55,6 +60,7 @@ public class JdbcCacheTest extends BaseTest {
 
     @After
     public void tearDown() throws CacheException {
+        instance.shutdown();
         instance.purge();
     }
 
@@ -83,6 +89,24 @@ public class JdbcCacheTest extends BaseTest {
                 JdbcCache.INFO_TABLE_LAST_ACCESSED_COLUMN);
         statement = connection.prepareStatement(sql);
         statement.execute();
+
+        // indexes
+        final String[][] indexes = {
+                { "operations_idx", JdbcCache.getDerivativeImageTableName(),
+                        JdbcCache.DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN },
+                { "image_last_accessed_idx",
+                        JdbcCache.getDerivativeImageTableName(),
+                        JdbcCache.DERIVATIVE_IMAGE_TABLE_LAST_ACCESSED_COLUMN },
+                { "identifier_idx", JdbcCache.getInfoTableName(),
+                        JdbcCache.INFO_TABLE_IDENTIFIER_COLUMN },
+                { "info_last_accessed_idx", JdbcCache.getInfoTableName(),
+                        JdbcCache.INFO_TABLE_LAST_ACCESSED_COLUMN } };
+        for (String[] index : indexes) {
+            sql = String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s);",
+                    index[0], index[1], index[2]);
+            statement = connection.prepareStatement(sql);
+            statement.execute();
+        }
     }
 
     private void seed(Connection connection) throws Exception {
@@ -220,9 +244,17 @@ public class JdbcCacheTest extends BaseTest {
             // run the clock
             Thread.sleep(10);
 
-            // update the last-accessed time
+            // access the info
             instance.getImageInfo(identifier);
 
+            // assert that the last-accessed time has not been written yet
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            assertEquals(time1, resultSet.getTimestamp(1));
+
+            // write it
+            instance.flushAccessTimes();
+
             // get the new last-accessed time
             resultSet = statement.executeQuery();
             resultSet.next();
@@ -240,7 +272,81 @@ public class JdbcCacheTest extends BaseTest {
             throws Exception {
         OperationList ops = TestUtil.newOperationList();
         ops.setIdentifier(new Identifier("cats"));
-        assertNotNull(instance.newDerivativeImageInputStream(ops));
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertNotNull(is);
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamReadsImage()
+            throws Exception {
+        OperationList ops = TestUtil.newOperationList();
+        ops.setIdentifier(new Identifier("cats"));
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertArrayEquals(
+                    Files.readAllBytes(TestUtil.getImage(IMAGE).toPath()),
+                    IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamReadsLargeImage()
+            throws Exception {
+        final byte[] image = new byte[JdbcCache.MAX_BUFFERED_IMAGE_SIZE + 100];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        OperationList ops = new OperationList(new Identifier("large"),
+                Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(ops)) {
+            os.write(image);
+        }
+
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            // Spooled to a temp file rather than held in memory.
+            assertTrue(is instanceof FileInputStream);
+            assertArrayEquals(image, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamDoesNotHoldConnection()
+            throws Exception {
+        OperationList ops = TestUtil.newOperationList();
+        ops.setIdentifier(new Identifier("cats"));
+        // Open more streams than there are connections in the pool, without
+        // closing any of them.
+        final int numStreams =
+                Runtime.getRuntime().availableProcessors() * 2 + 2;
+        final List<InputStream> streams = new ArrayList<>();
+        try {
+            for (int i = 0; i < numStreams; i++) {
+                InputStream is = instance.newDerivativeImageInputStream(ops);
+                assertNotNull(is);
+                streams.add(is);
+            }
+        } finally {
+            for (InputStream is : streams) {
+                is.close();
+            }
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithOpListIsValidWithPendingLastAccessedTime()
+            throws Exception {
+        OperationList ops = TestUtil.newOperationList();
+        ops.setIdentifier(new Identifier("cats"));
+
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 1);
+        Thread.sleep(800);
+        instance.newDerivativeImageInputStream(ops).close();
+        // The seed data has now expired in the database, but its pending
+        // last-accessed time has not.
+        Thread.sleep(400);
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertNotNull(is);
+        }
     }
 
     @Test
@@ -260,7 +366,9 @@ public class JdbcCacheTest extends BaseTest {
         }
 
         // existing, non-expired image
-        assertNotNull(instance.newDerivativeImageInputStream(ops));
+        try (InputStream is = instance.newDerivativeImageInputStream(ops)) {
+            assertNotNull(is);
+        }
 
         // existing, expired image
         ops = TestUtil.newOperationList();
@@ -296,8 +404,16 @@ public class JdbcCacheTest extends BaseTest {
             // run the clock
             Thread.sleep(10);
 
-            // update the last-accessed time
-            instance.newDerivativeImageInputStream(opList);
+            // access the image
+            instance.newDerivativeImageInputStream(opList).close();
+
+            // assert that the last-accessed time has not been written yet
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            assertEquals(time1, resultSet.getTimestamp(1));
+
+            // write it
+            instance.flushAccessTimes();
 
             // get the new last-accessed time
             resultSet = statement.executeQuery();
@@ -435,6 +551,41 @@ public class JdbcCacheTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testPurgeExpiredDoesNotPurgeRecentlyAccessedContent()
+            throws Exception {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.CACHE_SERVER_TTL, 1);
+
+        Thread.sleep(800);
+        // access some seed data before it expires
+        OperationList ops = TestUtil.newOperationList();
+        ops.setIdentifier(new Identifier("cats"));
+        instance.newDerivativeImageInputStream(ops).close();
+        instance.getImageInfo(new Identifier("cats"));
+        Thread.sleep(400);
+
+        instance.purgeExpired();
+
+        try (Connection connection = JdbcCache.getConnection()) {
+            String sql = String.format("SELECT COUNT(%s) AS count FROM %s",
+                    JdbcCache.DERIVATIVE_IMAGE_TABLE_OPERATIONS_COLUMN,
+                    config.getString(Key.JDBCCACHE_DERIVATIVE_IMAGE_TABLE));
+            PreparedStatement statement = connection.prepareStatement(sql);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            assertEquals(1, resultSet.getInt("count"));
+
+            sql = String.format("SELECT COUNT(%s) AS count FROM %s",
+                    JdbcCache.INFO_TABLE_IDENTIFIER_COLUMN,
+                    config.getString(Key.JDBCCACHE_INFO_TABLE));
+            statement = connection.prepareStatement(sql);
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            assertEquals(1, resultSet.getInt("count"));
+        }
+    }
+
     /* purge(Identifier) */
 
     @Test
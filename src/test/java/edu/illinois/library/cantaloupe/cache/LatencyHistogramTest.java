@@ -0,0 +1,118 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest extends BaseTest {
+
+    private static final double DELTA = 0.00001;
+
+    private LatencyHistogram instance;
+
+    private static long msec(long msec) {
+        return TimeUnit.MILLISECONDS.toNanos(msec);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new LatencyHistogram();
+    }
+
+    /* getMax() */
+
+    @Test
+    public void testGetMax() {
+        instance.record(msec(3));
+        instance.record(msec(40));
+        instance.record(msec(7));
+        assertEquals(40, instance.getMax(), DELTA);
+    }
+
+    /* getMean() */
+
+    @Test
+    public void testGetMean() {
+        instance.record(msec(10));
+        instance.record(msec(30));
+        assertEquals(20, instance.getMean(), DELTA);
+    }
+
+    @Test
+    public void testGetMeanWithNoRecords() {
+        assertEquals(0, instance.getMean(), DELTA);
+    }
+
+    /* getPercentile() */
+
+    @Test
+    public void testGetPercentile() {
+        for (int i = 0; i < 90; i++) {
+            instance.record(msec(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            instance.record(msec(150));
+        }
+        assertEquals(1, instance.getPercentile(50), DELTA);
+        assertEquals(1, instance.getPercentile(90), DELTA);
+        // 150 msec falls into the 100-200 msec bucket, but the maximum is
+        // a tighter bound.
+        assertEquals(150, instance.getPercentile(95), DELTA);
+        assertEquals(150, instance.getPercentile(99), DELTA);
+    }
+
+    @Test
+    public void testGetPercentileWithUnboundedBucket() {
+        instance.record(msec(30000));
+        assertEquals(30000, instance.getPercentile(50), DELTA);
+    }
+
+    @Test
+    public void testGetPercentileWithNoRecords() {
+        assertEquals(0, instance.getPercentile(99), DELTA);
+    }
+
+    /* record() */
+
+    @Test
+    public void testRecordWithNegativeValue() {
+        instance.record(-5);
+        assertEquals(1, instance.getCount());
+        assertEquals(0, instance.getMax(), DELTA);
+    }
+
+    /* reset() */
+
+    @Test
+    public void testReset() {
+        instance.record(msec(5));
+        instance.reset();
+        assertEquals(0, instance.getCount());
+        assertEquals(0, instance.getMax(), DELTA);
+        assertEquals(0, instance.getPercentile(50), DELTA);
+    }
+
+    /* toMap() */
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testToMap() {
+        instance.record(msec(3));
+        instance.record(msec(20000));
+        final Map<String,Object> map = instance.toMap();
+        assertEquals(2L, map.get("count"));
+        final Map<String,Long> buckets = (Map<String,Long>) map.get("buckets");
+        assertEquals(LatencyHistogram.BUCKET_BOUNDS_MSEC.length + 1,
+                buckets.size());
+        assertEquals(1L, (long) buckets.get("5"));
+        assertEquals(1L, (long) buckets.get("+Inf"));
+        assertEquals(0L, (long) buckets.get("1"));
+    }
+
+}
@@ -0,0 +1,49 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.junit.Assert.*;
+
+public class LockStripesTest extends BaseTest {
+
+    /* LockStripes(int) */
+
+    @Test
+    public void testConstructorRoundsUpToPowerOfTwo() {
+        assertEquals(1, new LockStripes(0).size());
+        assertEquals(1, new LockStripes(1).size());
+        assertEquals(4, new LockStripes(3).size());
+        assertEquals(256, new LockStripes(256).size());
+        assertEquals(512, new LockStripes(257).size());
+    }
+
+    /* get(Object) */
+
+    @Test
+    public void testGetReturnsSameLockForEqualKeys() {
+        LockStripes instance = new LockStripes(64);
+        assertSame(instance.get(new Identifier("cats")),
+                instance.get(new Identifier("cats")));
+    }
+
+    @Test
+    public void testGetDistributesKeys() {
+        LockStripes instance = new LockStripes(64);
+        Set<ReadWriteLock> locks =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 1000; i++) {
+            locks.add(instance.get(new Identifier("image" + i)));
+        }
+        // Collisions are expected, but the keys should be spread across most
+        // of the stripes.
+        assertTrue(locks.size() > 48);
+    }
+
+}
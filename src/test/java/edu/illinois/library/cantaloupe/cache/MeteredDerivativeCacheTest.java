@@ -0,0 +1,170 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class MeteredDerivativeCacheTest extends BaseTest {
+
+    private CacheMetrics metrics;
+    private MeteredDerivativeCache instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_TARGET_SIZE, Math.pow(1024, 2));
+        config.setProperty(Key.CACHE_SERVER_TTL, 0);
+
+        metrics = new CacheMetrics("Test");
+        instance = new MeteredDerivativeCache(new HeapCache(), metrics);
+    }
+
+    /* getImageInfo() */
+
+    @Test
+    public void testGetImageInfo() throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        assertNull(instance.getImageInfo(identifier));
+        assertEquals(1, metrics.getInfoMisses());
+
+        instance.put(identifier, new Info(100, 80));
+        assertEquals(1, metrics.getWrites());
+
+        assertNotNull(instance.getImageInfo(identifier));
+        assertEquals(1, metrics.getInfoHits());
+        assertEquals(1, metrics.getInfoMisses());
+    }
+
+    /* getWrappedCache() */
+
+    @Test
+    public void testGetWrappedCache() {
+        assertTrue(instance.getWrappedCache() instanceof HeapCache);
+    }
+
+    /* newDerivativeImageInputStream() */
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithMiss() throws Exception {
+        OperationList opList =
+                new OperationList(new Identifier("cats"), Format.JPG);
+        assertNull(instance.newDerivativeImageInputStream(opList));
+        assertEquals(0, metrics.getHits());
+        assertEquals(1, metrics.getMisses());
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithHit() throws Exception {
+        OperationList opList =
+                new OperationList(new Identifier("cats"), Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(opList)) {
+            os.write(new byte[500]);
+        }
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            IOUtils.toByteArray(is);
+        }
+        assertEquals(1, metrics.getHits());
+        assertEquals(0, metrics.getMisses());
+        assertEquals(500, metrics.getBytesRead());
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithFileInputStream()
+            throws Exception {
+        final File cacheFolder = new File(TestUtil.getTempFolder(), "cache");
+        Configuration.getInstance().setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheFolder.getAbsolutePath());
+        final FilesystemCache cache = new FilesystemCache();
+        instance = new MeteredDerivativeCache(cache, metrics);
+        try {
+            OperationList opList =
+                    new OperationList(new Identifier("cats"), Format.JPG);
+            try (OutputStream os = instance.newDerivativeImageOutputStream(opList)) {
+                os.write(new byte[500]);
+            }
+            // Readers that can use the file's channel directly, e.g. to send
+            // a byte range, must still be able to.
+            try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+                assertTrue(is instanceof FileInputStream);
+            }
+            assertEquals(1, metrics.getHits());
+            assertEquals(500, metrics.getBytesRead());
+        } finally {
+            cache.shutdown();
+            FileUtils.deleteDirectory(cacheFolder);
+        }
+    }
+
+    /* newDerivativeImageOutputStream() */
+
+    @Test
+    public void testNewDerivativeImageOutputStream() throws Exception {
+        OperationList opList =
+                new OperationList(new Identifier("cats"), Format.JPG);
+        try (OutputStream os = instance.newDerivativeImageOutputStream(opList)) {
+            assertEquals(1, metrics.getInFlightWrites());
+            os.write(new byte[500]);
+        }
+        assertEquals(0, metrics.getInFlightWrites());
+        assertEquals(1, metrics.getWrites());
+        assertEquals(500, metrics.getBytesWritten());
+    }
+
+    /* setEvictionListener() */
+
+    @Test
+    public void testEvictionsAreRecorded() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            OperationList opList =
+                    new OperationList(new Identifier("cats" + i), Format.JPG);
+            try (OutputStream os = instance.newDerivativeImageOutputStream(opList)) {
+                os.write(new byte[500 * 1024]);
+            }
+        }
+        ((HeapCache) instance.getWrappedCache()).purgeExcess();
+
+        // The removal listener runs asynchronously.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getEvictions() < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /* purge() */
+
+    @Test
+    public void testPurge() throws Exception {
+        instance.purge();
+        instance.purge(new Identifier("cats"));
+        instance.purge(new OperationList(new Identifier("cats"), Format.JPG));
+        instance.purgeExpired();
+        assertEquals(4, metrics.getPurges());
+    }
+
+    /* toString() */
+
+    @Test
+    public void testToString() {
+        assertEquals("HeapCache", instance.toString());
+    }
+
+}
@@ -0,0 +1,130 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class MeteredSourceCacheTest extends BaseTest {
+
+    private File cacheFolder;
+    private CacheMetrics metrics;
+    private MeteredSourceCache instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cacheFolder = new File(
+                TestUtil.getTempFolder().getAbsolutePath() + "/cache");
+        if (cacheFolder.exists()) {
+            FileUtils.cleanDirectory(cacheFolder);
+        } else {
+            cacheFolder.mkdir();
+        }
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheFolder.getAbsolutePath());
+        config.setProperty(Key.CACHE_SERVER_TTL, 0);
+
+        metrics = new CacheMetrics("Test");
+        instance = new MeteredSourceCache(new FilesystemCache(), metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        instance.shutdown();
+        FileUtils.deleteDirectory(cacheFolder);
+    }
+
+    /* getSourceImageFile() */
+
+    @Test
+    public void testGetSourceImageFileWithMiss() throws Exception {
+        assertNull(instance.getSourceImageFile(new Identifier("cats")));
+        assertEquals(1, metrics.getMisses());
+        assertEquals(0, metrics.getBytesRead());
+    }
+
+    @Test
+    public void testGetSourceImageFileWithHit() throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier)) {
+            os.write(new byte[300]);
+        }
+        assertNotNull(instance.getSourceImageFile(identifier));
+        assertEquals(1, metrics.getHits());
+        assertEquals(300, metrics.getBytesRead());
+    }
+
+    /* newSourceImageInputStream() */
+
+    @Test
+    public void testNewSourceImageInputStreamWithMiss() throws Exception {
+        assertNull(instance.newSourceImageInputStream(new Identifier("cats")));
+        assertEquals(1, metrics.getMisses());
+    }
+
+    @Test
+    public void testNewSourceImageInputStreamWithHit() throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        try (OutputStream os = instance.newSourceImageOutputStream(identifier)) {
+            os.write(new byte[300]);
+        }
+        try (InputStream is = instance.newSourceImageInputStream(identifier)) {
+            IOUtils.toByteArray(is);
+        }
+        assertEquals(1, metrics.getHits());
+        assertEquals(300, metrics.getBytesRead());
+    }
+
+    /* newSourceImageOutputStream() */
+
+    @Test
+    public void testNewSourceImageOutputStream() throws Exception {
+        try (OutputStream os =
+                     instance.newSourceImageOutputStream(new Identifier("cats"))) {
+            assertEquals(1, metrics.getInFlightWrites());
+            os.write(new byte[300]);
+        }
+        assertEquals(0, metrics.getInFlightWrites());
+        assertEquals(1, metrics.getWrites());
+        assertEquals(300, metrics.getBytesWritten());
+    }
+
+    @Test
+    public void testNewSourceImageOutputStreamAbortsWrappedStream()
+            throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        final OutputStream os = instance.newSourceImageOutputStream(identifier);
+        os.write(new byte[300]);
+        AbortableOutputStream.abortOrClose(os);
+
+        assertNull(instance.getSourceImageFile(identifier));
+        assertEquals(0, metrics.getInFlightWrites());
+        assertEquals(0, metrics.getWrites());
+        assertEquals(1, metrics.getWriteFailures());
+    }
+
+    /* purge() */
+
+    @Test
+    public void testPurge() throws Exception {
+        instance.purge(new Identifier("cats"));
+        assertEquals(1, metrics.getPurges());
+    }
+
+}
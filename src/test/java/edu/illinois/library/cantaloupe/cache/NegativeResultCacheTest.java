@@ -0,0 +1,149 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+
+import static org.junit.Assert.*;
+
+public class NegativeResultCacheTest extends BaseTest {
+
+    private static final String RESOLVER = "FilesystemResolver";
+
+    private NegativeResultCache instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Configuration.getInstance().setProperty(Key.NEGATIVE_CACHE_TTL, 60);
+        instance = new NegativeResultCache(100);
+    }
+
+    /* getInstance() */
+
+    @Test
+    public void testGetInstance() {
+        assertSame(NegativeResultCache.getInstance(),
+                NegativeResultCache.getInstance());
+    }
+
+    /* get() */
+
+    @Test
+    public void testGetWithFileNotFoundException() {
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new FileNotFoundException("nope"));
+        IOException e = instance.get(identifier, RESOLVER);
+        assertTrue(e instanceof FileNotFoundException);
+        assertEquals("nope", e.getMessage());
+    }
+
+    @Test
+    public void testGetWithAccessDeniedException() {
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new AccessDeniedException("nope"));
+        assertTrue(instance.get(identifier, RESOLVER) instanceof
+                AccessDeniedException);
+    }
+
+    @Test
+    public void testGetReturnsNewInstances() {
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new FileNotFoundException());
+        assertNotSame(instance.get(identifier, RESOLVER),
+                instance.get(identifier, RESOLVER));
+    }
+
+    @Test
+    public void testGetWithMiss() {
+        assertNull(instance.get(new Identifier("cats"), RESOLVER));
+    }
+
+    @Test
+    public void testGetWithDifferentResolver() {
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new FileNotFoundException());
+        assertNull(instance.get(identifier, "HttpResolver"));
+    }
+
+    @Test
+    public void testGetWithExpiredFailure() throws Exception {
+        Configuration.getInstance().setProperty(Key.NEGATIVE_CACHE_TTL, 1);
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new FileNotFoundException());
+        assertNotNull(instance.get(identifier, RESOLVER));
+
+        Thread.sleep(1100);
+        assertNull(instance.get(identifier, RESOLVER));
+    }
+
+    @Test
+    public void testGetWithZeroTTL() {
+        final Identifier identifier = new Identifier("cats");
+        instance.put(identifier, RESOLVER, new FileNotFoundException());
+        Configuration.getInstance().setProperty(Key.NEGATIVE_CACHE_TTL, 0);
+        assertNull(instance.get(identifier, RESOLVER));
+    }
+
+    /* purge() */
+
+    @Test
+    public void testPurge() {
+        instance.put(new Identifier("cats"), RESOLVER,
+                new FileNotFoundException());
+        instance.put(new Identifier("dogs"), RESOLVER,
+                new FileNotFoundException());
+        instance.purge();
+        assertEquals(0, instance.size());
+    }
+
+    /* purge(Identifier) */
+
+    @Test
+    public void testPurgeWithIdentifier() {
+        final Identifier identifier = new Identifier("cats");
+        final Identifier otherIdentifier = new Identifier("dogs");
+        instance.put(identifier, RESOLVER, new FileNotFoundException());
+        instance.put(identifier, "HttpResolver", new FileNotFoundException());
+        instance.put(otherIdentifier, RESOLVER, new FileNotFoundException());
+        instance.purge(identifier);
+        assertNull(instance.get(identifier, RESOLVER));
+        assertNull(instance.get(identifier, "HttpResolver"));
+        assertNotNull(instance.get(otherIdentifier, RESOLVER));
+    }
+
+    /* put() */
+
+    @Test
+    public void testPutIgnoresOtherExceptions() {
+        instance.put(new Identifier("cats"), RESOLVER,
+                new IOException("timed out"));
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testPutWithZeroTTL() {
+        Configuration.getInstance().setProperty(Key.NEGATIVE_CACHE_TTL, 0);
+        instance.put(new Identifier("cats"), RESOLVER,
+                new FileNotFoundException());
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testPutRespectsMaxSize() {
+        instance = new NegativeResultCache(10);
+        for (int i = 0; i < 50; i++) {
+            instance.put(new Identifier("image" + i), RESOLVER,
+                    new FileNotFoundException());
+        }
+        assertTrue(instance.size() <= 10);
+    }
+
+}
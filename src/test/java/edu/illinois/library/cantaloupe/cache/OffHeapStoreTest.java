@@ -0,0 +1,129 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OffHeapStoreTest extends BaseTest {
+
+    private OffHeapStore instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new OffHeapStore(16, 4);
+    }
+
+    private OffHeapStore.Region write(byte[] data) throws Exception {
+        OffHeapStore.RegionOutputStream os = instance.newOutputStream();
+        os.write(data);
+        os.close();
+        return os.getRegion();
+    }
+
+    private static byte[] newData(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    /* free() */
+
+    @Test
+    public void testFreeAllowsBlocksToBeReused() throws Exception {
+        OffHeapStore.Region region = write(newData(64));
+        assertEquals(64, instance.getAllocatedByteSize());
+
+        instance.free(region);
+        assertEquals(0, instance.getUsedByteSize());
+
+        write(newData(64));
+        assertEquals(64, instance.getAllocatedByteSize());
+    }
+
+    @Test
+    public void testFreeWithRegionsFromMultipleSlabs() throws Exception {
+        final List<OffHeapStore.Region> regions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            regions.add(write(newData(16)));
+        }
+        assertEquals(128, instance.getAllocatedByteSize());
+
+        for (OffHeapStore.Region region : regions) {
+            instance.free(region);
+        }
+        assertEquals(0, instance.getUsedByteSize());
+
+        // All of the freed blocks should be reusable without allocating any
+        // more slabs.
+        final byte[] expected = newData(128);
+        OffHeapStore.Region region = write(expected);
+        assertEquals(128, instance.getAllocatedByteSize());
+        try (InputStream is = instance.newInputStream(region)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(is));
+        }
+    }
+
+    /* getUsedByteSize() */
+
+    @Test
+    public void testGetUsedByteSize() throws Exception {
+        assertEquals(0, instance.getUsedByteSize());
+        write(newData(17));
+        assertEquals(32, instance.getUsedByteSize());
+    }
+
+    /* newInputStream() */
+
+    @Test
+    public void testNewInputStreamWithRegionSpanningMultipleSlabs()
+            throws Exception {
+        final byte[] expected = newData(150);
+        OffHeapStore.Region region = write(expected);
+        assertEquals(150, region.getLength());
+        assertEquals(10, region.getNumBlocks());
+
+        try (InputStream is = instance.newInputStream(region)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testNewInputStreamWithEmptyRegion() throws Exception {
+        OffHeapStore.Region region = write(new byte[0]);
+        try (InputStream is = instance.newInputStream(region)) {
+            assertEquals(-1, is.read());
+        }
+    }
+
+    @Test
+    public void testNewInputStreamSingleByteReads() throws Exception {
+        OffHeapStore.Region region = write(new byte[] { 1, (byte) 255 });
+        try (InputStream is = instance.newInputStream(region)) {
+            assertEquals(1, is.read());
+            assertEquals(255, is.read());
+            assertEquals(-1, is.read());
+        }
+    }
+
+    /* newOutputStream() */
+
+    @Test
+    public void testAbortFreesBlocks() throws Exception {
+        OffHeapStore.RegionOutputStream os = instance.newOutputStream();
+        os.write(newData(40));
+        assertEquals(48, instance.getUsedByteSize());
+        os.abort();
+        assertEquals(0, instance.getUsedByteSize());
+    }
+
+}
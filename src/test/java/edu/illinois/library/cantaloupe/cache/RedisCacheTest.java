@@ -19,9 +19,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -82,6 +84,14 @@ public class RedisCacheTest extends BaseTest {
         instance.purge();
     }
 
+    private void writeImage(OperationList opList, byte[] bytes)
+            throws Exception {
+        try (OutputStream outputStream =
+                     instance.newDerivativeImageOutputStream(opList)) {
+            outputStream.write(bytes);
+        }
+    }
+
     /* getImageInfo(Identifier) */
 
     @Test
@@ -118,6 +128,66 @@ public class RedisCacheTest extends BaseTest {
         assertEquals(imageFile.length(), imageBytes.length);
     }
 
+    @Test
+    public void testNewDerivativeImageInputStreamWithMultiChunkImage()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        byte[] bytes = new byte[RedisCache.CHUNK_SIZE * 3 + 17];
+        new Random().nextBytes(bytes);
+        writeImage(opList, bytes);
+
+        try (InputStream inputStream =
+                     instance.newDerivativeImageInputStream(opList)) {
+            assertArrayEquals(bytes, IOUtils.toByteArray(inputStream));
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithChunkSizeMultipleImage()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        byte[] bytes = new byte[RedisCache.CHUNK_SIZE * 2];
+        new Random().nextBytes(bytes);
+        writeImage(opList, bytes);
+
+        try (InputStream inputStream =
+                     instance.newDerivativeImageInputStream(opList)) {
+            assertArrayEquals(bytes, IOUtils.toByteArray(inputStream));
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithImageReplacedWhileReading()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        writeImage(opList, new byte[RedisCache.CHUNK_SIZE * 3]);
+
+        try (InputStream inputStream =
+                     instance.newDerivativeImageInputStream(opList)) {
+            writeImage(opList, new byte[RedisCache.CHUNK_SIZE * 2]);
+            IOUtils.toByteArray(inputStream);
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithImagePurgedWhileReading()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        writeImage(opList, new byte[RedisCache.CHUNK_SIZE * 3]);
+
+        try (InputStream inputStream =
+                     instance.newDerivativeImageInputStream(opList)) {
+            instance.purge(opList);
+            IOUtils.toByteArray(inputStream);
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+    }
+
     @Test
     public void testnewDerivativeImageInputStreamWithNonexistentImage()
             throws Exception {
@@ -132,6 +202,55 @@ public class RedisCacheTest extends BaseTest {
         // tested in testNewDerivativeImageInputStream()
     }
 
+    @Test
+    public void testNewDerivativeImageOutputStreamDoesNotExposeIncompleteImages()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        byte[] bytes = new byte[RedisCache.CHUNK_SIZE * 2];
+        try (OutputStream outputStream =
+                     instance.newDerivativeImageOutputStream(opList)) {
+            outputStream.write(bytes);
+            assertNull(instance.newDerivativeImageInputStream(opList));
+        }
+        assertNotNull(instance.newDerivativeImageInputStream(opList));
+    }
+
+    @Test
+    public void testNewDerivativeImageOutputStreamAbortDeletesTempKey()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        OutputStream outputStream =
+                instance.newDerivativeImageOutputStream(opList);
+        outputStream.write(new byte[RedisCache.CHUNK_SIZE * 2]);
+        AbortableOutputStream.abortOrClose(outputStream);
+
+        assertNull(instance.newDerivativeImageInputStream(opList));
+        assertTrue(getConnection().sync().
+                keys(RedisCache.TEMP_KEY_PREFIX + "*").isEmpty());
+    }
+
+    @Test
+    public void testNewDerivativeImageOutputStreamSetsTTL() throws Exception {
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 60);
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        writeImage(opList, new byte[] { 1, 2, 3 });
+        instance.newDerivativeImageInputStream(opList).close();
+
+        long ttl = getConnection().sync().ttl(RedisCache.imageKey(opList));
+        assertTrue(ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    public void testNewDerivativeImageOutputStreamWithoutTTL() throws Exception {
+        Configuration.getInstance().setProperty(Key.CACHE_SERVER_TTL, 0);
+        OperationList opList = new OperationList(new Identifier("cats"), Format.JPG);
+        writeImage(opList, new byte[] { 1, 2, 3 });
+        instance.newDerivativeImageInputStream(opList).close();
+
+        assertEquals(-1, (long) getConnection().sync().
+                ttl(RedisCache.imageKey(opList)));
+    }
+
     /* purge() */
 
     @Test
@@ -151,24 +270,37 @@ public class RedisCacheTest extends BaseTest {
 
         // ...image 1
         OperationList opList1 = new OperationList(id1, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList1.toString(), imageBytes);
+        writeImage(opList1, imageBytes);
         // ...image 2
         OperationList opList2 = new OperationList(id2, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList2.toString(), imageBytes);
+        writeImage(opList2, imageBytes);
         // ...image 3
         OperationList opList3 = new OperationList(id3, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList3.toString(), imageBytes);
+        writeImage(opList3, imageBytes);
 
         instance.purge();
 
-        final String[] keys = new String[] { RedisCache.IMAGE_HASH_KEY,
-                RedisCache.INFO_HASH_KEY };
+        final String[] keys = new String[] {
+                RedisCache.imageKey(opList1), RedisCache.imageKey(opList2),
+                RedisCache.imageKey(opList3), RedisCache.infoKey(id1),
+                RedisCache.infoKey(id2), RedisCache.infoKey(id3) };
         assertEquals(0, (long) getConnection().sync().exists(keys));
     }
 
+    @Test
+    public void testPurgeDeletesLegacyHashes() throws Exception {
+        getConnection().sync().hset(RedisCache.LEGACY_IMAGE_HASH_KEY,
+                "cats", new byte[] { 1, 2, 3 });
+        getConnection().sync().hset(RedisCache.LEGACY_INFO_HASH_KEY,
+                "cats", new byte[] { 1, 2, 3 });
+
+        instance.purge();
+
+        assertEquals(0, (long) getConnection().sync().exists(
+                RedisCache.LEGACY_IMAGE_HASH_KEY,
+                RedisCache.LEGACY_INFO_HASH_KEY));
+    }
+
     /* purge(OperationList) */
 
     @Test
@@ -188,16 +320,13 @@ public class RedisCacheTest extends BaseTest {
 
         // ...image 1
         OperationList opList1 = new OperationList(id1, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList1.toString(), imageBytes);
+        writeImage(opList1, imageBytes);
         // ...image 2
         OperationList opList2 = new OperationList(id2, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList2.toString(), imageBytes);
+        writeImage(opList2, imageBytes);
         // ...image 3
         OperationList opList3 = new OperationList(id3, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList3.toString(), imageBytes);
+        writeImage(opList3, imageBytes);
 
         instance.purge(opList2);
 
@@ -236,16 +365,13 @@ public class RedisCacheTest extends BaseTest {
 
         // ...image 1
         OperationList opList1 = new OperationList(id1, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList1.toString(), imageBytes);
+        writeImage(opList1, imageBytes);
         // ...image 2
         OperationList opList2 = new OperationList(id2, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList2.toString(), imageBytes);
+        writeImage(opList2, imageBytes);
         // ...image 3
         OperationList opList3 = new OperationList(id3, Format.JPG);
-        getConnection().sync().hset(RedisCache.IMAGE_HASH_KEY,
-                opList3.toString(), imageBytes);
+        writeImage(opList3, imageBytes);
 
         // Purge one of the identifiers
         instance.purge(id2);
@@ -259,6 +385,20 @@ public class RedisCacheTest extends BaseTest {
         assertNotNull(instance.newDerivativeImageInputStream(opList3));
     }
 
+    @Test
+    public void testPurgeWithIdentifierDoesNotPurgeIdentifiersWithSamePrefix()
+            throws Exception {
+        OperationList opList1 = new OperationList(new Identifier("cat"), Format.JPG);
+        OperationList opList2 = new OperationList(new Identifier("cats"), Format.JPG);
+        writeImage(opList1, new byte[] { 1, 2, 3 });
+        writeImage(opList2, new byte[] { 1, 2, 3 });
+
+        instance.purge(new Identifier("cat"));
+
+        assertNull(instance.newDerivativeImageInputStream(opList1));
+        assertNotNull(instance.newDerivativeImageInputStream(opList2));
+    }
+
     /* put(Identifier, Info) */
 
     @Test
@@ -0,0 +1,298 @@
+package edu.illinois.library.cantaloupe.cache;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TieredCacheTest extends BaseTest {
+
+    private static final String IMAGE = "jpg-rgb-64x56x8-baseline.jpg";
+
+    private File fixturePath;
+    private HeapCache upperTier;
+    private FilesystemCache lowerTier;
+    private TieredCache instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        fixturePath = new File(TestUtil.getTempFolder().getAbsolutePath() +
+                "/tiered");
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.HEAPCACHE_TARGET_SIZE, Math.pow(1024, 2));
+        config.setProperty(Key.CACHE_SERVER_TTL, 0);
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                fixturePath.getAbsolutePath());
+        config.setProperty(Key.TIEREDCACHE_WRITE_STRATEGY, "through");
+
+        upperTier = new HeapCache();
+        lowerTier = new FilesystemCache();
+        instance = new TieredCache(upperTier, lowerTier);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        lowerTier.shutdown();
+        FileUtils.deleteDirectory(fixturePath);
+    }
+
+    private static void writeImage(DerivativeCache cache, OperationList opList)
+            throws Exception {
+        try (OutputStream os = cache.newDerivativeImageOutputStream(opList)) {
+            Files.copy(TestUtil.getImage(IMAGE).toPath(), os);
+        }
+    }
+
+    /* getImageInfo(Identifier) */
+
+    @Test
+    public void testGetImageInfoFromUpperTier() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        Info info = new Info(50, 50);
+        upperTier.put(identifier, info);
+        assertEquals(info, instance.getImageInfo(identifier));
+    }
+
+    @Test
+    public void testGetImageInfoPromotesFromLowerTier() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        Info info = new Info(50, 50);
+        lowerTier.put(identifier, info);
+        assertNull(upperTier.getImageInfo(identifier));
+
+        assertEquals(info, instance.getImageInfo(identifier));
+        assertEquals(info, upperTier.getImageInfo(identifier));
+    }
+
+    @Test
+    public void testGetImageInfoWithNonexistentInfo() throws Exception {
+        assertNull(instance.getImageInfo(new Identifier("bogus")));
+    }
+
+    /* getLowerTier() */
+
+    @Test
+    public void testGetLowerTier() {
+        Configuration.getInstance().setProperty(Key.TIEREDCACHE_LOWER_TIER,
+                "FilesystemCache");
+        instance = new TieredCache();
+        assertTrue(instance.getLowerTier() instanceof FilesystemCache);
+    }
+
+    @Test
+    public void testGetLowerTierWithInvalidValues() {
+        final Configuration config = Configuration.getInstance();
+        for (String value : new String[] {
+                "", "TieredCache", "HeapCache", "BogusCache"}) {
+            config.setProperty(Key.TIEREDCACHE_LOWER_TIER, value);
+            instance = new TieredCache();
+            assertNull(instance.getLowerTier());
+        }
+    }
+
+    /* newDerivativeImageInputStream(OperationList) */
+
+    @Test
+    public void testNewDerivativeImageInputStreamFromUpperTier()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(upperTier, opList);
+
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            assertEquals(TestUtil.getImage(IMAGE).length(),
+                    IOUtils.toByteArray(is).length);
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamPromotesFromLowerTier()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(lowerTier, opList);
+        assertNull(upperTier.newDerivativeImageInputStream(opList));
+
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            IOUtils.toByteArray(is);
+        }
+
+        try (InputStream is = upperTier.newDerivativeImageInputStream(opList)) {
+            assertEquals(TestUtil.getImage(IMAGE).length(),
+                    IOUtils.toByteArray(is).length);
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamDoesNotPromotePartialReads()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(lowerTier, opList);
+
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            is.read(new byte[100]);
+        }
+
+        assertNull(upperTier.newDerivativeImageInputStream(opList));
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamFreesPartialReads()
+            throws Exception {
+        Configuration.getInstance().setProperty(Key.HEAPCACHE_OFF_HEAP, true);
+        upperTier = new HeapCache();
+        instance = new TieredCache(upperTier, lowerTier);
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(lowerTier, opList);
+
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            is.read(new byte[100]);
+        }
+        try (InputStream is = instance.newDerivativeImageInputStream(opList)) {
+            is.read(new byte[100]);
+            is.skip(100);
+        }
+
+        assertEquals(0, upperTier.getOffHeapStore().getUsedByteSize());
+    }
+
+    @Test
+    public void testNewDerivativeImageInputStreamWithNonexistentImage()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        assertNull(instance.newDerivativeImageInputStream(opList));
+    }
+
+    /* newDerivativeImageOutputStream(OperationList) */
+
+    @Test
+    public void testNewDerivativeImageOutputStreamWritingThrough()
+            throws Exception {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(instance, opList);
+
+        try (InputStream is = upperTier.newDerivativeImageInputStream(opList)) {
+            assertNotNull(is);
+        }
+        try (InputStream is = lowerTier.newDerivativeImageInputStream(opList)) {
+            assertNotNull(is);
+        }
+    }
+
+    @Test
+    public void testNewDerivativeImageOutputStreamWritingBehind()
+            throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.TIEREDCACHE_WRITE_STRATEGY, "behind");
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.JPG);
+        writeImage(instance, opList);
+
+        try (InputStream is = upperTier.newDerivativeImageInputStream(opList)) {
+            assertNotNull(is);
+        }
+
+        // The lower tier is written asynchronously.
+        InputStream is = null;
+        for (int i = 0; i < 50 && is == null; i++) {
+            Thread.sleep(100);
+            is = lowerTier.newDerivativeImageInputStream(opList);
+        }
+        assertNotNull(is);
+        try {
+            assertEquals(TestUtil.getImage(IMAGE).length(),
+                    IOUtils.toByteArray(is).length);
+        } finally {
+            is.close();
+        }
+    }
+
+    /* purge() */
+
+    @Test
+    public void testPurge() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(instance, opList);
+        instance.put(identifier, new Info(50, 50));
+
+        instance.purge();
+
+        assertNull(upperTier.newDerivativeImageInputStream(opList));
+        assertNull(lowerTier.newDerivativeImageInputStream(opList));
+        assertNull(upperTier.getImageInfo(identifier));
+        assertNull(lowerTier.getImageInfo(identifier));
+    }
+
+    /* purge(Identifier) */
+
+    @Test
+    public void testPurgeWithIdentifier() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(instance, opList);
+        instance.put(identifier, new Info(50, 50));
+
+        Identifier otherIdentifier = new Identifier("dogs");
+        instance.put(otherIdentifier, new Info(50, 50));
+
+        instance.purge(identifier);
+
+        assertNull(upperTier.newDerivativeImageInputStream(opList));
+        assertNull(lowerTier.newDerivativeImageInputStream(opList));
+        assertNull(instance.getImageInfo(identifier));
+        assertNotNull(instance.getImageInfo(otherIdentifier));
+    }
+
+    /* purge(OperationList) */
+
+    @Test
+    public void testPurgeWithOperationList() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        OperationList opList = new OperationList(identifier, Format.JPG);
+        writeImage(instance, opList);
+        instance.put(identifier, new Info(50, 50));
+
+        instance.purge(opList);
+
+        assertNull(upperTier.newDerivativeImageInputStream(opList));
+        assertNull(lowerTier.newDerivativeImageInputStream(opList));
+        assertNotNull(instance.getImageInfo(identifier));
+    }
+
+    /* put(Identifier, Info) */
+
+    @Test
+    public void testPut() throws Exception {
+        Identifier identifier = new Identifier("cats");
+        Info info = new Info(50, 50);
+        instance.put(identifier, info);
+
+        assertEquals(info, upperTier.getImageInfo(identifier));
+        assertEquals(info, lowerTier.getImageInfo(identifier));
+    }
+
+}
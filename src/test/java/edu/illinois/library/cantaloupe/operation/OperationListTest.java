@@ -536,6 +536,13 @@ public class OperationListTest extends BaseTest {
         ((Crop) instance.getFirst(Crop.class)).setHeight(300);
     }
 
+    @Test
+    public void isFrozen() {
+        assertFalse(instance.isFrozen());
+        instance.freeze();
+        assertTrue(instance.isFrozen());
+    }
+
     @Test
     public void getFirst() {
         assertNull(instance.getFirst(MetadataCopy.class));
@@ -0,0 +1,303 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Rotate;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CachedDerivativeDownscalerTest extends BaseTest {
+
+    private static final Identifier IDENTIFIER = new Identifier("cats");
+    private static final Dimension FULL_SIZE = new Dimension(4096, 4096);
+
+    private DerivativeCache cache;
+    private CachedDerivativeDownscaler instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        File cacheFolder = new File(
+                TestUtil.getTempFolder().getAbsolutePath() + "/cache");
+        if (cacheFolder.exists()) {
+            FileUtils.cleanDirectory(cacheFolder);
+        } else {
+            cacheFolder.mkdir();
+        }
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.DERIVATIVE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheFolder.getAbsolutePath());
+        config.setProperty(Key.PROCESSOR_DOWNSCALE_FILTER, "bicubic");
+
+        cache = CacheFactory.getDerivativeCache();
+        instance = new CachedDerivativeDownscaler(cache);
+    }
+
+    /**
+     * @param crop  May be <code>null</code>.
+     * @param width Scale width, or <code>null</code> for no scale.
+     * @return Operation list equivalent to what an endpoint would produce.
+     */
+    private OperationList newOperationList(Crop crop, Integer width) {
+        OperationList opList = new OperationList(IDENTIFIER, Format.PNG);
+        opList.add(crop);
+        if (width != null) {
+            opList.add(new Scale(width, null, Scale.Mode.ASPECT_FIT_WIDTH));
+        }
+        opList.applyNonEndpointMutations(FULL_SIZE, null, null, null,
+                Collections.emptyMap(), Collections.emptyMap());
+        return opList;
+    }
+
+    private void putImage(OperationList opList, int width, int height)
+            throws Exception {
+        putImage(opList, new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_RGB), Color.RED);
+    }
+
+    /**
+     * Puts an indexed image whose palette contains only the given color.
+     */
+    private void putIndexedImage(OperationList opList, int width, int height,
+                                 Color color) throws Exception {
+        final IndexColorModel colorModel = new IndexColorModel(8, 1,
+                new byte[] { (byte) color.getRed() },
+                new byte[] { (byte) color.getGreen() },
+                new byte[] { (byte) color.getBlue() });
+        putImage(opList, new BufferedImage(width, height,
+                BufferedImage.TYPE_BYTE_INDEXED, colorModel), color);
+    }
+
+    private void putImage(OperationList opList, BufferedImage image,
+                          Color color) throws Exception {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(color);
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        try (OutputStream os = cache.newDerivativeImageOutputStream(opList)) {
+            ImageIO.write(image, "png", os);
+        }
+    }
+
+    private BufferedImage write(OperationList opList) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (!instance.write(opList, new Info(FULL_SIZE.width,
+                FULL_SIZE.height), os)) {
+            return null;
+        }
+        return ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+    }
+
+    /* getChildTileCandidates() */
+
+    @Test
+    public void testGetChildTileCandidates() {
+        OperationList opList = newOperationList(
+                new Crop(1024, 2048, 1024, 1024), 256);
+        List<OperationList> candidates =
+                instance.getChildTileCandidates(opList, FULL_SIZE);
+        assertEquals(4, candidates.size());
+        assertEquals(newOperationList(new Crop(1024, 2048, 512, 512), 256),
+                candidates.get(0));
+        assertEquals(newOperationList(new Crop(1536, 2048, 512, 512), 256),
+                candidates.get(1));
+        assertEquals(newOperationList(new Crop(1024, 2560, 512, 512), 256),
+                candidates.get(2));
+        assertEquals(newOperationList(new Crop(1536, 2560, 512, 512), 256),
+                candidates.get(3));
+    }
+
+    @Test
+    public void testGetChildTileCandidatesAtLowestLevel() {
+        OperationList opList = newOperationList(
+                new Crop(0, 0, 512, 512), 256);
+        List<OperationList> candidates =
+                instance.getChildTileCandidates(opList, FULL_SIZE);
+        assertEquals(4, candidates.size());
+        assertEquals(newOperationList(new Crop(0, 0, 256, 256), null),
+                candidates.get(0));
+        assertEquals(newOperationList(new Crop(256, 256, 256, 256), null),
+                candidates.get(3));
+    }
+
+    @Test
+    public void testGetChildTileCandidatesWithEdgeTile() {
+        OperationList opList = newOperationList(
+                new Crop(3584, 0, 512, 301), 256);
+        assertTrue(instance.getChildTileCandidates(opList, FULL_SIZE).isEmpty());
+    }
+
+    @Test
+    public void testGetChildTileCandidatesWithFullRegion() {
+        OperationList opList = newOperationList(null, 256);
+        assertTrue(instance.getChildTileCandidates(opList, FULL_SIZE).isEmpty());
+    }
+
+    /* getLargerCandidates() */
+
+    @Test
+    public void testGetLargerCandidates() {
+        OperationList opList = newOperationList(null, 512);
+        List<OperationList> candidates =
+                instance.getLargerCandidates(opList, FULL_SIZE);
+        assertEquals(3, candidates.size());
+        assertEquals(newOperationList(null, 1024), candidates.get(0));
+        assertEquals(newOperationList(null, 2048), candidates.get(1));
+        assertEquals(newOperationList(null, null), candidates.get(2));
+    }
+
+    @Test
+    public void testGetLargerCandidatesExcludesMuchLargerSizes() {
+        OperationList opList = newOperationList(null, 64);
+        List<OperationList> candidates =
+                instance.getLargerCandidates(opList, FULL_SIZE);
+        assertEquals(CachedDerivativeDownscaler.MAX_LEVELS, candidates.size());
+        assertEquals(newOperationList(null, 128), candidates.get(0));
+        assertEquals(newOperationList(null, 512), candidates.get(2));
+    }
+
+    @Test
+    public void testGetLargerCandidatesWithOddSizes() {
+        OperationList opList = newOperationList(
+                new Crop(0, 0, 1000, 1000), 63);
+        List<OperationList> candidates =
+                instance.getLargerCandidates(opList, FULL_SIZE);
+        assertTrue(candidates.contains(
+                newOperationList(new Crop(0, 0, 1000, 1000), 125)));
+        assertTrue(candidates.contains(
+                newOperationList(new Crop(0, 0, 1000, 1000), 250)));
+        assertTrue(candidates.contains(
+                newOperationList(new Crop(0, 0, 1000, 1000), 500)));
+    }
+
+    /* isEligible() */
+
+    @Test
+    public void testIsEligible() {
+        assertTrue(CachedDerivativeDownscaler.isEligible(
+                newOperationList(new Crop(0, 0, 1024, 1024), 256), FULL_SIZE));
+    }
+
+    @Test
+    public void testIsEligibleWithNoScale() {
+        assertFalse(CachedDerivativeDownscaler.isEligible(
+                newOperationList(new Crop(0, 0, 1024, 1024), null), FULL_SIZE));
+    }
+
+    @Test
+    public void testIsEligibleWithUpscale() {
+        assertFalse(CachedDerivativeDownscaler.isEligible(
+                newOperationList(new Crop(0, 0, 100, 100), 200), FULL_SIZE));
+    }
+
+    @Test
+    public void testIsEligibleWithOtherOperations() {
+        OperationList opList = new OperationList(IDENTIFIER, Format.PNG,
+                new Scale(256, null, Scale.Mode.ASPECT_FIT_WIDTH),
+                new Rotate(90));
+        assertFalse(CachedDerivativeDownscaler.isEligible(opList, FULL_SIZE));
+    }
+
+    @Test
+    public void testIsEligibleWithUnsupportedOutputFormat() {
+        OperationList opList = new OperationList(IDENTIFIER, Format.PDF,
+                new Scale(256, null, Scale.Mode.ASPECT_FIT_WIDTH));
+        assertFalse(CachedDerivativeDownscaler.isEligible(opList, FULL_SIZE));
+    }
+
+    /* write() */
+
+    @Test
+    public void testWriteWithNothingCached() throws Exception {
+        assertNull(write(newOperationList(new Crop(0, 0, 1024, 1024), 256)));
+    }
+
+    @Test
+    public void testWriteFromChildTiles() throws Exception {
+        putImage(newOperationList(new Crop(0, 0, 512, 512), 256), 256, 256);
+        putImage(newOperationList(new Crop(512, 0, 512, 512), 256), 256, 256);
+        putImage(newOperationList(new Crop(0, 512, 512, 512), 256), 256, 256);
+        putImage(newOperationList(new Crop(512, 512, 512, 512), 256), 256, 256);
+
+        BufferedImage image =
+                write(newOperationList(new Crop(0, 0, 1024, 1024), 256));
+        assertNotNull(image);
+        assertEquals(256, image.getWidth());
+        assertEquals(256, image.getHeight());
+        assertEquals(Color.RED.getRGB(), image.getRGB(128, 128));
+    }
+
+    @Test
+    public void testWriteFromIndexedChildTiles() throws Exception {
+        // Neither color is in the default palette of TYPE_BYTE_INDEXED, and
+        // each tile has its own palette.
+        final Color color1 = new Color(10, 130, 240);
+        final Color color2 = new Color(240, 130, 10);
+        putIndexedImage(newOperationList(new Crop(0, 0, 512, 512), 256),
+                256, 256, color1);
+        putIndexedImage(newOperationList(new Crop(512, 0, 512, 512), 256),
+                256, 256, color1);
+        putIndexedImage(newOperationList(new Crop(0, 512, 512, 512), 256),
+                256, 256, color2);
+        putIndexedImage(newOperationList(new Crop(512, 512, 512, 512), 256),
+                256, 256, color2);
+
+        BufferedImage image =
+                write(newOperationList(new Crop(0, 0, 1024, 1024), 256));
+        assertNotNull(image);
+        assertEquals(color1.getRGB(), image.getRGB(64, 64));
+        assertEquals(color2.getRGB(), image.getRGB(192, 192));
+    }
+
+    @Test
+    public void testWriteWithSomeChildTilesMissing() throws Exception {
+        putImage(newOperationList(new Crop(0, 0, 512, 512), 256), 256, 256);
+        putImage(newOperationList(new Crop(512, 0, 512, 512), 256), 256, 256);
+
+        assertNull(write(newOperationList(new Crop(0, 0, 1024, 1024), 256)));
+    }
+
+    @Test
+    public void testWriteFromLargerImage() throws Exception {
+        putImage(newOperationList(new Crop(0, 0, 1000, 800), null), 1000, 800);
+
+        BufferedImage image =
+                write(newOperationList(new Crop(0, 0, 1000, 800), 250));
+        assertNotNull(image);
+        assertEquals(250, image.getWidth());
+        assertEquals(200, image.getHeight());
+    }
+
+}
@@ -0,0 +1,111 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.operation.ColorTransform;
+import edu.illinois.library.cantaloupe.operation.Operation;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.ReductionFactor;
+import edu.illinois.library.cantaloupe.operation.Rotate;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import edu.illinois.library.cantaloupe.operation.Sharpen;
+import edu.illinois.library.cantaloupe.operation.Transpose;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class Java2DPipelineTest extends BaseTest {
+
+    private static final Dimension FULL_SIZE = new Dimension(200, 100);
+
+    private static Java2DPipeline newPipeline(Operation... ops) {
+        OperationList opList = new OperationList(new Identifier("cats"),
+                Format.PNG, ops);
+        return new Java2DPipeline(opList, FULL_SIZE, new ReductionFactor());
+    }
+
+    /* apply() */
+
+    @Test
+    public void testApply() throws Exception {
+        Java2DPipeline instance = newPipeline(
+                new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE),
+                Transpose.HORIZONTAL,
+                new Rotate(90),
+                ColorTransform.GRAY);
+        BufferedImage outImage = instance.apply(new BufferedImage(
+                FULL_SIZE.width, FULL_SIZE.height, BufferedImage.TYPE_INT_RGB));
+
+        assertEquals(50, outImage.getWidth());
+        assertEquals(100, outImage.getHeight());
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, outImage.getType());
+    }
+
+    @Test
+    public void testApplyWithNoOperations() throws Exception {
+        BufferedImage inImage = new BufferedImage(
+                FULL_SIZE.width, FULL_SIZE.height, BufferedImage.TYPE_INT_RGB);
+        assertSame(inImage, newPipeline().apply(inImage));
+    }
+
+    /* getNumSteps() */
+
+    @Test
+    public void testGetNumStepsFoldsGrayAndSharpenIntoScale() {
+        Java2DPipeline instance = newPipeline(
+                new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE),
+                ColorTransform.GRAY,
+                new Sharpen(0.2f));
+        assertEquals(1, instance.getNumSteps());
+    }
+
+    @Test
+    public void testGetNumStepsFoldsAcrossRightAngleTransforms() {
+        Java2DPipeline instance = newPipeline(
+                new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE),
+                Transpose.HORIZONTAL,
+                new Rotate(270),
+                ColorTransform.GRAY);
+        assertEquals(2, instance.getNumSteps());
+    }
+
+    @Test
+    public void testGetNumStepsDoesNotFoldAcrossArbitraryRotations() {
+        Java2DPipeline instance = newPipeline(
+                new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE),
+                new Rotate(45),
+                ColorTransform.GRAY);
+        assertEquals(3, instance.getNumSteps());
+    }
+
+    @Test
+    public void testGetNumStepsDoesNotFoldBitonal() {
+        Java2DPipeline instance = newPipeline(
+                new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE),
+                ColorTransform.BITONAL);
+        assertEquals(2, instance.getNumSteps());
+    }
+
+    @Test
+    public void testGetNumStepsCombinesTransposesAndRotations() {
+        Java2DPipeline instance = newPipeline(
+                Transpose.HORIZONTAL,
+                new Rotate(45),
+                Transpose.VERTICAL);
+        assertEquals(1, instance.getNumSteps());
+    }
+
+    @Test
+    public void testGetNumStepsSkipsOperationsWithoutEffect() {
+        Java2DPipeline instance = newPipeline(
+                new Scale(),
+                new Rotate(0),
+                new Sharpen(0));
+        assertEquals(0, instance.getNumSteps());
+    }
+
+}
@@ -3,6 +3,7 @@ package edu.illinois.library.cantaloupe.processor;
 import edu.illinois.library.cantaloupe.operation.Color;
 import edu.illinois.library.cantaloupe.operation.ColorTransform;
 import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.Operation;
 import edu.illinois.library.cantaloupe.operation.ReductionFactor;
 import edu.illinois.library.cantaloupe.operation.Rotate;
 import edu.illinois.library.cantaloupe.operation.Scale;
@@ -424,6 +425,55 @@ public class Java2DUtilTest extends BaseTest {
         assertEquals(100, outImage.getHeight());
     }
 
+    /* scaleImage(BufferedImage, Scale, ReductionFactor, ColorTransform, Sharpen) */
+
+    @Test
+    public void testScaleImageWithGrayColorTransform() {
+        BufferedImage inImage = new BufferedImage(100, 100,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = inImage.createGraphics();
+        g2d.setColor(java.awt.Color.RED);
+        g2d.fill(new Rectangle(0, 0, 100, 100));
+        g2d.dispose();
+
+        Scale scale = new Scale(50, 50, Scale.Mode.ASPECT_FIT_INSIDE);
+        BufferedImage outImage = Java2DUtil.scaleImage(inImage, scale,
+                new ReductionFactor(), ColorTransform.GRAY, null);
+
+        BufferedImage expectedImage = Java2DUtil.transformColor(
+                Java2DUtil.scaleImage(inImage, scale), ColorTransform.GRAY);
+
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, outImage.getType());
+        assertEquals(50, outImage.getWidth());
+        assertEquals(50, outImage.getHeight());
+        assertGray(outImage.getRGB(25, 25));
+        assertEquals(expectedImage.getRGB(25, 25), outImage.getRGB(25, 25));
+    }
+
+    @Test
+    public void testScaleImageWithGrayColorTransformAndAlpha() {
+        BufferedImage inImage = new BufferedImage(100, 100,
+                BufferedImage.TYPE_INT_ARGB);
+        Scale scale = new Scale(50, 50, Scale.Mode.ASPECT_FIT_INSIDE);
+        BufferedImage outImage = Java2DUtil.scaleImage(inImage, scale,
+                new ReductionFactor(), ColorTransform.GRAY, null);
+
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, outImage.getType());
+        assertEquals(50, outImage.getWidth());
+    }
+
+    @Test
+    public void testScaleImageWithSharpen() {
+        BufferedImage inImage = new BufferedImage(200, 100,
+                BufferedImage.TYPE_INT_RGB);
+        Scale scale = new Scale(100, 50, Scale.Mode.ASPECT_FIT_INSIDE);
+        BufferedImage outImage = Java2DUtil.scaleImage(inImage, scale,
+                new ReductionFactor(), null, new Sharpen(0.1f));
+
+        assertEquals(100, outImage.getWidth());
+        assertEquals(50, outImage.getHeight());
+    }
+
     /* sharpenImage() */
 
     @Test
@@ -509,6 +559,74 @@ public class Java2DUtilTest extends BaseTest {
         assertGray(outImage.getRGB(0, 0));
     }
 
+    /* transformImage() */
+
+    @Test
+    public void testTransformImageWithRightAngleRotationCopiesPixelsExactly() {
+        BufferedImage inImage = new BufferedImage(3, 2,
+                BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                inImage.setRGB(x, y, (y * 3 + x) * 20);
+            }
+        }
+        List<Operation> transforms = new ArrayList<>();
+        transforms.add(new Rotate(90));
+        BufferedImage outImage = Java2DUtil.transformImage(inImage, transforms);
+
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, outImage.getType());
+        assertEquals(2, outImage.getWidth());
+        assertEquals(3, outImage.getHeight());
+        // Rotated clockwise, the bottom-left pixel ends up at the top left.
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertEquals(inImage.getRGB(x, y),
+                        outImage.getRGB(1 - y, x));
+            }
+        }
+    }
+
+    @Test
+    public void testTransformImageWithTransposeAndRotation() {
+        BufferedImage inImage = new BufferedImage(3, 2,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                inImage.setRGB(x, y, (y * 3 + x) * 20);
+            }
+        }
+        List<Operation> transforms = new ArrayList<>();
+        transforms.add(Transpose.HORIZONTAL);
+        transforms.add(new Rotate(180));
+        BufferedImage outImage = Java2DUtil.transformImage(inImage, transforms);
+
+        // A mirror followed by a half turn is a vertical flip.
+        assertEquals(3, outImage.getWidth());
+        assertEquals(2, outImage.getHeight());
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertEquals(inImage.getRGB(x, y),
+                        outImage.getRGB(x, 1 - y));
+            }
+        }
+    }
+
+    @Test
+    public void testTransformImageWithArbitraryRotation() {
+        BufferedImage inImage = new BufferedImage(200, 100,
+                BufferedImage.TYPE_INT_RGB);
+        List<Operation> transforms = new ArrayList<>();
+        transforms.add(Transpose.HORIZONTAL);
+        transforms.add(new Rotate(15));
+        BufferedImage outImage = Java2DUtil.transformImage(inImage, transforms);
+        BufferedImage expectedImage = Java2DUtil.rotateImage(inImage,
+                new Rotate(15));
+
+        assertEquals(BufferedImage.TYPE_INT_ARGB, outImage.getType());
+        assertEquals(expectedImage.getWidth(), outImage.getWidth());
+        assertEquals(expectedImage.getHeight(), outImage.getHeight());
+    }
+
     /* transposeImage() */
 
     @Test
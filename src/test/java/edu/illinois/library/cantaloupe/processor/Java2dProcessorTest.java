@@ -1,11 +1,24 @@
 package edu.illinois.library.cantaloupe.processor;
 
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.ColorTransform;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.Encode;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Scale;
 import edu.illinois.library.cantaloupe.resource.iiif.ProcessorFeature;
 import edu.illinois.library.cantaloupe.test.TestUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
@@ -60,4 +73,105 @@ public class Java2dProcessorTest extends ImageIOProcessorTest {
         assertEquals(expectedFeatures, instance.getSupportedFeatures());
     }
 
+    /* isStreamable() */
+
+    private OperationList newStreamableOperationList() {
+        OperationList ops = new OperationList(new Identifier("cats"),
+                Format.PNG);
+        ops.add(new Crop(10, 10, 40, 30));
+        ops.add(new Scale(0.5f));
+        Encode encode = new Encode(Format.PNG);
+        encode.setMaxSampleSize(8);
+        ops.add(encode);
+        return ops;
+    }
+
+    private Info setUpStreamableSource(String fixture) throws Exception {
+        Configuration.getInstance().
+                setProperty(Key.PROCESSOR_STREAMING_THRESHOLD, 100);
+        instance.setSourceFile(TestUtil.getImage(fixture));
+        instance.setSourceFormat(Format.TIF);
+        return instance.readImageInfo();
+    }
+
+    @Test
+    public void isStreamableWithStreamableOperations() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-monores-64x56x8-striped-lzw.tif");
+        assertTrue(instance.isStreamable(instance.getReader(),
+                newStreamableOperationList(), info));
+    }
+
+    @Test
+    public void isStreamableWithRegionBelowThreshold() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-monores-64x56x8-striped-lzw.tif");
+        Configuration.getInstance().
+                setProperty(Key.PROCESSOR_STREAMING_THRESHOLD, 1200);
+        assertFalse(instance.isStreamable(instance.getReader(),
+                newStreamableOperationList(), info));
+    }
+
+    @Test
+    public void isStreamableWithOtherOperations() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-monores-64x56x8-striped-lzw.tif");
+        OperationList ops = newStreamableOperationList();
+        ops.add(ColorTransform.GRAY);
+        assertFalse(instance.isStreamable(instance.getReader(), ops, info));
+    }
+
+    @Test
+    public void isStreamableWithMultiResolutionSource() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-multires-64x56x16-tiled-uncompressed.tif");
+        assertFalse(instance.isStreamable(instance.getReader(),
+                newStreamableOperationList(), info));
+    }
+
+    @Test
+    public void isStreamableWithMoreThan8BitsPerSample() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-monores-64x56x8-striped-lzw.tif");
+        OperationList ops = newStreamableOperationList();
+        ((Encode) ops.getFirst(Encode.class)).setMaxSampleSize(16);
+        assertFalse(instance.isStreamable(instance.getReader(), ops, info));
+    }
+
+    @Test
+    public void isStreamableWhenDisabled() throws Exception {
+        Info info = setUpStreamableSource(
+                "tif-rgb-monores-64x56x8-striped-lzw.tif");
+        Configuration.getInstance().
+                setProperty(Key.PROCESSOR_STREAMING_THRESHOLD, 0);
+        assertFalse(instance.isStreamable(instance.getReader(),
+                newStreamableOperationList(), info));
+    }
+
+    /* process() */
+
+    @Test
+    public void processWithStreamableOperations() throws Exception {
+        for (String fixture : new String[] {
+                "tif-rgb-monores-64x56x8-striped-lzw.tif",
+                "tif-rgb-monores-64x56x8-tiled-lzw.tif",
+                "tif-rgba-monores-64x56x8-striped-lzw.tif" }) {
+            for (Format format : new Format[] { Format.JPG, Format.PNG }) {
+                Info info = setUpStreamableSource(fixture);
+                OperationList ops = newStreamableOperationList();
+                ops.setOutputFormat(format);
+                assertTrue(instance.isStreamable(instance.getReader(), ops,
+                        info));
+
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                instance.process(ops, info, os);
+
+                BufferedImage image = ImageIO.read(
+                        new ByteArrayInputStream(os.toByteArray()));
+                assertEquals(20, image.getWidth());
+                assertEquals(15, image.getHeight());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,267 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.Crop;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.operation.Scale;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetTest extends BaseTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private MemoryBudget instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        instance = new MemoryBudget();
+    }
+
+    private static OperationList newOperationList(Crop crop, Scale scale) {
+        final OperationList opList = new OperationList(
+                new Identifier("cats"), Format.PNG);
+        if (crop != null) {
+            opList.add(crop);
+        }
+        if (scale != null) {
+            opList.add(scale);
+        }
+        return opList;
+    }
+
+    /**
+     * Waits for the instance to have the given number of requests waiting.
+     */
+    private void awaitQueueDepth(int depth) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (instance.getQueueDepth() != depth) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /* estimateBytes() */
+
+    @Test
+    public void testEstimateBytesWithFullImage() {
+        final Info info = new Info(10000, 10000, Format.JPG);
+        assertEquals(2 * 10000L * 10000 * MemoryBudget.BYTES_PER_PIXEL,
+                MemoryBudget.estimateBytes(newOperationList(null, null), info));
+    }
+
+    @Test
+    public void testEstimateBytesWithCropAndScale() {
+        final Info info = new Info(10000, 10000, Format.JPG);
+        final OperationList opList = newOperationList(
+                new Crop(0, 0, 1000, 1000),
+                new Scale(500, 500, Scale.Mode.ASPECT_FIT_INSIDE));
+        assertEquals((1000 * 1000 + 500 * 500) * MemoryBudget.BYTES_PER_PIXEL,
+                MemoryBudget.estimateBytes(opList, info));
+    }
+
+    @Test
+    public void testEstimateBytesWithMultiResolutionImage() {
+        final Info info = new Info(8000, 8000, Format.TIF);
+        info.getImages().add(new Info.Image(4000, 4000));
+        info.getImages().add(new Info.Image(2000, 2000));
+        info.getImages().add(new Info.Image(1000, 1000));
+        final OperationList opList = newOperationList(null,
+                new Scale(1500, 1500, Scale.Mode.ASPECT_FIT_INSIDE));
+        // The 2000x2000 level is the smallest one large enough.
+        assertEquals((2000 * 2000 + 1500 * 1500) * MemoryBudget.BYTES_PER_PIXEL,
+                MemoryBudget.estimateBytes(opList, info));
+    }
+
+    @Test
+    public void testEstimateBytesWithJPEG2000Image() {
+        final Info info = new Info(8000, 8000, Format.JP2);
+        final OperationList opList = newOperationList(null,
+                new Scale(1000, 1000, Scale.Mode.ASPECT_FIT_INSIDE));
+        assertEquals((1000 * 1000 + 1000 * 1000) * MemoryBudget.BYTES_PER_PIXEL,
+                MemoryBudget.estimateBytes(opList, info));
+    }
+
+    /* getBudget() */
+
+    @Test
+    public void testGetBudget() {
+        assertEquals(0, instance.getBudget());
+        Configuration.getInstance().setProperty(Key.PROCESSOR_MEMORY_BUDGET,
+                1000000);
+        assertEquals(1000000, instance.getBudget());
+    }
+
+    /* getInstance() */
+
+    @Test
+    public void testGetInstanceIsRegisteredWithJMX() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(
+                "edu.illinois.library.cantaloupe:type=MemoryBudget");
+        assertNotNull(MemoryBudget.getInstance());
+        assertTrue(server.isRegistered(name));
+    }
+
+    /* reset() */
+
+    @Test
+    public void testReset() throws Exception {
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(40 * MB, 100 * MB, 0);
+        instance.tryAcquire(MB, 100 * MB, 0);
+        instance.tryAcquire(80 * MB, 100 * MB, 0);
+        instance.reset();
+
+        assertEquals(0, instance.getAdmissions());
+        assertEquals(0, instance.getExemptions());
+        assertEquals(0, instance.getRejections());
+        assertEquals(0, instance.getWaitTimeMax(), 0.00001);
+        assertEquals(40 * MB, instance.getBytesInUse());
+        assertEquals(40 * MB, instance.getPeakBytesInUse());
+        permit.close();
+    }
+
+    /* toMap() */
+
+    @Test
+    public void testToMap() throws Exception {
+        instance.tryAcquire(40 * MB, 100 * MB, 0);
+        final Map<String,Object> map = instance.toMap();
+        assertEquals(40 * MB, map.get("bytes_in_use"));
+        assertEquals(0, map.get("queue_depth"));
+        assertEquals(1L, map.get("admissions"));
+        assertTrue(map.get("wait_time") instanceof Map);
+    }
+
+    /* tryAcquire() */
+
+    @Test
+    public void testTryAcquireWithSmallRequest() throws Exception {
+        instance.tryAcquire(90 * MB, 100 * MB, 0);
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(MemoryBudget.EXEMPT_BYTES, 100 * MB, 0);
+
+        assertNotNull(permit);
+        assertEquals(0, permit.getNumBytes());
+        assertEquals(1, instance.getExemptions());
+        assertEquals(90 * MB, instance.getBytesInUse());
+    }
+
+    @Test
+    public void testTryAcquireWithBudgetDisabled() throws Exception {
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(1000 * MB, 0, 0);
+        assertEquals(0, permit.getNumBytes());
+        assertEquals(0, instance.getBytesInUse());
+    }
+
+    @Test
+    public void testTryAcquireWithinBudget() throws Exception {
+        final MemoryBudget.Permit permit1 =
+                instance.tryAcquire(40 * MB, 100 * MB, 0);
+        final MemoryBudget.Permit permit2 =
+                instance.tryAcquire(60 * MB, 100 * MB, 0);
+
+        assertEquals(100 * MB, instance.getBytesInUse());
+        assertEquals(2, instance.getAdmissions());
+        assertEquals(0, instance.getWaits());
+
+        permit1.close();
+        permit2.close();
+        assertEquals(0, instance.getBytesInUse());
+        assertEquals(100 * MB, instance.getPeakBytesInUse());
+    }
+
+    @Test
+    public void testTryAcquireWithRequestLargerThanBudget() throws Exception {
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(500 * MB, 100 * MB, 0);
+        assertEquals(100 * MB, permit.getNumBytes());
+        assertNull(instance.tryAcquire(20 * MB, 100 * MB, 0));
+    }
+
+    @Test
+    public void testTryAcquireRejectsAfterMaxWait() throws Exception {
+        instance.tryAcquire(80 * MB, 100 * MB, 0);
+        final long start = System.nanoTime();
+
+        assertNull(instance.tryAcquire(40 * MB, 100 * MB, 50));
+        assertTrue(System.nanoTime() - start >=
+                TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, instance.getRejections());
+        assertEquals(0, instance.getQueueDepth());
+    }
+
+    @Test
+    public void testTryAcquireWaitsForRelease() throws Exception {
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(80 * MB, 100 * MB, 0);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<MemoryBudget.Permit> future = executor.submit(() ->
+                    instance.tryAcquire(40 * MB, 100 * MB, 5000));
+            awaitQueueDepth(1);
+            permit.close();
+
+            assertEquals(40 * MB, future.get().getNumBytes());
+            assertEquals(40 * MB, instance.getBytesInUse());
+            assertEquals(1, instance.getWaits());
+            assertEquals(0, instance.getQueueDepth());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTryAcquireAdmitsInOrderOfArrival() throws Exception {
+        final MemoryBudget.Permit permit =
+                instance.tryAcquire(60 * MB, 100 * MB, 0);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<MemoryBudget.Permit> future = executor.submit(() ->
+                    instance.tryAcquire(60 * MB, 100 * MB, 5000));
+            awaitQueueDepth(1);
+
+            // This one would fit, but the one above is first in line.
+            assertNull(instance.tryAcquire(20 * MB, 100 * MB, 50));
+
+            permit.close();
+            assertEquals(60 * MB, future.get().getNumBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* Permit.close() */
+
+    @Test
+    public void testPermitCloseMoreThanOnce() throws Exception {
+        final MemoryBudget.Permit permit1 =
+                instance.tryAcquire(40 * MB, 100 * MB, 0);
+        final MemoryBudget.Permit permit2 =
+                instance.tryAcquire(40 * MB, 100 * MB, 0);
+        permit1.close();
+        permit1.close();
+        assertEquals(40 * MB, instance.getBytesInUse());
+        permit2.close();
+    }
+
+}
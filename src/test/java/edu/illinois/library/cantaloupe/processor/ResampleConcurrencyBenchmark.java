@@ -0,0 +1,112 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import com.mortennobel.imagescaling.ResampleFilters;
+import com.mortennobel.imagescaling.ResampleOp;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Compares the throughput of {@link ResampleOp}s that start their own
+ * threads against that of {@link ResamplePool}, with increasing numbers of
+ * concurrent requests, for both tile-sized and full-sized images. The pool
+ * should be at least as fast with one request and noticeably faster with
+ * many.</p>
+ *
+ * <p>This is not a unit test and is not run by the test suite. Run it with
+ * e.g. <code>mvn test-compile exec:java
+ * -Dexec.classpathScope=test
+ * -Dexec.mainClass=edu.illinois.library.cantaloupe.processor.ResampleConcurrencyBenchmark</code>.
+ * </p>
+ */
+public class ResampleConcurrencyBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+    private static final long WARMUP_MSEC = 1000;
+    private static final long MEASUREMENT_MSEC = 3000;
+
+    private static final int[][] SIZES = {
+            // source width, source height, target width, target height,
+            // max threads (limited by the default heap size)
+            { 1024, 1024, 512, 512, 64 },
+            { 4000, 3000, 2000, 1500, 16 } };
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("size\tthreads\tthreaded ops/sec\tpooled ops/sec");
+        for (int[] size : SIZES) {
+            final BufferedImage image = new BufferedImage(size[0], size[1],
+                    BufferedImage.TYPE_INT_RGB);
+            for (int numThreads : THREAD_COUNTS) {
+                if (numThreads > size[4]) {
+                    break;
+                }
+                run(image, size[2], size[3], numThreads, false, WARMUP_MSEC);
+                final double threaded = run(image, size[2], size[3],
+                        numThreads, false, MEASUREMENT_MSEC);
+                run(image, size[2], size[3], numThreads, true, WARMUP_MSEC);
+                final double pooled = run(image, size[2], size[3],
+                        numThreads, true, MEASUREMENT_MSEC);
+                System.out.printf("%dx%d\t%d\t%.1f\t%.1f%n",
+                        size[0], size[1], numThreads, threaded, pooled);
+            }
+        }
+    }
+
+    /**
+     * @return Number of images per second scaled by all threads.
+     */
+    private static double run(final BufferedImage image,
+                              final int dstWidth,
+                              final int dstHeight,
+                              final int numThreads,
+                              final boolean usePool,
+                              final long durationMsec) throws Exception {
+        final AtomicBoolean isStopped = new AtomicBoolean(false);
+        final AtomicLong opCount = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < numThreads; t++) {
+            Thread thread = new Thread(() -> {
+                long count = 0;
+                try {
+                    startLatch.await();
+                    while (!isStopped.get()) {
+                        final ResampleOp op =
+                                new ResampleOp(dstWidth, dstHeight);
+                        op.setFilter(ResampleFilters.getLanczos3Filter());
+                        if (usePool) {
+                            ResamplePool.filter(op, image, dstWidth, dstHeight);
+                        } else {
+                            op.filter(image, null);
+                        }
+                        count++;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    opCount.addAndGet(count);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        Thread.sleep(durationMsec);
+        isStopped.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsedNsec = System.nanoTime() - start;
+        return opCount.get() /
+                (elapsedNsec / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
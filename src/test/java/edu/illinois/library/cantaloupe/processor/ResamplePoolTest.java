@@ -0,0 +1,88 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import com.mortennobel.imagescaling.ResampleFilters;
+import com.mortennobel.imagescaling.ResampleOp;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ResamplePoolTest extends BaseTest {
+
+    private static BufferedImage newImage(int width, int height) {
+        final BufferedImage image =
+                new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertSamePixels(BufferedImage expected,
+                                         BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /* filter() */
+
+    @Test
+    public void testFilterProducesSameResultAsSequentialFilter() {
+        final BufferedImage image = newImage(2400, 1800);
+
+        final ResampleOp sequentialOp = new ResampleOp(1600, 1200);
+        sequentialOp.setFilter(ResampleFilters.getLanczos3Filter());
+        sequentialOp.setNumberOfThreads(1);
+        final BufferedImage expected = sequentialOp.filter(image, null);
+
+        final ResampleOp pooledOp = new ResampleOp(1600, 1200);
+        pooledOp.setFilter(ResampleFilters.getLanczos3Filter());
+        final BufferedImage actual =
+                ResamplePool.filter(pooledOp, image, 1600, 1200);
+
+        assertNotNull(pooledOp.getPool());
+        assertSamePixels(expected, actual);
+    }
+
+    @Test
+    public void testFilterWithSmallImageRunsInCallingThread() {
+        final BufferedImage image = newImage(100, 100);
+        final ResampleOp op = new ResampleOp(50, 50);
+        ResamplePool.filter(op, image, 50, 50);
+        assertEquals(1, op.getNumberOfThreads());
+    }
+
+    /* getParallelism() */
+
+    @Test
+    public void testGetParallelismWithSmallWork() {
+        assertEquals(1, ResamplePool.getParallelism(
+                ResamplePool.MIN_PARALLEL_WORK - 1, 1, 8));
+    }
+
+    @Test
+    public void testGetParallelismWithLargeWork() {
+        assertEquals(8, ResamplePool.getParallelism(
+                ResamplePool.MIN_PARALLEL_WORK, 1, 8));
+    }
+
+    @Test
+    public void testGetParallelismDividesPoolAmongActiveFilters() {
+        final long work = ResamplePool.MIN_PARALLEL_WORK * 10;
+        assertEquals(4, ResamplePool.getParallelism(work, 2, 8));
+        assertEquals(2, ResamplePool.getParallelism(work, 3, 8));
+        assertEquals(1, ResamplePool.getParallelism(work, 64, 8));
+    }
+
+}
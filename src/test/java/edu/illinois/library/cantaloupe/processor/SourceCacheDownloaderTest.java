@@ -0,0 +1,311 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import edu.illinois.library.cantaloupe.cache.CacheFactory;
+import edu.illinois.library.cantaloupe.cache.SourceCache;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.resolver.StreamResolver;
+import edu.illinois.library.cantaloupe.resolver.StreamSource;
+import edu.illinois.library.cantaloupe.resource.RequestContext;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SourceCacheDownloaderTest extends BaseTest {
+
+    /**
+     * Resolver whose streams return {@link #BYTES}, optionally waiting for
+     * a latch to be released before returning anything, or failing partway
+     * through once {@link #failLatch} has been released.
+     */
+    private static class FakeStreamResolver implements StreamResolver {
+
+        static final byte[] BYTES = new byte[] { 1, 2, 3, 4, 5 };
+
+        final AtomicInteger numStreams = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(0);
+        boolean fail = false;
+        int failAfter = -1;
+        CountDownLatch failLatch = new CountDownLatch(0);
+
+        @Override
+        public Format getSourceFormat() {
+            return Format.JPG;
+        }
+
+        @Override
+        public StreamSource newStreamSource() throws IOException {
+            numStreams.incrementAndGet();
+            if (fail) {
+                throw new IOException("Failed");
+            }
+            return new StreamSource() {
+                @Override
+                public ImageInputStream newImageInputStream() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public InputStream newInputStream() throws IOException {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (failAfter < 0) {
+                        return new ByteArrayInputStream(BYTES);
+                    }
+                    return new InputStream() {
+                        private int position = 0;
+
+                        @Override
+                        public int read() throws IOException {
+                            final byte[] b = new byte[1];
+                            return (read(b, 0, 1) < 0) ? -1 : b[0];
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len)
+                                throws IOException {
+                            if (position == failAfter) {
+                                try {
+                                    failLatch.await();
+                                } catch (InterruptedException e) {
+                                    throw new IOException(e);
+                                }
+                                throw new IOException("Failed");
+                            }
+                            len = Math.min(len, failAfter - position);
+                            System.arraycopy(BYTES, position, b, off, len);
+                            position += len;
+                            return len;
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public void setContext(RequestContext context) {}
+
+        @Override
+        public void setIdentifier(Identifier identifier) {}
+
+    }
+
+    private File cacheFolder;
+    private FakeStreamResolver resolver;
+    private SourceCache sourceCache;
+    private SourceCacheDownloader instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cacheFolder = new File(TestUtil.getTempFolder(), "cache");
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.SOURCE_CACHE_ENABLED, true);
+        config.setProperty(Key.SOURCE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheFolder.getAbsolutePath());
+        config.setProperty(Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS, 4);
+
+        sourceCache = CacheFactory.getSourceCache();
+        resolver = new FakeStreamResolver();
+        instance = new SourceCacheDownloader();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sourceCache.purge();
+        FileUtils.deleteDirectory(cacheFolder);
+    }
+
+    /* download() */
+
+    @Test
+    public void testDownload() throws Exception {
+        final Identifier identifier = new Identifier("cats");
+        instance.download(sourceCache, resolver, identifier).await();
+
+        try (InputStream is = sourceCache.newSourceImageInputStream(identifier)) {
+            assertArrayEquals(FakeStreamResolver.BYTES,
+                    IOUtils.toByteArray(is));
+        }
+        assertEquals(0, instance.getNumDownloads());
+    }
+
+    @Test
+    public void testDownloadDeduplicatesConcurrentDownloadsOfSameImage()
+            throws Exception {
+        resolver.latch = new CountDownLatch(1);
+        final Identifier identifier = new Identifier("cats");
+
+        SourceCacheDownloader.Download download1 =
+                instance.download(sourceCache, resolver, identifier);
+        SourceCacheDownloader.Download download2 =
+                instance.download(sourceCache, resolver, identifier);
+        assertSame(download1, download2);
+        assertEquals(1, instance.getNumDownloads());
+
+        resolver.latch.countDown();
+        download1.await();
+        assertEquals(1, resolver.numStreams.get());
+    }
+
+    @Test
+    public void testDownloadLimitsConcurrentDownloadsPerOrigin()
+            throws Exception {
+        Configuration.getInstance().setProperty(
+                Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS, 1);
+        resolver.latch = new CountDownLatch(1);
+
+        SourceCacheDownloader.Download download1 = instance.download(
+                sourceCache, resolver, new Identifier("cats"));
+        SourceCacheDownloader.Download download2 = instance.download(
+                sourceCache, resolver, new Identifier("dogs"));
+
+        Thread.sleep(200);
+        // The second download is waiting for the first to finish.
+        assertEquals(1, resolver.numStreams.get());
+
+        resolver.latch.countDown();
+        download1.await();
+        download2.await();
+        assertEquals(2, resolver.numStreams.get());
+    }
+
+    @Test
+    public void testDownloadLimitsConcurrentDownloadsToThreadCount()
+            throws Exception {
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS, 0);
+        config.setProperty(Key.SOURCE_CACHE_DOWNLOAD_THREADS, 1);
+        instance = new SourceCacheDownloader();
+        resolver.latch = new CountDownLatch(1);
+
+        SourceCacheDownloader.Download download1 = instance.download(
+                sourceCache, resolver, new Identifier("cats"));
+        SourceCacheDownloader.Download download2 = instance.download(
+                sourceCache, resolver, new Identifier("dogs"));
+
+        Thread.sleep(200);
+        // The second download is queued behind the first.
+        assertEquals(1, resolver.numStreams.get());
+        assertEquals(2, instance.getNumDownloads());
+
+        resolver.latch.countDown();
+        download1.await();
+        download2.await();
+        assertEquals(2, resolver.numStreams.get());
+    }
+
+    @Test
+    public void testDownloadWithFailure() throws Exception {
+        resolver.fail = true;
+        final Identifier identifier = new Identifier("cats");
+        SourceCacheDownloader.Download download =
+                instance.download(sourceCache, resolver, identifier);
+        try {
+            download.awaitStart();
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+        try {
+            download.await();
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+        assertNull(sourceCache.getSourceImageFile(identifier));
+        assertEquals(0, instance.getNumDownloads());
+    }
+
+    @Test
+    public void testDownloadWithFailurePartwayFailsReaders() throws Exception {
+        resolver.failAfter = 2;
+        resolver.failLatch = new CountDownLatch(1);
+        final Identifier identifier = new Identifier("cats");
+        SourceCacheDownloader.Download download =
+                instance.download(sourceCache, resolver, identifier);
+        download.awaitStart();
+
+        try (InputStream is = sourceCache.newSourceImageInputStream(identifier)) {
+            assertEquals(1, is.read());
+            assertEquals(2, is.read());
+            resolver.failLatch.countDown();
+            try {
+                is.read();
+                fail("Expected exception");
+            } catch (IOException e) {
+                // pass
+            }
+        } finally {
+            resolver.failLatch.countDown();
+        }
+        try {
+            download.await();
+            fail("Expected exception");
+        } catch (IOException e) {
+            // pass
+        }
+        assertNull(sourceCache.getSourceImageFile(identifier));
+        assertEquals(0, FileUtils.listFiles(cacheFolder,
+                new String[] { "tmp" }, true).size());
+    }
+
+    @Test
+    public void testDownloadCanBeReadBeforeItCompletes() throws Exception {
+        resolver.latch = new CountDownLatch(1);
+        final Identifier identifier = new Identifier("cats");
+        SourceCacheDownloader.Download download =
+                instance.download(sourceCache, resolver, identifier);
+
+        // The resolver hasn't returned a stream yet, so neither has the
+        // source cache.
+        assertFalse(waitForStart(download, 200));
+
+        resolver.latch.countDown();
+        download.awaitStart();
+        try (InputStream is = sourceCache.newSourceImageInputStream(identifier)) {
+            assertArrayEquals(FakeStreamResolver.BYTES,
+                    IOUtils.toByteArray(is));
+        }
+    }
+
+    private static boolean waitForStart(SourceCacheDownloader.Download download,
+                                        long msec) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                download.awaitStart();
+                started.countDown();
+            } catch (IOException e) {
+                // ignore
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return started.await(msec, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,194 @@
+package edu.illinois.library.cantaloupe.processor;
+
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+import com.mortennobel.imagescaling.ResampleOp;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.processor.imageio.ImageReader;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StripedImageTest extends BaseTest {
+
+    private static final String FIXTURE =
+            "tif-rgb-monores-64x56x8-striped-lzw.tif";
+
+    private ImageReader reader;
+    private File tempFile;
+
+    @After
+    public void tearDown() throws Exception {
+        if (reader != null) {
+            reader.dispose();
+        }
+        if (tempFile != null) {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected,
+                                         BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private StripedImage newInstance(Rectangle region, Dimension size,
+                                     ResampleFilter filter) throws Exception {
+        reader = new ImageReader(TestUtil.getImage(FIXTURE), Format.TIF);
+        return new StripedImage(reader, region, size, filter,
+                reader.getTileSize(0).height);
+    }
+
+    private static BufferedImage toBufferedImage(StripedImage image,
+                                                 Raster raster) {
+        raster = raster.createTranslatedChild(0, 0);
+        final BufferedImage bufferedImage = new BufferedImage(
+                image.getColorModel(), raster.createCompatibleWritableRaster(),
+                false, null);
+        bufferedImage.getRaster().setRect(raster);
+        return bufferedImage;
+    }
+
+    /**
+     * @return Path of a new uncompressed TIFF that is wide enough to be read
+     *         in more than one band.
+     */
+    private File newWideTIFF() throws Exception {
+        final int width = 4200, height = 1100;
+        final BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_3BYTE_BGR);
+        final Random random = new Random(0);
+        for (int y = 0; y < height; y += 10) {
+            for (int x = 0; x < width; x += 10) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        tempFile = File.createTempFile("StripedImageTest", ".tif");
+        ImageIO.write(image, "tiff", tempFile);
+        return tempFile;
+    }
+
+    /* getBandHeight() */
+
+    @Test
+    public void testGetBandHeight() {
+        assertEquals(4192, StripedImage.getBandHeight(1000, 16));
+        assertEquals(64, StripedImage.getBandHeight(100000, 64));
+        assertEquals(1, StripedImage.getBandHeight(10000000, 1));
+    }
+
+    /* getData() */
+
+    @Test
+    public void testGetDataWithoutScaling() throws Exception {
+        final Rectangle region = new Rectangle(10, 5, 40, 30);
+        final StripedImage instance =
+                newInstance(region, region.getSize(), null);
+        final BufferedImage expected = reader.read().
+                getSubimage(10, 5, 40, 30);
+
+        assertSamePixels(expected, instance.getAsBufferedImage());
+    }
+
+    @Test
+    public void testGetDataWithScaling() throws Exception {
+        final ResampleFilter filter = ResampleFilters.getLanczos3Filter();
+        final StripedImage instance = newInstance(new Rectangle(0, 0, 64, 56),
+                new Dimension(30, 25), filter);
+        final ResampleOp op = new ResampleOp(30, 25);
+        op.setFilter(filter);
+        op.setNumberOfThreads(1);
+        final BufferedImage expected = op.filter(reader.read(), null);
+
+        assertSamePixels(expected, instance.getAsBufferedImage());
+    }
+
+    @Test
+    public void testGetDataWithSuccessiveRowsKeepsOnlyRequestedRows()
+            throws Exception {
+        final Rectangle region = new Rectangle(0, 0, 64, 56);
+        final StripedImage instance =
+                newInstance(region, region.getSize(), null);
+        final BufferedImage expected = reader.read();
+
+        for (int y = 0; y < 56; y++) {
+            final Raster raster = instance.getData(new Rectangle(8, y, 50, 1));
+            assertEquals(y, raster.getMinY());
+            assertSamePixels(expected.getSubimage(8, y, 50, 1),
+                    toBufferedImage(instance, raster));
+            assertEquals(1, instance.getNumRows());
+        }
+        assertEquals(1, instance.getNumPasses());
+    }
+
+    @Test
+    public void testGetDataWithPrecedingRowsStartsOver() throws Exception {
+        final Rectangle region = new Rectangle(0, 0, 64, 56);
+        final StripedImage instance =
+                newInstance(region, region.getSize(), null);
+        final BufferedImage expected = reader.read();
+
+        instance.getData(new Rectangle(0, 40, 64, 10));
+        final Raster raster = instance.getData(new Rectangle(0, 10, 64, 10));
+
+        assertEquals(2, instance.getNumPasses());
+        assertSamePixels(expected.getSubimage(0, 10, 64, 10),
+                toBufferedImage(instance, raster));
+    }
+
+    @Test
+    public void testGetDataWithMultipleBands() throws Exception {
+        reader = new ImageReader(newWideTIFF(), Format.TIF);
+        final Rectangle region = new Rectangle(100, 0, 4000, 1100);
+        final StripedImage instance = new StripedImage(reader, region,
+                new Dimension(1000, 275), ResampleFilters.getBoxFilter(),
+                reader.getTileSize(0).height);
+        assertTrue(StripedImage.getBandHeight(4000,
+                reader.getTileSize(0).height) < 1100);
+
+        final ResampleOp op = new ResampleOp(1000, 275);
+        op.setFilter(ResampleFilters.getBoxFilter());
+        op.setNumberOfThreads(1);
+        final BufferedImage expected = op.filter(
+                reader.read().getSubimage(100, 0, 4000, 1100), null);
+
+        assertSamePixels(expected, instance.getAsBufferedImage());
+    }
+
+    @Test
+    public void testGetDataWithImageIOWriter() throws Exception {
+        final StripedImage instance = newInstance(new Rectangle(0, 0, 64, 56),
+                new Dimension(32, 28), ResampleFilters.getBoxFilter());
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(instance, "png", os));
+        assertEquals(1, instance.getNumPasses());
+
+        final BufferedImage written =
+                ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+        final ResampleOp op = new ResampleOp(32, 28);
+        op.setFilter(ResampleFilters.getBoxFilter());
+        op.setNumberOfThreads(1);
+        assertSamePixels(op.filter(reader.read(), null), written);
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.illinois.library.cantaloupe.resource;
+
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FileChannelWriterTest extends BaseTest {
+
+    private static final String IMAGE = "jpg-rgb-64x56x8-baseline.jpg";
+
+    /* write(FileChannel, OutputStream) */
+
+    @Test
+    public void testWriteWithChannel() throws Exception {
+        final File file = TestUtil.getImage(IMAGE);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (FileInputStream is = new FileInputStream(file)) {
+            FileChannelWriter.write(is.getChannel(), os);
+        }
+        assertArrayEquals(Files.readAllBytes(file.toPath()), os.toByteArray());
+    }
+
+    @Test
+    public void testWriteWithChannelWritesFromCurrentPosition()
+            throws Exception {
+        final File file = TestUtil.getImage(IMAGE);
+        final byte[] expected = Files.readAllBytes(file.toPath());
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (FileInputStream is = new FileInputStream(file)) {
+            is.skip(100);
+            FileChannel channel = is.getChannel();
+            FileChannelWriter.write(channel, os);
+            assertEquals(channel.size(), channel.position());
+        }
+        assertArrayEquals(Arrays.copyOfRange(expected, 100, expected.length),
+                os.toByteArray());
+    }
+
+    /* write(FileChannel, long, long, OutputStream) */
+
+    @Test
+    public void testWriteWithRange() throws Exception {
+        final File file = TestUtil.getImage(IMAGE);
+        final byte[] expected = Files.readAllBytes(file.toPath());
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (FileInputStream is = new FileInputStream(file)) {
+            FileChannelWriter.write(is.getChannel(), 100, 50, os);
+        }
+        assertArrayEquals(Arrays.copyOfRange(expected, 100, 150),
+                os.toByteArray());
+    }
+
+    /* write(Path, OutputStream) */
+
+    @Test
+    public void testWriteWithPath() throws Exception {
+        final File file = TestUtil.getImage(IMAGE);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        FileChannelWriter.write(file.toPath(), os);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), os.toByteArray());
+    }
+
+}
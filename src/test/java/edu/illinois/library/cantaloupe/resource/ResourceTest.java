@@ -2,6 +2,8 @@ package edu.illinois.library.cantaloupe.resource;
 
 import edu.illinois.library.cantaloupe.StandaloneEntry;
 import edu.illinois.library.cantaloupe.WebServer;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
+import edu.illinois.library.cantaloupe.cache.NegativeResultCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.test.BaseTest;
@@ -41,6 +43,9 @@ public abstract class ResourceTest extends BaseTest {
         config.setProperty(Key.FILESYSTEMRESOLVER_PATH_PREFIX,
                 TestUtil.getFixturePath() + "/images/");
 
+        InfoCache.getInstance().purge();
+        NegativeResultCache.getInstance().purge();
+
         client = new Client(new Context(), Protocol.HTTP);
         client.start();
 
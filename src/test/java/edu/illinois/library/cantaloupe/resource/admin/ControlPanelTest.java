@@ -281,6 +281,9 @@ public class ControlPanelTest extends ResourceTest {
         selectNamed(Key.PROCESSOR_FALLBACK).selectByVisibleText("JaiProcessor");
         inputNamed(Key.PROCESSOR_DPI).sendKeys("300");
         inputNamed(Key.PROCESSOR_NORMALIZE).click();
+        inputNamed(Key.PROCESSOR_STREAMING_THRESHOLD).sendKeys("1000000");
+        inputNamed(Key.PROCESSOR_MEMORY_BUDGET).sendKeys("2000000000");
+        inputNamed(Key.PROCESSOR_MEMORY_BUDGET_MAX_WAIT).sendKeys("20");
         selectNamed(Key.PROCESSOR_BACKGROUND_COLOR).selectByValue("white");
         selectNamed(Key.PROCESSOR_UPSCALE_FILTER).
                 selectByVisibleText("Triangle");
@@ -325,6 +328,12 @@ public class ControlPanelTest extends ResourceTest {
         assertEquals("JaiProcessor", config.getString(Key.PROCESSOR_FALLBACK));
         assertEquals(300, config.getInt(Key.PROCESSOR_DPI));
         assertTrue(config.getBoolean(Key.PROCESSOR_NORMALIZE));
+        assertEquals(1000000,
+                config.getLong(Key.PROCESSOR_STREAMING_THRESHOLD));
+        assertEquals(2000000000,
+                config.getLong(Key.PROCESSOR_MEMORY_BUDGET));
+        assertEquals(20,
+                config.getLong(Key.PROCESSOR_MEMORY_BUDGET_MAX_WAIT));
         assertEquals("white", config.getString(Key.PROCESSOR_BACKGROUND_COLOR));
         assertEquals("triangle",
                 config.getString(Key.PROCESSOR_UPSCALE_FILTER));
@@ -374,11 +383,22 @@ public class ControlPanelTest extends ResourceTest {
         inputNamed(Key.CLIENT_CACHE_NO_TRANSFORM).click();
         selectNamed(Key.SOURCE_CACHE).selectByVisibleText("FilesystemCache");
         inputNamed(Key.SOURCE_CACHE_ENABLED).click();
+        inputNamed(Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS).sendKeys("3");
         selectNamed(Key.DERIVATIVE_CACHE).selectByVisibleText("FilesystemCache");
         inputNamed(Key.DERIVATIVE_CACHE_ENABLED).click();
+        inputNamed(Key.DERIVATIVE_CACHE_DERIVE_FROM_CACHED).click();
+        inputNamed(Key.DERIVATIVE_CACHE_ASYNC_WRITES_ENABLED).click();
+        inputNamed(Key.DERIVATIVE_CACHE_ASYNC_WRITES_THREADS).sendKeys("3");
+        inputNamed(Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE).sendKeys("1000000");
+        inputNamed(Key.CACHE_METRICS_ENABLED).click();
         inputNamed(Key.CACHE_SERVER_PURGE_MISSING).click();
         inputNamed(Key.CACHE_SERVER_RESOLVE_FIRST).click();
         inputNamed(Key.CACHE_SERVER_TTL).sendKeys("10");
+        inputNamed(Key.INFO_CACHE_MAX_SIZE).sendKeys("500");
+        inputNamed(Key.NEGATIVE_CACHE_TTL).sendKeys("15");
+        inputNamed(Key.NEGATIVE_CACHE_MAX_SIZE).sendKeys("600");
+        inputNamed(Key.CACHE_WARMING_THREADS).sendKeys("2");
+        inputNamed(Key.CACHE_WARMING_MAX_RATE).sendKeys("3");
         inputNamed(Key.CACHE_WORKER_ENABLED).click();
         inputNamed(Key.CACHE_WORKER_INTERVAL).sendKeys("25");
         // AmazonS3Cache
@@ -388,6 +408,7 @@ public class ControlPanelTest extends ResourceTest {
         inputNamed(Key.AMAZONS3CACHE_BUCKET_NAME).sendKeys("bucket");
         inputNamed(Key.AMAZONS3CACHE_BUCKET_NAME).sendKeys("greenland");
         inputNamed(Key.AMAZONS3CACHE_OBJECT_KEY_PREFIX).sendKeys("obj");
+        inputNamed(Key.AMAZONS3CACHE_MAX_CONCURRENT_UPLOADS).sendKeys("6");
         // AzureStorageCache
         css("#cl-caches li > a[href=\"#AzureStorageCache\"]").click();
         inputNamed(Key.AZURESTORAGECACHE_ACCOUNT_NAME).sendKeys("bees");
@@ -399,6 +420,9 @@ public class ControlPanelTest extends ResourceTest {
         inputNamed(Key.FILESYSTEMCACHE_PATHNAME).sendKeys("/path");
         inputNamed(Key.FILESYSTEMCACHE_DIRECTORY_DEPTH).sendKeys("8");
         inputNamed(Key.FILESYSTEMCACHE_DIRECTORY_NAME_LENGTH).sendKeys("4");
+        inputNamed(Key.FILESYSTEMCACHE_MAX_SIZE).sendKeys("1000000");
+        inputNamed(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE).sendKeys("500000");
+        selectNamed(Key.FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY).selectByValue("LRU");
         // JdbcCache
         css("#cl-caches li > a[href=\"#JdbcCache\"]").click();
         inputNamed(Key.JDBCCACHE_JDBC_URL).sendKeys("jdbc://dogs");
@@ -410,6 +434,7 @@ public class ControlPanelTest extends ResourceTest {
         // HeapCache
         css("#cl-caches li > a[href=\"#HeapCache\"]").click();
         inputNamed(Key.HEAPCACHE_TARGET_SIZE).sendKeys("1234");
+        inputNamed(Key.HEAPCACHE_OFF_HEAP).click();
         inputNamed(Key.HEAPCACHE_PERSIST).click();
         inputNamed(Key.HEAPCACHE_PATHNAME).sendKeys("/tmp/cats");
         // RedisCache
@@ -419,6 +444,10 @@ public class ControlPanelTest extends ResourceTest {
         inputNamed(Key.REDISCACHE_PASSWORD).sendKeys("redispass");
         inputNamed(Key.REDISCACHE_SSL).click();
         inputNamed(Key.REDISCACHE_DATABASE).sendKeys("5");
+        // TieredCache
+        css("#cl-caches li > a[href=\"#TieredCache\"]").click();
+        selectNamed(Key.TIEREDCACHE_LOWER_TIER).selectByValue("JdbcCache");
+        selectNamed(Key.TIEREDCACHE_WRITE_STRATEGY).selectByValue("behind");
 
         // Submit the form
         css("#cl-caches input[type=\"submit\"]").click();
@@ -439,11 +468,22 @@ public class ControlPanelTest extends ResourceTest {
         assertTrue(config.getBoolean(Key.CLIENT_CACHE_NO_TRANSFORM));
         assertEquals("FilesystemCache", config.getString(Key.SOURCE_CACHE));
         assertTrue(config.getBoolean(Key.SOURCE_CACHE_ENABLED));
+        assertEquals(3, config.getInt(Key.SOURCE_CACHE_MAX_CONCURRENT_DOWNLOADS));
         assertEquals("FilesystemCache", config.getString(Key.DERIVATIVE_CACHE));
         assertTrue(config.getBoolean(Key.DERIVATIVE_CACHE_ENABLED));
+        assertTrue(config.getBoolean(Key.DERIVATIVE_CACHE_DERIVE_FROM_CACHED));
+        assertTrue(config.getBoolean(Key.DERIVATIVE_CACHE_ASYNC_WRITES_ENABLED));
+        assertEquals(3, config.getInt(Key.DERIVATIVE_CACHE_ASYNC_WRITES_THREADS));
+        assertEquals(1000000, config.getLong(Key.DERIVATIVE_CACHE_ASYNC_WRITES_MAX_PENDING_SIZE));
+        assertTrue(config.getBoolean(Key.CACHE_METRICS_ENABLED));
         //assertTrue(config.getBoolean(Cache.PURGE_MISSING_CONFIG_KEY)); TODO: why does this not work?
         assertTrue(config.getBoolean(Key.CACHE_SERVER_RESOLVE_FIRST));
         assertEquals(10, config.getInt(Key.CACHE_SERVER_TTL));
+        assertEquals(500, config.getInt(Key.INFO_CACHE_MAX_SIZE));
+        assertEquals(15, config.getInt(Key.NEGATIVE_CACHE_TTL));
+        assertEquals(600, config.getInt(Key.NEGATIVE_CACHE_MAX_SIZE));
+        assertEquals(2, config.getInt(Key.CACHE_WARMING_THREADS));
+        assertEquals(3, config.getInt(Key.CACHE_WARMING_MAX_RATE));
         assertTrue(config.getBoolean(Key.CACHE_WORKER_ENABLED));
         assertEquals(25, config.getInt(Key.CACHE_WORKER_INTERVAL));
         // AmazonS3Cache
@@ -452,6 +492,7 @@ public class ControlPanelTest extends ResourceTest {
         assertEquals("bucket", config.getString(Key.AMAZONS3CACHE_BUCKET_NAME));
         assertEquals("greenland", config.getString(Key.AMAZONS3CACHE_BUCKET_REGION));
         assertEquals("obj", config.getString(Key.AMAZONS3CACHE_OBJECT_KEY_PREFIX));
+        assertEquals("6", config.getString(Key.AMAZONS3CACHE_MAX_CONCURRENT_UPLOADS));
         // AzureStorageCache
         assertEquals("bees", config.getString(Key.AZURESTORAGECACHE_ACCOUNT_NAME));
         assertEquals("birds", config.getString(Key.AZURESTORAGECACHE_ACCOUNT_KEY));
@@ -461,6 +502,9 @@ public class ControlPanelTest extends ResourceTest {
         assertEquals("/path", config.getString(Key.FILESYSTEMCACHE_PATHNAME));
         assertEquals("8", config.getString(Key.FILESYSTEMCACHE_DIRECTORY_DEPTH));
         assertEquals("4", config.getString(Key.FILESYSTEMCACHE_DIRECTORY_NAME_LENGTH));
+        assertEquals("1000000", config.getString(Key.FILESYSTEMCACHE_MAX_SIZE));
+        assertEquals("500000", config.getString(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE));
+        assertEquals("LRU", config.getString(Key.FILESYSTEMCACHE_SOURCE_ADMISSION_POLICY));
         // JdbcCache
         assertEquals("jdbc://dogs", config.getString(Key.JDBCCACHE_JDBC_URL));
         assertEquals("person", config.getString(Key.JDBCCACHE_USER));
@@ -470,6 +514,7 @@ public class ControlPanelTest extends ResourceTest {
         assertEquals("box", config.getString(Key.JDBCCACHE_INFO_TABLE));
         // HeapCache
         assertEquals("1234", config.getString(Key.HEAPCACHE_TARGET_SIZE));
+        assertTrue(config.getBoolean(Key.HEAPCACHE_OFF_HEAP));
         assertTrue(config.getBoolean(Key.HEAPCACHE_PERSIST));
         assertEquals("/tmp/cats", config.getString(Key.HEAPCACHE_PATHNAME));
         // RedisCache
@@ -478,6 +523,9 @@ public class ControlPanelTest extends ResourceTest {
         assertEquals("redispass", config.getString(Key.REDISCACHE_PASSWORD));
         assertTrue(config.getBoolean(Key.REDISCACHE_SSL));
         assertEquals("5", config.getString(Key.REDISCACHE_DATABASE));
+        // TieredCache
+        assertEquals("JdbcCache", config.getString(Key.TIEREDCACHE_LOWER_TIER));
+        assertEquals("behind", config.getString(Key.TIEREDCACHE_WRITE_STRATEGY));
     }
 
     @Test
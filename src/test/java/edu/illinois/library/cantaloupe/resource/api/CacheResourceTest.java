@@ -1,13 +1,19 @@
 package edu.illinois.library.cantaloupe.resource.api;
 
 import edu.illinois.library.cantaloupe.RestletApplication;
+import edu.illinois.library.cantaloupe.cache.InfoCache;
+import edu.illinois.library.cantaloupe.cache.NegativeResultCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
 import org.junit.Test;
 import org.restlet.data.Status;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 
+import java.io.FileNotFoundException;
+
 import static org.junit.Assert.*;
 
 /**
@@ -66,4 +72,21 @@ public class CacheResourceTest extends APIResourceTest {
         // TODO: assert that relevant cache files have been deleted
     }
 
+    @Test
+    public void testDoPurgePurgesInMemoryCaches() throws Exception {
+        final Identifier identifier = new Identifier(IDENTIFIER);
+        InfoCache.getInstance().put(identifier, new Info(64, 56));
+        Configuration.getInstance().setProperty(Key.NEGATIVE_CACHE_TTL, 60);
+        NegativeResultCache.getInstance().put(identifier,
+                "FilesystemResolver", new FileNotFoundException());
+
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_PATH + "/" + IDENTIFIER, USERNAME, SECRET);
+        client.delete();
+        assertEquals(Status.SUCCESS_NO_CONTENT, client.getStatus());
+        assertNull(InfoCache.getInstance().get(identifier));
+        assertNull(NegativeResultCache.getInstance().get(identifier,
+                "FilesystemResolver"));
+    }
+
 }
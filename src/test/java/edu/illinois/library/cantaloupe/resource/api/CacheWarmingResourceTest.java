@@ -0,0 +1,225 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.library.cantaloupe.RestletApplication;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.ClientResource;
+import org.restlet.resource.ResourceException;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Functional test of CacheWarmingResource and CacheWarmingTaskResource.
+ */
+public class CacheWarmingResourceTest extends APIResourceTest {
+
+    private File imageCacheFolder;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        File cacheFolder = new File(
+                TestUtil.getTempFolder().getAbsolutePath() + "/cache");
+        if (cacheFolder.exists()) {
+            FileUtils.cleanDirectory(cacheFolder);
+        } else {
+            cacheFolder.mkdir();
+        }
+        imageCacheFolder = new File(cacheFolder.getAbsolutePath() + "/image");
+
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.DERIVATIVE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheFolder.getAbsolutePath());
+        config.setProperty(Key.CACHE_SERVER_TTL, 10);
+        config.setProperty(Key.CACHE_WARMING_MAX_RATE, 0);
+    }
+
+    private JsonNode getTask(String path) throws Exception {
+        ClientResource client = getClientForUriPath(path, USERNAME, SECRET);
+        return new ObjectMapper().readTree(client.get().getText());
+    }
+
+    private ClientResource submitTask(String json) {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH, USERNAME, SECRET);
+        client.post(new StringRepresentation(json, MediaType.APPLICATION_JSON));
+        return client;
+    }
+
+    /* cancelTask() */
+
+    @Test
+    public void testCancelTaskWithUnknownTask() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH + "/bogus",
+                USERNAME, SECRET);
+        try {
+            client.delete();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_NOT_FOUND, client.getStatus());
+        }
+    }
+
+    /* getTask() */
+
+    @Test
+    public void testGetTaskWithUnknownTask() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH + "/bogus",
+                USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_NOT_FOUND, client.getStatus());
+        }
+    }
+
+    /* getTasks() */
+
+    @Test
+    public void testGetTasksWithEndpointDisabled() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.API_ENABLED, false);
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH, USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_FORBIDDEN, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetTasksWithNoCredentials() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_UNAUTHORIZED, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetTasksWithValidCredentials() throws Exception {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH, USERNAME, SECRET);
+        Representation rep = client.get();
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+        assertTrue(new ObjectMapper().readTree(rep.getText()).isArray());
+    }
+
+    /* submitTask() */
+
+    @Test
+    public void testSubmitTaskWithNoCredentials() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.CACHE_WARMING_PATH);
+        try {
+            client.post(new StringRepresentation("{\"identifiers\":[\"" +
+                    IMAGE + "\"]}", MediaType.APPLICATION_JSON));
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_UNAUTHORIZED, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testSubmitTaskWithDerivativeCacheDisabled() {
+        Configuration.getInstance().setProperty(
+                Key.DERIVATIVE_CACHE_ENABLED, false);
+        try {
+            submitTask("{\"identifiers\":[\"" + IMAGE + "\"]}");
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_CONFLICT, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testSubmitTaskWithNoIdentifiers() {
+        try {
+            submitTask("{\"identifiers\":[]}");
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testSubmitTaskWithInvalidFormat() {
+        try {
+            submitTask("{\"identifiers\":[\"" + IMAGE + "\"], " +
+                    "\"format\":\"bogus\"}");
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testSubmitTaskWithMalformedBody() {
+        try {
+            submitTask("{\"identifiers\":");
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testSubmitTaskWarmsTheCache() throws Exception {
+        ClientResource client = submitTask("{\"identifiers\":[\"" + IMAGE +
+                "\", \"bogus\"], \"format\":\"png\"}");
+        assertEquals(Status.SUCCESS_ACCEPTED, client.getStatus());
+
+        final String location = client.getResponse().getLocationRef().getPath();
+        assertTrue(location.startsWith(
+                RestletApplication.CACHE_WARMING_PATH + "/"));
+
+        JsonNode task = getTask(location);
+        for (int i = 0; i < 100 && !"succeeded".equals(
+                task.get("status").asText()); i++) {
+            Thread.sleep(100);
+            task = getTask(location);
+        }
+        assertEquals("succeeded", task.get("status").asText());
+        assertEquals(2, task.get("num_images_processed").asInt());
+        assertEquals(1, task.get("num_images_failed").asInt());
+        assertEquals(1, task.get("num_tiles_rendered").asInt());
+        assertEquals(1, FileUtils.listFiles(imageCacheFolder, null, true).size());
+
+        // Warming again should skip the cached tile.
+        client = submitTask("{\"identifiers\":[\"" + IMAGE + "\"], " +
+                "\"format\":\"png\"}");
+        final String location2 = client.getResponse().getLocationRef().getPath();
+        task = getTask(location2);
+        for (int i = 0; i < 100 && !"succeeded".equals(
+                task.get("status").asText()); i++) {
+            Thread.sleep(100);
+            task = getTask(location2);
+        }
+        assertEquals(1, task.get("num_tiles_skipped").asInt());
+    }
+
+}
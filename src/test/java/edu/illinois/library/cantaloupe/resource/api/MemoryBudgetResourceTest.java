@@ -0,0 +1,71 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.library.cantaloupe.RestletApplication;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
+import org.junit.Test;
+import org.restlet.data.Status;
+import org.restlet.resource.ClientResource;
+import org.restlet.resource.ResourceException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Functional test of MemoryBudgetResource.
+ */
+public class MemoryBudgetResourceTest extends APIResourceTest {
+
+    /* doReset() */
+
+    @Test
+    public void testDoReset() throws Exception {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.MEMORY_BUDGET_PATH, USERNAME, SECRET);
+        client.delete();
+        assertEquals(Status.SUCCESS_NO_CONTENT, client.getStatus());
+        assertEquals(0, MemoryBudget.getInstance().getRejections());
+    }
+
+    /* getMetrics() */
+
+    @Test
+    public void testGetMetricsWithEndpointDisabled() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.API_ENABLED, false);
+        ClientResource client = getClientForUriPath(
+                RestletApplication.MEMORY_BUDGET_PATH, USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_FORBIDDEN, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetMetricsWithInvalidCredentials() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.MEMORY_BUDGET_PATH, "invalid", "invalid");
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_UNAUTHORIZED, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetMetricsWithValidCredentials() throws Exception {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.MEMORY_BUDGET_PATH, USERNAME, SECRET);
+        JsonNode node = new ObjectMapper().readTree(client.get().getText());
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+        assertTrue(node.has("bytes_in_use"));
+        assertTrue(node.has("queue_depth"));
+        assertTrue(node.has("wait_time"));
+    }
+
+}
@@ -0,0 +1,99 @@
+package edu.illinois.library.cantaloupe.resource.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.library.cantaloupe.RestletApplication;
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.test.TestUtil;
+import org.junit.Test;
+import org.restlet.data.Status;
+import org.restlet.resource.ClientResource;
+import org.restlet.resource.ResourceException;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Functional test of SourceCacheResource.
+ */
+public class SourceCacheResourceTest extends APIResourceTest {
+
+    private void enableSourceCache() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.SOURCE_CACHE_ENABLED, true);
+        config.setProperty(Key.SOURCE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                new File(TestUtil.getTempFolder(), "cache").getAbsolutePath());
+        config.setProperty(Key.FILESYSTEMCACHE_SOURCE_MAX_SIZE, 5000);
+    }
+
+    /* getStatistics() */
+
+    @Test
+    public void testGetStatisticsWithEndpointDisabled() {
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.API_ENABLED, false);
+        ClientResource client = getClientForUriPath(
+                RestletApplication.SOURCE_CACHE_PATH, USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_FORBIDDEN, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetStatisticsWithInvalidCredentials() {
+        ClientResource client = getClientForUriPath(
+                RestletApplication.SOURCE_CACHE_PATH, "invalid", "invalid");
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_UNAUTHORIZED, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetStatisticsWithInvalidLimit() {
+        enableSourceCache();
+        ClientResource client = getClientForUriPath(
+                RestletApplication.SOURCE_CACHE_PATH + "?limit=cats",
+                USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetStatisticsWithSourceCacheDisabled() {
+        Configuration.getInstance().setProperty(Key.SOURCE_CACHE_ENABLED, false);
+        ClientResource client = getClientForUriPath(
+                RestletApplication.SOURCE_CACHE_PATH, USERNAME, SECRET);
+        try {
+            client.get();
+            fail("Expected exception");
+        } catch (ResourceException e) {
+            assertEquals(Status.CLIENT_ERROR_NOT_FOUND, client.getStatus());
+        }
+    }
+
+    @Test
+    public void testGetStatisticsWithValidCredentials() throws Exception {
+        enableSourceCache();
+        ClientResource client = getClientForUriPath(
+                RestletApplication.SOURCE_CACHE_PATH, USERNAME, SECRET);
+        JsonNode node = new ObjectMapper().readTree(client.get().getText());
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+        assertEquals(5000, node.get("max_size").asLong());
+        assertEquals("TinyLFU", node.get("admission_policy").asText());
+        assertTrue(node.get("entries").isArray());
+    }
+
+}
@@ -228,7 +228,7 @@ public class ImageResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an image to cache it
         getClientForUriPath("/" + IMAGE + "/full/full/0/native.png").get();
@@ -257,7 +257,7 @@ public class ImageResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an image
         getClientForUriPath("/" + IMAGE + "/full/full/0/native.png?cache=false").get();
@@ -436,7 +436,7 @@ public class ImageResourceTest extends ResourceTest {
                     new HashMap<>(),
                     new HashMap<>());
 
-            assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(0, TestUtil.countCachedFiles(cacheDir));
 
             // request an image to cache it
             getClientForUriPath(imagePath).get();
@@ -444,7 +444,7 @@ public class ImageResourceTest extends ResourceTest {
 
             // assert that it has been cached (there should be both an image
             // and an info)
-            assertEquals(2, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(2, TestUtil.countCachedFiles(cacheDir));
 
             // Delete the source image.
             sourceImage.delete();
@@ -458,9 +458,9 @@ public class ImageResourceTest extends ResourceTest {
             }
 
             if (purgeMissing) {
-                assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+                assertEquals(0, TestUtil.countCachedFiles(cacheDir));
             } else {
-                assertEquals(2, FileUtils.listFiles(cacheDir, null, true).size());
+                assertEquals(2, TestUtil.countCachedFiles(cacheDir));
             }
         } finally {
             FileUtils.deleteDirectory(sourceDir);
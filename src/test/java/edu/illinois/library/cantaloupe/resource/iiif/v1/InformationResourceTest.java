@@ -153,7 +153,7 @@ public class InformationResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an info to cache it
         getClientForUriPath("/" + IMAGE + "/info.json").get();
@@ -182,7 +182,7 @@ public class InformationResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an info
         getClientForUriPath("/" + IMAGE + "/info.json?cache=false").get();
@@ -262,13 +262,13 @@ public class InformationResourceTest extends ResourceTest {
         try {
             Identifier identifier = new Identifier(IMAGE);
 
-            assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(0, TestUtil.countCachedFiles(cacheDir));
 
             // request an image to cache it
             getClientForUriPath("/" + IMAGE + "/info.json").get();
 
             // assert that it has been cached
-            assertEquals(1, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(1, TestUtil.countCachedFiles(cacheDir));
             DerivativeCache cache = CacheFactory.getDerivativeCache();
             assertNotNull(cache.getImageInfo(identifier));
 
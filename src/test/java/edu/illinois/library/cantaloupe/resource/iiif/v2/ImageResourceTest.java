@@ -3,8 +3,12 @@ package edu.illinois.library.cantaloupe.resource.iiif.v2;
 import edu.illinois.library.cantaloupe.RestletApplication;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
 import edu.illinois.library.cantaloupe.operation.OperationList;
 import edu.illinois.library.cantaloupe.operation.Orientation;
+import edu.illinois.library.cantaloupe.processor.MemoryBudget;
 import edu.illinois.library.cantaloupe.resource.ResourceTest;
 import edu.illinois.library.cantaloupe.test.TestUtil;
 import org.apache.commons.io.FileUtils;
@@ -14,13 +18,19 @@ import org.restlet.data.ChallengeResponse;
 import org.restlet.data.ChallengeScheme;
 import org.restlet.data.Disposition;
 import org.restlet.data.Header;
+import org.restlet.data.Range;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 
 import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -237,7 +247,7 @@ public class ImageResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an image to cache it
         getClientForUriPath("/" + IMAGE + "/full/full/0/default.png").get();
@@ -266,7 +276,7 @@ public class ImageResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an image
         getClientForUriPath("/" + IMAGE + "/full/full/0/default.png?cache=false").get();
@@ -275,6 +285,67 @@ public class ImageResourceTest extends ResourceTest {
         assertFalse(imageCacheFolder.exists());
     }
 
+    @Test
+    public void testConditionalGetWithMatchingETag() throws Exception {
+        ClientResource client = getClientForUriPath(
+                "/" + IMAGE + "/full/full/0/default.jpg");
+        client.get();
+        final Tag tag = client.getResponseEntity().getTag();
+        assertNotNull(tag);
+        assertFalse(tag.isWeak());
+        assertNotNull(client.getResponseEntity().getModificationDate());
+
+        client = getClientForUriPath("/" + IMAGE + "/full/full/0/default.jpg");
+        client.getConditions().setNoneMatch(Collections.singletonList(tag));
+        client.get();
+        assertEquals(Status.REDIRECTION_NOT_MODIFIED, client.getStatus());
+    }
+
+    @Test
+    public void testConditionalGetWithNonMatchingETag() throws Exception {
+        ClientResource client = getClientForUriPath(
+                "/" + IMAGE + "/full/full/0/default.jpg");
+        client.getConditions().setNoneMatch(
+                Collections.singletonList(new Tag("bogus", false)));
+        client.get();
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+    }
+
+    @Test
+    public void testETagOfCachedImageMatchesETagOfUncachedImage()
+            throws Exception {
+        final File cacheDir = new File(TestUtil.getTempFolder(), "cache");
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.DERIVATIVE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheDir.getAbsolutePath());
+        config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, false);
+        try {
+            final String imagePath = "/" + IMAGE + "/full/full/0/default.png";
+            // cache miss
+            ClientResource client = getClientForUriPath(imagePath);
+            client.get();
+            client.getResponseEntity().exhaust();
+            final Tag missTag = client.getResponseEntity().getTag();
+            assertNotNull(missTag);
+
+            // cache hit
+            client = getClientForUriPath(imagePath);
+            client.get();
+            assertEquals(missTag, client.getResponseEntity().getTag());
+            assertNotNull(client.getResponseEntity().getModificationDate());
+
+            client = getClientForUriPath(imagePath);
+            client.getConditions().setNoneMatch(
+                    Collections.singletonList(missTag));
+            client.get();
+            assertEquals(Status.REDIRECTION_NOT_MODIFIED, client.getStatus());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
     @Test
     public void testContentDispositionHeader() throws Exception {
         // no header
@@ -471,7 +542,7 @@ public class ImageResourceTest extends ResourceTest {
                     new HashMap<>(),
                     new HashMap<>());
 
-            assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(0, TestUtil.countCachedFiles(cacheDir));
 
             // request an image to cache it
             getClientForUriPath(imagePath).get();
@@ -479,7 +550,7 @@ public class ImageResourceTest extends ResourceTest {
 
             // assert that it has been cached (there should be both an image
             // and an info)
-            assertEquals(2, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(2, TestUtil.countCachedFiles(cacheDir));
 
             // Delete the source image.
             sourceImage.delete();
@@ -493,9 +564,9 @@ public class ImageResourceTest extends ResourceTest {
             }
 
             if (purgeMissing) {
-                assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+                assertEquals(0, TestUtil.countCachedFiles(cacheDir));
             } else {
-                assertEquals(2, FileUtils.listFiles(cacheDir, null, true).size());
+                assertEquals(2, TestUtil.countCachedFiles(cacheDir));
             }
         } finally {
             FileUtils.deleteDirectory(sourceDir);
@@ -509,6 +580,129 @@ public class ImageResourceTest extends ResourceTest {
      *
      * @throws Exception
      */
+    @Test
+    public void testRangeOfPassthroughImage() throws Exception {
+        final byte[] expected = Files.readAllBytes(
+                TestUtil.getImage(IMAGE).toPath());
+        ClientResource client = getClientForUriPath(
+                "/" + IMAGE + "/full/full/0/default.jpg");
+        client.getRanges().add(new Range(100, 50));
+        client.get();
+        assertEquals(Status.SUCCESS_PARTIAL_CONTENT, client.getStatus());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        client.getResponseEntity().write(os);
+        assertArrayEquals(Arrays.copyOfRange(expected, 100, 150),
+                os.toByteArray());
+    }
+
+    @Test
+    public void testRangeOfCachedImageWithCacheMetricsEnabled()
+            throws Exception {
+        final File cacheDir = new File(TestUtil.getTempFolder(), "cache");
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.DERIVATIVE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheDir.getAbsolutePath());
+        config.setProperty(Key.CACHE_METRICS_ENABLED, true);
+        try {
+            final String imagePath = "/" + IMAGE + "/full/full/0/default.png";
+            ClientResource client = getClientForUriPath(imagePath);
+            client.get();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            client.getResponseEntity().write(os);
+            final byte[] expected = os.toByteArray();
+
+            // Now it's a cache hit, which is a FileInputStream that can be
+            // ranged as long as the metrics decorator doesn't hide it.
+            client = getClientForUriPath(imagePath);
+            client.getRanges().add(new Range(100, 50));
+            client.get();
+            assertEquals(Status.SUCCESS_PARTIAL_CONTENT, client.getStatus());
+
+            os = new ByteArrayOutputStream();
+            client.getResponseEntity().write(os);
+            assertArrayEquals(Arrays.copyOfRange(expected, 100, 150),
+                    os.toByteArray());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testCachedImageIsServedWhileMemoryBudgetIsExhausted()
+            throws Exception {
+        final File cacheDir = new File(TestUtil.getTempFolder(), "cache");
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.DERIVATIVE_CACHE_ENABLED, true);
+        config.setProperty(Key.DERIVATIVE_CACHE, "FilesystemCache");
+        config.setProperty(Key.FILESYSTEMCACHE_PATHNAME,
+                cacheDir.getAbsolutePath());
+        // Large enough not to be exempt from the budget.
+        final String imagePath = "/" + IMAGE + "/full/2000,/0/default.jpg";
+        try {
+            getClientForUriPath(imagePath).get();
+
+            config.setProperty(Key.PROCESSOR_MEMORY_BUDGET, 64 * 1024 * 1024);
+            config.setProperty(Key.PROCESSOR_MEMORY_BUDGET_MAX_WAIT, 0);
+            try (MemoryBudget.Permit permit = MemoryBudget.getInstance().
+                    tryAcquire(new OperationList(new Identifier("huge"), Format.JPG),
+                            new Info(100000, 100000, Format.JPG))) {
+                assertEquals(64 * 1024 * 1024, permit.getNumBytes());
+
+                ClientResource client = getClientForUriPath(imagePath);
+                client.get();
+                assertEquals(Status.SUCCESS_OK, client.getStatus());
+            }
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testUncachedImageIsRejectedWhileMemoryBudgetIsExhausted()
+            throws Exception {
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.PROCESSOR_MEMORY_BUDGET, 64 * 1024 * 1024);
+        config.setProperty(Key.PROCESSOR_MEMORY_BUDGET_MAX_WAIT, 0);
+        try (MemoryBudget.Permit permit = MemoryBudget.getInstance().
+                tryAcquire(new OperationList(new Identifier("huge"), Format.JPG),
+                        new Info(100000, 100000, Format.JPG))) {
+            assertEquals(64 * 1024 * 1024, permit.getNumBytes());
+
+            // Large enough not to be exempt from the budget.
+            ClientResource client = getClientForUriPath(
+                    "/" + IMAGE + "/full/2000,/0/default.jpg");
+            try {
+                client.get();
+                fail("Expected exception");
+            } catch (ResourceException e) {
+                assertEquals(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                        client.getStatus());
+            }
+        }
+    }
+
+    @Test
+    public void testRangeWithNonMatchingIfRange() throws Exception {
+        ClientResource client = getClientForUriPath(
+                "/" + IMAGE + "/full/full/0/default.jpg");
+        client.getRanges().add(new Range(100, 50));
+        client.getConditions().setRangeTag(new Tag("bogus", false));
+        client.get();
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+    }
+
+    @Test
+    public void testRangeOfProcessedImageIsIgnored() throws Exception {
+        ClientResource client = getClientForUriPath(
+                "/" + IMAGE + "/full/full/0/default.png");
+        client.getRanges().add(new Range(100, 50));
+        client.get();
+        assertEquals(Status.SUCCESS_OK, client.getStatus());
+    }
+
     @Test
     public void testResolverProcessorCompatibility() throws Exception {
         Configuration config = Configuration.getInstance();
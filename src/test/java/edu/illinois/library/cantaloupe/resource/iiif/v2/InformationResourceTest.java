@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.illinois.library.cantaloupe.RestletApplication;
 import edu.illinois.library.cantaloupe.cache.CacheFactory;
 import edu.illinois.library.cantaloupe.cache.DerivativeCache;
+import edu.illinois.library.cantaloupe.cache.NegativeResultCache;
 import edu.illinois.library.cantaloupe.config.Configuration;
 import edu.illinois.library.cantaloupe.config.Key;
 import edu.illinois.library.cantaloupe.image.Identifier;
@@ -156,7 +157,7 @@ public class InformationResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an info to cache it
         getClientForUriPath("/" + IMAGE + "/info.json").get();
@@ -185,7 +186,7 @@ public class InformationResourceTest extends ResourceTest {
         config.setProperty(Key.CACHE_SERVER_TTL, 10);
         config.setProperty(Key.CACHE_SERVER_RESOLVE_FIRST, true);
 
-        assertEquals(0, FileUtils.listFiles(cacheFolder, null, true).size());
+        assertEquals(0, TestUtil.countCachedFiles(cacheFolder));
 
         // request an info
         getClientForUriPath("/" + IMAGE + "/info.json?cache=false").get();
@@ -265,13 +266,13 @@ public class InformationResourceTest extends ResourceTest {
         try {
             Identifier identifier = new Identifier(IMAGE);
 
-            assertEquals(0, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(0, TestUtil.countCachedFiles(cacheDir));
 
             // request an image to cache it
             getClientForUriPath("/" + IMAGE + "/info.json").get();
 
             // assert that it has been cached
-            assertEquals(1, FileUtils.listFiles(cacheDir, null, true).size());
+            assertEquals(1, TestUtil.countCachedFiles(cacheDir));
             DerivativeCache cache = CacheFactory.getDerivativeCache();
             assertNotNull(cache.getImageInfo(identifier));
 
@@ -307,6 +308,48 @@ public class InformationResourceTest extends ResourceTest {
         }
     }
 
+    @Test
+    public void testNotFoundIsCachedWhenNegativeCacheIsEnabled()
+            throws Exception {
+        File sourceDir = new File(TestUtil.getTempFolder(), "source");
+        FileUtils.deleteQuietly(sourceDir);
+        sourceDir.mkdir();
+
+        final Configuration config = Configuration.getInstance();
+        config.setProperty(Key.FILESYSTEMRESOLVER_PATH_PREFIX,
+                sourceDir.getAbsolutePath() + "/");
+        config.setProperty(Key.NEGATIVE_CACHE_TTL, 60);
+
+        try {
+            ClientResource client = getClientForUriPath("/" + IMAGE + "/info.json");
+            try {
+                client.get();
+                fail("Expected exception");
+            } catch (ResourceException e) {
+                assertEquals(Status.CLIENT_ERROR_NOT_FOUND, client.getStatus());
+            }
+
+            // Now that the image exists, the failure is still cached.
+            FileUtils.copyFile(TestUtil.getImage(IMAGE),
+                    new File(sourceDir, IMAGE));
+            client = getClientForUriPath("/" + IMAGE + "/info.json");
+            try {
+                client.get();
+                fail("Expected exception");
+            } catch (ResourceException e) {
+                assertEquals(Status.CLIENT_ERROR_NOT_FOUND, client.getStatus());
+            }
+
+            // ...until it's purged.
+            NegativeResultCache.getInstance().purge(new Identifier(IMAGE));
+            client = getClientForUriPath("/" + IMAGE + "/info.json");
+            client.get();
+            assertEquals(Status.SUCCESS_OK, client.getStatus());
+        } finally {
+            FileUtils.deleteDirectory(sourceDir);
+        }
+    }
+
     /**
      * Checks that the server responds with HTTP 500 when a non-FileResolver is
      * used with a non-StreamProcessor.
@@ -0,0 +1,98 @@
+package edu.illinois.library.cantaloupe.resource.iiif.v2;
+
+import edu.illinois.library.cantaloupe.config.Configuration;
+import edu.illinois.library.cantaloupe.config.Key;
+import edu.illinois.library.cantaloupe.image.Format;
+import edu.illinois.library.cantaloupe.image.Identifier;
+import edu.illinois.library.cantaloupe.image.Info;
+import edu.illinois.library.cantaloupe.operation.OperationList;
+import edu.illinois.library.cantaloupe.test.BaseTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TileProfileTest extends BaseTest {
+
+    private static final Identifier IDENTIFIER = new Identifier("cats");
+
+    private TileProfile instance;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Configuration config = Configuration.getInstance();
+        config.setProperty(Key.IIIF_MIN_SIZE, 100);
+        config.setProperty(Key.IIIF_MIN_TILE_SIZE, 256);
+
+        instance = new TileProfile(new Info(1000, 800));
+    }
+
+    /* getMaxReductionFactor() */
+
+    @Test
+    public void testGetMaxReductionFactor() {
+        assertEquals(3, instance.getMaxReductionFactor());
+    }
+
+    /* getTileParameters() */
+
+    @Test
+    public void testGetTileParameters() {
+        final List<String> actual = instance.
+                getTileParameters(IDENTIFIER, Format.JPG).stream().
+                map(Parameters::toString).
+                collect(Collectors.toList());
+        assertEquals(7, actual.size());
+        assertEquals("cats/full/125,/0/default.jpg", actual.get(0));
+        assertEquals("cats/full/250,/0/default.jpg", actual.get(1));
+        assertEquals("cats/full/500,/0/default.jpg", actual.get(2));
+        assertEquals("cats/0,0,500,400/full/0/default.jpg", actual.get(3));
+        assertEquals("cats/500,0,500,400/full/0/default.jpg", actual.get(4));
+        assertEquals("cats/0,400,500,400/full/0/default.jpg", actual.get(5));
+        assertEquals("cats/500,400,500,400/full/0/default.jpg", actual.get(6));
+    }
+
+    @Test
+    public void testGetTileParametersWithSmallImage() {
+        instance = new TileProfile(new Info(64, 56));
+        final List<String> actual = instance.
+                getTileParameters(IDENTIFIER, Format.JPG).stream().
+                map(Parameters::toString).
+                collect(Collectors.toList());
+        assertEquals(1, actual.size());
+        assertEquals("cats/full/full/0/default.jpg", actual.get(0));
+    }
+
+    /* getTileSizes() */
+
+    @Test
+    public void testGetTileSizes() {
+        assertEquals(1, instance.getTileSizes().size());
+        assertTrue(instance.getTileSizes().contains(new Dimension(500, 400)));
+    }
+
+    /* newOperationLists() */
+
+    @Test
+    public void testNewOperationLists() {
+        final List<OperationList> opLists = instance.newOperationLists(
+                IDENTIFIER, Format.JPG, "http://example.org/iiif/2");
+        assertEquals(7, opLists.size());
+        for (OperationList opList : opLists) {
+            assertEquals(IDENTIFIER, opList.getIdentifier());
+            assertEquals(Format.JPG, opList.getOutputFormat());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNewOperationListsWithInvalidBaseUri() {
+        instance.newOperationLists(IDENTIFIER, Format.JPG, "bogus");
+    }
+
+}
@@ -40,6 +40,26 @@ public final class TestUtil {
         return allFiles.size();
     }
 
+    /**
+     * @param cacheDir FilesystemCache root directory.
+     * @return Number of files in the given directory tree, not including the
+     *         FilesystemCache index.
+     */
+    public static int countCachedFiles(File cacheDir) {
+        if (!cacheDir.exists()) {
+            return 0;
+        }
+        int count = 0;
+        for (File f : cacheDir.listFiles()) {
+            if (f.isDirectory() && !f.getName().equals("index")) {
+                count += countFiles(f);
+            } else if (f.isFile()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     public static File getCurrentWorkingDirectory() throws IOException {
         File directory = new File(".");
         return directory.getCanonicalFile();